@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import com.sludev.commons.vfs2.provider.s3.SS3DeleteBatches;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Deletes many objects with multi-object delete requests of up to 1000 keys
+ * each, with several requests in flight at once.
+ *
+ * Failures are reported per key rather than failing the whole delete.
+ *
+ * @author Kervin Pierre
+ */
+class MinIOBulkDelete
+{
+    /**
+     * Most keys a single multi-object delete request accepts.
+     */
+    static final int MAX_DELETE_KEYS = SS3DeleteBatches.MAX_DELETE_KEYS;
+
+    private final MinIOFileSystem fileSystem;
+    private final ExecutorService executor;
+    private final int concurrency;
+
+    /**
+     * The outcome of a bulk delete.
+     */
+    static final class Outcome
+    {
+        private final int deleted;
+        private final Map<String, String> failures;
+
+        private Outcome(int deleted, Map<String, String> failures)
+        {
+            this.deleted = deleted;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return The number of keys deleted
+         */
+        int getDeleted()
+        {
+            return deleted;
+        }
+
+        /**
+         * @return The keys that could not be deleted, mapped to the reason
+         */
+        Map<String, String> getFailures()
+        {
+            return failures;
+        }
+    }
+
+    /**
+     * Creates a new bulk delete.
+     *
+     * @param fileSystem The file-system requests are made through
+     * @param executor The executor delete requests run on
+     * @param concurrency The most delete requests in flight at once
+     */
+    MinIOBulkDelete(MinIOFileSystem fileSystem, ExecutorService executor, int concurrency)
+    {
+        this.fileSystem = fileSystem;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Delete every object under a prefix.  Delete requests are sent as the
+     * listing pages arrive, without looking at each object first.
+     *
+     * @param bucket The bucket
+     * @param prefix The prefix.  An empty prefix deletes the whole bucket content.
+     * @return The outcome
+     * @throws IOException if the listing failed or the delete was interrupted.
+     *         Delete requests already sent are waited for first.
+     */
+    Outcome deletePrefix(String bucket, String prefix) throws IOException
+    {
+        SS3DeleteBatches batches = newBatches(bucket);
+        MinIOPagedListing listing = new MinIOPagedListing(fileSystem, bucket, prefix, true, MAX_DELETE_KEYS);
+
+        try
+        {
+            for( List<Item> page = listing.nextPage(); page != null; page = listing.nextPage() )
+            {
+                for( Item currItem : page )
+                {
+                    batches.add(currItem.objectName());
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            if( ex instanceof InterruptedIOException == false )
+            {
+                batches.await();
+            }
+
+            throw ex;
+        }
+
+        batches.await();
+
+        return new Outcome(batches.getDeleted(), batches.getFailures());
+    }
+
+    /**
+     * Delete a set of keys.
+     *
+     * @param bucket The bucket
+     * @param keys The keys
+     * @return The outcome
+     * @throws InterruptedIOException if interrupted
+     */
+    Outcome deleteKeys(String bucket, Collection<String> keys) throws InterruptedIOException
+    {
+        SS3DeleteBatches batches = newBatches(bucket);
+
+        for( String currKey : keys )
+        {
+            batches.add(currKey);
+        }
+
+        batches.await();
+
+        return new Outcome(batches.getDeleted(), batches.getFailures());
+    }
+
+    /**
+     * The batches of a bulk delete, sent with multi-object delete requests.
+     */
+    private SS3DeleteBatches newBatches(final String bucket)
+    {
+        return new SS3DeleteBatches(bucket, executor, concurrency, keys ->
+            {
+                final List<DeleteObject> objects = new ArrayList<>(keys.size());
+                for( String currKey : keys )
+                {
+                    objects.add(new DeleteObject(currKey));
+                }
+
+                // The result is lazy, the request is only sent when it is read.
+                // So it is read inside the call, and a retry starts it over.
+                return fileSystem.execute(bucket, c ->
+                    {
+                        Map<String, String> res = new HashMap<>();
+                        for( Result<DeleteError> currResult : c.removeObjects(RemoveObjectsArgs.builder()
+                                .bucket(bucket).objects(objects).build()) )
+                        {
+                            DeleteError currError = currResult.get();
+                            res.put(currError.objectName(),
+                                    String.format("%s : %s", currError.errorCode(), currError.message()));
+                        }
+
+                        return res;
+                    });
+            });
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
+import io.minio.GetObjectArgs;
+import io.minio.ObjectStat;
+import io.minio.PutObjectArgs;
+import io.minio.StatObjectArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Concatenates objects into one object on the server, with a compose request.
+ *
+ * A compose request needs every source but the last to be at least 5MB.  Runs
+ * of smaller sources are read and uploaded again as temporary objects of at
+ * least that size, together with the head of the next source if needed.  So
+ * only small objects travel through the client, never more than 10MB per
+ * temporary object.  The temporary objects are deleted afterwards.
+ *
+ * @author Kervin Pierre
+ */
+class MinIOComposer
+{
+    private static final Logger log = LoggerFactory.getLogger(MinIOComposer.class);
+
+    /**
+     * Smallest source, other than the last, a compose request accepts.
+     */
+    static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    private static final String USER_METADATA_PREFIX = "x-amz-meta-";
+
+    private final MinIOFileSystem fileSystem;
+
+    /**
+     * A source object.
+     */
+    static final class Source
+    {
+        private final String bucket;
+        private final String key;
+        private final String etag;
+
+        /**
+         * @param bucket The bucket
+         * @param key The key
+         * @param etag The ETag the object must still have, or null for any
+         */
+        Source(String bucket, String key, String etag)
+        {
+            this.bucket = bucket;
+            this.key = key;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * A range of a source object.
+     */
+    static final class Range
+    {
+        private final ObjectStat stat;
+        private final long offset;
+        private final long length;
+
+        private Range(ObjectStat stat, long offset, long length)
+        {
+            this.stat = stat;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        ObjectStat getStat()
+        {
+            return stat;
+        }
+
+        long getOffset()
+        {
+            return offset;
+        }
+
+        long getLength()
+        {
+            return length;
+        }
+    }
+
+    /**
+     * A source of the compose request.  Either a single range of a source
+     * object, or ranges that are uploaded together as a temporary object first.
+     */
+    static final class Piece
+    {
+        private final boolean staged;
+        private final List<Range> ranges = new ArrayList<>();
+        private long length;
+        private String stagedKey;
+
+        private Piece(boolean staged)
+        {
+            this.staged = staged;
+        }
+
+        private Piece add(Range range)
+        {
+            ranges.add(range);
+            length += range.length;
+
+            return this;
+        }
+
+        boolean isStaged()
+        {
+            return staged;
+        }
+
+        List<Range> getRanges()
+        {
+            return ranges;
+        }
+
+        long getLength()
+        {
+            return length;
+        }
+    }
+
+    /**
+     * Creates a new composer.
+     *
+     * @param fileSystem The file-system requests are made through
+     */
+    MinIOComposer(MinIOFileSystem fileSystem)
+    {
+        this.fileSystem = fileSystem;
+    }
+
+    /**
+     * Concatenate objects into a target object.  The target may be one of the
+     * sources.
+     *
+     * @param bucket The target bucket
+     * @param key The target key
+     * @param sources The sources, in order
+     * @throws IOException if a source is missing or has changed, or a request
+     *         failed
+     */
+    void compose(final String bucket, final String key, List<Source> sources) throws IOException
+    {
+        compose(bucket, key, sources, null);
+    }
+
+    /**
+     * Concatenate objects into a target object.  The target may be one of the
+     * sources.
+     *
+     * @param bucket The target bucket
+     * @param key The target key
+     * @param sources The sources, in order
+     * @param template The object whose Content-Type and user metadata the target
+     *        is written with, e.g. the target as it was before, or null for none
+     * @throws IOException if a source is missing or has changed, or a request
+     *         failed
+     */
+    void compose(final String bucket, final String key, List<Source> sources, final ObjectStat template)
+            throws IOException
+    {
+        List<Piece> pieces = plan(statAll(sources));
+
+        if( pieces.isEmpty() )
+        {
+            fileSystem.execute(bucket, c -> c.putObject(withMetadata(PutObjectArgs.builder(), template)
+                    .bucket(bucket).object(key).stream(new ByteArrayInputStream(new byte[0]), 0, -1).build()));
+            return;
+        }
+
+        if( pieces.size() == 1 && pieces.get(0).staged == false )
+        {
+            ObjectStat currStat = pieces.get(0).ranges.get(0).stat;
+            if( currStat.bucketName().equals(bucket) && currStat.name().equals(key) )
+            {
+                // The target is already the whole result
+                return;
+            }
+        }
+
+        if( pieces.size() == 1 && pieces.get(0).staged )
+        {
+            // Small enough to be uploaded as the target itself
+            stage(pieces.get(0), bucket, key, template);
+            return;
+        }
+
+        String stagingPrefix = String.format("%s.compose-%s-", key, UUID.randomUUID());
+        List<String> stagedKeys = new ArrayList<>();
+        try
+        {
+            List<Callable<Void>> staging = new ArrayList<>();
+            for( final Piece currPiece : pieces )
+            {
+                if( currPiece.staged )
+                {
+                    currPiece.stagedKey = stagingPrefix + stagedKeys.size();
+                    stagedKeys.add(currPiece.stagedKey);
+
+                    staging.add(() ->
+                        {
+                            stage(currPiece, bucket, currPiece.stagedKey, null);
+                            return null;
+                        });
+                }
+            }
+
+            invokeAll(fileSystem.getUploadExecutor(), staging);
+
+            final List<ComposeSource> composeSources = new ArrayList<>(pieces.size());
+            for( Piece currPiece : pieces )
+            {
+                if( currPiece.staged )
+                {
+                    composeSources.add(ComposeSource.builder().bucket(bucket).object(currPiece.stagedKey).build());
+                    continue;
+                }
+
+                Range currRange = currPiece.ranges.get(0);
+                ComposeSource.Builder currSource = ComposeSource.builder().bucket(currRange.stat.bucketName())
+                        .object(currRange.stat.name()).matchETag(currRange.stat.etag());
+                if( currRange.length != currRange.stat.length() )
+                {
+                    currSource.offset(currRange.offset).length(currRange.length);
+                }
+
+                composeSources.add(currSource.build());
+            }
+
+            log.debug(String.format("compose() : Composing %d sources into '%s/%s', %d of them staged",
+                                    composeSources.size(), bucket, key, stagedKeys.size()));
+
+            ComposeObjectArgs.Builder args = ComposeObjectArgs.builder().bucket(bucket).object(key)
+                    .sources(composeSources);
+            if( template != null )
+            {
+                args.userMetadata(getUserMetadata(template));
+                if( template.contentType() != null )
+                {
+                    args.headers(Collections.singletonMap("Content-Type", template.contentType()));
+                }
+            }
+
+            fileSystem.executeTransfer(bucket, c -> c.composeObject(args.build()));
+        }
+        finally
+        {
+            if( stagedKeys.isEmpty() == false )
+            {
+                try
+                {
+                    fileSystem.getBulkDelete().deleteKeys(bucket, stagedKeys);
+                }
+                catch (IOException | RuntimeException ex)
+                {
+                    log.warn(String.format("compose() : Could not delete the staged objects of '%s/%s'",
+                                           bucket, key), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Split the sources into the pieces of the compose request.  A run of
+     * sources smaller than the minimum is staged, together with the head of
+     * the following source if that leaves enough of it to stand on its own.
+     * Otherwise the whole following source is staged as well, which is less
+     * than twice the minimum.
+     */
+    static List<Piece> plan(List<ObjectStat> stats)
+    {
+        int lastIndex = -1;
+        for( int i = 0; i < stats.size(); i++ )
+        {
+            if( stats.get(i).length() > 0 )
+            {
+                lastIndex = i;
+            }
+        }
+
+        List<Piece> res = new ArrayList<>();
+        Piece pending = null;
+        for( int i = 0; i <= lastIndex; i++ )
+        {
+            ObjectStat currStat = stats.get(i);
+            long len = currStat.length();
+            if( len == 0 )
+            {
+                continue;
+            }
+
+            boolean last = i == lastIndex;
+            if( pending == null )
+            {
+                if( len >= MIN_PART_SIZE || last )
+                {
+                    res.add(new Piece(false).add(new Range(currStat, 0, len)));
+                    continue;
+                }
+
+                pending = new Piece(true);
+            }
+            else
+            {
+                long need = MIN_PART_SIZE - pending.length;
+                long rest = len - need;
+                if( rest > 0 && (rest >= MIN_PART_SIZE || last) )
+                {
+                    res.add(pending.add(new Range(currStat, 0, need)));
+                    res.add(new Piece(false).add(new Range(currStat, need, rest)));
+                    pending = null;
+                    continue;
+                }
+            }
+
+            pending.add(new Range(currStat, 0, len));
+            if( pending.length >= MIN_PART_SIZE )
+            {
+                res.add(pending);
+                pending = null;
+            }
+        }
+
+        if( pending != null )
+        {
+            res.add(pending);
+        }
+
+        return res;
+    }
+
+    /**
+     * The user metadata of an object, keyed by header name.
+     *
+     * @param stat The object
+     * @return The user metadata, the keys starting with "x-amz-meta-"
+     */
+    static Map<String, String> getUserMetadata(ObjectStat stat)
+    {
+        Map<String, String> res = new HashMap<>();
+        for( Map.Entry<String, List<String>> currHeader : stat.httpHeaders().entrySet() )
+        {
+            if( currHeader.getKey().toLowerCase(Locale.ROOT).startsWith(USER_METADATA_PREFIX)
+                    && currHeader.getValue().isEmpty() == false )
+            {
+                res.put(currHeader.getKey(), currHeader.getValue().get(0));
+            }
+        }
+
+        return res;
+    }
+
+    private static PutObjectArgs.Builder withMetadata(PutObjectArgs.Builder args, ObjectStat template)
+    {
+        if( template != null )
+        {
+            args.userMetadata(getUserMetadata(template));
+            if( template.contentType() != null )
+            {
+                args.contentType(template.contentType());
+            }
+        }
+
+        return args;
+    }
+
+    /**
+     * Read the ranges of a piece and upload them as one object.  The ranges are
+     * read again if the upload is retried.
+     */
+    private void stage(final Piece piece, final String bucket, final String key, final ObjectStat template)
+            throws IOException
+    {
+        fileSystem.executeTransfer(bucket, c ->
+            {
+                byte[] buffer = new byte[(int)piece.length];
+
+                int pos = 0;
+                for( Range currRange : piece.ranges )
+                {
+                    try( InputStream in = c.getObject(GetObjectArgs.builder()
+                            .bucket(currRange.stat.bucketName()).object(currRange.stat.name())
+                            .offset(currRange.offset).length(currRange.length)
+                            .matchETag(currRange.stat.etag()).build()) )
+                    {
+                        int end = pos + (int)currRange.length;
+                        while( pos < end )
+                        {
+                            int read = in.read(buffer, pos, end - pos);
+                            if( read < 0 )
+                            {
+                                throw new EOFException(String.format("'%s/%s' ended early",
+                                        currRange.stat.bucketName(), currRange.stat.name()));
+                            }
+
+                            pos += read;
+                        }
+                    }
+                }
+
+                return c.putObject(withMetadata(PutObjectArgs.builder(), template).bucket(bucket).object(key)
+                        .stream(new ByteArrayInputStream(buffer), buffer.length, -1).build());
+            });
+    }
+
+    /**
+     * Stat the sources, several at a time.
+     */
+    private List<ObjectStat> statAll(List<Source> sources) throws IOException
+    {
+        List<Callable<ObjectStat>> stats = new ArrayList<>(sources.size());
+        for( final Source currSource : sources )
+        {
+            stats.add(() -> fileSystem.execute(currSource.bucket, c ->
+                {
+                    StatObjectArgs.Builder args = StatObjectArgs.builder().bucket(currSource.bucket)
+                            .object(currSource.key);
+                    if( currSource.etag != null )
+                    {
+                        args.matchETag(currSource.etag);
+                    }
+
+                    return c.statObject(args.build());
+                }));
+        }
+
+        return invokeAll(fileSystem.getFanOutExecutor(), stats);
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks)
+            throws IOException
+    {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try
+        {
+            for( Callable<T> currTask : tasks )
+            {
+                futures.add(executor.submit(currTask));
+            }
+
+            List<T> res = new ArrayList<>(futures.size());
+            for( Future<T> currFuture : futures )
+            {
+                res.add(currFuture.get());
+            }
+
+            return res;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+
+            InterruptedIOException res = new InterruptedIOException("Compose interrupted");
+            res.initCause(ex);
+
+            throw res;
+        }
+        catch (ExecutionException ex)
+        {
+            if( ex.getCause() instanceof IOException )
+            {
+                throw (IOException)ex.getCause();
+            }
+
+            throw new IOException("Compose failed", ex.getCause());
+        }
+        finally
+        {
+            for( Future<T> currFuture : futures )
+            {
+                currFuture.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import com.sludev.commons.vfs2.provider.s3.SS3Executors;
+import com.sludev.commons.vfs2.provider.s3.SS3Throttle;
+import io.minio.MinioClient;
+import io.minio.errors.ServerException;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spreads requests across the nodes of a distributed MinIO cluster.
+ *
+ * Each endpoint has its own client.  A request goes to the healthy endpoint with
+ * the lowest score, the number of requests it has outstanding times its recent
+ * latency.  So idle nodes are preferred, and among busy ones the fast ones get
+ * more of the load.  Latency is sampled from small requests only, up to the
+ * response headers, since the time of a transfer grows with its size rather
+ * than with how loaded the node is.
+ *
+ * An endpoint that fails several requests in a row, with connection errors or
+ * server errors, is ejected and gets no requests for a while.  The ejection time
+ * doubles each time it is ejected again without a success in between.  Health
+ * checks, if started, probe each node's liveness endpoint and eject or readmit
+ * it without waiting for requests to fail.  If every endpoint is ejected,
+ * requests still go to the one due back soonest.
+ *
+ * @author Kervin Pierre
+ */
+public class MinIOEndpointBalancer
+{
+    private static final Logger log = LoggerFactory.getLogger(MinIOEndpointBalancer.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_EJECTION_TIME_MS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_HEALTH_CHECK_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The MinIO server's liveness check.
+     */
+    private static final String HEALTH_PATH = "/minio/health/live";
+
+    /**
+     * Weight of the newest sample in the latency average.
+     */
+    private static final double LATENCY_DECAY = 0.2;
+
+    /**
+     * Longest ejection, as a multiple of the ejection time.
+     */
+    private static final int MAX_EJECTION_MULTIPLIER = 8;
+
+    private final List<Endpoint> endpoints;
+    private final int failureThreshold;
+    private final long ejectionTime;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ScheduledExecutorService healthExecutor;
+    private OkHttpClient healthClient;
+
+    /**
+     * Creates a balancer.
+     *
+     * @param urls The endpoint URLs
+     * @param clients The client for each endpoint, in the same order
+     * @param failureThreshold The number of failures in a row that ejects an endpoint
+     * @param ejectionTime How long an endpoint is first ejected for, in milliseconds
+     */
+    public MinIOEndpointBalancer(List<String> urls, List<MinioClient> clients, int failureThreshold,
+                                 long ejectionTime)
+    {
+        if( urls.isEmpty() || urls.size() != clients.size() )
+        {
+            throw new IllegalArgumentException(
+                    String.format("Need one client per endpoint, got %d endpoints and %d clients",
+                                  urls.size(), clients.size()));
+        }
+
+        List<Endpoint> res = new ArrayList<>();
+        for( int i = 0; i < urls.size(); i++ )
+        {
+            res.add(new Endpoint(urls.get(i), clients.get(i)));
+        }
+
+        this.endpoints = Collections.unmodifiableList(res);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.ejectionTime = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ejectionTime));
+    }
+
+    /**
+     * Make a small request with the client of the best endpoint.  Its time is a
+     * latency sample.
+     *
+     * @param <T> The result type
+     * @param call The request
+     * @return The request's result
+     * @throws Exception the request's failure
+     */
+    public <T> T execute(SS3Throttle.Call<MinioClient, T> call) throws Exception
+    {
+        return execute(null, true, call);
+    }
+
+    /**
+     * Make a request.
+     *
+     * @param <T> The result type
+     * @param client The client of the endpoint to use, e.g. the one a paged listing
+     *        is bound to, or null for the best endpoint
+     * @param timed Whether the request's time is a latency sample.  It should not
+     *        be for transfers of content, or for requests that take a while for
+     *        any other reason than the node's load.
+     * @param call The request
+     * @return The request's result
+     * @throws Exception the request's failure
+     */
+    public <T> T execute(MinioClient client, boolean timed, SS3Throttle.Call<MinioClient, T> call)
+            throws Exception
+    {
+        Endpoint endpoint = client == null ? select() : getEndpoint(client);
+
+        endpoint.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        try
+        {
+            T res = call.call(endpoint.client);
+            endpoint.succeeded(timed ? System.nanoTime() - start : -1);
+
+            return res;
+        }
+        catch (Exception ex)
+        {
+            // A request given up on, e.g. a hedged read that lost, says nothing about the node
+            if( Thread.currentThread().isInterrupted() )
+            {
+                throw ex;
+            }
+
+            if( isEndpointFailure(ex) )
+            {
+                endpoint.failed();
+            }
+            else
+            {
+                // The node answered, it is only the request that failed
+                endpoint.succeeded(timed ? System.nanoTime() - start : -1);
+            }
+
+            throw ex;
+        }
+        finally
+        {
+            endpoint.outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * The client of the best endpoint right now, for requests that are not made
+     * through <code>execute()</code>.
+     *
+     * @return The client
+     */
+    public MinioClient getClient()
+    {
+        return select().client;
+    }
+
+    /**
+     * The clients of all the endpoints.
+     *
+     * @return The clients, in endpoint order
+     */
+    public List<MinioClient> getClients()
+    {
+        List<MinioClient> res = new ArrayList<>();
+        for( Endpoint currEndpoint : endpoints )
+        {
+            res.add(currEndpoint.client);
+        }
+
+        return res;
+    }
+
+    /**
+     * The endpoints not currently ejected.
+     *
+     * @return The endpoint URLs
+     */
+    public List<String> getHealthyEndpoints()
+    {
+        long now = System.nanoTime();
+
+        List<String> res = new ArrayList<>();
+        for( Endpoint currEndpoint : endpoints )
+        {
+            if( currEndpoint.isAvailable(now) )
+            {
+                res.add(currEndpoint.url);
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Start probing the endpoints in the background.  Does nothing if only one
+     * endpoint is balanced, or if already started.
+     *
+     * @param interval The time between probes of an endpoint, in milliseconds
+     * @param timeout How long a probe may take, in milliseconds
+     */
+    public void startHealthChecks(long interval, long timeout)
+    {
+        if( endpoints.size() < 2 || interval <= 0 )
+        {
+            return;
+        }
+
+        lock.lock();
+        try
+        {
+            if( healthExecutor != null )
+            {
+                return;
+            }
+
+            healthClient = new OkHttpClient.Builder()
+                    .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+                    .callTimeout(timeout, TimeUnit.MILLISECONDS)
+                    .retryOnConnectionFailure(false)
+                    .build();
+            healthExecutor = SS3Executors.newScheduledExecutor("minio-health");
+            healthExecutor.scheduleWithFixedDelay(this::checkHealth, interval, interval,
+                                                  TimeUnit.MILLISECONDS);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop the health checks.
+     */
+    public void close()
+    {
+        lock.lock();
+        try
+        {
+            if( healthExecutor != null )
+            {
+                healthExecutor.shutdownNow();
+                healthExecutor = null;
+
+                healthClient.dispatcher().executorService().shutdown();
+                healthClient.connectionPool().evictAll();
+                healthClient = null;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Connection errors and server errors count against the endpoint.  Error
+     * responses, e.g. a missing key, mean the node is up.
+     */
+    static boolean isEndpointFailure(Exception ex)
+    {
+        return ex instanceof IOException || ex instanceof ServerException;
+    }
+
+    private Endpoint getEndpoint(MinioClient client)
+    {
+        for( Endpoint currEndpoint : endpoints )
+        {
+            if( currEndpoint.client == client )
+            {
+                return currEndpoint;
+            }
+        }
+
+        throw new IllegalArgumentException("The client is not one of the balanced endpoints");
+    }
+
+    private Endpoint select()
+    {
+        if( endpoints.size() == 1 )
+        {
+            return endpoints.get(0);
+        }
+
+        long now = System.nanoTime();
+
+        // Start at a random endpoint so ties are spread out
+        int first = ThreadLocalRandom.current().nextInt(endpoints.size());
+
+        Endpoint res = null;
+        Endpoint nextBack = null;
+        double resScore = Double.MAX_VALUE;
+        for( int i = 0; i < endpoints.size(); i++ )
+        {
+            Endpoint currEndpoint = endpoints.get((first + i) % endpoints.size());
+
+            if( currEndpoint.isAvailable(now) == false )
+            {
+                if( nextBack == null || currEndpoint.ejectedUntil < nextBack.ejectedUntil )
+                {
+                    nextBack = currEndpoint;
+                }
+
+                continue;
+            }
+
+            double currScore = currEndpoint.getScore();
+            if( currScore < resScore )
+            {
+                res = currEndpoint;
+                resScore = currScore;
+            }
+        }
+
+        return res != null ? res : nextBack;
+    }
+
+    private void checkHealth()
+    {
+        OkHttpClient currClient;
+        lock.lock();
+        try
+        {
+            currClient = healthClient;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if( currClient == null )
+        {
+            return;
+        }
+
+        for( Endpoint currEndpoint : endpoints )
+        {
+            HttpUrl url = getHealthUrl(currEndpoint.url);
+            if( url == null )
+            {
+                continue;
+            }
+
+            boolean live;
+            try( Response resp = currClient.newCall(new Request.Builder().url(url).get().build()).execute() )
+            {
+                live = resp.isSuccessful();
+            }
+            catch (IOException ex)
+            {
+                log.debug(String.format("checkHealth() : Probe of '%s' failed", currEndpoint.url), ex);
+                live = false;
+            }
+
+            if( live )
+            {
+                currEndpoint.readmit();
+            }
+            else
+            {
+                currEndpoint.eject();
+            }
+        }
+    }
+
+    private static HttpUrl getHealthUrl(String endpoint)
+    {
+        HttpUrl res = HttpUrl.parse(endpoint);
+        if( res == null )
+        {
+            // The MinIO client takes bare host names, and uses HTTPS for them
+            res = HttpUrl.parse("https://" + endpoint);
+        }
+
+        if( res == null )
+        {
+            return null;
+        }
+
+        return res.newBuilder().encodedPath(HEALTH_PATH).build();
+    }
+
+    /**
+     * The state of a single node.
+     */
+    private final class Endpoint
+    {
+        private final String url;
+        private final MinioClient client;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile double latency;
+        private volatile long ejectedUntil;
+        private volatile boolean ejected;
+        private int failures;
+        private int ejections;
+
+        Endpoint(String url, MinioClient client)
+        {
+            this.url = url;
+            this.client = client;
+        }
+
+        boolean isAvailable(long now)
+        {
+            return ejected == false || now - ejectedUntil >= 0;
+        }
+
+        /**
+         * Outstanding requests, counting the one about to be sent, times the
+         * average latency in milliseconds.  Endpoints without samples yet count
+         * as fast so they get tried.
+         */
+        double getScore()
+        {
+            return (outstanding.get() + 1) * (1 + latency / TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        /**
+         * @param elapsed The request's time in nanoseconds, or -1 if it is not a
+         *        latency sample
+         */
+        void succeeded(long elapsed)
+        {
+            lock.lock();
+            try
+            {
+                if( elapsed >= 0 )
+                {
+                    latency = latency == 0 ? elapsed : latency + LATENCY_DECAY * (elapsed - latency);
+                }
+
+                failures = 0;
+                ejections = 0;
+                ejected = false;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        void failed()
+        {
+            lock.lock();
+            try
+            {
+                failures++;
+                if( failures >= failureThreshold )
+                {
+                    eject();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        void eject()
+        {
+            lock.lock();
+            try
+            {
+                long now = System.nanoTime();
+                if( ejected && now - ejectedUntil < 0 )
+                {
+                    return;
+                }
+
+                long currTime = ejectionTime * Math.min(MAX_EJECTION_MULTIPLIER, 1L << Math.min(ejections, 30));
+                ejectedUntil = now + currTime;
+                ejected = true;
+                ejections++;
+                failures = 0;
+
+                log.warn(String.format("eject() : Endpoint '%s' is failing, ejected for %dms",
+                                       url, TimeUnit.NANOSECONDS.toMillis(currTime)));
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        void readmit()
+        {
+            lock.lock();
+            try
+            {
+                if( ejected )
+                {
+                    log.info(String.format("readmit() : Endpoint '%s' is live again", url));
+                }
+
+                ejected = false;
+                failures = 0;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+}
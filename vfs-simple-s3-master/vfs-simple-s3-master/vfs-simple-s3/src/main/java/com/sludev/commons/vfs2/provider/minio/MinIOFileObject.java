@@ -18,30 +18,46 @@ package com.sludev.commons.vfs2.provider.minio;
 
 
 import com.sludev.commons.vfs2.provider.s3.SS3OutputStream;
+import com.sludev.commons.vfs2.provider.s3.SS3Publisher;
 import io.minio.*;
 import io.minio.errors.*;
 import io.minio.messages.Item;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelector;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.NameScope;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
 import org.apache.commons.vfs2.provider.URLFileName;
+import org.apache.commons.vfs2.provider.UriParser;
+import org.apache.commons.vfs2.util.FileObjectUtils;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 /**
  * The main FileObject class in this provider.  It holds most of the API callbacks
@@ -54,8 +70,10 @@ public class MinIOFileObject extends AbstractFileObject
     private static final Logger log = LoggerFactory.getLogger(MinIOFileObject.class);
 
     private final MinIOFileSystem fileSystem;
-    private InputStream currBlob;
-   // private ObjectMetadata currBlobProperties;
+    private BlobProperties currBlobProperties;
+
+    // Seeded from the parent's listing, so attaching needs no request
+    private FileType listedType;
 
     /**
      * Creates a new FileObject for use with a remote S3 file or folder.
@@ -123,20 +141,19 @@ public class MinIOFileObject extends AbstractFileObject
     @Override
     protected void doAttach() throws Exception
     {
+        if( listedType != null )
+        {
+            // The listing already told us what this is
+            return;
+        }
+
         Pair<String, String> path = getContainerAndPath();
         
         try
         {
-            // Check the container.  Force a network call so we can fail-fast
-            //boolean res = fileSystem.getClient().doesBucketExist(path.getLeft()); 
-            if( objectExists(path.getLeft(), path.getRight()) )
-            {
-                currBlob = fileSystem.getClient().getObject(path.getLeft(), path.getRight());
-            }
-            else
-            {
-                currBlob = null;
-            }
+            // Force a network call so we can fail-fast.  Content is only
+            // fetched when read.
+            currBlobProperties = BlobProperties.of(getObjectStat(path.getLeft(), path.getRight()));
         }
         catch (RuntimeException ex)
         {
@@ -147,29 +164,40 @@ public class MinIOFileObject extends AbstractFileObject
         }
     }
     
-    private boolean objectExists( String cont, String path )
+    /**
+     * Get an object's existence, size, ETag and last-modified time with a single
+     * HEAD request.
+     * 
+     * @return The object's metadata, or null if there is no such object
+     * @throws IOException if the request failed
+     */
+    private ObjectStat getObjectStat( String cont, String path ) throws IOException
     {
-        boolean res = false;
-        
-        try 
+        if( path.equals("/") )
         {
-            //S3Object object = fileSystem.getClient().getObject(cont, path);
+            // The bucket root is never an object
+            return null;
+        }
 
-            fileSystem.getClient().getObject(GetObjectArgs.builder().object(path).build());
-            res = true;
+        try 
+        {
+            return fileSystem.execute(cont,
+                    c -> c.statObject(StatObjectArgs.builder().bucket(cont).object(path).build()));
         } 
-        catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidBucketNameException | InvalidKeyException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException | IOException ex)
+        catch (IOException ex)
         {
-            String errorCode = ex.getMessage();
-            /*if (!errorCode.equals("NoSuchKey"))
+            if( ex.getCause() instanceof ErrorResponseException )
             {
-                throw ex;
-            }*/
+                ErrorCode code = MinIOFileSystem.getErrorCode((ErrorResponseException)ex.getCause());
+                if( code == ErrorCode.NO_SUCH_KEY || code == ErrorCode.NO_SUCH_OBJECT
+                        || code == ErrorCode.RESOURCE_NOT_FOUND )
+                {
+                    return null;
+                }
+            }
 
-            log.error(" error while checking the minio object");
+            throw ex;
         }
-
-        return res;
     }
     
     /**
@@ -185,11 +213,16 @@ public class MinIOFileObject extends AbstractFileObject
     @Override
     protected FileType doGetType() throws Exception
     {
+        if( listedType != null )
+        {
+            return listedType;
+        }
+
         FileType res;
 
         Pair<String, String> path = getContainerAndPath();
 
-        if( objectExists(path.getLeft(), path.getRight()) )
+        if( currBlobProperties != null )
         {
             res = FileType.FILE;
         }
@@ -209,103 +242,270 @@ public class MinIOFileObject extends AbstractFileObject
                 prefix += "/";
             }
 
-            Iterable<Result<Item>> blobs;
-            if( prefix.equals("/") )
+            ListObjectsArgs.Builder args = ListObjectsArgs.builder().bucket(path.getLeft()).maxKeys(1);
+            if( prefix.equals("/") == false )
             {
-                // Special root path case. List the root blobs with no prefix
-                //blobs = fileSystem.getClient().listObjects(path.getLeft());
-                blobs = fileSystem.getClient().listObjects(ListObjectsArgs.builder().bucket(path.getLeft()).build());
+                // The root path lists the root blobs with no prefix
+                args.prefix(prefix);
             }
-            else
+
+            // Listings are lazy.  Fetch the first item inside the request so
+            // failures are retried.
+            boolean found = fileSystem.execute(path.getLeft(), c ->
             {
-                blobs = fileSystem.getClient().listObjects(path.getLeft(), prefix);
-            }
-            //to do
-            if( blobs.iterator().hasNext() )
+                Iterator<Result<Item>> blobs = c.listObjects(args.build()).iterator();
+                if( blobs.hasNext() == false )
+                {
+                    return false;
+                }
+
+                blobs.next().get();
+                return true;
+            });
+
+            if( found )
             {
-                res = FileType.IMAGINARY;
+                res = FileType.FOLDER;
             }
             else
             {
-                res = FileType.FOLDER;
+                res = FileType.IMAGINARY;
             }
         }
         
         return res;
     }
 
+    /**
+     * Lists the children of this folder, one listing request per page of up to
+     * a thousand entries.
+     *
+     * @return The encoded child names
+     * @throws Exception if the listing failed
+     */
     @Override
-    protected String[] doListChildren() throws Exception {
-        return new String[0];
+    protected String[] doListChildren() throws Exception
+    {
+        Pair<String, String> path = getContainerAndPath();
+        ListingSource listing = new ListingSource(path.getLeft(), getFolderPrefix(path));
+
+        List<String> resList = new ArrayList<>();
+        for( List<Item> page = listing.nextPage(); page != null; page = listing.nextPage() )
+        {
+            for( Item currItem : page )
+            {
+                String child = listing.getChildName(currItem);
+                if( child != null )
+                {
+                    resList.add(UriParser.encode(child));
+                }
+            }
+        }
+
+        return resList.toArray(new String[resList.size()]);
     }
 
     /**
-     * Lists the children of this file.  Is only called if {@link #doGetType}
-     * returns {@link FileType#FOLDER}.  The return value of this method
-     * is cached, so the implementation can be expensive.<br />
-     * @return a possible empty String array if the file is a directory or null or an exception if the
-     * file is not a directory or can't be read.
-     * @throws Exception if an error occurs.
+     * Lists the children of this folder, and seeds each child's type, size and
+     * last-modified time from its listing entry.  So walking a folder tree costs
+     * one listing request per page, and no request per child.
+     *
+     * @return The children
+     * @throws Exception if the listing failed
      */
-   /* @Override
-    protected String[] doListChildren() throws Exception
+    @Override
+    protected FileObject[] doListChildrenResolved() throws Exception
     {
-        String[] res = null;
-        
         Pair<String, String> path = getContainerAndPath();
+        ListingSource listing = new ListingSource(path.getLeft(), getFolderPrefix(path));
 
-        String prefix = path.getRight();
-        if( prefix.endsWith("/") == false )
+        List<FileObject> res = new ArrayList<>();
+        for( List<Item> page = listing.nextPage(); page != null; page = listing.nextPage() )
         {
-            // We need folders ( prefixes ) to end with a slash
-            prefix += "/";
+            for( Item currItem : page )
+            {
+                String child = listing.getChildName(currItem);
+                if( child == null )
+                {
+                    continue;
+                }
+
+                FileObject currFile = getFileSystem().resolveFile(getFileSystem().getFileSystemManager()
+                        .resolveName(getName(), UriParser.encode(child), NameScope.CHILD));
+                if( currFile instanceof MinIOFileObject )
+                {
+                    ((MinIOFileObject)currFile).seed(currItem);
+                }
+
+                res.add(currFile);
+            }
         }
-        *//*ListObjectsRequest loReq = new ListObjectsRequest();
-        loReq.withBucketName(path.getLeft());
-        loReq.withPrefix(prefix);
-        loReq.withDelimiter("/");*//*
-       // ListObjectsArgs.builder().bucket(path.getLeft(),)
-        
-        Iterable<Result<Item>> blobs = fileSystem.getClient().listObjects(path.getLeft(), prefix, true);
-        
-        List<String> resList = new ArrayList<>();
-        blobs.iterator().next()
-        for( Iterator<Object> osum :  )
+
+        return res.toArray(new FileObject[res.size()]);
+    }
+
+    /**
+     * Take this file's type, size, ETag and last-modified time from a listing
+     * entry.  Files already attached keep what they have.
+     */
+    private void seed(Item item)
+    {
+        if( isAttached() )
         {
+            return;
+        }
 
-            if()
-            String currBlobStr = osum.getKey();
-            resList.add( String.format("/%s/%s", path.getLeft(), currBlobStr) );
+        if( item.isDir() )
+        {
+            listedType = FileType.FOLDER;
+            currBlobProperties = null;
         }
-        
-        List<String> commPrefixes = blobs.getCommonPrefixes();
-        if( commPrefixes != null )
+        else
+        {
+            listedType = FileType.FILE;
+            currBlobProperties = new BlobProperties(item.size(), item.etag(), null, item.lastModified());
+        }
+    }
+
+    /**
+     * Publish the children of this folder, a listing page at a time.  Each page
+     * is only requested from the server once the subscriber asks for it.
+     *
+     * @return The publisher of pages of child names
+     * @see #publishChildren(Executor)
+     */
+    public Flow.Publisher<List<FileName>> publishChildren()
+    {
+        return publishChildren(fileSystem.getFanOutExecutor());
+    }
+
+    /**
+     * Publish the children of this folder, a listing page at a time.
+     *
+     * @param executor The executor the listing requests run on
+     * @return The publisher of pages of child names
+     */
+    public Flow.Publisher<List<FileName>> publishChildren(Executor executor)
+    {
+        final Pair<String, String> path = getContainerAndPath();
+        final String prefix = getFolderPrefix(path);
+
+        return new SS3Publisher<>(() -> new ListingSource(path.getLeft(), prefix), executor);
+    }
+
+    /**
+     * The listing prefix of a folder.
+     *
+     * @return The path with a trailing slash, or an empty string for the bucket root
+     */
+    private static String getFolderPrefix(Pair<String, String> path)
+    {
+        String res = path.getRight();
+        if( res.equals("/") )
         {
-            for( String currFld : commPrefixes )
+            return "";
+        }
+
+        if( res.endsWith("/") == false )
+        {
+            res += "/";
+        }
+
+        return res;
+    }
+
+    /**
+     * Reads a folder listing a page at a time.
+     *
+     * @see MinIOPagedListing
+     */
+    private final class ListingSource implements SS3Publisher.Source<List<FileName>>
+    {
+        private static final int PAGE_SIZE = 1000;
+
+        private final String prefix;
+        private final MinIOPagedListing listing;
+
+        ListingSource(String bucket, String prefix)
+        {
+            this.prefix = prefix;
+            this.listing = new MinIOPagedListing(fileSystem, bucket, prefix, false, PAGE_SIZE);
+        }
+
+        @Override
+        public List<FileName> next() throws IOException
+        {
+            List<Item> items = nextPage();
+            if( items == null )
+            {
+                return null;
+            }
+
+            List<FileName> res = new ArrayList<>();
+            for( Item currItem : items )
             {
-                resList.add( String.format("/%s/%s", path.getLeft(), currFld) );
+                String child = getChildName(currItem);
+                if( child != null )
+                {
+                    res.add(getFileSystem().getFileSystemManager().resolveName(getName(),
+                            UriParser.encode(child), NameScope.CHILD));
+                }
             }
+
+            return res;
+        }
+
+        /**
+         * Read the next page of entries.  Folders are entries too.
+         *
+         * @return The entries, or null once the listing is finished
+         * @throws IOException if the listing request failed
+         */
+        List<Item> nextPage() throws IOException
+        {
+            return listing.nextPage();
         }
-        
-        res = resList.toArray(new String[resList.size()]);
-        
-        return res;
-    }*/
 
-  /*  private void checkBlobProperties()
+        /**
+         * The name of an entry relative to the listed folder.
+         *
+         * @return The name, or null for the folder's own marker object
+         */
+        String getChildName(Item item)
+        {
+            String res = StringUtils.removeEnd(StringUtils.removeStart(item.objectName(), prefix), "/");
+
+            return StringUtils.isEmpty(res) ? null : res;
+        }
+
+        @Override
+        public void close(boolean completed)
+        {
+        }
+    }
+
+    private BlobProperties checkBlobProperties() throws IOException
     {
         if( currBlobProperties == null )
         {
-            //currBlobProperties = currBlob.getObjectMetadata();
+            Pair<String, String> path = getContainerAndPath();
+
+            currBlobProperties = BlobProperties.of(getObjectStat(path.getLeft(), path.getRight()));
+            if( currBlobProperties == null )
+            {
+                throw new FileNotFoundException(String.format("'%s' does not exist", getName()));
+            }
         }
-    }*/
+
+        return currBlobProperties;
+    }
     
     /**
      * Upload a local file to Amazon S3.
      * 
      * @param f File object from the local file-system to be uploaded to Amazon S3
      */
-    public void putObject(File f) throws ServerException, InvalidBucketNameException, InsufficientDataException, ErrorResponseException, IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidResponseException, XmlParserException, InternalException {
+    public void putObject(File f) throws IOException {
         Pair<String, String> path = getContainerAndPath();
         
        /* fileSystem.getClient().putObject(
@@ -313,7 +513,33 @@ public class MinIOFileObject extends AbstractFileObject
 
         UploadObjectArgs args = UploadObjectArgs.builder().bucket(path.getLeft()).object(path.getRight())
                 .filename(f.getPath()).build();
-        fileSystem.getClient().uploadObject(args);
+        fileSystem.executeTransfer(path.getLeft(), c ->
+        {
+            c.uploadObject(args);
+            return null;
+        });
+    }
+    
+    /**
+     * Upload a stream to MinIO as a multipart upload.  The stream is read a part at
+     * a time until it ends, so its size need not be known.  The upload is not
+     * retried, since the stream can not be read again.
+     * 
+     * @param in The content
+     * @param partSize The part size, at least 5MB
+     * @throws IOException if the upload failed
+     */
+    public void putObject(InputStream in, long partSize) throws IOException
+    {
+        Pair<String, String> path = getContainerAndPath();
+
+        PutObjectArgs args = PutObjectArgs.builder().bucket(path.getLeft()).object(path.getRight())
+                .stream(in, -1, partSize).build();
+        fileSystem.executeOnce(path.getLeft(), c ->
+        {
+            c.putObject(args);
+            return null;
+        });
     }
     
     /**
@@ -322,16 +548,40 @@ public class MinIOFileObject extends AbstractFileObject
      * @return The number of bytes in the File Object's content
      * @throws Exception 
      */
-   /* @Override
+    @Override
     protected long doGetContentSize() throws Exception
     {
-        long res = -1;
-        
-        checkBlobProperties();
-        res = currBlobProperties.getContentLength();
-        
+        return checkBlobProperties().size;
+    }
+
+    /**
+     * Callback for handling the <code>getAttributes()</code> Commons VFS API call.
+     * 
+     * @return The object's "ETag" and "Content-Type", when known
+     * @throws Exception 
+     */
+    @Override
+    protected Map<String, Object> doGetAttributes() throws Exception
+    {
+        Map<String, Object> res = new HashMap<>();
+        if( getType() != FileType.FILE )
+        {
+            return res;
+        }
+
+        BlobProperties props = checkBlobProperties();
+        if( props.etag != null )
+        {
+            res.put("ETag", props.etag);
+        }
+
+        if( props.contentType != null )
+        {
+            res.put("Content-Type", props.contentType);
+        }
+
         return res;
-    }*/
+    }
 
     /**
      * Get an InputStream for reading the content of this File Object.
@@ -345,7 +595,69 @@ public class MinIOFileObject extends AbstractFileObject
         /*DownloadObjectArgs args = DownloadObjectArgs.builder().bucket(bucketName).object(fileName)
         .filename(downloadedFile).build();
         minioClient.downloadObject(args);*/
-        return currBlob;
+        Pair<String, String> path = getContainerAndPath();
+
+        // Opened here rather than on attach, so metadata-only use costs just the HEAD
+        return fileSystem.getObject(path.getLeft(), path.getRight(), null, null,
+                                    currBlobProperties == null ? -1 : currBlobProperties.size);
+    }
+
+    /**
+     * Random access to the content of this file.  Reads are served with ranged
+     * requests, so only the parts of the object read are fetched.
+     * 
+     * @param mode The access mode.  Only reading is supported.
+     * @return The random access content
+     * @throws Exception 
+     */
+    @Override
+    protected RandomAccessContent doGetRandomAccessContent(RandomAccessMode mode) throws Exception
+    {
+        Pair<String, String> path = getContainerAndPath();
+        BlobProperties props = checkBlobProperties();
+
+        return new MinIORandomAccessContent(fileSystem, path.getLeft(), path.getRight(), props.etag, props.size,
+                MinIOFileSystemConfigBuilder.getInstance().getReadWindowSize(getFileSystem().getFileSystemOptions()),
+                mode);
+    }
+
+    /**
+     * Publish the content of this file as chunks.  Content is only read from the
+     * server as fast as the subscriber requests it.
+     *
+     * @return The publisher of content chunks
+     * @see #publishContent(int, Executor)
+     */
+    public Flow.Publisher<ByteBuffer> publishContent()
+    {
+        return publishContent(SS3Publisher.DEFAULT_CHUNK_SIZE, fileSystem.getFanOutExecutor());
+    }
+
+    /**
+     * Publish the content of this file as chunks.  Each subscriber reads the
+     * content with its own request.  Cancelling closes the request's connection.
+     *
+     * @param chunkSize The largest chunk published
+     * @param executor The executor the content is read on
+     * @return The publisher of content chunks
+     */
+    public Flow.Publisher<ByteBuffer> publishContent(int chunkSize, Executor executor)
+    {
+        final Pair<String, String> path = getContainerAndPath();
+
+        return SS3Publisher.ofInputStream(
+                () -> fileSystem.getObject(path.getLeft(), path.getRight(), null, null, -1),
+                in ->
+                {
+                    try
+                    {
+                        in.close();
+                    }
+                    catch (IOException ex)
+                    {
+                        log.debug(String.format("publishContent() : Error closing '%s'", getName()), ex);
+                    }
+                }, chunkSize, executor);
     }
 
     /**
@@ -359,8 +671,61 @@ public class MinIOFileObject extends AbstractFileObject
         
         // Purposely use the more restrictive delete() over deleteIfExists()
         //fileSystem.getClient().deleteObject(path.getLeft(), path.getRight());
-        fileSystem.getClient().removeObject(
-                RemoveObjectArgs.builder().bucket(path.getLeft()).object(path.getRight()).build());
+        fileSystem.execute(path.getLeft(), c ->
+        {
+            c.removeObject(RemoveObjectArgs.builder().bucket(path.getLeft()).object(path.getRight()).build());
+            return null;
+        });
+    }
+
+    /**
+     * Deletes this file and its descendants that match a selector.
+     *
+     * Deleting a whole folder, i.e. <code>deleteAll()</code>, deletes every
+     * object under its prefix with batched multi-object delete requests, straight
+     * from the listing.  Other selectors use the regular Commons VFS delete.
+     *
+     * @param selector The selector for the files to delete
+     * @return The number of objects deleted
+     * @throws FileSystemException if any object could not be deleted
+     */
+    @Override
+    public int delete(FileSelector selector) throws FileSystemException
+    {
+        if( selector != Selectors.SELECT_ALL || getType() != FileType.FOLDER )
+        {
+            return super.delete(selector);
+        }
+
+        Pair<String, String> path = getContainerAndPath();
+
+        MinIOBulkDelete.Outcome res;
+        try
+        {
+            res = fileSystem.getBulkDelete().deletePrefix(path.getLeft(), getFolderPrefix(path));
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            throw new FileSystemException("vfs.provider/delete.error", this, ex);
+        }
+
+        try
+        {
+            handleDelete();
+        }
+        catch (Exception ex)
+        {
+            throw new FileSystemException("vfs.provider/delete.error", this, ex);
+        }
+
+        if( res.getFailures().isEmpty() == false )
+        {
+            throw new FileSystemException("vfs.provider/delete.error", this,
+                    new IOException(String.format("Could not delete %d of %d objects",
+                            res.getFailures().size(), res.getFailures().size() + res.getDeleted())));
+        }
+
+        return res.getDeleted();
     }
 
     /**
@@ -375,11 +740,6 @@ public class MinIOFileObject extends AbstractFileObject
         log.info(String.format("doCreateFolder() called."));
     }
 
-    @Override
-    protected long doGetContentSize() throws Exception {
-        return 0;
-    }
-
     /**
      * Used for creating folders.  It's not used since S3 does not have
      * the concept of folders.
@@ -392,8 +752,88 @@ public class MinIOFileObject extends AbstractFileObject
         log.info(String.format("createFolder() called."));
     }
 
+    /**
+     * Concatenates other objects into this file, on the server.  Sources smaller
+     * than 5MB, other than the last, are read and uploaded again in runs, as the
+     * compose request requires.  Nothing else travels through the client.
+     *
+     * @param sources The files to concatenate, in order.  They must be on the same
+     *        MinIO server.  This file may be one of them.
+     * @throws FileSystemException if a source is not on the same server, or does
+     *         not exist, or the concatenation failed
+     */
+    public void concatenate(List<? extends FileObject> sources) throws FileSystemException
+    {
+        List<MinIOComposer.Source> composeSources = new ArrayList<>(sources.size());
+        for( FileObject currSource : sources )
+        {
+            MinIOFileObject src = getServerSideSource(currSource);
+            if( src == null )
+            {
+                throw new FileSystemException("vfs.provider/copy-file.error", new Object[]{currSource, this},
+                        new IOException(String.format("'%s' is not on the same MinIO server with the same credentials",
+                                                      currSource)));
+            }
+
+            Pair<String, String> srcPath = src.getContainerAndPath();
+            composeSources.add(new MinIOComposer.Source(srcPath.getLeft(), srcPath.getRight(), null));
+        }
+
+        Pair<String, String> path = getContainerAndPath();
+
+        boolean existed = exists();
+        try
+        {
+            fileSystem.getComposer().compose(path.getLeft(), path.getRight(), composeSources);
+
+            refresh();
+            if( existed == false )
+            {
+                handleCreate(FileType.FILE);
+            }
+        }
+        catch (Exception ex)
+        {
+            throw new FileSystemException("vfs.provider/copy-file.error", new Object[]{sources, this}, ex);
+        }
+    }
+
+    /**
+     * The MinIO file a file can be composed from on the server side.  It must be
+     * on the same server and reached through the same clients, since
+     * file-systems with other credentials do not share their clients.
+     *
+     * @param file The source file
+     * @return The source, or null if it is not on the same server or may use
+     *         other credentials
+     * @throws FileSystemException
+     */
+    private MinIOFileObject getServerSideSource(FileObject file) throws FileSystemException
+    {
+        AbstractFileObject res = FileObjectUtils.getAbstractFileObject(file);
+        if( res instanceof MinIOFileObject == false )
+        {
+            return null;
+        }
+
+        MinIOFileSystem srcFileSystem = ((MinIOFileObject)res).fileSystem;
+        if( srcFileSystem != fileSystem
+                && (srcFileSystem.getRootName().equals(fileSystem.getRootName()) == false
+                    || srcFileSystem.getBalancer().getClients().equals(fileSystem.getBalancer().getClients()) == false) )
+        {
+            return null;
+        }
+
+        return (MinIOFileObject)res;
+    }
+
     /**
      * Callback for getting an OutputStream for writing into Amazon S3
+     *
+     * Appending uploads only the new content, as a temporary object next to this
+     * one, and composes it with the existing object on the server when the stream
+     * is closed.  The append fails if the existing object changes in the meantime.
+     *
      * @param bAppend  bAppend true if the file should be appended to, false if it should be overwritten.
      * @return An OutputStream for writing into Amazon S3
      * @throws Exception 
@@ -401,39 +841,168 @@ public class MinIOFileObject extends AbstractFileObject
     @Override
     protected OutputStream doGetOutputStream(boolean bAppend) throws Exception
     {
-        OutputStream res = new MinIOOutputStream(this);
+        if( bAppend )
+        {
+            Pair<String, String> path = getContainerAndPath();
+
+            ObjectStat existing = getObjectStat(path.getLeft(), path.getRight());
+            if( existing != null && existing.length() > 0 )
+            {
+                AbstractFileName tailName = (AbstractFileName)getFileSystem().getFileSystemManager().resolveName(
+                        getName().getParent(),
+                        UriParser.encode(String.format(".%s.append-%s", getName().getBaseName(), UUID.randomUUID())),
+                        NameScope.CHILD);
+
+                return new AppendOutputStream(new MinIOFileObject(tailName, fileSystem), existing);
+            }
+        }
+
+        return newOutputStream(this);
+    }
+
+    /**
+     * A stream uploading to a file, as configured in the file-system options.
+     */
+    private OutputStream newOutputStream(MinIOFileObject target) throws IOException
+    {
+        MinIOFileSystemConfigBuilder builder = MinIOFileSystemConfigBuilder.getInstance();
+
+        OutputStream res;
+        if( builder.getStreamingUpload(getFileSystem().getFileSystemOptions()) )
+        {
+            res = new MinIOOutputStream(target, builder.getUploadPartSize(getFileSystem().getFileSystemOptions()),
+                                        fileSystem.getStreamingExecutor());
+        }
+        else
+        {
+            res = new MinIOOutputStream(target);
+        }
         
         return res;
     }
 
+    /**
+     * Uploads appended content to a temporary object, then composes the existing
+     * object and the temporary one into this file on close.
+     */
+    private final class AppendOutputStream extends FilterOutputStream
+    {
+        private final MinIOFileObject tail;
+        private final ObjectStat existing;
+        private boolean closed;
+
+        AppendOutputStream(MinIOFileObject tail, ObjectStat existing) throws IOException
+        {
+            super(newOutputStream(tail));
+
+            this.tail = tail;
+            this.existing = existing;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if( closed )
+            {
+                return;
+            }
+
+            closed = true;
+
+            final Pair<String, String> tailPath = tail.getContainerAndPath();
+            try
+            {
+                out.close();
+
+                List<MinIOComposer.Source> sources = new ArrayList<>(2);
+                sources.add(new MinIOComposer.Source(existing.bucketName(), existing.name(), existing.etag()));
+                sources.add(new MinIOComposer.Source(tailPath.getLeft(), tailPath.getRight(), null));
+
+                // Keep the existing object's Content-Type and user metadata
+                fileSystem.getComposer().compose(existing.bucketName(), existing.name(), sources, existing);
+            }
+            finally
+            {
+                try
+                {
+                    fileSystem.execute(tailPath.getLeft(), c ->
+                    {
+                        c.removeObject(RemoveObjectArgs.builder().bucket(tailPath.getLeft())
+                                .object(tailPath.getRight()).build());
+                        return null;
+                    });
+                }
+                catch (IOException ex)
+                {
+                    log.warn(String.format("close() : Could not delete the appended content '%s'",
+                                           tail.getName()), ex);
+                }
+            }
+        }
+    }
+
     /**
      * Callback for use when detaching this File Object from Amazon S3.
      * 
      * The File Object should be reusable after <code>attach()</code> call.
      * @throws Exception 
      */
-   /* @Override
+    @Override
     protected void doDetach() throws Exception
     {
-        currBlob = null;
         currBlobProperties = null;
+        listedType = null;
     }
-*/
+
     /**
      * Callback for handling the <code>getLastModifiedTime()</code> Commons VFS API call.
      * @return Time since the file has last been modified
      * @throws Exception 
      */
-   /* @Override
+    @Override
     protected long doGetLastModifiedTime() throws Exception
     {
-        long res;
-        
-        checkBlobProperties();
-        Date lm = currBlobProperties.getLastModified();
-        
-        res = lm.getTime();
-        
-        return res;
-    }*/
+        ZonedDateTime lm = checkBlobProperties().lastModified;
+
+        return lm == null ? 0 : lm.toInstant().toEpochMilli();
+    }
+
+    /**
+     * What this file's HEAD request or its parent's listing told us about it.
+     * A listing entry has no Content-Type.
+     */
+    private static final class BlobProperties
+    {
+        private final long size;
+        private final String etag;
+        private final String contentType;
+        private final ZonedDateTime lastModified;
+
+        BlobProperties(long size, String etag, String contentType, ZonedDateTime lastModified)
+        {
+            this.size = size;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return The properties of an object, or null if there is no object
+         */
+        static BlobProperties of(ObjectStat stat)
+        {
+            if( stat == null )
+            {
+                return null;
+            }
+
+            return new BlobProperties(stat.length(), stat.etag(), stat.contentType(), stat.createdTime());
+        }
+    }
 }
@@ -20,10 +20,12 @@ import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.sludev.commons.vfs2.provider.s3.SS3ClientRegistry;
 import com.sludev.commons.vfs2.provider.s3.SS3FileNameParser;
 import com.sludev.commons.vfs2.provider.s3.SS3FileSystem;
 import com.sludev.commons.vfs2.provider.s3.SS3FileSystemConfigBuilder;
 import io.minio.MinioClient;
+import okhttp3.OkHttpClient;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.vfs2.*;
 import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
@@ -33,9 +35,11 @@ import org.apache.commons.vfs2.util.UserAuthenticatorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * The main provider class in the Simple S3 Commons VFS provider.
@@ -75,9 +79,11 @@ public class MinIOFileProvider
             UserAuthenticationData.USERNAME, UserAuthenticationData.PASSWORD
         };
 
-    private String endpoint;
+    private List<String> endpoints;
     private Regions region;
 
+    private final SS3ClientRegistry<MinioClient> clients = new SS3ClientRegistry<>();
+
     static final Collection<Capability> capabilities = Collections.unmodifiableCollection(Arrays.asList(new Capability[]
             {
                     Capability.GET_TYPE,
@@ -101,7 +107,7 @@ public class MinIOFileProvider
     {
         super();
         setFileNameParser(SS3FileNameParser.getInstance());
-        endpoint = null;
+        endpoints = Collections.emptyList();
     }
     
     /**
@@ -166,10 +172,51 @@ public class MinIOFileProvider
                 //client.setEndpoint(endpoint);
                 client.endpoint()
             }*/
-            if( StringUtils.isNoneBlank(endpoint) && region != null )
+            if( endpoints.isEmpty() == false && region != null )
             {
-                client = MinioClient.builder().endpoint(endpoint).credentials(currAcct,currKey).region(region.getName()).build();
-                fileSystem = new MinIOFileSystem(genRootName, client, fileSystemOptions);
+                final MinIOFileSystemConfigBuilder configBuilder = MinIOFileSystemConfigBuilder.getInstance();
+
+                // One client, and so one connection pool, per node
+                List<MinioClient> endpointClients = new ArrayList<>();
+                try
+                {
+                    for( String endpoint : endpoints )
+                    {
+                        final MinioClient.Builder builder = MinioClient.builder().endpoint(endpoint).credentials(currAcct,currKey).region(region.getName());
+
+                        final OkHttpClient httpClient = configBuilder.getHttpClient(currFSO);
+                        if( httpClient != null )
+                        {
+                            builder.httpClient(httpClient);
+                        }
+
+                        List<Object> key = Arrays.asList(endpoint, region, currAcct, SS3ClientRegistry.digest(currKey),
+                                                         configBuilder.getHttpClientKey(currFSO));
+
+                        client = clients.acquire(key, builder::build, (c) ->
+                            {
+                                if( httpClient != null )
+                                {
+                                    httpClient.dispatcher().executorService().shutdown();
+                                    httpClient.connectionPool().evictAll();
+                                }
+                            });
+                        endpointClients.add(client);
+                    }
+
+                    MinIOEndpointBalancer balancer = configBuilder.createBalancer(currFSO, endpoints, endpointClients);
+                    fileSystem = new MinIOFileSystem(genRootName, balancer, fileSystemOptions, clients);
+                }
+                catch (RuntimeException | Error ex)
+                {
+                    // Give back the clients acquired before the failure
+                    for( MinioClient currClient : endpointClients )
+                    {
+                        clients.release(currClient);
+                    }
+
+                    throw ex;
+                }
             }
             
 
@@ -182,6 +229,25 @@ public class MinIOFileProvider
         return fileSystem;
     }
 
+    /**
+     * Adds a newly created file-system, then warms up its connections if enabled,
+     * before it is handed out.
+     * 
+     * @param key
+     * @param fs
+     * @throws FileSystemException 
+     */
+    @Override
+    protected void addFileSystem(Comparable<?> key, FileSystem fs) throws FileSystemException
+    {
+        super.addFileSystem(key, fs);
+
+        if( fs instanceof MinIOFileSystem )
+        {
+            ((MinIOFileSystem)fs).warmUp();
+        }
+    }
+
     /**
      * Returns the provider's capabilities.
      * 
@@ -200,7 +266,38 @@ public class MinIOFileProvider
      */
     public void setEndpoint(String ep)
     {
-        endpoint = ep;
+        endpoints = StringUtils.isBlank(ep) ? Collections.<String>emptyList() : Collections.singletonList(ep);
+    }
+
+    /**
+     * Set the endpoints of the nodes of a distributed MinIO cluster.  Requests are
+     * spread across them, and failing nodes are taken out of rotation until they
+     * recover.  This needs to be done before init() is called.
+     * 
+     * @param eps 
+     */
+    public void setEndpoints(String... eps)
+    {
+        List<String> res = new ArrayList<>();
+        for( String ep : eps )
+        {
+            if( StringUtils.isNotBlank(ep) )
+            {
+                res.add(ep.trim());
+            }
+        }
+
+        endpoints = Collections.unmodifiableList(res);
+    }
+
+    /**
+     * Returns the endpoints requests are spread across.
+     * 
+     * @return 
+     */
+    public List<String> getEndpoints()
+    {
+        return endpoints;
     }
 
     /**
@@ -17,12 +17,23 @@
 package com.sludev.commons.vfs2.provider.minio;
 
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.sludev.commons.vfs2.provider.s3.SS3ClientRegistry;
+import com.sludev.commons.vfs2.provider.s3.SS3Executors;
 import com.sludev.commons.vfs2.provider.s3.SS3FileObject;
 import com.sludev.commons.vfs2.provider.s3.SS3FileProvider;
+import com.sludev.commons.vfs2.provider.s3.SS3Hedger;
+import com.sludev.commons.vfs2.provider.s3.SS3Throttle;
+import com.sludev.commons.vfs2.provider.s3.SS3WarmUp;
+import io.minio.BucketExistsArgs;
+import io.minio.ErrorCode;
+import io.minio.GetObjectArgs;
 import io.minio.MinioClient;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.ServerException;
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileSystem;
@@ -30,7 +41,16 @@ import org.apache.commons.vfs2.provider.GenericFileName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * File-System object represents a connect to Amazon S3 via a single client.
@@ -43,23 +63,557 @@ public class MinIOFileSystem
 {
     private static final Logger log = LoggerFactory.getLogger(MinIOFileSystem.class);
 
-    private final MinioClient client;
+    /**
+     * Classifies MinIO client errors.  SlowDown and ServiceUnavailable are
+     * throttling.  Internal errors, request timeouts, server errors without an
+     * error response and I/O errors are retried.
+     */
+    static final SS3Throttle.Classifier CLASSIFIER = ex ->
+    {
+        if( ex instanceof ErrorResponseException )
+        {
+            ErrorCode code = getErrorCode((ErrorResponseException)ex);
+            if( code == null )
+            {
+                return SS3Throttle.Outcome.FATAL;
+            }
+
+            if( code == ErrorCode.SERVICE_UNAVAILABLE || SS3Throttle.isThrottling(0, code.code()) )
+            {
+                return SS3Throttle.Outcome.THROTTLED;
+            }
+
+            if( code == ErrorCode.INTERNAL_ERROR || code == ErrorCode.REQUEST_TIMEOUT )
+            {
+                return SS3Throttle.Outcome.RETRYABLE;
+            }
+
+            return SS3Throttle.Outcome.FATAL;
+        }
+
+        if( ex instanceof ServerException || ex instanceof IOException )
+        {
+            return SS3Throttle.Outcome.RETRYABLE;
+        }
+
+        return SS3Throttle.Outcome.FATAL;
+    };
+
+    private final MinIOEndpointBalancer balancer;
+    private SS3ClientRegistry<MinioClient> clientRegistry;
+    private final SS3Throttle throttle;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ExecutorService hedgeExecutor;
+    private ExecutorService fanOutExecutor;
+    private ExecutorService uploadExecutor;
+    private ExecutorService streamingExecutor;
+    private SS3Hedger hedger;
 
     /**
-     * The single client for interacting with Amazon S3.
+     * A client for interacting with MinIO.  With several endpoints it is the
+     * client of the best endpoint right now.
      *
      * @return
      */
     protected MinioClient getClient()
     {
-        return client;
+        return balancer.getClient();
+    }
+
+    /**
+     * The balancer spreading requests across the endpoints.
+     *
+     * @return
+     */
+    protected MinIOEndpointBalancer getBalancer()
+    {
+        return balancer;
     }
 
     protected MinIOFileSystem(final GenericFileName rootName, final MinioClient client,
                               final FileSystemOptions fileSystemOptions)
+    {
+        this(rootName, client, fileSystemOptions, null);
+    }
+
+    /**
+     * Creates a file-system using a client shared through a registry.  The
+     * client is released when the file-system is closed.
+     *
+     * @param rootName
+     * @param client
+     * @param fileSystemOptions
+     * @param clientRegistry The registry the client was acquired from, may be null
+     */
+    protected MinIOFileSystem(final GenericFileName rootName, final MinioClient client,
+                              final FileSystemOptions fileSystemOptions,
+                              final SS3ClientRegistry<MinioClient> clientRegistry)
+    {
+        this(rootName, new MinIOEndpointBalancer(Collections.singletonList(rootName.getHostName()),
+                Collections.singletonList(client), MinIOEndpointBalancer.DEFAULT_FAILURE_THRESHOLD,
+                MinIOEndpointBalancer.DEFAULT_EJECTION_TIME_MS), fileSystemOptions, clientRegistry);
+    }
+
+    /**
+     * Creates a file-system spreading requests across several endpoints.  The
+     * endpoints' clients are released when the file-system is closed.
+     *
+     * @param rootName
+     * @param balancer The balancer over the endpoints' clients
+     * @param fileSystemOptions
+     * @param clientRegistry The registry the clients were acquired from, may be null
+     */
+    protected MinIOFileSystem(final GenericFileName rootName, final MinIOEndpointBalancer balancer,
+                              final FileSystemOptions fileSystemOptions,
+                              final SS3ClientRegistry<MinioClient> clientRegistry)
     {
         super(rootName, null, fileSystemOptions);
-        this.client = client;
+        this.balancer = balancer;
+        this.clientRegistry = clientRegistry;
+        this.throttle = MinIOFileSystemConfigBuilder.getInstance().createThrottle(fileSystemOptions);
+    }
+
+    /**
+     * The throttle requests from file objects go through.
+     *
+     * @return The throttle, or null if throttling is disabled.
+     */
+    protected SS3Throttle getThrottle()
+    {
+        return throttle;
+    }
+
+    /**
+     * Make a request with the client of the best endpoint, through the throttle
+     * if enabled.  Retries pick the endpoint again, so they can go to another node.
+     *
+     * @param <T> The result type
+     * @param bucket The bucket the request is for
+     * @param call The request
+     * @return The request's result
+     * @throws IOException if the request failed.  MinIO errors are the cause.
+     */
+    protected <T> T execute(String bucket, SS3Throttle.Call<MinioClient, T> call) throws IOException
+    {
+        return executeThrottled(bucket, () -> balancer.execute(call));
+    }
+
+    /**
+     * Make a request with a given endpoint's client, through the throttle if
+     * enabled.  For the later pages of a listing, whose iterator is bound to the
+     * client of the first page.
+     *
+     * @param <T> The result type
+     * @param bucket The bucket the request is for
+     * @param client The client to use, or null for the best endpoint's
+     * @param call The request
+     * @return The request's result
+     * @throws IOException if the request failed.  MinIO errors are the cause.
+     */
+    protected <T> T execute(String bucket, MinioClient client, SS3Throttle.Call<MinioClient, T> call)
+            throws IOException
+    {
+        return executeThrottled(bucket, () -> balancer.execute(client, true, call));
+    }
+
+    /**
+     * Make a request that transfers content, e.g. an upload or a server-side
+     * copy, through the throttle if enabled.  Its time does not count towards
+     * the endpoint's latency.
+     *
+     * @param <T> The result type
+     * @param bucket The bucket the request is for
+     * @param call The request
+     * @return The request's result
+     * @throws IOException if the request failed.  MinIO errors are the cause.
+     */
+    protected <T> T executeTransfer(String bucket, SS3Throttle.Call<MinioClient, T> call) throws IOException
+    {
+        return executeThrottled(bucket, () -> balancer.execute(null, false, call));
+    }
+
+    /**
+     * Make a request through the throttle if enabled.  The request picks its own
+     * endpoints.
+     */
+    private <T> T executeThrottled(String bucket, Callable<T> request) throws IOException
+    {
+        try
+        {
+            if( throttle == null )
+            {
+                return request.call();
+            }
+
+            return throttle.execute(bucket, request);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            throw ex;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Request to '%s' interrupted", bucket));
+        }
+        catch (Exception ex)
+        {
+            throw new IOException(String.format("Request to '%s' failed", bucket), ex);
+        }
+    }
+
+    /**
+     * Make a request with the client of the best endpoint, once.  For requests
+     * that can not be replayed, e.g. uploads of a stream.  They are neither rate
+     * limited nor retried, and their time does not count towards the endpoint's
+     * latency.
+     *
+     * @param <T> The result type
+     * @param bucket The bucket the request is for
+     * @param call The request
+     * @return The request's result
+     * @throws IOException if the request failed.  MinIO errors are the cause.
+     */
+    protected <T> T executeOnce(String bucket, SS3Throttle.Call<MinioClient, T> call) throws IOException
+    {
+        try
+        {
+            return balancer.execute(null, false, call);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            throw new IOException(String.format("Request to '%s' failed", bucket), ex);
+        }
+    }
+
+    /**
+     * The executor streamed uploads run on.  Each open streaming output stream
+     * holds one of its threads, so it is unbounded and a new stream never waits
+     * for one.
+     *
+     * @return
+     */
+    protected ExecutorService getStreamingExecutor()
+    {
+        lock.lock();
+        try
+        {
+            if( streamingExecutor == null )
+            {
+                MinIOFileSystemConfigBuilder builder = MinIOFileSystemConfigBuilder.getInstance();
+                FileSystemOptions opts = getFileSystemOptions();
+
+                streamingExecutor = SS3Executors.newCachedExecutor("minio-stream",
+                        builder.getUseVirtualThreads(opts));
+            }
+
+            return streamingExecutor;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The executor composed objects stage their small sources on.
+     *
+     * @return
+     */
+    protected ExecutorService getUploadExecutor()
+    {
+        lock.lock();
+        try
+        {
+            if( uploadExecutor == null )
+            {
+                MinIOFileSystemConfigBuilder builder = MinIOFileSystemConfigBuilder.getInstance();
+                FileSystemOptions opts = getFileSystemOptions();
+
+                uploadExecutor = SS3Executors.newExecutor("minio-upload",
+                        builder.getUploadThreads(opts), builder.getUseVirtualThreads(opts));
+            }
+
+            return uploadExecutor;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The executor background work, such as published listings and content,
+     * runs on.  It is a work-stealing pool, or one virtual thread per task in
+     * virtual thread mode.
+     *
+     * @return
+     */
+    protected ExecutorService getFanOutExecutor()
+    {
+        lock.lock();
+        try
+        {
+            if( fanOutExecutor == null )
+            {
+                MinIOFileSystemConfigBuilder builder = MinIOFileSystemConfigBuilder.getInstance();
+                FileSystemOptions opts = getFileSystemOptions();
+
+                fanOutExecutor = SS3Executors.newWorkStealingExecutor("minio-fan-out",
+                        builder.getFanOutThreads(opts), builder.getUseVirtualThreads(opts));
+            }
+
+            return fanOutExecutor;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates a bulk delete, configured from the file-system options.
+     *
+     * @return
+     */
+    protected MinIOBulkDelete getBulkDelete()
+    {
+        return new MinIOBulkDelete(this, getFanOutExecutor(),
+                MinIOFileSystemConfigBuilder.getInstance().getDeleteBatchesInFlight(getFileSystemOptions()));
+    }
+
+    /**
+     * Creates a composer, for concatenating objects on the server.
+     *
+     * @return
+     */
+    protected MinIOComposer getComposer()
+    {
+        return new MinIOComposer(this);
+    }
+
+    /**
+     * The hedger small reads go through.
+     *
+     * @return The hedger, or null if hedged reads are not enabled.
+     */
+    protected SS3Hedger getHedger()
+    {
+        MinIOFileSystemConfigBuilder builder = MinIOFileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = getFileSystemOptions();
+
+        if( builder.getHedge(opts) == false )
+        {
+            return null;
+        }
+
+        lock.lock();
+        try
+        {
+            if( hedger == null )
+            {
+                hedgeExecutor = SS3Executors.newExecutor("minio-hedge",
+                        builder.getHedgeThreads(opts), builder.getUseVirtualThreads(opts));
+                hedger = new SS3Hedger(hedgeExecutor, builder.getHedgePercentile(opts),
+                        builder.getHedgeMinDelay(opts), builder.getHedgeBudget(opts));
+            }
+
+            return hedger;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get an object, or a range of it.  Reads no larger than the hedge size limit
+     * are hedged, if enabled.
+     *
+     * @param bucket The bucket
+     * @param key The key
+     * @param offset The offset of the first byte to read, or null for the whole object
+     * @param length The number of bytes to read, or null to read to the end
+     * @param size The number of bytes the read returns, or -1 if not known
+     * @return The stream of the object's content
+     * @throws IOException if the object could not be read
+     */
+    protected InputStream getObject(final String bucket, final String key, final Long offset,
+                                    final Long length, long size) throws IOException
+    {
+        return getObject(bucket, key, offset, length, size, null);
+    }
+
+    /**
+     * Get an object, or a range of it, if it has not changed.  Reads no larger
+     * than the hedge size limit are hedged, if enabled.
+     *
+     * @param bucket The bucket
+     * @param key The key
+     * @param offset The offset of the first byte to read, or null for the whole object
+     * @param length The number of bytes to read, or null to read to the end
+     * @param size The number of bytes the read returns, or -1 if not known
+     * @param etag The ETag the object must have, or null for any version
+     * @return The stream of the object's content
+     * @throws IOException if the object could not be read, or has another ETag
+     */
+    protected InputStream getObject(final String bucket, final String key, final Long offset,
+                                    final Long length, long size, final String etag) throws IOException
+    {
+        final SS3Hedger currHedger = getHedger();
+        if( currHedger == null || size < 0
+                || size > MinIOFileSystemConfigBuilder.getInstance().getHedgeMaxSize(getFileSystemOptions()) )
+        {
+            return execute(bucket, c -> c.getObject(newGetObjectArgs(bucket, key, offset, length, etag)));
+        }
+
+        // Each attempt picks its endpoint, so the hedge can go to another node
+        return executeThrottled(bucket, () -> currHedger.execute(attempt ->
+                {
+                    if( attempt > 0 && throttle != null )
+                    {
+                        // The hedge is a request of its own
+                        throttle.acquire(bucket);
+                    }
+
+                    return balancer.execute(c -> c.getObject(newGetObjectArgs(bucket, key, offset, length, etag)));
+                },
+                MinIOFileSystem::awaitFirstByte,
+                in ->
+                {
+                    try
+                    {
+                        in.close();
+                    }
+                    catch (IOException ex)
+                    {
+                        log.debug(String.format("getObject() : Error closing the hedged read of '%s/%s'",
+                                                bucket, key), ex);
+                    }
+                }));
+    }
+
+    private static GetObjectArgs newGetObjectArgs(String bucket, String key, Long offset, Long length,
+                                                  String etag)
+    {
+        GetObjectArgs.Builder res = GetObjectArgs.builder().bucket(bucket).object(key).offset(offset).length(length);
+        if( etag != null )
+        {
+            res.matchETag(etag);
+        }
+
+        return res.build();
+    }
+
+    /**
+     * Wait for the first byte of an object's content, so hedging measures the
+     * time to first byte rather than to the response headers.
+     */
+    private static InputStream awaitFirstByte(InputStream in) throws IOException
+    {
+        PushbackInputStream res = new PushbackInputStream(in, 1);
+
+        try
+        {
+            int b = res.read();
+            if( b >= 0 )
+            {
+                res.unread(b);
+            }
+        }
+        catch (IOException ex)
+        {
+            in.close();
+            throw ex;
+        }
+
+        return res;
+    }
+
+    /**
+     * Open the configured number of pooled connections to each endpoint in
+     * parallel, and pre-load the root listings of the warm-up buckets if enabled.
+     * Failures are logged, the file-system is usable either way.
+     *
+     * @return The number of connections opened
+     * @see MinIOFileSystemConfigBuilder#setWarmUpConnections
+     */
+    public int warmUp()
+    {
+        MinIOFileSystemConfigBuilder builder = MinIOFileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = getFileSystemOptions();
+
+        int connections = builder.getWarmUpConnections(opts);
+        if( connections <= 0 )
+        {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        String[] buckets = builder.getWarmUpBuckets(opts);
+        final String bucket = buckets.length > 0 ? buckets[0] : null;
+
+        // The balancer sends each concurrent probe to the endpoint with the fewest in flight
+        int res = SS3WarmUp.run("minio-warm-up", connections * balancer.getClients().size(),
+                builder.getWarmUpTimeout(opts), builder.getUseVirtualThreads(opts), () -> balancer.execute(c ->
+                    {
+                        try
+                        {
+                            if( bucket == null )
+                            {
+                                return c.listBuckets();
+                            }
+
+                            return c.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
+                        }
+                        catch (ErrorResponseException ex)
+                        {
+                            // The server answered, so the connection is open
+                            return null;
+                        }
+                    }));
+
+        if( builder.getWarmUpListing(opts) )
+        {
+            for( String currBucket : buckets )
+            {
+                try
+                {
+                    resolveFile(String.format("/%s", currBucket)).getChildren();
+                }
+                catch (FileSystemException ex)
+                {
+                    log.warn(String.format("warmUp() : Could not list bucket '%s'", currBucket), ex);
+                }
+            }
+        }
+
+        log.debug(String.format("warmUp() : Opened %d connections in %dms", res,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+        return res;
+    }
+
+    /**
+     * The error code of a MinIO error response.
+     *
+     * @param ex The error
+     * @return The code, or null if there is none or it is not one MinIO knows
+     */
+    static ErrorCode getErrorCode(ErrorResponseException ex)
+    {
+        try
+        {
+            return ex.errorResponse() == null ? null : ex.errorResponse().errorCode();
+        }
+        catch (IllegalArgumentException iex)
+        {
+            return null;
+        }
     }
     
     @Override
@@ -73,5 +627,61 @@ public class MinIOFileSystem
     {
         caps.addAll(MinIOFileProvider.capabilities);
     }
+
+    /**
+     * Releases the shared clients once the file-system is closed.
+     */
+    @Override
+    public void close()
+    {
+        super.close();
+
+        balancer.close();
+
+        SS3ClientRegistry<MinioClient> registry;
+        lock.lock();
+        try
+        {
+            registry = clientRegistry;
+            clientRegistry = null;
+
+            if( hedgeExecutor != null )
+            {
+                hedgeExecutor.shutdown();
+                hedgeExecutor = null;
+                hedger = null;
+            }
+
+            if( fanOutExecutor != null )
+            {
+                fanOutExecutor.shutdown();
+                fanOutExecutor = null;
+            }
+
+            if( uploadExecutor != null )
+            {
+                uploadExecutor.shutdown();
+                uploadExecutor = null;
+            }
+
+            if( streamingExecutor != null )
+            {
+                streamingExecutor.shutdown();
+                streamingExecutor = null;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if( registry != null )
+        {
+            for( MinioClient currClient : balancer.getClients() )
+            {
+                registry.release(currClient);
+            }
+        }
+    }
     
 }
@@ -16,10 +16,21 @@
  */
 package com.sludev.commons.vfs2.provider.minio;
 
+import com.sludev.commons.vfs2.provider.s3.SS3Hedger;
+import com.sludev.commons.vfs2.provider.s3.SS3Throttle;
+import io.minio.MinioClient;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import org.apache.commons.vfs2.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  *
  * @author kervin
@@ -29,6 +40,29 @@ public class MinIOFileSystemConfigBuilder extends FileSystemConfigBuilder
     private static final Logger log = LoggerFactory.getLogger(MinIOFileSystemConfigBuilder.class);
     private static final MinIOFileSystemConfigBuilder BUILDER = new MinIOFileSystemConfigBuilder();
 
+    /**
+     * The MinIO client's own timeout, used for the timeouts not set.
+     */
+    public static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_HEDGE_MAX_SIZE = 1024L * 1024;
+    public static final int DEFAULT_HEDGE_THREADS = 32;
+    public static final long DEFAULT_WARM_UP_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    public static final int DEFAULT_FAN_OUT_THREADS = 16;
+    public static final int DEFAULT_DELETE_BATCHES_IN_FLIGHT = 4;
+    public static final int DEFAULT_UPLOAD_THREADS = 4;
+    public static final long DEFAULT_UPLOAD_PART_SIZE = 8L * 1024 * 1024;
+    public static final int DEFAULT_READ_WINDOW_SIZE = 1024 * 1024;
+    public static final long DEFAULT_HEALTH_CHECK_TIMEOUT = TimeUnit.SECONDS.toMillis(2);
+
+    private static final String[] HTTP_CLIENT_PARAMS = 
+        {
+            "maxConnections", "connectionTimeout", "socketTimeout", "requestTimeout",
+            "socketSendBufferSizeHint", "socketReceiveBufferSizeHint", "idleConnectionTimeout",
+            "tcpKeepAlive"
+        };
+
     @Override
     protected Class<? extends FileSystem> getConfigClass()
     {
@@ -71,4 +105,782 @@ public class MinIOFileSystemConfigBuilder extends FileSystemConfigBuilder
     {
         return (UserAuthenticator) getParam(opts, "userAuthenticator");
     }
+    
+    /**
+     * Sets the most idle HTTP connections kept for reuse, and the most concurrent
+     * asynchronous requests per host.
+     * @param opts The FileSystemOptions.
+     * @param maxConnections The number of connections.
+     */
+    public void setMaxConnections(FileSystemOptions opts, int maxConnections)
+    {
+        setParam(opts, "maxConnections", maxConnections);
+    }
+    
+    /**
+     * @see #setMaxConnections
+     * @param opts The FileSystemOptions.
+     * @return The number of connections.
+     */
+    public int getMaxConnections(FileSystemOptions opts)
+    {
+        return getInteger(opts, "maxConnections", DEFAULT_MAX_IDLE_CONNECTIONS);
+    }
+    
+    /**
+     * Sets the timeout for opening a connection.
+     * @param opts The FileSystemOptions.
+     * @param timeout The timeout in milliseconds.
+     */
+    public void setConnectionTimeout(FileSystemOptions opts, long timeout)
+    {
+        setParam(opts, "connectionTimeout", timeout);
+    }
+    
+    /**
+     * @see #setConnectionTimeout
+     * @param opts The FileSystemOptions.
+     * @return The timeout in milliseconds.
+     */
+    public long getConnectionTimeout(FileSystemOptions opts)
+    {
+        return getLong(opts, "connectionTimeout", DEFAULT_TIMEOUT);
+    }
+    
+    /**
+     * Sets the timeout for reading from, or writing to, an open connection.
+     * @param opts The FileSystemOptions.
+     * @param timeout The timeout in milliseconds.
+     */
+    public void setSocketTimeout(FileSystemOptions opts, long timeout)
+    {
+        setParam(opts, "socketTimeout", timeout);
+    }
+    
+    /**
+     * @see #setSocketTimeout
+     * @param opts The FileSystemOptions.
+     * @return The timeout in milliseconds.
+     */
+    public long getSocketTimeout(FileSystemOptions opts)
+    {
+        return getLong(opts, "socketTimeout", DEFAULT_TIMEOUT);
+    }
+    
+    /**
+     * Sets the timeout for a whole request, including its response body.
+     * @param opts The FileSystemOptions.
+     * @param timeout The timeout in milliseconds, 0 for none.
+     */
+    public void setRequestTimeout(FileSystemOptions opts, long timeout)
+    {
+        setParam(opts, "requestTimeout", timeout);
+    }
+    
+    /**
+     * @see #setRequestTimeout
+     * @param opts The FileSystemOptions.
+     * @return The timeout in milliseconds, 0 for none.
+     */
+    public long getRequestTimeout(FileSystemOptions opts)
+    {
+        return getLong(opts, "requestTimeout", 0L);
+    }
+    
+    /**
+     * Sets the socket send and receive buffer size hints.  Larger buffers help
+     * throughput on links with a high bandwidth-delay product.
+     * @param opts The FileSystemOptions.
+     * @param sendBufferSize The send buffer size in bytes.
+     * @param receiveBufferSize The receive buffer size in bytes.
+     */
+    public void setSocketBufferSizeHints(FileSystemOptions opts, int sendBufferSize, int receiveBufferSize)
+    {
+        setParam(opts, "socketSendBufferSizeHint", sendBufferSize);
+        setParam(opts, "socketReceiveBufferSizeHint", receiveBufferSize);
+    }
+    
+    /**
+     * @see #setSocketBufferSizeHints
+     * @param opts The FileSystemOptions.
+     * @return The send buffer size in bytes, 0 for the system default.
+     */
+    public int getSocketSendBufferSizeHint(FileSystemOptions opts)
+    {
+        return getInteger(opts, "socketSendBufferSizeHint", 0);
+    }
+    
+    /**
+     * @see #setSocketBufferSizeHints
+     * @param opts The FileSystemOptions.
+     * @return The receive buffer size in bytes, 0 for the system default.
+     */
+    public int getSocketReceiveBufferSizeHint(FileSystemOptions opts)
+    {
+        return getInteger(opts, "socketReceiveBufferSizeHint", 0);
+    }
+    
+    /**
+     * Sets how long an idle connection is kept before it is closed.
+     * @param opts The FileSystemOptions.
+     * @param timeout The time in milliseconds.
+     */
+    public void setIdleConnectionTimeout(FileSystemOptions opts, long timeout)
+    {
+        setParam(opts, "idleConnectionTimeout", timeout);
+    }
+    
+    /**
+     * @see #setIdleConnectionTimeout
+     * @param opts The FileSystemOptions.
+     * @return The time in milliseconds.
+     */
+    public long getIdleConnectionTimeout(FileSystemOptions opts)
+    {
+        return getLong(opts, "idleConnectionTimeout", DEFAULT_IDLE_CONNECTION_TIMEOUT);
+    }
+    
+    /**
+     * Sets whether TCP keep-alive is enabled on connections.
+     * @param opts The FileSystemOptions.
+     * @param keepAlive True to enable TCP keep-alive.
+     */
+    public void setTcpKeepAlive(FileSystemOptions opts, boolean keepAlive)
+    {
+        setParam(opts, "tcpKeepAlive", keepAlive);
+    }
+    
+    /**
+     * @see #setTcpKeepAlive
+     * @param opts The FileSystemOptions.
+     * @return True if TCP keep-alive is enabled.
+     */
+    public boolean getTcpKeepAlive(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "tcpKeepAlive", false);
+    }
+    
+    /**
+     * Enables client-side throttling.  Requests are rate limited per bucket, the
+     * limit is lowered when the server answers SlowDown and raised again on
+     * success, and failures are retried with jittered exponential backoff.
+     *
+     * Disabled by default.  Every request counts against the rate limit, reads
+     * included, so the maximum rate should be set to what the cluster can take
+     * before it is enabled.
+     * @param opts The FileSystemOptions.
+     * @param throttle True to enable throttling.
+     */
+    public void setThrottle(FileSystemOptions opts, boolean throttle)
+    {
+        setParam(opts, "throttle", throttle);
+    }
+
+    /**
+     * @see #setThrottle
+     * @param opts The FileSystemOptions.
+     * @return True if throttling is enabled.
+     */
+    public boolean getThrottle(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "throttle", false);
+    }
+
+    /**
+     * Sets how many times the throttle retries a failed request.
+     * @param opts The FileSystemOptions.
+     * @param retries The number of retries.
+     */
+    public void setThrottleRetries(FileSystemOptions opts, int retries)
+    {
+        setParam(opts, "throttleRetries", retries);
+    }
+
+    /**
+     * @see #setThrottleRetries
+     * @param opts The FileSystemOptions.
+     * @return The number of retries.
+     */
+    public int getThrottleRetries(FileSystemOptions opts)
+    {
+        return getInteger(opts, "throttleRetries", SS3Throttle.DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Sets the highest request rate sent to a single bucket.
+     * @param opts The FileSystemOptions.
+     * @param rate The rate in requests per second.
+     */
+    public void setThrottleMaxRate(FileSystemOptions opts, double rate)
+    {
+        setParam(opts, "throttleMaxRate", rate);
+    }
+
+    /**
+     * @see #setThrottleMaxRate
+     * @param opts The FileSystemOptions.
+     * @return The rate in requests per second.
+     */
+    public double getThrottleMaxRate(FileSystemOptions opts)
+    {
+        return getDouble(opts, "throttleMaxRate", SS3Throttle.DEFAULT_MAX_RATE);
+    }
+
+    /**
+     * Sets the lowest request rate the throttle lowers a bucket's limit to.
+     * @param opts The FileSystemOptions.
+     * @param rate The rate in requests per second.
+     */
+    public void setThrottleMinRate(FileSystemOptions opts, double rate)
+    {
+        setParam(opts, "throttleMinRate", rate);
+    }
+
+    /**
+     * @see #setThrottleMinRate
+     * @param opts The FileSystemOptions.
+     * @return The rate in requests per second.
+     */
+    public double getThrottleMinRate(FileSystemOptions opts)
+    {
+        return getDouble(opts, "throttleMinRate", SS3Throttle.DEFAULT_MIN_RATE);
+    }
+
+    /**
+     * Creates the throttle for a file-system from the options.
+     * @param opts The FileSystemOptions.
+     * @return The throttle, or null if throttling is disabled.
+     */
+    public SS3Throttle createThrottle(FileSystemOptions opts)
+    {
+        if( getThrottle(opts) == false )
+        {
+            return null;
+        }
+
+        return new SS3Throttle(MinIOFileSystem.CLASSIFIER, getThrottleRetries(opts),
+                               getThrottleMaxRate(opts), getThrottleMinRate(opts));
+    }
+
+    /**
+     * Run the provider's background work, e.g. hedged reads, on virtual threads
+     * when the JVM supports them.
+     * @param opts The FileSystemOptions.
+     * @param virtualThreads True to use virtual threads.
+     */
+    public void setUseVirtualThreads(FileSystemOptions opts, boolean virtualThreads)
+    {
+        setParam(opts, "useVirtualThreads", virtualThreads);
+    }
+
+    /**
+     * @see #setUseVirtualThreads
+     * @param opts The FileSystemOptions.
+     * @return True if virtual threads should be used.
+     */
+    public boolean getUseVirtualThreads(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "useVirtualThreads", false);
+    }
+
+    /**
+     * Sets the number of threads background work, such as published listings
+     * and content, runs on.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setFanOutThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "fanOutThreads", threads);
+    }
+
+    /**
+     * @see #setFanOutThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of threads.
+     */
+    public int getFanOutThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "fanOutThreads", DEFAULT_FAN_OUT_THREADS);
+    }
+
+    /**
+     * Sets the most bulk delete requests, of up to 1000 keys each, in flight at
+     * once when deleting a folder.
+     * @param opts The FileSystemOptions.
+     * @param batches The number of requests.
+     */
+    public void setDeleteBatchesInFlight(FileSystemOptions opts, int batches)
+    {
+        setParam(opts, "deleteBatchesInFlight", batches);
+    }
+
+    /**
+     * @see #setDeleteBatchesInFlight
+     * @param opts The FileSystemOptions.
+     * @return The number of requests.
+     */
+    public int getDeleteBatchesInFlight(FileSystemOptions opts)
+    {
+        return getInteger(opts, "deleteBatchesInFlight", DEFAULT_DELETE_BATCHES_IN_FLIGHT);
+    }
+
+    /**
+     * Stream output straight into a multipart upload instead of spooling it to a
+     * local temporary file first.  Uploading starts as soon as the first part is
+     * written.  The object size is not known up front, so an object can have at
+     * most 10,000 parts.
+     * @param opts The FileSystemOptions.
+     * @param streaming True to stream uploads.
+     */
+    public void setStreamingUpload(FileSystemOptions opts, boolean streaming)
+    {
+        setParam(opts, "streamingUpload", streaming);
+    }
+
+    /**
+     * @see #setStreamingUpload
+     * @param opts The FileSystemOptions.
+     * @return True if uploads are streamed.
+     */
+    public boolean getStreamingUpload(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "streamingUpload", false);
+    }
+
+    /**
+     * Sets the size of the parts of streamed uploads.  MinIO's minimum is 5MB.
+     * A streaming output stream buffers about two parts in memory.
+     * @param opts The FileSystemOptions.
+     * @param partSize The part size in bytes.
+     */
+    public void setUploadPartSize(FileSystemOptions opts, long partSize)
+    {
+        setParam(opts, "uploadPartSize", partSize);
+    }
+
+    /**
+     * @see #setUploadPartSize
+     * @param opts The FileSystemOptions.
+     * @return The part size in bytes.
+     */
+    public long getUploadPartSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "uploadPartSize", DEFAULT_UPLOAD_PART_SIZE);
+    }
+
+    /**
+     * Sets the number of uploads that stage small sources of a composed object
+     * at once.  Streaming output streams each run on their own thread and are
+     * not limited by this.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setUploadThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "uploadThreads", threads);
+    }
+
+    /**
+     * @see #setUploadThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of threads.
+     */
+    public int getUploadThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "uploadThreads", DEFAULT_UPLOAD_THREADS);
+    }
+
+    /**
+     * Sets the number of bytes random access content fetches per request, and
+     * keeps for the reads that follow.  Windows no larger than the hedge size
+     * limit can be hedged.
+     * @param opts The FileSystemOptions.
+     * @param size The window size in bytes.
+     */
+    public void setReadWindowSize(FileSystemOptions opts, int size)
+    {
+        setParam(opts, "readWindowSize", size);
+    }
+
+    /**
+     * @see #setReadWindowSize
+     * @param opts The FileSystemOptions.
+     * @return The window size in bytes.
+     */
+    public int getReadWindowSize(FileSystemOptions opts)
+    {
+        return getInteger(opts, "readWindowSize", DEFAULT_READ_WINDOW_SIZE);
+    }
+
+    /**
+     * Enables hedged reads.  A small GET, or ranged read, that has produced no
+     * first byte within a percentile of the recent time-to-first-byte is sent
+     * again, and the first response to arrive is used.
+     * @param opts The FileSystemOptions.
+     * @param hedge True to enable hedged reads.
+     */
+    public void setHedge(FileSystemOptions opts, boolean hedge)
+    {
+        setParam(opts, "hedge", hedge);
+    }
+
+    /**
+     * @see #setHedge
+     * @param opts The FileSystemOptions.
+     * @return True if hedged reads are enabled.
+     */
+    public boolean getHedge(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "hedge", false);
+    }
+
+    /**
+     * Sets the time-to-first-byte percentile used as the hedge delay.
+     * @param opts The FileSystemOptions.
+     * @param percentile The percentile, e.g. 95.
+     */
+    public void setHedgePercentile(FileSystemOptions opts, double percentile)
+    {
+        setParam(opts, "hedgePercentile", percentile);
+    }
+
+    /**
+     * @see #setHedgePercentile
+     * @param opts The FileSystemOptions.
+     * @return The percentile.
+     */
+    public double getHedgePercentile(FileSystemOptions opts)
+    {
+        return getDouble(opts, "hedgePercentile", SS3Hedger.DEFAULT_PERCENTILE);
+    }
+
+    /**
+     * Sets the shortest hedge delay.
+     * @param opts The FileSystemOptions.
+     * @param delay The delay in milliseconds.
+     */
+    public void setHedgeMinDelay(FileSystemOptions opts, long delay)
+    {
+        setParam(opts, "hedgeMinDelay", delay);
+    }
+
+    /**
+     * @see #setHedgeMinDelay
+     * @param opts The FileSystemOptions.
+     * @return The delay in milliseconds.
+     */
+    public long getHedgeMinDelay(FileSystemOptions opts)
+    {
+        return getLong(opts, "hedgeMinDelay", SS3Hedger.DEFAULT_MIN_DELAY_MS);
+    }
+
+    /**
+     * Sets the most hedges sent per read, e.g. 0.05 for at most one extra request
+     * in twenty.
+     * @param opts The FileSystemOptions.
+     * @param budget The fraction of reads that may be hedged.
+     */
+    public void setHedgeBudget(FileSystemOptions opts, double budget)
+    {
+        setParam(opts, "hedgeBudget", budget);
+    }
+
+    /**
+     * @see #setHedgeBudget
+     * @param opts The FileSystemOptions.
+     * @return The fraction of reads that may be hedged.
+     */
+    public double getHedgeBudget(FileSystemOptions opts)
+    {
+        return getDouble(opts, "hedgeBudget", SS3Hedger.DEFAULT_BUDGET);
+    }
+
+    /**
+     * Sets the largest read that is hedged.  Larger reads are dominated by their
+     * transfer time rather than their first byte.
+     * @param opts The FileSystemOptions.
+     * @param size The size in bytes.
+     */
+    public void setHedgeMaxSize(FileSystemOptions opts, long size)
+    {
+        setParam(opts, "hedgeMaxSize", size);
+    }
+
+    /**
+     * @see #setHedgeMaxSize
+     * @param opts The FileSystemOptions.
+     * @return The size in bytes.
+     */
+    public long getHedgeMaxSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "hedgeMaxSize", DEFAULT_HEDGE_MAX_SIZE);
+    }
+
+    /**
+     * Sets the number of threads hedged reads run on, if virtual threads are not
+     * used.  A read and its hedge each take a thread while waiting.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setHedgeThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "hedgeThreads", threads);
+    }
+
+    /**
+     * @see #setHedgeThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of threads.
+     */
+    public int getHedgeThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "hedgeThreads", DEFAULT_HEDGE_THREADS);
+    }
+
+    /**
+     * Sets the number of connections opened in parallel when a file-system is
+     * created, so the first requests do not pay for connection setup.  With a
+     * warm-up bucket set the connections go to that bucket's host.
+     * @param opts The FileSystemOptions.
+     * @param connections The number of connections, 0 to disable the warm-up.
+     */
+    public void setWarmUpConnections(FileSystemOptions opts, int connections)
+    {
+        setParam(opts, "warmUpConnections", connections);
+    }
+
+    /**
+     * @see #setWarmUpConnections
+     * @param opts The FileSystemOptions.
+     * @return The number of connections.
+     */
+    public int getWarmUpConnections(FileSystemOptions opts)
+    {
+        return getInteger(opts, "warmUpConnections", 0);
+    }
+
+    /**
+     * Sets the buckets the warm-up connections are opened to.  Without any, the
+     * warm-up lists the buckets instead.
+     * @param opts The FileSystemOptions.
+     * @param buckets The bucket names.
+     */
+    public void setWarmUpBuckets(FileSystemOptions opts, String... buckets)
+    {
+        setParam(opts, "warmUpBuckets", buckets);
+    }
+
+    /**
+     * @see #setWarmUpBuckets
+     * @param opts The FileSystemOptions.
+     * @return The bucket names, empty if none are set.
+     */
+    public String[] getWarmUpBuckets(FileSystemOptions opts)
+    {
+        String[] res = (String[]) getParam(opts, "warmUpBuckets");
+
+        return res == null ? new String[0] : res;
+    }
+
+    /**
+     * Also list the root of each warm-up bucket when a file-system is created,
+     * so the listing is cached before it is first needed.
+     * @param opts The FileSystemOptions.
+     * @param listing True to pre-load the root listings.
+     */
+    public void setWarmUpListing(FileSystemOptions opts, boolean listing)
+    {
+        setParam(opts, "warmUpListing", listing);
+    }
+
+    /**
+     * @see #setWarmUpListing
+     * @param opts The FileSystemOptions.
+     * @return True if the root listings are pre-loaded.
+     */
+    public boolean getWarmUpListing(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "warmUpListing", false);
+    }
+
+    /**
+     * Sets the longest the warm-up may delay the creation of a file-system.
+     * @param opts The FileSystemOptions.
+     * @param timeout The timeout in milliseconds.
+     */
+    public void setWarmUpTimeout(FileSystemOptions opts, long timeout)
+    {
+        setParam(opts, "warmUpTimeout", timeout);
+    }
+
+    /**
+     * @see #setWarmUpTimeout
+     * @param opts The FileSystemOptions.
+     * @return The timeout in milliseconds.
+     */
+    public long getWarmUpTimeout(FileSystemOptions opts)
+    {
+        return getLong(opts, "warmUpTimeout", DEFAULT_WARM_UP_TIMEOUT);
+    }
+
+    /**
+     * Sets the number of failed requests in a row, with connection or server
+     * errors, after which an endpoint of a multi-endpoint file-system is ejected.
+     * @param opts The FileSystemOptions.
+     * @param failures The number of failures.
+     */
+    public void setEndpointFailureThreshold(FileSystemOptions opts, int failures)
+    {
+        setParam(opts, "endpointFailureThreshold", failures);
+    }
+
+    /**
+     * @see #setEndpointFailureThreshold
+     * @param opts The FileSystemOptions.
+     * @return The number of failures.
+     */
+    public int getEndpointFailureThreshold(FileSystemOptions opts)
+    {
+        return getInteger(opts, "endpointFailureThreshold", MinIOEndpointBalancer.DEFAULT_FAILURE_THRESHOLD);
+    }
+
+    /**
+     * Sets how long a failing endpoint is first ejected for.  It doubles each
+     * time the endpoint is ejected again without succeeding in between.
+     * @param opts The FileSystemOptions.
+     * @param time The time in milliseconds.
+     */
+    public void setEndpointEjectionTime(FileSystemOptions opts, long time)
+    {
+        setParam(opts, "endpointEjectionTime", time);
+    }
+
+    /**
+     * @see #setEndpointEjectionTime
+     * @param opts The FileSystemOptions.
+     * @return The time in milliseconds.
+     */
+    public long getEndpointEjectionTime(FileSystemOptions opts)
+    {
+        return getLong(opts, "endpointEjectionTime", MinIOEndpointBalancer.DEFAULT_EJECTION_TIME_MS);
+    }
+
+    /**
+     * Sets the time between health checks of the endpoints of a multi-endpoint
+     * file-system.
+     * @param opts The FileSystemOptions.
+     * @param interval The interval in milliseconds, 0 to disable health checks.
+     */
+    public void setHealthCheckInterval(FileSystemOptions opts, long interval)
+    {
+        setParam(opts, "healthCheckInterval", interval);
+    }
+
+    /**
+     * @see #setHealthCheckInterval
+     * @param opts The FileSystemOptions.
+     * @return The interval in milliseconds.
+     */
+    public long getHealthCheckInterval(FileSystemOptions opts)
+    {
+        return getLong(opts, "healthCheckInterval", MinIOEndpointBalancer.DEFAULT_HEALTH_CHECK_INTERVAL_MS);
+    }
+
+    /**
+     * Sets how long a health check may take before the endpoint counts as down.
+     * @param opts The FileSystemOptions.
+     * @param timeout The timeout in milliseconds.
+     */
+    public void setHealthCheckTimeout(FileSystemOptions opts, long timeout)
+    {
+        setParam(opts, "healthCheckTimeout", timeout);
+    }
+
+    /**
+     * @see #setHealthCheckTimeout
+     * @param opts The FileSystemOptions.
+     * @return The timeout in milliseconds.
+     */
+    public long getHealthCheckTimeout(FileSystemOptions opts)
+    {
+        return getLong(opts, "healthCheckTimeout", DEFAULT_HEALTH_CHECK_TIMEOUT);
+    }
+
+    /**
+     * Creates the balancer for a file-system's endpoints from the options, and
+     * starts its health checks.
+     * @param opts The FileSystemOptions.
+     * @param endpoints The endpoint URLs.
+     * @param clients The client for each endpoint.
+     * @return The balancer.
+     */
+    public MinIOEndpointBalancer createBalancer(FileSystemOptions opts, List<String> endpoints,
+                                                List<MinioClient> clients)
+    {
+        MinIOEndpointBalancer res = new MinIOEndpointBalancer(endpoints, clients,
+                getEndpointFailureThreshold(opts), getEndpointEjectionTime(opts));
+        res.startHealthChecks(getHealthCheckInterval(opts), getHealthCheckTimeout(opts));
+
+        return res;
+    }
+
+    /**
+     * The HTTP options that are set, for telling shared clients apart.
+     * @param opts The FileSystemOptions.
+     * @return The option values.
+     */
+    public List<Object> getHttpClientKey(FileSystemOptions opts)
+    {
+        List<Object> res = new ArrayList<>();
+        for( String currParam : HTTP_CLIENT_PARAMS )
+        {
+            res.add(getParam(opts, currParam));
+        }
+
+        return res;
+    }
+
+    /**
+     * Creates the HTTP client for the MinIO client from the options.
+     * @param opts The FileSystemOptions.
+     * @return The HTTP client, or null if no HTTP option is set and the MinIO
+     *         client should create its own.
+     */
+    public OkHttpClient getHttpClient(FileSystemOptions opts)
+    {
+        boolean configured = false;
+        for( String currParam : HTTP_CLIENT_PARAMS )
+        {
+            if( hasParam(opts, currParam) )
+            {
+                configured = true;
+                break;
+            }
+        }
+        
+        if( configured == false )
+        {
+            return null;
+        }
+        
+        int maxConnections = getMaxConnections(opts);
+        
+        OkHttpClient res = new OkHttpClient.Builder()
+                .connectTimeout(getConnectionTimeout(opts), TimeUnit.MILLISECONDS)
+                .readTimeout(getSocketTimeout(opts), TimeUnit.MILLISECONDS)
+                .writeTimeout(getSocketTimeout(opts), TimeUnit.MILLISECONDS)
+                .callTimeout(getRequestTimeout(opts), TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(maxConnections,
+                        getIdleConnectionTimeout(opts), TimeUnit.MILLISECONDS))
+                .socketFactory(new MinIOSocketFactory(getSocketSendBufferSizeHint(opts),
+                        getSocketReceiveBufferSizeHint(opts), getTcpKeepAlive(opts)))
+                .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                .build();
+        
+        res.dispatcher().setMaxRequests(Math.max(res.dispatcher().getMaxRequests(), maxConnections));
+        res.dispatcher().setMaxRequestsPerHost(maxConnections);
+        
+        return res;
+    }
 }
@@ -16,27 +16,43 @@
  */
 package com.sludev.commons.vfs2.provider.minio;
 
-import com.sludev.commons.vfs2.provider.s3.SS3FileObject;
-import io.minio.errors.*;
-
 import java.io.*;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Wrap an output stream for AWS stream upload.  Which unfortunately uses an
  * InputStream.
  * 
- * This OutputStream buffers all data to a local file then automatically uploads
- * it to Amazon S3 after <code>close()</code> is called.
+ * By default this OutputStream buffers all data to a local file then automatically
+ * uploads it to Amazon S3 after <code>close()</code> is called.
+ * 
+ * In streaming mode the data written is fed through an in-memory pipe into a
+ * multipart upload running on another thread, so nothing is written to local disk
+ * and parts are uploaded while the next ones are still being written.  The pipe
+ * holds one part, so a stream uses about two parts of memory.  Writes block while
+ * the pipe is full.
+ * 
+ * Either way a failed upload is thrown from <code>close()</code>, or from a write
+ * once a streaming upload has failed.
  * 
  * @author kervin
  */
 public final class MinIOOutputStream extends OutputStream
 {
+    /**
+     * Writes are batched into the pipe in chunks of this size.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final File tempFile;
     private final OutputStream tempFileStream;
     private final MinIOFileObject fileObject;
+    private final Pipe pipe;
+    private final FutureTask<Void> upload;
 
     public File getTempFile()
     {
@@ -53,6 +69,48 @@ public final class MinIOOutputStream extends OutputStream
         tempFileStream = new BufferedOutputStream(new FileOutputStream(tempFile));
         
         fileObject = fo;
+        pipe = null;
+        upload = null;
+    }
+
+    /**
+     * Creates a streaming output stream.  The upload starts right away.
+     *
+     * @param fo The file written
+     * @param partSize The size of the parts uploaded, at least 5MB
+     * @param executor The executor the upload runs on.  It holds a thread for as
+     *        long as the stream is open, so the executor must not make the
+     *        upload wait for one.
+     */
+    public MinIOOutputStream(MinIOFileObject fo, long partSize, Executor executor)
+    {
+        super();
+
+        tempFile = null;
+        fileObject = fo;
+        pipe = new Pipe((int)Math.min(Integer.MAX_VALUE - 8, partSize));
+        tempFileStream = new BufferedOutputStream(pipe.getOutputStream(), BUFFER_SIZE);
+
+        upload = new FutureTask<>(() ->
+            {
+                InputStream in = pipe.getInputStream();
+                try
+                {
+                    fileObject.putObject(in, partSize);
+                }
+                catch (IOException | RuntimeException ex)
+                {
+                    pipe.fail(ex);
+                    throw ex;
+                }
+                finally
+                {
+                    in.close();
+                }
+
+                return null;
+            });
+        executor.execute(upload);
     }
 
     @Override
@@ -64,31 +122,59 @@ public final class MinIOOutputStream extends OutputStream
     @Override
     public void close() throws IOException
     {
+        if( upload != null )
+        {
+            try
+            {
+                tempFileStream.close();
+            }
+            catch (IOException ex)
+            {
+                // The upload failed while the last bytes were written.  Prefer its failure.
+                awaitUpload();
+                throw ex;
+            }
+
+            awaitUpload();
+            return;
+        }
+
         tempFileStream.close();
         
         // Upload tempFile
-        try {
+        try
+        {
             fileObject.putObject(tempFile);
-        } catch (ServerException e) {
-            e.printStackTrace();
-        } catch (InvalidBucketNameException e) {
-            e.printStackTrace();
-        } catch (InsufficientDataException e) {
-            e.printStackTrace();
-        } catch (ErrorResponseException e) {
-            e.printStackTrace();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (InvalidResponseException e) {
-            e.printStackTrace();
-        } catch (XmlParserException e) {
-            e.printStackTrace();
-        } catch (InternalException e) {
-            e.printStackTrace();
         }
-        tempFile.delete();
+        finally
+        {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Wait for the streaming upload to finish, and throw its failure.
+     */
+    private void awaitUpload() throws IOException
+    {
+        try
+        {
+            upload.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted uploading '%s'", fileObject.getName()));
+        }
+        catch (ExecutionException ex)
+        {
+            if( ex.getCause() instanceof IOException )
+            {
+                throw (IOException)ex.getCause();
+            }
+
+            throw new IOException(String.format("Upload of '%s' failed", fileObject.getName()), ex.getCause());
+        }
     }
 
     @Override
@@ -126,4 +212,199 @@ public final class MinIOOutputStream extends OutputStream
     {
         return super.hashCode(); 
     }
+
+    /**
+     * A bounded in-memory pipe between the thread writing and the upload reading.
+     * Unlike <code>PipedInputStream</code> it does not care which threads write,
+     * e.g. pool threads that come and go.  Once the upload fails, writes throw
+     * instead of blocking for ever.
+     */
+    static final class Pipe
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final byte[] buffer;
+        private int head;
+        private int count;
+        private boolean writeClosed;
+        private boolean readClosed;
+        private Exception failure;
+
+        Pipe(int capacity)
+        {
+            buffer = new byte[Math.max(1, capacity)];
+        }
+
+        void fail(Exception ex)
+        {
+            lock.lock();
+            try
+            {
+                failure = ex;
+                readClosed = true;
+                notFull.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        OutputStream getOutputStream()
+        {
+            return new OutputStream()
+            {
+                @Override
+                public void write(int b) throws IOException
+                {
+                    write(new byte[] { (byte)b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException
+                {
+                    lock.lock();
+                    try
+                    {
+                        while( len > 0 )
+                        {
+                            if( writeClosed )
+                            {
+                                throw new IOException("Stream closed");
+                            }
+
+                            if( readClosed )
+                            {
+                                throw new IOException("Upload failed", failure);
+                            }
+
+                            if( count == buffer.length )
+                            {
+                                notFull.await();
+                                continue;
+                            }
+
+                            int tail = (head + count) % buffer.length;
+                            int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                            System.arraycopy(b, off, buffer, tail, n);
+                            count += n;
+                            off += n;
+                            len -= n;
+
+                            notEmpty.signal();
+                        }
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted writing to the upload");
+                    }
+                    finally
+                    {
+                        lock.unlock();
+                    }
+                }
+
+                @Override
+                public void close()
+                {
+                    lock.lock();
+                    try
+                    {
+                        writeClosed = true;
+                        notEmpty.signalAll();
+                    }
+                    finally
+                    {
+                        lock.unlock();
+                    }
+                }
+            };
+        }
+
+        InputStream getInputStream()
+        {
+            return new InputStream()
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    byte[] b = new byte[1];
+
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    if( len == 0 )
+                    {
+                        return 0;
+                    }
+
+                    lock.lock();
+                    try
+                    {
+                        while( count == 0 )
+                        {
+                            if( writeClosed )
+                            {
+                                return -1;
+                            }
+
+                            notEmpty.await();
+                        }
+
+                        int n = Math.min(len, Math.min(count, buffer.length - head));
+                        System.arraycopy(buffer, head, b, off, n);
+                        head = (head + n) % buffer.length;
+                        count -= n;
+
+                        notFull.signal();
+
+                        return n;
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted reading the upload");
+                    }
+                    finally
+                    {
+                        lock.unlock();
+                    }
+                }
+
+                @Override
+                public int available()
+                {
+                    lock.lock();
+                    try
+                    {
+                        return count;
+                    }
+                    finally
+                    {
+                        lock.unlock();
+                    }
+                }
+
+                @Override
+                public void close()
+                {
+                    lock.lock();
+                    try
+                    {
+                        readClosed = true;
+                        notFull.signalAll();
+                    }
+                    finally
+                    {
+                        lock.unlock();
+                    }
+                }
+            };
+        }
+    }
 }
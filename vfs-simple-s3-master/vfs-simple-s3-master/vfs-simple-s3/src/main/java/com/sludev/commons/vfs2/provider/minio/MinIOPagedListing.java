@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.Result;
+import io.minio.messages.Item;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lists the objects under a prefix a page at a time.
+ *
+ * MinIO's listing iterator fetches pages as it goes, so a page here is as many
+ * entries as a listing request returns.  The iterator keeps the client of the
+ * first request, so later pages are made with that endpoint's client too.  If
+ * a request fails the listing is restarted after the last entry read, on
+ * whichever endpoint is best then.
+ *
+ * @author Kervin Pierre
+ */
+final class MinIOPagedListing
+{
+    private final MinIOFileSystem fileSystem;
+    private final String bucket;
+    private final String prefix;
+    private final boolean recursive;
+    private final int pageSize;
+    private Iterator<Result<Item>> blobs;
+    private MinioClient blobsClient;
+    private String lastKey;
+    private boolean finished;
+
+    /**
+     * Creates a listing.
+     *
+     * @param fileSystem The file-system requests are made through
+     * @param bucket The bucket
+     * @param prefix The prefix.  An empty prefix lists the bucket root.
+     * @param recursive True to list every object under the prefix, false for
+     *        the entries directly under it, folders included
+     * @param pageSize The most entries per page and listing request
+     */
+    MinIOPagedListing(MinIOFileSystem fileSystem, String bucket, String prefix, boolean recursive, int pageSize)
+    {
+        this.fileSystem = fileSystem;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.recursive = recursive;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Read the next page of entries.
+     *
+     * @return The entries, or null once the listing is finished
+     * @throws IOException if the listing request failed
+     */
+    List<Item> nextPage() throws IOException
+    {
+        if( finished )
+        {
+            return null;
+        }
+
+        List<Item> res = fileSystem.execute(bucket, blobsClient, this::readPage);
+        if( finished && res.isEmpty() )
+        {
+            return null;
+        }
+
+        return res;
+    }
+
+    private List<Item> readPage(MinioClient client) throws Exception
+    {
+        if( blobs == null )
+        {
+            ListObjectsArgs.Builder args = ListObjectsArgs.builder().bucket(bucket).recursive(recursive)
+                    .maxKeys(pageSize);
+            if( prefix.isEmpty() == false )
+            {
+                args.prefix(prefix);
+            }
+
+            if( lastKey != null )
+            {
+                args.startAfter(lastKey);
+            }
+
+            blobs = client.listObjects(args.build()).iterator();
+            blobsClient = client;
+        }
+
+        List<Item> res = new ArrayList<>();
+        try
+        {
+            while( res.size() < pageSize && blobs.hasNext() )
+            {
+                res.add(blobs.next().get());
+            }
+
+            finished = blobs.hasNext() == false;
+        }
+        catch (Exception ex)
+        {
+            // Start over from the last entry read
+            blobs = null;
+            blobsClient = null;
+            throw ex;
+        }
+
+        if( res.isEmpty() == false )
+        {
+            lastKey = res.get(res.size() - 1).objectName();
+        }
+
+        return res;
+    }
+}
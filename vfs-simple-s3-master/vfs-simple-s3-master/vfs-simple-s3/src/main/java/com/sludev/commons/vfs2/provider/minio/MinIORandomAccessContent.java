@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import org.apache.commons.vfs2.provider.AbstractRandomAccessStreamContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read-only random access to a MinIO object using ranged GETs.
+ *
+ * Reads are served from a window of the object, fetched with one ranged request
+ * at the current position and kept for later reads that fall inside it.  Seeking
+ * makes no request.  Reads larger than the window are fetched straight into the
+ * caller's buffer.  So readers that jump around a large object, e.g. zip, Parquet
+ * or index files, only fetch the ranges they touch.  Every request is made on
+ * the ETag the object had when opened, so a read fails rather than mixing in
+ * the content of an object replaced since.
+ *
+ * @author Kervin Pierre
+ */
+public class MinIORandomAccessContent extends AbstractRandomAccessStreamContent
+{
+    private final MinIOFileSystem fileSystem;
+    private final String bucket;
+    private final String key;
+    private final String etag;
+    private final long length;
+    private final byte[] window;
+    private final DataInputStream dataInputStream;
+
+    private long filePointer;
+    private long windowStart;
+    private int windowLength;
+
+    /**
+     * Creates random access content.
+     *
+     * @param fileSystem The file-system the object is read through
+     * @param bucket The bucket
+     * @param key The object key
+     * @param etag The object's ETag, or null to read whatever version is current
+     * @param length The size of the object
+     * @param windowSize The number of bytes fetched per request
+     * @param mode The access mode.  Only reading is supported.
+     */
+    public MinIORandomAccessContent(MinIOFileSystem fileSystem, String bucket, String key, String etag,
+                                    long length, int windowSize, RandomAccessMode mode)
+    {
+        super(mode);
+
+        this.fileSystem = fileSystem;
+        this.bucket = bucket;
+        this.key = key;
+        this.etag = etag;
+        this.length = length;
+        this.window = new byte[Math.max(1, windowSize)];
+        this.dataInputStream = new DataInputStream(new WindowInputStream());
+    }
+
+    @Override
+    protected DataInputStream getDataInputStream() throws IOException
+    {
+        return dataInputStream;
+    }
+
+    @Override
+    public long getFilePointer() throws IOException
+    {
+        return filePointer;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException
+    {
+        if( pos < 0 )
+        {
+            throw new IOException(String.format("Invalid position %d", pos));
+        }
+
+        filePointer = pos;
+    }
+
+    @Override
+    public long length() throws IOException
+    {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        // Each request is read to the end and closed, so nothing stays open
+        windowLength = 0;
+    }
+
+    /**
+     * Read from the current position, moving it forward.
+     */
+    private int read(byte[] b, int off, int len) throws IOException
+    {
+        if( len == 0 )
+        {
+            return 0;
+        }
+
+        if( filePointer >= length )
+        {
+            return -1;
+        }
+
+        len = (int)Math.min(len, length - filePointer);
+
+        if( len >= window.length )
+        {
+            // Too big for the window.  Fetch it directly instead of in window sized pieces.
+            fetch(filePointer, b, off, len);
+            filePointer += len;
+
+            return len;
+        }
+
+        if( filePointer < windowStart || filePointer >= windowStart + windowLength )
+        {
+            windowStart = filePointer;
+            windowLength = (int)Math.min(window.length, length - filePointer);
+            try
+            {
+                fetch(windowStart, window, 0, windowLength);
+            }
+            catch (IOException ex)
+            {
+                windowLength = 0;
+                throw ex;
+            }
+        }
+
+        int res = Math.min(len, (int)(windowStart + windowLength - filePointer));
+        System.arraycopy(window, (int)(filePointer - windowStart), b, off, res);
+        filePointer += res;
+
+        return res;
+    }
+
+    /**
+     * Fetch a range of the object with a single ranged GET.
+     */
+    private void fetch(long offset, byte[] b, int off, int len) throws IOException
+    {
+        try( InputStream in = fileSystem.getObject(bucket, key, offset, (long)len, len, etag) )
+        {
+            int read = 0;
+            while( read < len )
+            {
+                int n = in.read(b, off + read, len - read);
+                if( n < 0 )
+                {
+                    throw new EOFException(String.format("'%s/%s' ended at %d, expected %d bytes",
+                                                         bucket, key, offset + read, length));
+                }
+
+                read += n;
+            }
+        }
+    }
+
+    /**
+     * The stream the data input methods read through.  It reads at the current
+     * position, so it follows seeks.
+     */
+    private final class WindowInputStream extends InputStream
+    {
+        @Override
+        public int read() throws IOException
+        {
+            if( filePointer >= windowStart && filePointer < windowStart + windowLength )
+            {
+                return window[(int)(filePointer++ - windowStart)] & 0xff;
+            }
+
+            byte[] b = new byte[1];
+
+            return MinIORandomAccessContent.this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            return MinIORandomAccessContent.this.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long res = Math.max(0, Math.min(n, length - filePointer));
+            filePointer += res;
+
+            return res;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            if( filePointer >= windowStart && filePointer < windowStart + windowLength )
+            {
+                return (int)(windowStart + windowLength - filePointer);
+            }
+
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Creates plain sockets with buffer sizes and keep-alive applied, for the
+ * MinIO client's HTTP connections.
+ *
+ * @author Kervin Pierre
+ */
+class MinIOSocketFactory extends SocketFactory
+{
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final boolean keepAlive;
+
+    /**
+     * @param sendBufferSize The send buffer size hint, 0 for the system default
+     * @param receiveBufferSize The receive buffer size hint, 0 for the system default
+     * @param keepAlive Enable TCP keep-alive
+     */
+    MinIOSocketFactory(int sendBufferSize, int receiveBufferSize, boolean keepAlive)
+    {
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.keepAlive = keepAlive;
+    }
+
+    private Socket configure(Socket socket) throws IOException
+    {
+        if( sendBufferSize > 0 )
+        {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+
+        if( receiveBufferSize > 0 )
+        {
+            // Set before connecting so it applies to the TCP window scale
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+
+        if( keepAlive )
+        {
+            socket.setKeepAlive(true);
+        }
+
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket() throws IOException
+    {
+        return configure(new Socket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException
+    {
+        Socket res = createSocket();
+        res.connect(new InetSocketAddress(host, port));
+
+        return res;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException
+    {
+        Socket res = createSocket();
+        res.bind(new InetSocketAddress(localHost, localPort));
+        res.connect(new InetSocketAddress(host, port));
+
+        return res;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException
+    {
+        Socket res = createSocket();
+        res.connect(new InetSocketAddress(host, port));
+
+        return res;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException
+    {
+        Socket res = createSocket();
+        res.bind(new InetSocketAddress(localAddress, localPort));
+        res.connect(new InetSocketAddress(address, port));
+
+        return res;
+    }
+}
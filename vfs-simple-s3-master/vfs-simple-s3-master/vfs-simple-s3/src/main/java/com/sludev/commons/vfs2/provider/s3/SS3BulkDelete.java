@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Deletes many objects with DeleteObjects requests of up to 1000 keys each,
+ * with several requests in flight at once.
+ * 
+ * Failures are reported per key rather than failing the whole delete.
+ * 
+ * @author Kervin Pierre
+ */
+class SS3BulkDelete
+{
+    /**
+     * Most keys Amazon S3 accepts in a single DeleteObjects request.
+     */
+    static final int MAX_DELETE_KEYS = SS3DeleteBatches.MAX_DELETE_KEYS;
+    
+    private final AmazonS3Client client;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final SS3Throttle throttle;
+    
+    /**
+     * The outcome of a bulk delete.
+     */
+    static final class Result
+    {
+        private final int deleted;
+        private final Map<String, String> failures;
+        
+        private Result(int deleted, Map<String, String> failures)
+        {
+            this.deleted = deleted;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+        
+        /**
+         * @return The number of keys deleted
+         */
+        int getDeleted()
+        {
+            return deleted;
+        }
+        
+        /**
+         * @return The keys that could not be deleted, mapped to the reason
+         */
+        Map<String, String> getFailures()
+        {
+            return failures;
+        }
+    }
+    
+    /**
+     * Creates a new bulk delete.
+     * 
+     * @param client The client used for listing and deleting
+     * @param executor The executor delete requests run on
+     * @param concurrency The most delete requests in flight at once
+     * @param throttle The throttle requests go through, may be null
+     */
+    SS3BulkDelete(AmazonS3Client client, ExecutorService executor, int concurrency, SS3Throttle throttle)
+    {
+        this.client = client;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.throttle = throttle;
+    }
+    
+    /**
+     * Delete every object under a prefix.  Delete requests are sent as the
+     * listing pages arrive, without looking at each object first.
+     * 
+     * @param bucket The bucket
+     * @param prefix The prefix.  An empty prefix deletes the whole bucket content.
+     * @return The outcome
+     * @throws InterruptedIOException if interrupted
+     */
+    Result deletePrefix(String bucket, String prefix) throws InterruptedIOException
+    {
+        SS3DeleteBatches batches = newBatches(bucket);
+        
+        ListObjectsRequest loReq = new ListObjectsRequest()
+                .withBucketName(bucket)
+                .withPrefix(prefix);
+        
+        ObjectListing blobs = SS3Throttle.executeAws(throttle, bucket, () -> client.listObjects(loReq));
+        while( true )
+        {
+            for( S3ObjectSummary osum : blobs.getObjectSummaries() )
+            {
+                batches.add(osum.getKey());
+            }
+            
+            if( blobs.isTruncated() == false )
+            {
+                break;
+            }
+            
+            final ObjectListing prev = blobs;
+            blobs = SS3Throttle.executeAws(throttle, bucket, () -> client.listNextBatchOfObjects(prev));
+        }
+        
+        batches.await();
+        
+        return new Result(batches.getDeleted(), batches.getFailures());
+    }
+    
+    /**
+     * Delete a set of keys.
+     * 
+     * @param bucket The bucket
+     * @param keys The keys
+     * @return The outcome
+     * @throws InterruptedIOException if interrupted
+     */
+    Result deleteKeys(String bucket, Collection<String> keys) throws InterruptedIOException
+    {
+        SS3DeleteBatches batches = newBatches(bucket);
+        
+        for( String currKey : keys )
+        {
+            batches.add(currKey);
+        }
+        
+        batches.await();
+        
+        return new Result(batches.getDeleted(), batches.getFailures());
+    }
+    
+    /**
+     * The batches of a bulk delete, sent with DeleteObjects requests.
+     */
+    private SS3DeleteBatches newBatches(final String bucket)
+    {
+        return new SS3DeleteBatches(bucket, executor, concurrency, keys ->
+            {
+                DeleteObjectsRequest req = new DeleteObjectsRequest(bucket)
+                        .withKeys(keys.toArray(new String[keys.size()]))
+                        .withQuiet(true);
+                
+                try
+                {
+                    SS3Throttle.executeAws(throttle, bucket, () -> client.deleteObjects(req));
+                }
+                catch (MultiObjectDeleteException ex)
+                {
+                    Map<String, String> res = new HashMap<>();
+                    for( MultiObjectDeleteException.DeleteError currError : ex.getErrors() )
+                    {
+                        res.put(currError.getKey(),
+                                String.format("%s : %s", currError.getCode(), currError.getMessage()));
+                    }
+                    
+                    return res;
+                }
+                
+                return Collections.emptyMap();
+            });
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.util.BinaryUtils;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares clients between file-systems.  A provider keeps one registry and
+ * file-systems with the same endpoint, region, credentials and client options
+ * get the same client, and so the same warm connection pool.
+ * 
+ * Clients are reference counted and closed when the last file-system using
+ * them releases them.
+ * 
+ * @param <C> The client type
+ * @author Kervin Pierre
+ */
+public class SS3ClientRegistry<C>
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3ClientRegistry.class);
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Object, Entry<C>> entries = new HashMap<>();
+    private final Map<C, Entry<C>> byClient = new IdentityHashMap<>();
+    
+    private static final class Entry<C>
+    {
+        private final Object key;
+        private final C client;
+        private final Consumer<? super C> closer;
+        private int refs;
+        
+        Entry(Object key, C client, Consumer<? super C> closer)
+        {
+            this.key = key;
+            this.client = client;
+            this.closer = closer;
+        }
+    }
+    
+    /**
+     * Get the client for a key, creating it if no file-system holds one.  Every
+     * call must be matched by a <code>release()</code>.
+     * 
+     * @param key Identifies the client.  It must have a value based
+     *        <code>equals()</code>, e.g. a list of the endpoint, region,
+     *        credentials digest and options.
+     * @param factory Creates the client if needed
+     * @param closer Closes the client once it is no longer used
+     * @return The shared client
+     */
+    public C acquire(Object key, Supplier<? extends C> factory, Consumer<? super C> closer)
+    {
+        lock.lock();
+        try
+        {
+            Entry<C> res = entries.get(key);
+            if( res == null )
+            {
+                res = new Entry<>(key, factory.get(), closer);
+                entries.put(key, res);
+                byClient.put(res.client, res);
+            }
+            
+            res.refs++;
+            
+            return res.client;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Release a client returned by <code>acquire()</code>.  The client is closed
+     * when its last user releases it.
+     * 
+     * @param client The client
+     */
+    public void release(C client)
+    {
+        Entry<C> closing = null;
+        
+        lock.lock();
+        try
+        {
+            Entry<C> entry = byClient.get(client);
+            if( entry == null )
+            {
+                log.warn("release() : Client is not in the registry");
+                return;
+            }
+            
+            entry.refs--;
+            if( entry.refs <= 0 )
+            {
+                entries.remove(entry.key);
+                byClient.remove(client);
+                closing = entry;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        if( closing != null && closing.closer != null )
+        {
+            try
+            {
+                closing.closer.accept(closing.client);
+            }
+            catch (RuntimeException ex)
+            {
+                log.warn("release() : Could not close client", ex);
+            }
+        }
+    }
+    
+    /**
+     * The number of clients currently shared.
+     * 
+     * @return 
+     */
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            return entries.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * A digest of a secret, for use in registry keys so the secret itself is not
+     * kept in them.
+     * 
+     * @param secret The secret
+     * @return The hex SHA-256 of the secret
+     */
+    public static String digest(String secret)
+    {
+        try
+        {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            
+            return BinaryUtils.toHex(sha.digest(String.valueOf(secret).getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JVM is required to have SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+}
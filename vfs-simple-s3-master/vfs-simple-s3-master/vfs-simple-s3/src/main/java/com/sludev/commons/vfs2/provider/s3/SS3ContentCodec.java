@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compression applied to content written through the provider's output streams.
+ * 
+ * The codec is recorded in the object's Content-Encoding so readers, including
+ * other HTTP clients, know how to decode it.  The length of the content before
+ * it was encoded is recorded in the object's user metadata, so the decoded size
+ * is known without reading the content.
+ * 
+ * @author Kervin Pierre
+ */
+public enum SS3ContentCodec
+{
+    /**
+     * Content is stored as written.
+     */
+    NONE(null),
+    
+    /**
+     * Content is stored gzip compressed.
+     */
+    GZIP("gzip"),
+    
+    /**
+     * Content is stored zlib compressed, i.e. the HTTP "deflate" encoding.
+     */
+    DEFLATE("deflate");
+    
+    /**
+     * User metadata key holding the length of the content before it was
+     * encoded, i.e. the "x-amz-meta-uncompressed-length" header.
+     */
+    public static final String UNCOMPRESSED_LENGTH_METADATA = "uncompressed-length";
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final String contentEncoding;
+    
+    private SS3ContentCodec(String contentEncoding)
+    {
+        this.contentEncoding = contentEncoding;
+    }
+    
+    /**
+     * The Content-Encoding value for this codec.
+     * 
+     * @return The encoding, or null for NONE
+     */
+    public String getContentEncoding()
+    {
+        return contentEncoding;
+    }
+    
+    /**
+     * Wrap a stream so that content written to it is compressed.
+     * 
+     * @param out The stream receiving the compressed content
+     * @return The compressing stream.  Closing it closes <code>out</code>.
+     * @throws IOException 
+     */
+    public OutputStream encode(OutputStream out) throws IOException
+    {
+        switch( this )
+        {
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE);
+                
+            case DEFLATE:
+                return new DeflaterOutputStream(out);
+                
+            default:
+                return out;
+        }
+    }
+    
+    /**
+     * Wrap a stream of compressed content so that reading it returns the
+     * original content.
+     * 
+     * @param in The compressed content
+     * @return The decompressing stream.  Closing it closes <code>in</code>.
+     * @throws IOException 
+     */
+    public InputStream decode(InputStream in) throws IOException
+    {
+        switch( this )
+        {
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+                
+            case DEFLATE:
+                return new InflaterInputStream(in);
+                
+            default:
+                return in;
+        }
+    }
+    
+    /**
+     * The length of an object's content once decoded, as recorded when it was
+     * written.
+     * 
+     * @param metadata The object's metadata
+     * @return The length in bytes, or -1 if it was not recorded
+     */
+    public static long getUncompressedLength(ObjectMetadata metadata)
+    {
+        String res = metadata.getUserMetadata().get(UNCOMPRESSED_LENGTH_METADATA);
+        if( res == null )
+        {
+            return -1;
+        }
+        
+        try
+        {
+            return Long.parseLong(res.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+    
+    /**
+     * Find the codec for a Content-Encoding value.
+     * 
+     * @param contentEncoding The Content-Encoding of an object, may be null
+     * @return The codec, or NONE if the encoding is missing or not one we decode
+     */
+    public static SS3ContentCodec forContentEncoding(String contentEncoding)
+    {
+        String enc = StringUtils.trimToEmpty(contentEncoding);
+        
+        for( SS3ContentCodec currCodec : values() )
+        {
+            if( currCodec.contentEncoding != null && currCodec.contentEncoding.equalsIgnoreCase(enc) )
+            {
+                return currCodec;
+            }
+        }
+        
+        return NONE;
+    }
+}
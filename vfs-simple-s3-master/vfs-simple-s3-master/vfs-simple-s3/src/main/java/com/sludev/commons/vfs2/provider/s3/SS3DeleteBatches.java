@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The delete requests of a single bulk delete.  Keys are added one at a time
+ * and sent in batches of up to 1000, with several requests in flight at once.
+ * 
+ * Failures are recorded per key rather than failing the whole delete.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3DeleteBatches
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3DeleteBatches.class);
+    
+    /**
+     * Most keys a single multi-object delete request accepts.
+     */
+    public static final int MAX_DELETE_KEYS = 1000;
+    
+    /**
+     * Sends the delete request for one batch.
+     */
+    public interface Deleter
+    {
+        /**
+         * @param keys The keys, at most <code>MAX_DELETE_KEYS</code>
+         * @return The keys that could not be deleted, mapped to the reason
+         * @throws Exception if the request failed.  None of the keys count as
+         *         deleted.
+         */
+        Map<String, String> delete(List<String> keys) throws Exception;
+    }
+    
+    private final String bucket;
+    private final ExecutorService executor;
+    private final Deleter deleter;
+    private final Semaphore inFlight;
+    private final List<Future<?>> futures = new ArrayList<>();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+    private List<String> batch = new ArrayList<>(MAX_DELETE_KEYS);
+    
+    /**
+     * Creates the batches of a bulk delete.
+     * 
+     * @param bucket The bucket
+     * @param executor The executor delete requests run on
+     * @param concurrency The most delete requests in flight at once
+     * @param deleter Sends a delete request
+     */
+    public SS3DeleteBatches(String bucket, ExecutorService executor, int concurrency, Deleter deleter)
+    {
+        this.bucket = bucket;
+        this.executor = executor;
+        this.deleter = deleter;
+        this.inFlight = new Semaphore(Math.max(1, concurrency));
+    }
+    
+    /**
+     * Add a key to the current batch, sending it once it is full.
+     * 
+     * @param key The key
+     * @throws InterruptedIOException if interrupted while waiting for a request
+     *         to finish
+     */
+    public void add(String key) throws InterruptedIOException
+    {
+        batch.add(key);
+        if( batch.size() >= MAX_DELETE_KEYS )
+        {
+            submit();
+        }
+    }
+    
+    /**
+     * Send the last batch and wait for every request to finish.
+     * 
+     * @throws InterruptedIOException if interrupted.  The requests in flight are
+     *         cancelled.
+     */
+    public void await() throws InterruptedIOException
+    {
+        submit();
+        
+        try
+        {
+            for( Future<?> currFuture : futures )
+            {
+                currFuture.get();
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            for( Future<?> currFuture : futures )
+            {
+                currFuture.cancel(true);
+            }
+            
+            throw interrupted(ex);
+        }
+        catch (ExecutionException ex)
+        {
+            // deleteBatch() records its own failures
+            throw new IllegalStateException(ex.getCause());
+        }
+        
+        for( Map.Entry<String, String> currFailure : failures.entrySet() )
+        {
+            log.warn(String.format("delete : Could not delete '%s/%s' : %s",
+                                   bucket, currFailure.getKey(), currFailure.getValue()));
+        }
+    }
+    
+    /**
+     * @return The number of keys deleted
+     */
+    public int getDeleted()
+    {
+        return deleted.get();
+    }
+    
+    /**
+     * @return The keys that could not be deleted, mapped to the reason
+     */
+    public Map<String, String> getFailures()
+    {
+        return failures;
+    }
+    
+    /**
+     * Send a delete request for the current batch, waiting while too many
+     * requests are in flight.
+     */
+    private void submit() throws InterruptedIOException
+    {
+        if( batch.isEmpty() )
+        {
+            return;
+        }
+        
+        final List<String> keys = batch;
+        batch = new ArrayList<>(MAX_DELETE_KEYS);
+        
+        try
+        {
+            inFlight.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            throw interrupted(ex);
+        }
+        
+        try
+        {
+            futures.add(executor.submit(() -> 
+                {
+                    try
+                    {
+                        deleteBatch(keys);
+                    }
+                    finally
+                    {
+                        inFlight.release();
+                    }
+                }));
+        }
+        catch (RejectedExecutionException ex)
+        {
+            inFlight.release();
+            throw ex;
+        }
+    }
+    
+    private void deleteBatch(List<String> keys)
+    {
+        Map<String, String> errors;
+        try
+        {
+            errors = deleter.delete(keys);
+        }
+        catch (Exception ex)
+        {
+            log.error(String.format("deleteBatch() : Delete of %d keys in '%s' failed",
+                                    keys.size(), bucket), ex);
+            
+            String reason = String.valueOf(ex.getCause() != null ? ex.getCause() : ex);
+            for( String currKey : keys )
+            {
+                failures.put(currKey, reason);
+            }
+            
+            return;
+        }
+        
+        failures.putAll(errors);
+        deleted.addAndGet(keys.size() - errors.size());
+    }
+    
+    private InterruptedIOException interrupted(InterruptedException ex)
+    {
+        Thread.currentThread().interrupt();
+        
+        InterruptedIOException res = new InterruptedIOException(
+                String.format("Delete in '%s' interrupted", bucket));
+        res.initCause(ex);
+        
+        return res;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.util.BinaryUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Computes Amazon S3 style ETags of local files, so they can be compared with
+ * remote objects without downloading them.
+ * 
+ * A single PUT has the MD5 of the content as its ETag.  A multipart upload has
+ * the MD5 of the concatenated part MD5s, followed by a dash and the part count.
+ * 
+ * @author Kervin Pierre
+ */
+final class SS3ETags
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private SS3ETags()
+    {
+    }
+    
+    /**
+     * Checks whether a local file has the content an ETag was computed from.
+     * 
+     * @param f The local file
+     * @param etag The remote ETag, with or without quotes
+     * @param partSize The part size to assume for a multipart ETag
+     * @return True if the ETag matches.  False if it does not, or if the remote
+     *         object was uploaded with another part size.
+     * @throws IOException if the file could not be read
+     */
+    static boolean matches(File f, String etag, long partSize) throws IOException
+    {
+        String remote = StringUtils.strip(etag, "\"");
+        if( StringUtils.isBlank(remote) )
+        {
+            return false;
+        }
+        
+        int dash = remote.indexOf('-');
+        if( dash < 0 )
+        {
+            return remote.equalsIgnoreCase(md5Hex(f));
+        }
+        
+        int remoteParts;
+        try
+        {
+            remoteParts = Integer.parseInt(remote.substring(dash + 1));
+        }
+        catch (NumberFormatException ex)
+        {
+            return false;
+        }
+        
+        // Only hash if the part size gives the same number of parts
+        if( remoteParts != getPartCount(f.length(), partSize) )
+        {
+            return false;
+        }
+        
+        return remote.equalsIgnoreCase(multipartETag(f, partSize));
+    }
+    
+    /**
+     * The ETag of a single PUT of a file.
+     * 
+     * @param f The local file
+     * @return The hex MD5 of the file
+     * @throws IOException 
+     */
+    static String md5Hex(File f) throws IOException
+    {
+        MessageDigest md5 = newMd5();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        
+        try( InputStream in = Files.newInputStream(f.toPath()) )
+        {
+            int n;
+            while( (n = in.read(buffer)) >= 0 )
+            {
+                md5.update(buffer, 0, n);
+            }
+        }
+        
+        return BinaryUtils.toHex(md5.digest());
+    }
+    
+    /**
+     * The ETag of a multipart upload of a file.
+     * 
+     * @param f The local file
+     * @param partSize The part size
+     * @return The multipart ETag, e.g. "9b2cf535f27731c974343645a3985328-12"
+     * @throws IOException 
+     */
+    static String multipartETag(File f, long partSize) throws IOException
+    {
+        MessageDigest total = newMd5();
+        MessageDigest part = newMd5();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int parts = 0;
+        
+        try( InputStream in = Files.newInputStream(f.toPath()) )
+        {
+            long remaining = partSize;
+            int n;
+            while( (n = in.read(buffer, 0, (int)Math.min(buffer.length, remaining))) >= 0 )
+            {
+                part.update(buffer, 0, n);
+                remaining -= n;
+                
+                if( remaining == 0 )
+                {
+                    total.update(part.digest());
+                    parts++;
+                    remaining = partSize;
+                }
+            }
+            
+            if( remaining != partSize || parts == 0 )
+            {
+                // The last, short, part.  An empty file still has one part.
+                total.update(part.digest());
+                parts++;
+            }
+        }
+        
+        return String.format("%s-%d", BinaryUtils.toHex(total.digest()), parts);
+    }
+    
+    private static int getPartCount(long size, long partSize)
+    {
+        return (int)Math.max(1, (size + partSize - 1) / partSize);
+    }
+    
+    private static MessageDigest newMd5()
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JVM is required to have MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the executors used for the provider's background work.
+ * 
+ * Virtual threads are looked up reflectively so the provider still runs on JVMs
+ * that do not have them.  In that case a regular daemon thread pool is used instead.
+ * 
+ * @author Kervin Pierre
+ */
+public final class SS3Executors
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3Executors.class);
+    
+    private SS3Executors()
+    {
+    }
+    
+    /**
+     * Create a new executor.
+     * 
+     * @param name Prefix for the names of the threads created
+     * @param threads Number of platform threads, if virtual threads are not used
+     * @param virtualThreads Use one virtual thread per task when the JVM supports it
+     * @return The new executor.  The caller is responsible for shutting it down.
+     */
+    public static ExecutorService newExecutor(String name, int threads, boolean virtualThreads)
+    {
+        if( virtualThreads )
+        {
+            ExecutorService res = newVirtualThreadExecutor();
+            if( res != null )
+            {
+                return res;
+            }
+            
+            log.warn(String.format("newExecutor() : Virtual threads are not available on this JVM. "
+                                    + "Using %d platform threads for '%s'", threads, name));
+        }
+        
+        return Executors.newFixedThreadPool(Math.max(1, threads), new DaemonThreadFactory(name));
+    }
+    
+    /**
+     * Create an unbounded executor, for tasks that hold their thread for a long
+     * time and must never wait for one, e.g. streaming uploads.
+     * 
+     * @param name Prefix for the names of the threads created
+     * @param virtualThreads Use one virtual thread per task when the JVM supports it
+     * @return The new executor.  The caller is responsible for shutting it down.
+     */
+    public static ExecutorService newCachedExecutor(String name, boolean virtualThreads)
+    {
+        if( virtualThreads )
+        {
+            ExecutorService res = newVirtualThreadExecutor();
+            if( res != null )
+            {
+                return res;
+            }
+            
+            log.warn(String.format("newCachedExecutor() : Virtual threads are not available on this JVM. "
+                                    + "Using a cached thread pool for '%s'", name));
+        }
+        
+        return Executors.newCachedThreadPool(new DaemonThreadFactory(name));
+    }
+    
+    /**
+     * Create a work-stealing pool.  Its worker threads are daemon threads.
+     * 
+     * @param name Prefix for the names of the threads created
+     * @param parallelism Number of worker threads
+     * @return The new pool.  The caller is responsible for shutting it down.
+     */
+    public static ForkJoinPool newWorkStealingExecutor(final String name, int parallelism)
+    {
+        return new ForkJoinPool(Math.max(1, parallelism), (pool) -> 
+            {
+                ForkJoinWorkerThread res = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                res.setName(String.format("%s-%d", name, res.getPoolIndex()));
+                
+                return res;
+            }, null, false);
+    }
+    
+    /**
+     * Create a work-stealing pool, or a virtual thread per task executor.
+     * 
+     * @param name Prefix for the names of the threads created
+     * @param parallelism Number of worker threads, if virtual threads are not used
+     * @param virtualThreads Use one virtual thread per task when the JVM supports it
+     * @return The new executor.  The caller is responsible for shutting it down.
+     */
+    public static ExecutorService newWorkStealingExecutor(String name, int parallelism, boolean virtualThreads)
+    {
+        if( virtualThreads )
+        {
+            ExecutorService res = newVirtualThreadExecutor();
+            if( res != null )
+            {
+                return res;
+            }
+            
+            log.warn(String.format("newWorkStealingExecutor() : Virtual threads are not available on this JVM. "
+                                    + "Using %d platform threads for '%s'", parallelism, name));
+        }
+        
+        return newWorkStealingExecutor(name, parallelism);
+    }
+    
+    /**
+     * Create a single thread scheduled executor, for periodic background work.
+     * Its thread is a daemon thread.
+     * 
+     * @param name Prefix for the name of the thread created
+     * @return The new executor.  The caller is responsible for shutting it down.
+     */
+    public static ScheduledExecutorService newScheduledExecutor(String name)
+    {
+        return Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name));
+    }
+    
+    /**
+     * Create an executor that starts a new virtual thread for each task.
+     * 
+     * @return The executor, or null if the current JVM does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            
+            return (ExecutorService)m.invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            log.debug("newVirtualThreadExecutor() : Virtual threads not available", ex);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Checks whether the running JVM can create virtual threads.
+     * 
+     * @return True if virtual threads are supported.
+     */
+    public static boolean isVirtualThreadsAvailable()
+    {
+        try
+        {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            
+            return true;
+        }
+        catch (NoSuchMethodException ex)
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * Names the pool threads and marks them as daemon threads so pending work
+     * never keeps the JVM alive on its own.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+        
+        DaemonThreadFactory(String name)
+        {
+            this.name = name;
+        }
+        
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread res = new Thread(r, String.format("%s-%d", name, count.incrementAndGet()));
+            res.setDaemon(true);
+            
+            return res;
+        }
+    }
+}
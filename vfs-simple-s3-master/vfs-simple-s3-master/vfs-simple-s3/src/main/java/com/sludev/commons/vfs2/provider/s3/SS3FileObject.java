@@ -20,24 +20,36 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSelector;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.NameScope;
+import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
 import org.apache.commons.vfs2.provider.URLFileName;
+import org.apache.commons.vfs2.provider.UriParser;
+import org.apache.commons.vfs2.util.FileObjectUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,8 +64,8 @@ public class SS3FileObject extends AbstractFileObject
     private static final Logger log = LoggerFactory.getLogger(SS3FileObject.class);
     
     private final SS3FileSystem fileSystem;
-    private S3Object currBlob;
     private ObjectMetadata currBlobProperties;
+    private long currDecodedLength = -1;
     
     /**
      * Creates a new FileObject for use with a remote S3 file or folder.
@@ -111,6 +123,28 @@ public class SS3FileObject extends AbstractFileObject
         return res;
     }
     
+    /**
+     * Returns the key prefix of the objects under this path, treated as a folder.
+     * 
+     * @param path The bucket and path
+     * @return The prefix ending with a slash, or an empty prefix for the bucket root
+     */
+    private static String getFolderPrefix(Pair<String, String> path)
+    {
+        String res = path.getRight();
+        if( res.equals("/") )
+        {
+            return "";
+        }
+        
+        if( res.endsWith("/") == false )
+        {
+            res += "/";
+        }
+        
+        return res;
+    }
+    
     /**
      * Callback used when this FileObject is first used.  We connect to the remote
      * server and check early so we can 'fail-fast'.  If there are no issues then
@@ -127,14 +161,8 @@ public class SS3FileObject extends AbstractFileObject
         {
             // Check the container.  Force a network call so we can fail-fast
             //boolean res = fileSystem.getClient().doesBucketExist(path.getLeft()); 
-            if( objectExists(path.getLeft(), path.getRight()) )
-            {
-                currBlob = fileSystem.getClient().getObject(path.getLeft(), path.getRight());
-            }
-            else
-            {
-                currBlob = null;
-            }
+            // Metadata only, the content is opened when it is read
+            currBlobProperties = getObjectMetadata(path.getLeft(), path.getRight());
         }
         catch (RuntimeException ex)
         {
@@ -147,17 +175,25 @@ public class SS3FileObject extends AbstractFileObject
     
     private boolean objectExists( String cont, String path )
     {
-        boolean res = false;
+        return getObjectMetadata(cont, path) != null;
+    }
+    
+    /**
+     * Fetch an object's metadata only, with a HEAD request.
+     * 
+     * @return The metadata, or null if the object does not exist
+     */
+    private ObjectMetadata getObjectMetadata( String cont, String path )
+    {
+        ObjectMetadata res = null;
         
         try 
         {
-            S3Object object = fileSystem.getClient().getObject(cont, path);
-            res = true;
+            res = fileSystem.execute(cont, c -> c.getObjectMetadata(cont, path));
         } 
         catch (AmazonServiceException ex) 
         {
-            String errorCode = ex.getErrorCode();
-            if (!errorCode.equals("NoSuchKey")) 
+            if( ex.getStatusCode() != 404 ) 
             {
                 throw ex;
             }
@@ -207,11 +243,12 @@ public class SS3FileObject extends AbstractFileObject
             if( prefix.equals("/") )
             {
                 // Special root path case. List the root blobs with no prefix
-                blobs = fileSystem.getClient().listObjects(path.getLeft());
+                blobs = fileSystem.execute(path.getLeft(), c -> c.listObjects(path.getLeft()));
             }
             else
             {
-                blobs = fileSystem.getClient().listObjects(path.getLeft(), prefix);
+                final String folderPrefix = prefix;
+                blobs = fileSystem.execute(path.getLeft(), c -> c.listObjects(path.getLeft(), folderPrefix));
             }
             
             if( blobs.getObjectSummaries().isEmpty() )
@@ -253,7 +290,7 @@ public class SS3FileObject extends AbstractFileObject
         loReq.withPrefix(prefix);
         loReq.withDelimiter("/");
         
-        ObjectListing blobs = fileSystem.getClient().listObjects(loReq);
+        ObjectListing blobs = fileSystem.execute(path.getLeft(), c -> c.listObjects(loReq));
         
         List<String> resList = new ArrayList<>();
         for( S3ObjectSummary osum : blobs.getObjectSummaries() )
@@ -276,55 +313,661 @@ public class SS3FileObject extends AbstractFileObject
         return res;
     }
 
-    private void checkBlobProperties()
+    /**
+     * Publish the children of this folder, a listing page at a time.  Each page
+     * is only requested from the server once the subscriber asks for it.
+     * 
+     * @return The publisher of pages of child names
+     * @see #publishChildren(Executor)
+     */
+    public Flow.Publisher<List<FileName>> publishChildren()
+    {
+        return publishChildren(fileSystem.getFanOutExecutor());
+    }
+    
+    /**
+     * Publish the children of this folder, a listing page at a time.
+     * 
+     * @param executor The executor the listing requests run on
+     * @return The publisher of pages of child names
+     */
+    public Flow.Publisher<List<FileName>> publishChildren(Executor executor)
+    {
+        final Pair<String, String> path = getContainerAndPath();
+        final String prefix = getFolderPrefix(path);
+        
+        return new SS3Publisher<>(() -> new ListingSource(path.getLeft(), prefix), executor);
+    }
+    
+    /**
+     * Reads a folder listing a page at a time.
+     */
+    private final class ListingSource implements SS3Publisher.Source<List<FileName>>
+    {
+        private final String bucket;
+        private final String prefix;
+        private ObjectListing listing;
+        
+        ListingSource(String bucket, String prefix)
+        {
+            this.bucket = bucket;
+            this.prefix = prefix;
+        }
+        
+        @Override
+        public List<FileName> next() throws FileSystemException
+        {
+            final ObjectListing prev = listing;
+            if( prev == null )
+            {
+                final ListObjectsRequest req = new ListObjectsRequest()
+                        .withBucketName(bucket)
+                        .withPrefix(prefix)
+                        .withDelimiter("/");
+                listing = fileSystem.execute(bucket, c -> c.listObjects(req));
+            }
+            else if( prev.isTruncated() )
+            {
+                listing = fileSystem.execute(bucket, c -> c.listNextBatchOfObjects(prev));
+            }
+            else
+            {
+                return null;
+            }
+            
+            List<FileName> res = new ArrayList<>();
+            for( S3ObjectSummary currSummary : listing.getObjectSummaries() )
+            {
+                addChild(res, currSummary.getKey());
+            }
+            
+            for( String currPrefix : listing.getCommonPrefixes() )
+            {
+                addChild(res, currPrefix);
+            }
+            
+            return res;
+        }
+        
+        private void addChild(List<FileName> res, String key) throws FileSystemException
+        {
+            String child = StringUtils.removeEnd(StringUtils.removeStart(key, prefix), "/");
+            if( StringUtils.isEmpty(child) )
+            {
+                // The folder's own marker object
+                return;
+            }
+            
+            res.add(getFileSystem().getFileSystemManager().resolveName(getName(),
+                    UriParser.encode(child), NameScope.CHILD));
+        }
+        
+        @Override
+        public void close(boolean completed)
+        {
+        }
+    }
+    
+    private void checkBlobProperties() throws FileNotFoundException
     {
         if( currBlobProperties == null )
         {
-            currBlobProperties = currBlob.getObjectMetadata();
+            Pair<String, String> path = getContainerAndPath();
+            
+            currBlobProperties = getObjectMetadata(path.getLeft(), path.getRight());
+            if( currBlobProperties == null )
+            {
+                throw new FileNotFoundException(String.format("'%s' does not exist", getName()));
+            }
         }
     }
     
     /**
      * Upload a local file to Amazon S3.
      * 
+     * Files at or above the configured multipart threshold are sent as a multipart
+     * upload with the parts uploaded in parallel.
+     * 
      * @param f File object from the local file-system to be uploaded to Amazon S3
      */
     public void putObject(File f)
+    {
+        putObject(f, null);
+    }
+    
+    /**
+     * Upload a local file to Amazon S3 with object metadata, e.g. a Content-Encoding.
+     * 
+     * @param f File object from the local file-system to be uploaded to Amazon S3
+     * @param metadata The metadata to upload with, may be null
+     */
+    public void putObject(File f, ObjectMetadata metadata)
     {
         Pair<String, String> path = getContainerAndPath();
         
-        fileSystem.getClient().putObject(
-                new PutObjectRequest(path.getLeft(), path.getRight(), f) );
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        
+        if( builder.getSkipUnchangedUploads(fileSystem.getFileSystemOptions())
+                && isUnchanged(path.getLeft(), path.getRight(), f, metadata) )
+        {
+            log.debug(String.format("putObject() : '%s/%s' already has the content of '%s'. Skipping upload.",
+                                    path.getLeft(), path.getRight(), f));
+            return;
+        }
+        
+        fileSystem.putObject(path.getLeft(), path.getRight(), f, metadata);
+    }
+    
+    /**
+     * Copies another file, and all its descendants, to this file.
+     * 
+     * Files on the same Amazon S3 endpoint are copied on the server side, so their
+     * content is never downloaded.  Other sources use the regular Commons VFS
+     * stream copy.  Since <code>moveTo()</code> to another file-system copies
+     * through this method, moves between buckets are also done on the server side.
+     * 
+     * @param file The source file to copy
+     * @param selector The selector to choose the descendants to copy
+     * @throws FileSystemException 
+     */
+    @Override
+    public void copyFrom(final FileObject file, final FileSelector selector) throws FileSystemException
+    {
+        SS3FileObject src = getServerSideSource(file);
+        if( src == null )
+        {
+            super.copyFrom(file, selector);
+            return;
+        }
+        
+        if( file.exists() == false )
+        {
+            throw new FileSystemException("vfs.provider/copy-missing-file.error", file);
+        }
+        
+        if( selector == Selectors.SELECT_ALL && file.getType() == FileType.FOLDER )
+        {
+            SS3TreeCopy.Result res = copyTreeFrom(file, null);
+            if( res.getFailures().isEmpty() == false )
+            {
+                throw new FileSystemException("vfs.provider/copy-file.error", new Object[]{file, this},
+                        new IOException(String.format("Could not copy %d of %d objects",
+                                res.getFailures().size(), res.getFailures().size() + res.getCopied())));
+            }
+            
+            return;
+        }
+        
+        List<FileObject> files = new ArrayList<>();
+        file.findFiles(selector, false, files);
+        
+        for( FileObject srcFile : files )
+        {
+            String relPath = file.getName().getRelativeName(srcFile.getName());
+            FileObject destFile = resolveFile(relPath, NameScope.DESCENDENT_OR_SELF);
+            
+            if( destFile.exists() && destFile.getType() != srcFile.getType() )
+            {
+                destFile.delete(Selectors.SELECT_ALL);
+            }
+            
+            if( srcFile.getType().hasContent() )
+            {
+                SS3FileObject currSrc = getServerSideSource(srcFile);
+                SS3FileObject currDest = (SS3FileObject)FileObjectUtils.getAbstractFileObject(destFile);
+                
+                currDest.copyObject(currSrc);
+            }
+            else if( srcFile.getType().hasChildren() )
+            {
+                destFile.createFolder();
+            }
+        }
+    }
+    
+    /**
+     * Copies every object under a folder on the same Amazon S3 endpoint to this
+     * folder, e.g. between buckets.  The source is listed once and the objects are
+     * copied in parallel on the server side.  A failed object does not stop the
+     * others.
+     * 
+     * @param file The source folder
+     * @param listener Receives progress as objects are copied, may be null
+     * @return The outcome, including the objects that could not be copied
+     * @throws FileSystemException if the source is not on the same endpoint, or
+     *         the copy could not be run
+     */
+    public SS3TreeCopy.Result copyTreeFrom(FileObject file, SS3TreeCopy.Listener listener)
+            throws FileSystemException
+    {
+        SS3FileObject src = getServerSideSource(file);
+        if( src == null )
+        {
+            throw new FileSystemException("vfs.provider/copy-file.error", new Object[]{file, this},
+                    new IOException("The source is not on the same Amazon S3 endpoint"));
+        }
+        
+        Pair<String, String> srcPath = src.getContainerAndPath();
+        Pair<String, String> destPath = getContainerAndPath();
+        
+        String srcPrefix = getFolderPrefix(srcPath);
+        String destPrefix = getFolderPrefix(destPath);
+        if( srcPath.getLeft().equals(destPath.getLeft()) && destPrefix.startsWith(srcPrefix) )
+        {
+            // The listing would pick up the copies as they are made
+            throw new FileSystemException("vfs.provider/copy-file.error", new Object[]{file, this},
+                    new IOException("The destination is inside the source folder"));
+        }
+        
+        if( getType() == FileType.FILE )
+        {
+            delete();
+        }
+        
+        boolean existed = exists();
+        try
+        {
+            SS3TreeCopy.Result res = fileSystem.getTreeCopy().copy(srcPath.getLeft(), srcPrefix,
+                                                                   destPath.getLeft(), destPrefix, listener);
+            
+            refresh();
+            if( existed == false && res.getCopied() > 0 )
+            {
+                handleCreate(FileType.FOLDER);
+            }
+            
+            return res;
+        }
+        catch (Exception ex)
+        {
+            throw new FileSystemException("vfs.provider/copy-file.error", new Object[]{src, this}, ex);
+        }
+    }
+    
+    /**
+     * Mirrors a local directory tree into this folder.  Only the files that are
+     * missing or differ are uploaded.
+     * 
+     * @param localDir The local directory
+     * @param delete Also delete objects under this folder that have no local file
+     * @param compareDigest Compare files of the same size by digest, instead of by
+     *        modification time
+     * @return The outcome, including the files that could not be synced
+     * @throws FileSystemException if the sync could not be run
+     */
+    public SS3Sync.Result syncFrom(File localDir, boolean delete, boolean compareDigest)
+            throws FileSystemException
+    {
+        Pair<String, String> path = getContainerAndPath();
+        
+        boolean existed = exists();
+        try
+        {
+            SS3Sync.Result res = fileSystem.getSync().sync(localDir, path.getLeft(), getFolderPrefix(path),
+                                                           delete, compareDigest);
+            
+            refresh();
+            if( existed == false && res.getUploaded() > 0 )
+            {
+                handleCreate(FileType.FOLDER);
+            }
+            
+            return res;
+        }
+        catch (Exception ex)
+        {
+            throw new FileSystemException("vfs.provider/write.error", this, ex);
+        }
+    }
+    
+    /**
+     * Returns the source as an S3 File Object if it can be copied to this file
+     * on the server side, i.e. it is reachable through the same endpoint and
+     * credentials.  File-systems with the same options share their client, so
+     * one with a client of its own may have other credentials and is copied
+     * through the client.
+     * 
+     * @param file The source file
+     * @return The source, or null if it has to be copied through the client
+     * @throws FileSystemException 
+     */
+    private SS3FileObject getServerSideSource(FileObject file) throws FileSystemException
+    {
+        AbstractFileObject res = FileObjectUtils.getAbstractFileObject(file);
+        if( res instanceof SS3FileObject == false )
+        {
+            return null;
+        }
+        
+        SS3FileSystem srcFileSystem = ((SS3FileObject)res).fileSystem;
+        if( srcFileSystem != fileSystem
+                && (srcFileSystem.getRootName().equals(fileSystem.getRootName()) == false
+                    || srcFileSystem.getClient() != fileSystem.getClient()) )
+        {
+            return null;
+        }
+        
+        return (SS3FileObject)res;
+    }
+    
+    /**
+     * Copy the content of another S3 file to this file on the server side.
+     * 
+     * @param src The source file.  It must be on the same endpoint.
+     * @throws FileSystemException 
+     */
+    private void copyObject(SS3FileObject src) throws FileSystemException
+    {
+        Pair<String, String> srcPath = src.getContainerAndPath();
+        Pair<String, String> destPath = getContainerAndPath();
+        
+        if( srcPath.equals(destPath) )
+        {
+            return;
+        }
+        
+        boolean existed = exists();
+        try
+        {
+            fileSystem.getMultipartCopier().copy(srcPath.getLeft(), srcPath.getRight(),
+                                                 destPath.getLeft(), destPath.getRight());
+            
+            refresh();
+            if( existed == false )
+            {
+                handleCreate(FileType.FILE);
+            }
+        }
+        catch (Exception ex)
+        {
+            throw new FileSystemException("vfs.provider/copy-file.error", new Object[]{src, this}, ex);
+        }
+    }
+    
+    /**
+     * Checks whether the remote object already has the content, and encoding, of
+     * a local file.  Only the remote metadata is fetched.
+     * 
+     * @return True if the upload can be skipped
+     */
+    private boolean isUnchanged(String bucket, String key, File f, ObjectMetadata metadata)
+    {
+        ObjectMetadata remote;
+        try
+        {
+            remote = fileSystem.execute(bucket, c -> c.getObjectMetadata(bucket, key));
+        }
+        catch (AmazonServiceException ex)
+        {
+            if( ex.getStatusCode() == 404 )
+            {
+                return false;
+            }
+            
+            throw ex;
+        }
+        
+        if( remote.getContentLength() != f.length() )
+        {
+            return false;
+        }
+        
+        String contentEncoding = metadata == null ? null : metadata.getContentEncoding();
+        if( StringUtils.equals(contentEncoding, remote.getContentEncoding()) == false )
+        {
+            return false;
+        }
+        
+        long partSize = SS3MultipartUploader.getPartSize(f.length(),
+                SS3FileSystemConfigBuilder.getInstance().getMultipartPartSize(fileSystem.getFileSystemOptions()));
+        try
+        {
+            return SS3ETags.matches(f, remote.getETag(), partSize);
+        }
+        catch (IOException ex)
+        {
+            log.warn(String.format("isUnchanged() : Could not read '%s'. Uploading it.", f), ex);
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Upload a local file to Amazon S3 on the file-system's upload executor.
+     * 
+     * @param f File object from the local file-system to be uploaded to Amazon S3
+     * @return A future completed once the upload is done
+     */
+    public CompletableFuture<Void> putObjectAsync(final File f)
+    {
+        return putObjectAsync(f, null);
+    }
+    
+    /**
+     * Upload a local file to Amazon S3, with object metadata, on the
+     * file-system's upload executor.
+     * 
+     * @param f File object from the local file-system to be uploaded to Amazon S3
+     * @param metadata The metadata to upload with, may be null
+     * @return A future completed once the upload is done
+     */
+    public CompletableFuture<Void> putObjectAsync(final File f, final ObjectMetadata metadata)
+    {
+        return fileSystem.submitUpload(() -> putObject(f, metadata));
+    }
+    
+    /**
+     * The compression content written through output streams is stored with.
+     * 
+     * @return The configured codec
+     */
+    SS3ContentCodec getContentCodec()
+    {
+        return SS3FileSystemConfigBuilder.getInstance().getContentCodec(fileSystem.getFileSystemOptions());
+    }
+    
+    /**
+     * Create the local file an output stream buffers its content in.  With an
+     * upload journal it is created in the journal's spool directory and kept
+     * across a crash, otherwise it is a regular temporary file.
+     * 
+     * @return The new, empty, file
+     * @throws IOException 
+     */
+    File createSpoolFile() throws IOException
+    {
+        File res;
+        
+        SS3UploadJournal journal = fileSystem.getUploadJournal();
+        if( journal != null )
+        {
+            res = File.createTempFile("bin", "bin", journal.getSpoolDir());
+        }
+        else
+        {
+            res = File.createTempFile("bin", "bin");
+            res.deleteOnExit();
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Hand a finished local buffer to the file-system's write-behind queue.
+     * 
+     * @param f The local buffer.  The queue deletes it once it has been uploaded.
+     * @param metadata The metadata to upload with, may be null
+     * @return True if queued, false if write-behind mode is not enabled
+     * @throws IOException if interrupted while waiting for space in the queue
+     */
+    boolean enqueueUpload(File f, ObjectMetadata metadata) throws IOException
+    {
+        SS3WriteBehindQueue queue = fileSystem.getWriteBehindQueue();
+        if( queue == null )
+        {
+            return false;
+        }
+        
+        queue.enqueue(this, f, metadata);
+        
+        return true;
+    }
+    
+    /**
+     * Open an output stream on this File Object without the Commons VFS content
+     * wrapper, so the caller can use <code>SS3OutputStream.closeAsync()</code>.
+     * 
+     * Call <code>refresh()</code> after the upload completes to see the new
+     * content through this File Object.
+     * 
+     * @return An OutputStream for writing into Amazon S3
+     * @throws IOException 
+     */
+    public SS3OutputStream getUploadStream() throws IOException
+    {
+        return new SS3OutputStream(this);
     }
     
     /**
      * Callback for handling "content size" requests by the provider.
      * 
+     * Content stored with a gzip or deflate Content-Encoding has the size read
+     * from <code>getInputStream()</code>, i.e. the decompressed size.  That is
+     * taken from the length recorded when the content was written.  Objects
+     * without it, e.g. written by another client, are read once to count it.
+     * 
      * @return The number of bytes in the File Object's content
      * @throws Exception 
      */
     @Override
     protected long doGetContentSize() throws Exception
     {
-        long res = -1;
-        
         checkBlobProperties();
-        res = currBlobProperties.getContentLength();
         
-        return res;
+        SS3ContentCodec codec = SS3ContentCodec.forContentEncoding(currBlobProperties.getContentEncoding());
+        if( codec == SS3ContentCodec.NONE )
+        {
+            return currBlobProperties.getContentLength();
+        }
+        
+        long res = SS3ContentCodec.getUncompressedLength(currBlobProperties);
+        if( res >= 0 )
+        {
+            return res;
+        }
+        
+        if( currDecodedLength < 0 )
+        {
+            log.debug(String.format("doGetContentSize() : '%s' has no recorded uncompressed length. Counting it.",
+                                    getName()));
+            
+            long count = 0;
+            byte[] buffer = new byte[64 * 1024];
+            try( InputStream in = doGetInputStream() )
+            {
+                int n;
+                while( (n = in.read(buffer)) >= 0 )
+                {
+                    count += n;
+                }
+            }
+            
+            currDecodedLength = count;
+        }
+        
+        return currDecodedLength;
     }
 
     /**
      * Get an InputStream for reading the content of this File Object.
+     * 
+     * Content stored with a gzip or deflate Content-Encoding is decompressed.
+     * 
      * @return The InputStream object for reading.
      * @throws Exception 
      */
     @Override
     protected InputStream doGetInputStream() throws Exception
     {
-        S3ObjectInputStream in = currBlob.getObjectContent();
+        checkBlobProperties();
+        
+        Pair<String, String> path = getContainerAndPath();
+        
+        S3Object blob = fileSystem.getObject(path.getLeft(), path.getRight(), null,
+                                             currBlobProperties.getContentLength());
+        
+        SS3ContentCodec codec = SS3ContentCodec.forContentEncoding(
+                                    blob.getObjectMetadata().getContentEncoding());
+        
+        return codec.decode(blob.getObjectContent());
+    }
+
+    /**
+     * Publish the content of this file as chunks.  Content is only read from the
+     * server as fast as the subscriber requests it.  Compressed content is
+     * decompressed, as with <code>getInputStream()</code>.
+     * 
+     * @return The publisher of content chunks
+     * @see #publishContent(int, Executor)
+     */
+    public Flow.Publisher<ByteBuffer> publishContent()
+    {
+        return publishContent(SS3Publisher.DEFAULT_CHUNK_SIZE, fileSystem.getFanOutExecutor());
+    }
+    
+    /**
+     * Publish the content of this file as chunks.  Each subscriber reads the
+     * content with its own request.  Cancelling aborts the request.
+     * 
+     * @param chunkSize The largest chunk published
+     * @param executor The executor the content is read on
+     * @return The publisher of content chunks
+     */
+    public Flow.Publisher<ByteBuffer> publishContent(int chunkSize, Executor executor)
+    {
+        final Pair<String, String> path = getContainerAndPath();
         
-        return in;
+        return SS3Publisher.ofInputStream(() ->
+            {
+                S3Object object = fileSystem.getObject(path.getLeft(), path.getRight(), null, -1);
+                S3ObjectInputStream in = object.getObjectContent();
+                
+                SS3ContentCodec codec = SS3ContentCodec.forContentEncoding(
+                                            object.getObjectMetadata().getContentEncoding());
+                
+                return new S3ObjectInputStream(codec.decode(in), in.getHttpRequest());
+            }, S3ObjectInputStream::abort, chunkSize, executor);
+    }
+    
+    /**
+     * Get an InputStream for a range of this file's stored content.  The content
+     * is not decoded, so for compressed objects the range is of the compressed
+     * bytes.  Small ranges are hedged, if enabled.
+     * 
+     * @param offset The offset of the first byte
+     * @param length The number of bytes
+     * @return The InputStream for reading the range
+     * @throws FileSystemException if the range could not be read
+     */
+    public InputStream getRangeInputStream(long offset, long length) throws FileSystemException
+    {
+        if( offset < 0 || length <= 0 )
+        {
+            throw new IllegalArgumentException(
+                    String.format("Invalid range, offset %d and length %d", offset, length));
+        }
+        
+        Pair<String, String> path = getContainerAndPath();
+        
+        try
+        {
+            return fileSystem.getObject(path.getLeft(), path.getRight(),
+                                        new long[]{offset, offset + length - 1}, length).getObjectContent();
+        }
+        catch (RuntimeException ex)
+        {
+            throw new FileSystemException("vfs.provider/read.error", this, ex);
+        }
     }
 
     /**
@@ -337,7 +980,108 @@ public class SS3FileObject extends AbstractFileObject
         Pair<String, String> path = getContainerAndPath();
         
         // Purposely use the more restrictive delete() over deleteIfExists()
-        fileSystem.getClient().deleteObject(path.getLeft(), path.getRight());
+        fileSystem.execute(path.getLeft(), c ->
+        {
+            c.deleteObject(path.getLeft(), path.getRight());
+            return null;
+        });
+    }
+
+    /**
+     * Deletes this file and its descendants that match a selector.
+     * 
+     * Deleting a whole folder, i.e. <code>deleteAll()</code>, deletes every
+     * object under its prefix with batched DeleteObjects requests, straight from
+     * the listing.  Other selectors use the regular Commons VFS delete.
+     * 
+     * @param selector The selector for the files to delete
+     * @return The number of objects deleted
+     * @throws FileSystemException if any object could not be deleted
+     */
+    @Override
+    public int delete(FileSelector selector) throws FileSystemException
+    {
+        if( selector != Selectors.SELECT_ALL || getType() != FileType.FOLDER )
+        {
+            return super.delete(selector);
+        }
+        
+        Pair<String, String> path = getContainerAndPath();
+        
+        SS3BulkDelete.Result res;
+        try
+        {
+            res = fileSystem.getBulkDelete().deletePrefix(path.getLeft(), getFolderPrefix(path));
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            throw new FileSystemException("vfs.provider/delete.error", this, ex);
+        }
+        
+        try
+        {
+            handleDelete();
+        }
+        catch (Exception ex)
+        {
+            throw new FileSystemException("vfs.provider/delete.error", this, ex);
+        }
+        
+        if( res.getFailures().isEmpty() == false )
+        {
+            throw new FileSystemException("vfs.provider/delete.error", this,
+                    new IOException(String.format("Could not delete %d of %d objects",
+                            res.getFailures().size(), res.getFailures().size() + res.getDeleted())));
+        }
+        
+        return res.getDeleted();
+    }
+    
+    /**
+     * Callback for handling rename on this File Object.  Amazon S3 has no rename
+     * so the object is copied on the server side then deleted.  For a folder every
+     * object under its prefix is moved.
+     * 
+     * @param newFile The new File Object, on the same file-system
+     * @throws Exception 
+     */
+    @Override
+    protected void doRename(FileObject newFile) throws Exception
+    {
+        SS3FileObject dest = (SS3FileObject)FileObjectUtils.getAbstractFileObject(newFile);
+        
+        Pair<String, String> srcPath = getContainerAndPath();
+        Pair<String, String> destPath = dest.getContainerAndPath();
+        
+        if( srcPath.getRight().equals("/") || destPath.getRight().equals("/") )
+        {
+            // Buckets can not be renamed
+            throw new FileSystemException("vfs.provider/rename.error", new Object[]{this, newFile});
+        }
+        
+        if( getType() == FileType.FILE )
+        {
+            fileSystem.getMultipartCopier().copy(srcPath.getLeft(), srcPath.getRight(),
+                                                 destPath.getLeft(), destPath.getRight());
+            fileSystem.execute(srcPath.getLeft(), c ->
+            {
+                c.deleteObject(srcPath.getLeft(), srcPath.getRight());
+                return null;
+            });
+            
+            return;
+        }
+        
+        String srcPrefix = getFolderPrefix(srcPath);
+        String destPrefix = getFolderPrefix(destPath);
+        if( srcPath.getLeft().equals(destPath.getLeft()) && destPrefix.startsWith(srcPrefix) )
+        {
+            // The listing would pick up the copies as they are made
+            throw new FileSystemException("vfs.provider/rename.error", new Object[]{this, newFile},
+                    new IOException("The destination is inside the source folder"));
+        }
+        
+        fileSystem.getPrefixMover().move(srcPath.getLeft(), srcPrefix, destPath.getLeft(), destPrefix);
     }
 
     /**
@@ -387,8 +1131,8 @@ public class SS3FileObject extends AbstractFileObject
     @Override
     protected void doDetach() throws Exception
     {
-        currBlob = null;
         currBlobProperties = null;
+        currDecodedLength = -1;
     }
 
     /**
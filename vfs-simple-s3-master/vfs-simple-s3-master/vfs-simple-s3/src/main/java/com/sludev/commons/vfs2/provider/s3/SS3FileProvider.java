@@ -16,6 +16,7 @@
  */
 package com.sludev.commons.vfs2.provider.s3;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Regions;
@@ -23,6 +24,7 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
@@ -79,6 +81,8 @@ public class SS3FileProvider
     private String endpoint;
     private Regions region;
     
+    private final SS3ClientRegistry<AmazonS3Client> clients = new SS3ClientRegistry<>();
+    
     static final Collection<Capability> capabilities = Collections.unmodifiableCollection(Arrays.asList(new Capability[]
     {
         Capability.GET_TYPE,
@@ -92,7 +96,8 @@ public class SS3FileProvider
         Capability.LAST_MODIFIED,
         Capability.GET_LAST_MODIFIED,
         Capability.CREATE,
-        Capability.DELETE
+        Capability.DELETE,
+        Capability.RENAME
     }));
 
     /**
@@ -131,7 +136,7 @@ public class SS3FileProvider
         SS3FileSystem fileSystem = null;
         GenericFileName genRootName = (GenericFileName)rootName;
         
-        AWSCredentials storageCreds;
+        final AWSCredentials storageCreds;
         AmazonS3Client client;
         
         FileSystemOptions currFSO;
@@ -161,19 +166,39 @@ public class SS3FileProvider
         
             storageCreds = new BasicAWSCredentials(currAcct, currKey);           
             
-            client = new AmazonS3Client(storageCreds);
+            final ClientConfiguration config = SS3FileSystemConfigBuilder.getInstance().getClientConfiguration(currFSO);
+            
+            List<Object> key = Arrays.asList(endpoint, region, currAcct, SS3ClientRegistry.digest(currKey),
+                                             getConfigurationKey(config));
             
-            if( StringUtils.isNoneBlank(endpoint) )
+            client = clients.acquire(key, () -> 
+                {
+                    AmazonS3Client res = new AmazonS3Client(storageCreds, config);
+
+                    if( StringUtils.isNoneBlank(endpoint) )
+                    {
+                        res.setEndpoint(endpoint);
+                    }
+
+                    if( region != null )
+                    {
+                        res.setRegion(region);
+                    }
+                    
+                    return res;
+                }, AmazonS3Client::shutdown);
+            
+            try
             {
-                client.setEndpoint(endpoint);
+                fileSystem = new SS3FileSystem(genRootName, client, fileSystemOptions, clients);
             }
-            
-            if( region != null )
+            catch (RuntimeException | Error ex)
             {
-                client.setRegion(region);
+                // The file-system would have released it on close
+                clients.release(client);
+                
+                throw ex;
             }
-            
-            fileSystem = new SS3FileSystem(genRootName, client, fileSystemOptions);
         }
         finally
         {
@@ -183,6 +208,40 @@ public class SS3FileProvider
         return fileSystem;
     }
 
+    /**
+     * The values of a client configuration that the options can change, for
+     * telling shared clients apart.
+     * 
+     * @param config
+     * @return 
+     */
+    private static List<Object> getConfigurationKey(ClientConfiguration config)
+    {
+        return Arrays.<Object>asList(config.getMaxConnections(), config.getConnectionTimeout(),
+                config.getSocketTimeout(), Arrays.toString(config.getSocketBufferSizeHints()),
+                config.useReaper(), config.getConnectionTTL(), config.useTcpKeepAlive(),
+                config.useGzip(), config.getSignerOverride(), config.getMaxErrorRetry());
+    }
+    
+    /**
+     * Adds a newly created file-system, then warms up its connections if enabled,
+     * before it is handed out.
+     * 
+     * @param key
+     * @param fs
+     * @throws FileSystemException 
+     */
+    @Override
+    protected void addFileSystem(Comparable<?> key, FileSystem fs) throws FileSystemException
+    {
+        super.addFileSystem(key, fs);
+        
+        if( fs instanceof SS3FileSystem )
+        {
+            ((SS3FileSystem)fs).warmUp();
+        }
+    }
+    
     /**
      * Returns the provider's capabilities.
      * 
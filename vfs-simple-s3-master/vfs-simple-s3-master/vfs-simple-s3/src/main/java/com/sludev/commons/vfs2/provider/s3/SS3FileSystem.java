@@ -16,11 +16,38 @@
  */
 package com.sludev.commons.vfs2.provider.s3;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.MultipartUploadListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileSystem;
@@ -40,6 +67,20 @@ public class SS3FileSystem
     private static final Logger log = LoggerFactory.getLogger(SS3FileSystem.class);
     
     private final AmazonS3Client client;
+    private SS3ClientRegistry<AmazonS3Client> clientRegistry;
+    private final SS3Throttle throttle;
+    
+    private final ReentrantLock executorLock = new ReentrantLock();
+    private ExecutorService uploadExecutor;
+    private boolean ownsUploadExecutor;
+    private ExecutorService transferExecutor;
+    private ExecutorService fanOutExecutor;
+    private ExecutorService writeBehindExecutor;
+    private ExecutorService hedgeExecutor;
+    private SS3Hedger hedger;
+    private SS3WriteBehindQueue writeBehindQueue;
+    private SS3UploadJournal uploadJournal;
+    private final Set<CompletableFuture<Void>> pendingUploads = ConcurrentHashMap.newKeySet();
 
     /**
      * The single client for interacting with Amazon S3.
@@ -53,9 +94,51 @@ public class SS3FileSystem
     
     protected SS3FileSystem(final GenericFileName rootName, final AmazonS3Client client,
                              final FileSystemOptions fileSystemOptions)
+    {
+        this(rootName, client, fileSystemOptions, null);
+    }
+    
+    /**
+     * Creates a file-system using a client shared through a registry.  The
+     * client is released when the file-system is closed.
+     * 
+     * @param rootName
+     * @param client
+     * @param fileSystemOptions
+     * @param clientRegistry The registry the client was acquired from, may be null
+     */
+    protected SS3FileSystem(final GenericFileName rootName, final AmazonS3Client client,
+                             final FileSystemOptions fileSystemOptions,
+                             final SS3ClientRegistry<AmazonS3Client> clientRegistry)
     {
         super(rootName, null, fileSystemOptions);
         this.client = client;
+        this.clientRegistry = clientRegistry;
+        this.throttle = SS3FileSystemConfigBuilder.getInstance().createThrottle(fileSystemOptions,
+                SS3Throttle.AWS_CLASSIFIER);
+    }
+    
+    /**
+     * The throttle requests from file objects go through.
+     * 
+     * @return The throttle, or null if throttling is disabled.
+     */
+    protected SS3Throttle getThrottle()
+    {
+        return throttle;
+    }
+    
+    /**
+     * Make a request with the client, through the throttle if enabled.
+     * 
+     * @param <T> The result type
+     * @param bucket The bucket the request is for
+     * @param call The request
+     * @return The request's result
+     */
+    protected <T> T execute(String bucket, SS3Throttle.Call<AmazonS3Client, T> call)
+    {
+        return SS3Throttle.executeAws(throttle, bucket, () -> call.call(client));
     }
     
     @Override
@@ -70,4 +153,772 @@ public class SS3FileSystem
         caps.addAll(SS3FileProvider.capabilities);
     }
     
+    /**
+     * The executor asynchronous uploads run on.  Either the one set with
+     * <code>SS3FileSystemConfigBuilder.setUploadExecutor()</code> or one created
+     * on first use.
+     * 
+     * @return 
+     */
+    protected ExecutorService getUploadExecutor()
+    {
+        executorLock.lock();
+        try
+        {
+            if( uploadExecutor == null )
+            {
+                SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+                FileSystemOptions opts = getFileSystemOptions();
+                
+                uploadExecutor = builder.getUploadExecutor(opts);
+                if( uploadExecutor == null )
+                {
+                    uploadExecutor = SS3Executors.newExecutor("ss3-upload",
+                            builder.getUploadThreads(opts), builder.getUseVirtualThreads(opts));
+                    ownsUploadExecutor = true;
+                }
+            }
+            
+            return uploadExecutor;
+        }
+        finally
+        {
+            executorLock.unlock();
+        }
+    }
+    
+    /**
+     * The executor the parts of multipart transfers run on.  This is kept apart
+     * from the upload executor so an asynchronous upload waiting on its parts can
+     * not starve them of threads.
+     * 
+     * @return 
+     */
+    protected ExecutorService getTransferExecutor()
+    {
+        executorLock.lock();
+        try
+        {
+            if( transferExecutor == null )
+            {
+                SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+                FileSystemOptions opts = getFileSystemOptions();
+                
+                transferExecutor = SS3Executors.newExecutor("ss3-transfer",
+                        builder.getTransferThreads(opts), builder.getUseVirtualThreads(opts));
+            }
+            
+            return transferExecutor;
+        }
+        finally
+        {
+            executorLock.unlock();
+        }
+    }
+    
+    /**
+     * The executor folder operations run their per-object work on.  It is a
+     * work-stealing pool, or one virtual thread per task in virtual thread mode.
+     * Per-object work may wait on multipart transfers, so this is kept apart from
+     * the transfer executor.
+     * 
+     * @return 
+     */
+    protected ExecutorService getFanOutExecutor()
+    {
+        executorLock.lock();
+        try
+        {
+            if( fanOutExecutor == null )
+            {
+                SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+                FileSystemOptions opts = getFileSystemOptions();
+                
+                fanOutExecutor = SS3Executors.newWorkStealingExecutor("ss3-fan-out",
+                        builder.getFanOutThreads(opts), builder.getUseVirtualThreads(opts));
+            }
+            
+            return fanOutExecutor;
+        }
+        finally
+        {
+            executorLock.unlock();
+        }
+    }
+    
+    /**
+     * The hedger small reads go through.
+     * 
+     * @return The hedger, or null if hedged reads are not enabled.
+     */
+    protected SS3Hedger getHedger()
+    {
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = getFileSystemOptions();
+        
+        if( builder.getHedge(opts) == false )
+        {
+            return null;
+        }
+        
+        executorLock.lock();
+        try
+        {
+            if( hedger == null )
+            {
+                hedgeExecutor = SS3Executors.newExecutor("ss3-hedge",
+                        builder.getHedgeThreads(opts), builder.getUseVirtualThreads(opts));
+                hedger = new SS3Hedger(hedgeExecutor, builder.getHedgePercentile(opts),
+                        builder.getHedgeMinDelay(opts), builder.getHedgeBudget(opts));
+            }
+            
+            return hedger;
+        }
+        finally
+        {
+            executorLock.unlock();
+        }
+    }
+    
+    /**
+     * Get an object, or a range of it.  Reads no larger than the hedge size limit
+     * are hedged, if enabled.
+     * 
+     * @param bucket The bucket
+     * @param key The key
+     * @param range The first and last byte to read, or null for the whole object
+     * @param length The number of bytes the read returns, or -1 if not known
+     * @return The object
+     */
+    protected S3Object getObject(final String bucket, final String key, final long[] range, long length)
+    {
+        final SS3Hedger currHedger = getHedger();
+        if( currHedger == null || length < 0
+                || length > SS3FileSystemConfigBuilder.getInstance().getHedgeMaxSize(getFileSystemOptions()) )
+        {
+            return execute(bucket, c -> c.getObject(newGetObjectRequest(bucket, key, range)));
+        }
+        
+        return execute(bucket, c -> currHedger.execute(attempt ->
+                {
+                    if( attempt > 0 && throttle != null )
+                    {
+                        // The hedge is a request of its own
+                        throttle.acquire(bucket);
+                    }
+                    
+                    return c.getObject(newGetObjectRequest(bucket, key, range));
+                },
+                SS3FileSystem::awaitFirstByte, o -> o.getObjectContent().abort()));
+    }
+    
+    private static GetObjectRequest newGetObjectRequest(String bucket, String key, long[] range)
+    {
+        GetObjectRequest res = new GetObjectRequest(bucket, key);
+        if( range != null )
+        {
+            res.setRange(range[0], range[1]);
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Wait for the first byte of an object's content, so hedging measures the
+     * time to first byte rather than to the response headers.
+     */
+    private static S3Object awaitFirstByte(S3Object object) throws IOException
+    {
+        S3ObjectInputStream in = object.getObjectContent();
+        PushbackInputStream pin = new PushbackInputStream(in, 1);
+        
+        try
+        {
+            int b = pin.read();
+            if( b >= 0 )
+            {
+                pin.unread(b);
+            }
+        }
+        catch (IOException ex)
+        {
+            in.abort();
+            throw ex;
+        }
+        
+        object.setObjectContent(new S3ObjectInputStream(pin, in.getHttpRequest()));
+        
+        return object;
+    }
+    
+    /**
+     * Upload a local file.  Files at or above the configured multipart threshold
+     * are sent as a multipart upload with the parts uploaded in parallel.
+     * 
+     * @param bucket The destination bucket
+     * @param key The destination key
+     * @param f The local file
+     * @param metadata The metadata to upload with, may be null
+     */
+    protected void putObject(String bucket, String key, File f, ObjectMetadata metadata)
+    {
+        long threshold = SS3FileSystemConfigBuilder.getInstance().getMultipartThreshold(getFileSystemOptions());
+        if( f.length() >= threshold )
+        {
+            try
+            {
+                getMultipartUploader().upload(bucket, key, f, metadata);
+            }
+            catch (IOException ex)
+            {
+                throw new AmazonClientException(
+                        String.format("Multipart upload of '%s' failed", f), ex);
+            }
+            
+            return;
+        }
+        
+        execute(bucket, c -> c.putObject(new PutObjectRequest(bucket, key, f).withMetadata(metadata)));
+    }
+    
+    /**
+     * Creates an uploader for parallel multipart uploads, configured from the
+     * file-system options.
+     * 
+     * @return 
+     */
+    protected SS3MultipartUploader getMultipartUploader()
+    {
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = getFileSystemOptions();
+        
+        SS3MultipartUploader res = new SS3MultipartUploader(client, getTransferExecutor(),
+                builder.getTransferThreads(opts), builder.getMultipartPartSize(opts),
+                builder.getPartRetries(opts));
+        res.setJournal(getUploadJournal());
+        res.setThrottle(throttle);
+        
+        return res;
+    }
+    
+    /**
+     * Creates a copier for server-side copies, configured from the file-system
+     * options.
+     * 
+     * @return 
+     */
+    protected SS3MultipartCopier getMultipartCopier()
+    {
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = getFileSystemOptions();
+        
+        SS3MultipartCopier res = new SS3MultipartCopier(client, getTransferExecutor(),
+                builder.getTransferThreads(opts), builder.getCopyPartSize(opts),
+                builder.getPartRetries(opts));
+        res.setThrottle(throttle);
+        
+        return res;
+    }
+    
+    /**
+     * Creates a mover for renaming folders, configured from the file-system
+     * options.
+     * 
+     * @return 
+     */
+    protected SS3PrefixMover getPrefixMover()
+    {
+        return new SS3PrefixMover(client, getMultipartCopier(), getBulkDelete(), getFanOutExecutor(),
+                SS3FileSystemConfigBuilder.getInstance().getFanOutThreads(getFileSystemOptions()), throttle);
+    }
+    
+    /**
+     * Creates a tree copy, configured from the file-system options.
+     * 
+     * @return 
+     */
+    protected SS3TreeCopy getTreeCopy()
+    {
+        return new SS3TreeCopy(client, getMultipartCopier(), getFanOutExecutor(),
+                SS3FileSystemConfigBuilder.getInstance().getFanOutThreads(getFileSystemOptions()), throttle);
+    }
+    
+    /**
+     * Creates a sync of local trees, configured from the file-system options.
+     * 
+     * @return 
+     */
+    protected SS3Sync getSync()
+    {
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = getFileSystemOptions();
+        
+        return new SS3Sync(this, getFanOutExecutor(), builder.getFanOutThreads(opts),
+                           builder.getMultipartPartSize(opts));
+    }
+    
+    /**
+     * Creates a bulk delete, configured from the file-system options.
+     * 
+     * @return 
+     */
+    protected SS3BulkDelete getBulkDelete()
+    {
+        return new SS3BulkDelete(client, getFanOutExecutor(),
+                SS3FileSystemConfigBuilder.getInstance().getDeleteBatchesInFlight(getFileSystemOptions()), throttle);
+    }
+    
+    /**
+     * The journal multipart uploads are recorded in.
+     * 
+     * @return The journal, or null if no journal directory is configured.
+     */
+    protected SS3UploadJournal getUploadJournal()
+    {
+        File dir = SS3FileSystemConfigBuilder.getInstance().getUploadJournalDir(getFileSystemOptions());
+        if( dir == null )
+        {
+            return null;
+        }
+        
+        executorLock.lock();
+        try
+        {
+            if( uploadJournal == null )
+            {
+                try
+                {
+                    uploadJournal = new SS3UploadJournal(dir);
+                }
+                catch (IOException ex)
+                {
+                    log.error(String.format("getUploadJournal() : Could not open the upload journal in '%s'", dir), ex);
+                    return null;
+                }
+            }
+            
+            return uploadJournal;
+        }
+        finally
+        {
+            executorLock.unlock();
+        }
+    }
+    
+    /**
+     * Open the configured number of pooled connections in parallel, and pre-load
+     * the root listings of the warm-up buckets if enabled.  Failures are logged,
+     * the file-system is usable either way.
+     * 
+     * @return The number of connections opened
+     * @see SS3FileSystemConfigBuilder#setWarmUpConnections
+     */
+    public int warmUp()
+    {
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = getFileSystemOptions();
+        
+        int connections = builder.getWarmUpConnections(opts);
+        if( connections <= 0 )
+        {
+            return 0;
+        }
+        
+        long start = System.nanoTime();
+        long timeout = builder.getWarmUpTimeout(opts);
+        boolean virtualThreads = builder.getUseVirtualThreads(opts);
+        String[] buckets = builder.getWarmUpBuckets(opts);
+        
+        int res = 0;
+        if( buckets.length == 0 )
+        {
+            res = SS3WarmUp.run("ss3-warm-up", connections, timeout, virtualThreads, () -> 
+                {
+                    try
+                    {
+                        return execute(null, c -> c.listBuckets());
+                    }
+                    catch (AmazonServiceException ex)
+                    {
+                        // The server answered, so the connection is open
+                        return null;
+                    }
+                });
+        }
+        
+        for( final String currBucket : buckets )
+        {
+            // Buckets can have their own host, so each gets its own connections
+            res += SS3WarmUp.run("ss3-warm-up", connections, timeout, virtualThreads, () -> 
+                {
+                    try
+                    {
+                        return execute(currBucket, c -> c.doesBucketExist(currBucket));
+                    }
+                    catch (AmazonServiceException ex)
+                    {
+                        return null;
+                    }
+                });
+            
+            if( builder.getWarmUpListing(opts) )
+            {
+                try
+                {
+                    resolveFile(String.format("/%s", currBucket)).getChildren();
+                }
+                catch (FileSystemException ex)
+                {
+                    log.warn(String.format("warmUp() : Could not list bucket '%s'", currBucket), ex);
+                }
+            }
+        }
+        
+        log.debug(String.format("warmUp() : Opened %d connections in %dms", res,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        
+        return res;
+    }
+    
+    /**
+     * Resume the multipart uploads left in the journal by an earlier run, e.g.
+     * after a crash.  Only the parts not already uploaded are sent.  Uploads whose
+     * local file no longer exists, or has changed, are aborted.
+     * 
+     * @return The number of uploads completed
+     * @throws FileSystemException if one or more uploads could not be resumed.
+     *         The others are still attempted.
+     */
+    public int resumeUploads() throws FileSystemException
+    {
+        SS3UploadJournal journal = getUploadJournal();
+        if( journal == null )
+        {
+            return 0;
+        }
+        
+        int res = 0;
+        Exception failure = null;
+        
+        for( SS3UploadJournal.Entry currEntry : journal.list() )
+        {
+            File source = currEntry.getSource();
+            
+            if( source.exists() == false
+                    || journal.find(currEntry.getBucket(), currEntry.getKey(), source,
+                                    currEntry.getPartSize()) == null )
+            {
+                log.info(String.format("resumeUploads() : Source '%s' is gone or changed. Aborting upload of '%s/%s'",
+                                       source, currEntry.getBucket(), currEntry.getKey()));
+                abortUpload(currEntry.getBucket(), currEntry.getKey(), currEntry.getUploadId());
+                currEntry.delete();
+                continue;
+            }
+            
+            try
+            {
+                ObjectMetadata metadata = new ObjectMetadata();
+                if( currEntry.getContentEncoding() != null )
+                {
+                    metadata.setContentEncoding(currEntry.getContentEncoding());
+                }
+                
+                getMultipartUploader().upload(currEntry.getBucket(), currEntry.getKey(), source, metadata);
+                res++;
+                
+                if( journal.isSpoolFile(source) )
+                {
+                    source.delete();
+                }
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                log.error(String.format("resumeUploads() : Could not resume upload of '%s/%s'",
+                                        currEntry.getBucket(), currEntry.getKey()), ex);
+                if( failure == null )
+                {
+                    failure = ex;
+                }
+            }
+        }
+        
+        if( failure != null )
+        {
+            throw new FileSystemException("vfs.provider/write.error", getRootName(), failure);
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Abort the multipart uploads in a bucket that were started before a cut-off,
+     * and drop them from the journal.  Uncompleted multipart uploads keep their
+     * parts stored on the server until they are aborted.
+     * 
+     * Spool files older than the cut-off that no journaled upload refers to are
+     * also deleted.
+     * 
+     * @param bucket The bucket to clean up
+     * @param maxAgeMillis Uploads started longer ago than this are aborted
+     * @return The number of uploads aborted
+     */
+    public int abortStaleUploads(String bucket, long maxAgeMillis)
+    {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        int res = 0;
+        
+        SS3UploadJournal journal = getUploadJournal();
+        List<SS3UploadJournal.Entry> entries = journal == null
+                ? new ArrayList<SS3UploadJournal.Entry>() : journal.list();
+        
+        final ListMultipartUploadsRequest req = new ListMultipartUploadsRequest(bucket);
+        MultipartUploadListing uploads;
+        do
+        {
+            uploads = execute(bucket, c -> c.listMultipartUploads(req));
+            for( MultipartUpload currUpload : uploads.getMultipartUploads() )
+            {
+                if( currUpload.getInitiated() != null && currUpload.getInitiated().getTime() < cutoff )
+                {
+                    abortUpload(bucket, currUpload.getKey(), currUpload.getUploadId());
+                    res++;
+                }
+            }
+            
+            req.setKeyMarker(uploads.getNextKeyMarker());
+            req.setUploadIdMarker(uploads.getNextUploadIdMarker());
+        }
+        while( uploads.isTruncated() );
+        
+        if( journal == null )
+        {
+            return res;
+        }
+        
+        Set<String> sources = new HashSet<>();
+        for( SS3UploadJournal.Entry currEntry : entries )
+        {
+            if( currEntry.getBucket().equals(bucket) && currEntry.getStarted() < cutoff )
+            {
+                currEntry.delete();
+            }
+            else
+            {
+                sources.add(currEntry.getSource().getAbsolutePath());
+            }
+        }
+        
+        File[] spoolFiles = journal.getSpoolDir().listFiles();
+        if( spoolFiles != null )
+        {
+            for( File currFile : spoolFiles )
+            {
+                if( currFile.lastModified() < cutoff
+                        && sources.contains(currFile.getAbsolutePath()) == false )
+                {
+                    currFile.delete();
+                }
+            }
+        }
+        
+        return res;
+    }
+    
+    private void abortUpload(String bucket, String key, String uploadId)
+    {
+        try
+        {
+            execute(bucket, c ->
+            {
+                c.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+                return null;
+            });
+        }
+        catch (AmazonServiceException ex)
+        {
+            if( ex.getStatusCode() != 404 )
+            {
+                log.error(String.format("abortUpload() : Could not abort upload '%s' of '%s/%s'",
+                                        uploadId, bucket, key), ex);
+            }
+        }
+    }
+    
+    /**
+     * The queue for write-behind uploads.
+     * 
+     * @return The queue, or null if write-behind mode is not enabled.
+     */
+    protected SS3WriteBehindQueue getWriteBehindQueue()
+    {
+        SS3FileSystemConfigBuilder builder = SS3FileSystemConfigBuilder.getInstance();
+        FileSystemOptions opts = getFileSystemOptions();
+        
+        if( builder.getWriteBehind(opts) == false )
+        {
+            return null;
+        }
+        
+        executorLock.lock();
+        try
+        {
+            if( writeBehindQueue == null )
+            {
+                writeBehindExecutor = SS3Executors.newExecutor("ss3-write-behind",
+                        builder.getWriteBehindThreads(opts), builder.getUseVirtualThreads(opts));
+                writeBehindQueue = new SS3WriteBehindQueue(writeBehindExecutor,
+                        builder.getWriteBehindCapacity(opts));
+            }
+            
+            return writeBehindQueue;
+        }
+        finally
+        {
+            executorLock.unlock();
+        }
+    }
+    
+    /**
+     * Run an upload on the upload executor and track it until it completes.
+     * 
+     * @param upload The upload to run
+     * @return A future completed when the upload is done
+     */
+    protected CompletableFuture<Void> submitUpload(Runnable upload)
+    {
+        final CompletableFuture<Void> res = CompletableFuture.runAsync(upload, getUploadExecutor());
+        
+        pendingUploads.add(res);
+        res.whenComplete((r, ex) -> pendingUploads.remove(res));
+        
+        return res;
+    }
+    
+    /**
+     * Wait for every asynchronous and write-behind upload submitted so far to
+     * finish.
+     * 
+     * @throws FileSystemException if one or more of the uploads failed.  The
+     *         first failure is the cause.
+     */
+    public void flushUploads() throws FileSystemException
+    {
+        List<CompletableFuture<Void>> pending = new ArrayList<>(pendingUploads);
+        Throwable failure = null;
+        
+        SS3WriteBehindQueue queue;
+        executorLock.lock();
+        try
+        {
+            queue = writeBehindQueue;
+        }
+        finally
+        {
+            executorLock.unlock();
+        }
+        
+        if( queue != null )
+        {
+            try
+            {
+                List<Throwable> queueFailures = queue.flush();
+                if( queueFailures.isEmpty() == false )
+                {
+                    failure = queueFailures.get(0);
+                }
+            }
+            catch (InterruptedIOException ex)
+            {
+                failure = ex;
+            }
+        }
+        
+        for( CompletableFuture<Void> currUpload : pending )
+        {
+            try
+            {
+                currUpload.join();
+            }
+            catch (CompletionException | CancellationException ex)
+            {
+                if( failure == null )
+                {
+                    failure = ex.getCause() != null ? ex.getCause() : ex;
+                }
+            }
+        }
+        
+        if( failure != null )
+        {
+            throw new FileSystemException("vfs.provider/write.error", getRootName(), failure);
+        }
+    }
+    
+    /**
+     * Waits for pending uploads before closing the file-system.  This is done
+     * outside <code>closeCommunicationLink()</code> since that holds the
+     * file-system lock.
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            flushUploads();
+        }
+        catch (FileSystemException ex)
+        {
+            log.error("close() : Asynchronous upload failed", ex);
+        }
+        
+        super.close();
+        
+        executorLock.lock();
+        try
+        {
+            if( ownsUploadExecutor && uploadExecutor != null )
+            {
+                uploadExecutor.shutdown();
+            }
+            
+            if( transferExecutor != null )
+            {
+                transferExecutor.shutdown();
+            }
+            
+            if( fanOutExecutor != null )
+            {
+                fanOutExecutor.shutdown();
+            }
+            
+            if( writeBehindExecutor != null )
+            {
+                writeBehindExecutor.shutdown();
+            }
+            
+            if( hedgeExecutor != null )
+            {
+                hedgeExecutor.shutdown();
+            }
+            
+            if( clientRegistry != null )
+            {
+                clientRegistry.release(client);
+                clientRegistry = null;
+            }
+            
+            uploadExecutor = null;
+            ownsUploadExecutor = false;
+            transferExecutor = null;
+            fanOutExecutor = null;
+            writeBehindExecutor = null;
+            writeBehindQueue = null;
+            hedgeExecutor = null;
+            hedger = null;
+        }
+        finally
+        {
+            executorLock.unlock();
+        }
+    }
 }
@@ -16,6 +16,10 @@
  */
 package com.sludev.commons.vfs2.provider.s3;
 
+import com.amazonaws.ClientConfiguration;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.vfs2.FileSystem;
 import org.apache.commons.vfs2.FileSystemConfigBuilder;
 import org.apache.commons.vfs2.FileSystemException;
@@ -32,6 +36,20 @@ public class SS3FileSystemConfigBuilder  extends FileSystemConfigBuilder
 {
     private static final Logger log = LoggerFactory.getLogger(SS3FileSystemConfigBuilder.class);
     private static final SS3FileSystemConfigBuilder BUILDER = new SS3FileSystemConfigBuilder();
+    
+    public static final int DEFAULT_UPLOAD_THREADS = 4;
+    public static final int DEFAULT_TRANSFER_THREADS = 8;
+    public static final int DEFAULT_FAN_OUT_THREADS = 16;
+    public static final int DEFAULT_DELETE_BATCHES_IN_FLIGHT = 4;
+    public static final long DEFAULT_MULTIPART_THRESHOLD = 16L * 1024 * 1024;
+    public static final long DEFAULT_MULTIPART_PART_SIZE = 8L * 1024 * 1024;
+    public static final int DEFAULT_PART_RETRIES = 3;
+    public static final long DEFAULT_COPY_PART_SIZE = 256L * 1024 * 1024;
+    public static final int DEFAULT_WRITE_BEHIND_THREADS = 32;
+    public static final int DEFAULT_WRITE_BEHIND_CAPACITY = 1024;
+    public static final long DEFAULT_HEDGE_MAX_SIZE = 1024L * 1024;
+    public static final int DEFAULT_HEDGE_THREADS = 32;
+    public static final long DEFAULT_WARM_UP_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
 
     @Override
     protected Class<? extends FileSystem> getConfigClass()
@@ -75,4 +93,922 @@ public class SS3FileSystemConfigBuilder  extends FileSystemConfigBuilder
     {
         return (UserAuthenticator) getParam(opts, "userAuthenticator");
     }
+
+    /**
+     * Sets the executor used for asynchronous uploads.  The executor is not shut
+     * down when the file-system is closed.
+     * @param opts The FileSystemOptions.
+     * @param executor The ExecutorService.
+     */
+    public void setUploadExecutor(FileSystemOptions opts, ExecutorService executor)
+    {
+        setParam(opts, "uploadExecutor", executor);
+    }
+    
+    /**
+     * @see #setUploadExecutor
+     * @param opts The FileSystemOptions.
+     * @return The ExecutorService, or null if the file-system should create its own.
+     */
+    public ExecutorService getUploadExecutor(FileSystemOptions opts)
+    {
+        return (ExecutorService) getParam(opts, "uploadExecutor");
+    }
+    
+    /**
+     * Sets the number of threads the file-system creates for asynchronous uploads
+     * when no upload executor has been set.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setUploadThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "uploadThreads", threads);
+    }
+    
+    /**
+     * @see #setUploadThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of upload threads.
+     */
+    public int getUploadThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "uploadThreads", DEFAULT_UPLOAD_THREADS);
+    }
+    
+    /**
+     * Run the provider's background work on virtual threads when the JVM supports
+     * them.  That is asynchronous and write-behind uploads, multipart parts, the
+     * per-object work of folder operations and hedged reads.  The fan-out and
+     * transfer thread counts then only bound how many tasks are in flight, so e.g.
+     * a fan-out thread count in the tens of thousands is practical.  Concurrent requests are still
+     * limited by the client's maximum number of connections.
+     * @param opts The FileSystemOptions.
+     * @param virtualThreads True to use virtual threads.
+     */
+    public void setUseVirtualThreads(FileSystemOptions opts, boolean virtualThreads)
+    {
+        setParam(opts, "useVirtualThreads", virtualThreads);
+    }
+    
+    /**
+     * @see #setUseVirtualThreads
+     * @param opts The FileSystemOptions.
+     * @return True if virtual threads should be used.
+     */
+    public boolean getUseVirtualThreads(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "useVirtualThreads", false);
+    }
+    
+    /**
+     * Sets the number of threads used to send the parts of a multipart transfer
+     * in parallel.  This also bounds the number of part buffers held in memory.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setTransferThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "transferThreads", threads);
+    }
+    
+    /**
+     * @see #setTransferThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of transfer threads.
+     */
+    public int getTransferThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "transferThreads", DEFAULT_TRANSFER_THREADS);
+    }
+    
+    /**
+     * Sets the number of threads folder operations, such as renaming a folder,
+     * use to work on many objects at once.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setFanOutThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "fanOutThreads", threads);
+    }
+    
+    /**
+     * @see #setFanOutThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of threads.
+     */
+    public int getFanOutThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "fanOutThreads", DEFAULT_FAN_OUT_THREADS);
+    }
+    
+    /**
+     * Sets the most bulk delete requests, of up to 1000 keys each, in flight at
+     * once when deleting a folder.
+     * @param opts The FileSystemOptions.
+     * @param batches The number of requests.
+     */
+    public void setDeleteBatchesInFlight(FileSystemOptions opts, int batches)
+    {
+        setParam(opts, "deleteBatchesInFlight", batches);
+    }
+    
+    /**
+     * @see #setDeleteBatchesInFlight
+     * @param opts The FileSystemOptions.
+     * @return The number of requests.
+     */
+    public int getDeleteBatchesInFlight(FileSystemOptions opts)
+    {
+        return getInteger(opts, "deleteBatchesInFlight", DEFAULT_DELETE_BATCHES_IN_FLIGHT);
+    }
+    
+    /**
+     * Sets the file size, in bytes, from which uploads are sent as parallel
+     * multipart uploads.
+     * @param opts The FileSystemOptions.
+     * @param threshold The size in bytes.
+     */
+    public void setMultipartThreshold(FileSystemOptions opts, long threshold)
+    {
+        setParam(opts, "multipartThreshold", threshold);
+    }
+    
+    /**
+     * @see #setMultipartThreshold
+     * @param opts The FileSystemOptions.
+     * @return The size in bytes.
+     */
+    public long getMultipartThreshold(FileSystemOptions opts)
+    {
+        return getLong(opts, "multipartThreshold", DEFAULT_MULTIPART_THRESHOLD);
+    }
+    
+    /**
+     * Sets the smallest part size, in bytes, for multipart uploads.  Larger files
+     * use larger parts to stay under the part count limit.  Sizes over
+     * <code>SS3MultipartUploader.MAX_PART_SIZE</code> are reduced to it.
+     * @param opts The FileSystemOptions.
+     * @param partSize The size in bytes.
+     */
+    public void setMultipartPartSize(FileSystemOptions opts, long partSize)
+    {
+        setParam(opts, "multipartPartSize", partSize);
+    }
+    
+    /**
+     * @see #setMultipartPartSize
+     * @param opts The FileSystemOptions.
+     * @return The size in bytes.
+     */
+    public long getMultipartPartSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "multipartPartSize", DEFAULT_MULTIPART_PART_SIZE);
+    }
+    
+    /**
+     * Sets how many times a failed part of a multipart transfer is retried.
+     * @param opts The FileSystemOptions.
+     * @param retries The number of retries.
+     */
+    public void setPartRetries(FileSystemOptions opts, int retries)
+    {
+        setParam(opts, "partRetries", retries);
+    }
+    
+    /**
+     * @see #setPartRetries
+     * @param opts The FileSystemOptions.
+     * @return The number of retries.
+     */
+    public int getPartRetries(FileSystemOptions opts)
+    {
+        return getInteger(opts, "partRetries", DEFAULT_PART_RETRIES);
+    }
+    
+    /**
+     * Sets the part size used when copying objects too large for a single
+     * server-side copy request.  Part copies move no data through the client so
+     * they can be much larger than upload parts.
+     * @param opts The FileSystemOptions.
+     * @param partSize The size in bytes.
+     */
+    public void setCopyPartSize(FileSystemOptions opts, long partSize)
+    {
+        setParam(opts, "copyPartSize", partSize);
+    }
+    
+    /**
+     * @see #setCopyPartSize
+     * @param opts The FileSystemOptions.
+     * @return The size in bytes.
+     */
+    public long getCopyPartSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "copyPartSize", DEFAULT_COPY_PART_SIZE);
+    }
+    
+    /**
+     * Enables write-behind mode.  Closing an output stream then queues the
+     * content for upload and returns without waiting for it.  Use
+     * <code>SS3FileSystem.flushUploads()</code> to wait for the queued uploads.
+     * @param opts The FileSystemOptions.
+     * @param writeBehind True to enable write-behind mode.
+     */
+    public void setWriteBehind(FileSystemOptions opts, boolean writeBehind)
+    {
+        setParam(opts, "writeBehind", writeBehind);
+    }
+    
+    /**
+     * @see #setWriteBehind
+     * @param opts The FileSystemOptions.
+     * @return True if write-behind mode is enabled.
+     */
+    public boolean getWriteBehind(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "writeBehind", false);
+    }
+    
+    /**
+     * Sets the number of threads uploading queued content in write-behind mode.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setWriteBehindThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "writeBehindThreads", threads);
+    }
+    
+    /**
+     * @see #setWriteBehindThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of threads.
+     */
+    public int getWriteBehindThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "writeBehindThreads", DEFAULT_WRITE_BEHIND_THREADS);
+    }
+    
+    /**
+     * Sets the most files queued or uploading in write-behind mode.  Writers
+     * block on close when the queue is full.
+     * @param opts The FileSystemOptions.
+     * @param capacity The number of files.
+     */
+    public void setWriteBehindCapacity(FileSystemOptions opts, int capacity)
+    {
+        setParam(opts, "writeBehindCapacity", capacity);
+    }
+    
+    /**
+     * @see #setWriteBehindCapacity
+     * @param opts The FileSystemOptions.
+     * @return The number of files.
+     */
+    public int getWriteBehindCapacity(FileSystemOptions opts)
+    {
+        return getInteger(opts, "writeBehindCapacity", DEFAULT_WRITE_BEHIND_CAPACITY);
+    }
+    
+    /**
+     * Enables conditional uploads.  Before uploading, the target's ETag is
+     * fetched and compared with the MD5, or multipart ETag, of the local file.
+     * The upload is skipped when they match.
+     * @param opts The FileSystemOptions.
+     * @param skipUnchanged True to skip uploads of unchanged content.
+     */
+    public void setSkipUnchangedUploads(FileSystemOptions opts, boolean skipUnchanged)
+    {
+        setParam(opts, "skipUnchangedUploads", skipUnchanged);
+    }
+    
+    /**
+     * @see #setSkipUnchangedUploads
+     * @param opts The FileSystemOptions.
+     * @return True if uploads of unchanged content are skipped.
+     */
+    public boolean getSkipUnchangedUploads(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "skipUnchangedUploads", false);
+    }
+    
+    /**
+     * Sets the compression applied to content written through output streams.
+     * Compressed objects are stored with a matching Content-Encoding and are
+     * decompressed when read.
+     * @param opts The FileSystemOptions.
+     * @param codec The codec.
+     */
+    public void setContentCodec(FileSystemOptions opts, SS3ContentCodec codec)
+    {
+        setParam(opts, "contentCodec", codec);
+    }
+    
+    /**
+     * @see #setContentCodec
+     * @param opts The FileSystemOptions.
+     * @return The codec, NONE by default.
+     */
+    public SS3ContentCodec getContentCodec(FileSystemOptions opts)
+    {
+        SS3ContentCodec res = (SS3ContentCodec) getParam(opts, "contentCodec");
+        
+        return res == null ? SS3ContentCodec.NONE : res;
+    }
+    
+    /**
+     * Enables client-side throttling.  Requests are rate limited per bucket, the
+     * limit is lowered when the server throttles and raised again on success, and
+     * failures are retried with jittered exponential backoff.  The SDK's own
+     * retries are then turned off, unless set with <code>setMaxErrorRetry()</code>.
+     * 
+     * Disabled by default.  Every request counts against the rate limit, reads
+     * included, so the maximum rate should be set to what the bucket's prefixes
+     * can take before it is enabled.
+     * @param opts The FileSystemOptions.
+     * @param throttle True to enable throttling.
+     */
+    public void setThrottle(FileSystemOptions opts, boolean throttle)
+    {
+        setParam(opts, "throttle", throttle);
+    }
+    
+    /**
+     * @see #setThrottle
+     * @param opts The FileSystemOptions.
+     * @return True if throttling is enabled.
+     */
+    public boolean getThrottle(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "throttle", false);
+    }
+    
+    /**
+     * Sets how many times the throttle retries a failed request.
+     * @param opts The FileSystemOptions.
+     * @param retries The number of retries.
+     */
+    public void setThrottleRetries(FileSystemOptions opts, int retries)
+    {
+        setParam(opts, "throttleRetries", retries);
+    }
+    
+    /**
+     * @see #setThrottleRetries
+     * @param opts The FileSystemOptions.
+     * @return The number of retries.
+     */
+    public int getThrottleRetries(FileSystemOptions opts)
+    {
+        return getInteger(opts, "throttleRetries", SS3Throttle.DEFAULT_MAX_RETRIES);
+    }
+    
+    /**
+     * Sets the highest request rate sent to a single bucket.  The throttle starts
+     * at this rate and never goes above it.
+     * @param opts The FileSystemOptions.
+     * @param rate The rate in requests per second.
+     */
+    public void setThrottleMaxRate(FileSystemOptions opts, double rate)
+    {
+        setParam(opts, "throttleMaxRate", rate);
+    }
+    
+    /**
+     * @see #setThrottleMaxRate
+     * @param opts The FileSystemOptions.
+     * @return The rate in requests per second.
+     */
+    public double getThrottleMaxRate(FileSystemOptions opts)
+    {
+        return getDouble(opts, "throttleMaxRate", SS3Throttle.DEFAULT_MAX_RATE);
+    }
+    
+    /**
+     * Sets the lowest request rate the throttle lowers a bucket's limit to.
+     * @param opts The FileSystemOptions.
+     * @param rate The rate in requests per second.
+     */
+    public void setThrottleMinRate(FileSystemOptions opts, double rate)
+    {
+        setParam(opts, "throttleMinRate", rate);
+    }
+    
+    /**
+     * @see #setThrottleMinRate
+     * @param opts The FileSystemOptions.
+     * @return The rate in requests per second.
+     */
+    public double getThrottleMinRate(FileSystemOptions opts)
+    {
+        return getDouble(opts, "throttleMinRate", SS3Throttle.DEFAULT_MIN_RATE);
+    }
+    
+    /**
+     * Creates the throttle for a file-system from the options.
+     * @param opts The FileSystemOptions.
+     * @param classifier Decides which failures are throttling or retryable.
+     * @return The throttle, or null if throttling is disabled.
+     */
+    public SS3Throttle createThrottle(FileSystemOptions opts, SS3Throttle.Classifier classifier)
+    {
+        if( getThrottle(opts) == false )
+        {
+            return null;
+        }
+        
+        return new SS3Throttle(classifier, getThrottleRetries(opts), getThrottleMaxRate(opts),
+                               getThrottleMinRate(opts));
+    }
+    
+    /**
+     * Enables hedged reads.  A small GET, or ranged read, that has produced no
+     * first byte within a percentile of the recent time-to-first-byte is sent
+     * again, and the first response to arrive is used.
+     * @param opts The FileSystemOptions.
+     * @param hedge True to enable hedged reads.
+     */
+    public void setHedge(FileSystemOptions opts, boolean hedge)
+    {
+        setParam(opts, "hedge", hedge);
+    }
+    
+    /**
+     * @see #setHedge
+     * @param opts The FileSystemOptions.
+     * @return True if hedged reads are enabled.
+     */
+    public boolean getHedge(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "hedge", false);
+    }
+    
+    /**
+     * Sets the time-to-first-byte percentile used as the hedge delay.
+     * @param opts The FileSystemOptions.
+     * @param percentile The percentile, e.g. 95.
+     */
+    public void setHedgePercentile(FileSystemOptions opts, double percentile)
+    {
+        setParam(opts, "hedgePercentile", percentile);
+    }
+    
+    /**
+     * @see #setHedgePercentile
+     * @param opts The FileSystemOptions.
+     * @return The percentile.
+     */
+    public double getHedgePercentile(FileSystemOptions opts)
+    {
+        return getDouble(opts, "hedgePercentile", SS3Hedger.DEFAULT_PERCENTILE);
+    }
+    
+    /**
+     * Sets the shortest hedge delay.
+     * @param opts The FileSystemOptions.
+     * @param delay The delay in milliseconds.
+     */
+    public void setHedgeMinDelay(FileSystemOptions opts, long delay)
+    {
+        setParam(opts, "hedgeMinDelay", delay);
+    }
+    
+    /**
+     * @see #setHedgeMinDelay
+     * @param opts The FileSystemOptions.
+     * @return The delay in milliseconds.
+     */
+    public long getHedgeMinDelay(FileSystemOptions opts)
+    {
+        return getLong(opts, "hedgeMinDelay", SS3Hedger.DEFAULT_MIN_DELAY_MS);
+    }
+    
+    /**
+     * Sets the most hedges sent per read, e.g. 0.05 for at most one extra request
+     * in twenty.
+     * @param opts The FileSystemOptions.
+     * @param budget The fraction of reads that may be hedged.
+     */
+    public void setHedgeBudget(FileSystemOptions opts, double budget)
+    {
+        setParam(opts, "hedgeBudget", budget);
+    }
+    
+    /**
+     * @see #setHedgeBudget
+     * @param opts The FileSystemOptions.
+     * @return The fraction of reads that may be hedged.
+     */
+    public double getHedgeBudget(FileSystemOptions opts)
+    {
+        return getDouble(opts, "hedgeBudget", SS3Hedger.DEFAULT_BUDGET);
+    }
+    
+    /**
+     * Sets the largest read that is hedged.  Larger reads are dominated by their
+     * transfer time rather than their first byte.
+     * @param opts The FileSystemOptions.
+     * @param size The size in bytes.
+     */
+    public void setHedgeMaxSize(FileSystemOptions opts, long size)
+    {
+        setParam(opts, "hedgeMaxSize", size);
+    }
+    
+    /**
+     * @see #setHedgeMaxSize
+     * @param opts The FileSystemOptions.
+     * @return The size in bytes.
+     */
+    public long getHedgeMaxSize(FileSystemOptions opts)
+    {
+        return getLong(opts, "hedgeMaxSize", DEFAULT_HEDGE_MAX_SIZE);
+    }
+    
+    /**
+     * Sets the number of threads hedged reads run on, if virtual threads are not
+     * used.  A read and its hedge each take a thread while waiting.
+     * @param opts The FileSystemOptions.
+     * @param threads The number of threads.
+     */
+    public void setHedgeThreads(FileSystemOptions opts, int threads)
+    {
+        setParam(opts, "hedgeThreads", threads);
+    }
+    
+    /**
+     * @see #setHedgeThreads
+     * @param opts The FileSystemOptions.
+     * @return The number of threads.
+     */
+    public int getHedgeThreads(FileSystemOptions opts)
+    {
+        return getInteger(opts, "hedgeThreads", DEFAULT_HEDGE_THREADS);
+    }
+    
+    /**
+     * Sets the number of connections opened in parallel when a file-system is
+     * created, so the first requests do not pay for connection setup.  With a
+     * warm-up bucket set the connections go to that bucket's host.
+     * @param opts The FileSystemOptions.
+     * @param connections The number of connections, 0 to disable the warm-up.
+     */
+    public void setWarmUpConnections(FileSystemOptions opts, int connections)
+    {
+        setParam(opts, "warmUpConnections", connections);
+    }
+    
+    /**
+     * @see #setWarmUpConnections
+     * @param opts The FileSystemOptions.
+     * @return The number of connections.
+     */
+    public int getWarmUpConnections(FileSystemOptions opts)
+    {
+        return getInteger(opts, "warmUpConnections", 0);
+    }
+    
+    /**
+     * Sets the buckets the warm-up connections are opened to.  Without any, the
+     * warm-up lists the buckets instead.
+     * @param opts The FileSystemOptions.
+     * @param buckets The bucket names.
+     */
+    public void setWarmUpBuckets(FileSystemOptions opts, String... buckets)
+    {
+        setParam(opts, "warmUpBuckets", buckets);
+    }
+    
+    /**
+     * @see #setWarmUpBuckets
+     * @param opts The FileSystemOptions.
+     * @return The bucket names, empty if none are set.
+     */
+    public String[] getWarmUpBuckets(FileSystemOptions opts)
+    {
+        String[] res = (String[]) getParam(opts, "warmUpBuckets");
+    
+        return res == null ? new String[0] : res;
+    }
+    
+    /**
+     * Also list the root of each warm-up bucket when a file-system is created,
+     * so the listing is cached before it is first needed.
+     * @param opts The FileSystemOptions.
+     * @param listing True to pre-load the root listings.
+     */
+    public void setWarmUpListing(FileSystemOptions opts, boolean listing)
+    {
+        setParam(opts, "warmUpListing", listing);
+    }
+    
+    /**
+     * @see #setWarmUpListing
+     * @param opts The FileSystemOptions.
+     * @return True if the root listings are pre-loaded.
+     */
+    public boolean getWarmUpListing(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "warmUpListing", false);
+    }
+    
+    /**
+     * Sets the longest the warm-up may delay the creation of a file-system.
+     * @param opts The FileSystemOptions.
+     * @param timeout The timeout in milliseconds.
+     */
+    public void setWarmUpTimeout(FileSystemOptions opts, long timeout)
+    {
+        setParam(opts, "warmUpTimeout", timeout);
+    }
+    
+    /**
+     * @see #setWarmUpTimeout
+     * @param opts The FileSystemOptions.
+     * @return The timeout in milliseconds.
+     */
+    public long getWarmUpTimeout(FileSystemOptions opts)
+    {
+        return getLong(opts, "warmUpTimeout", DEFAULT_WARM_UP_TIMEOUT);
+    }
+    
+    /**
+     * Sets the local directory multipart uploads are journaled in.  Uploads
+     * interrupted by a crash can then be resumed with
+     * <code>SS3FileSystem.resumeUploads()</code>.  Output streams also spool their
+     * content to this directory.
+     * @param opts The FileSystemOptions.
+     * @param dir The journal directory.
+     */
+    public void setUploadJournalDir(FileSystemOptions opts, File dir)
+    {
+        setParam(opts, "uploadJournalDir", dir);
+    }
+    
+    /**
+     * @see #setUploadJournalDir
+     * @param opts The FileSystemOptions.
+     * @return The journal directory, or null if uploads are not journaled.
+     */
+    public File getUploadJournalDir(FileSystemOptions opts)
+    {
+        return (File) getParam(opts, "uploadJournalDir");
+    }
+    
+    /**
+     * Sets the most HTTP connections the client keeps open.  The SDK default is 50.
+     * @param opts The FileSystemOptions.
+     * @param maxConnections The number of connections.
+     */
+    public void setMaxConnections(FileSystemOptions opts, int maxConnections)
+    {
+        setParam(opts, "maxConnections", maxConnections);
+    }
+    
+    /**
+     * @see #setMaxConnections
+     * @param opts The FileSystemOptions.
+     * @return The number of connections.
+     */
+    public int getMaxConnections(FileSystemOptions opts)
+    {
+        return getInteger(opts, "maxConnections", ClientConfiguration.DEFAULT_MAX_CONNECTIONS);
+    }
+    
+    /**
+     * Sets the timeout for opening a connection.
+     * @param opts The FileSystemOptions.
+     * @param timeout The timeout in milliseconds.
+     */
+    public void setConnectionTimeout(FileSystemOptions opts, int timeout)
+    {
+        setParam(opts, "connectionTimeout", timeout);
+    }
+    
+    /**
+     * @see #setConnectionTimeout
+     * @param opts The FileSystemOptions.
+     * @return The timeout in milliseconds.
+     */
+    public int getConnectionTimeout(FileSystemOptions opts)
+    {
+        return getInteger(opts, "connectionTimeout", ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT);
+    }
+    
+    /**
+     * Sets the timeout for reading from an open connection.
+     * @param opts The FileSystemOptions.
+     * @param timeout The timeout in milliseconds.
+     */
+    public void setSocketTimeout(FileSystemOptions opts, int timeout)
+    {
+        setParam(opts, "socketTimeout", timeout);
+    }
+    
+    /**
+     * @see #setSocketTimeout
+     * @param opts The FileSystemOptions.
+     * @return The timeout in milliseconds.
+     */
+    public int getSocketTimeout(FileSystemOptions opts)
+    {
+        return getInteger(opts, "socketTimeout", ClientConfiguration.DEFAULT_SOCKET_TIMEOUT);
+    }
+    
+    /**
+     * Sets the socket send and receive buffer size hints.  Larger buffers help
+     * throughput on links with a high bandwidth-delay product.
+     * @param opts The FileSystemOptions.
+     * @param sendBufferSize The send buffer size in bytes.
+     * @param receiveBufferSize The receive buffer size in bytes.
+     */
+    public void setSocketBufferSizeHints(FileSystemOptions opts, int sendBufferSize, int receiveBufferSize)
+    {
+        setParam(opts, "socketSendBufferSizeHint", sendBufferSize);
+        setParam(opts, "socketReceiveBufferSizeHint", receiveBufferSize);
+    }
+    
+    /**
+     * @see #setSocketBufferSizeHints
+     * @param opts The FileSystemOptions.
+     * @return The send buffer size in bytes, 0 for the system default.
+     */
+    public int getSocketSendBufferSizeHint(FileSystemOptions opts)
+    {
+        return getInteger(opts, "socketSendBufferSizeHint", 0);
+    }
+    
+    /**
+     * @see #setSocketBufferSizeHints
+     * @param opts The FileSystemOptions.
+     * @return The receive buffer size in bytes, 0 for the system default.
+     */
+    public int getSocketReceiveBufferSizeHint(FileSystemOptions opts)
+    {
+        return getInteger(opts, "socketReceiveBufferSizeHint", 0);
+    }
+    
+    /**
+     * Sets whether idle connections are closed in the background.
+     * @param opts The FileSystemOptions.
+     * @param evictIdle True to close idle connections.
+     */
+    public void setEvictIdleConnections(FileSystemOptions opts, boolean evictIdle)
+    {
+        setParam(opts, "evictIdleConnections", evictIdle);
+    }
+    
+    /**
+     * @see #setEvictIdleConnections
+     * @param opts The FileSystemOptions.
+     * @return True if idle connections are closed.
+     */
+    public boolean getEvictIdleConnections(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "evictIdleConnections", ClientConfiguration.DEFAULT_USE_REAPER);
+    }
+    
+    /**
+     * Sets the longest time a pooled connection is reused for.
+     * @param opts The FileSystemOptions.
+     * @param ttl The time in milliseconds, -1 for no limit.
+     */
+    public void setConnectionTTL(FileSystemOptions opts, long ttl)
+    {
+        setParam(opts, "connectionTTL", ttl);
+    }
+    
+    /**
+     * @see #setConnectionTTL
+     * @param opts The FileSystemOptions.
+     * @return The time in milliseconds, -1 for no limit.
+     */
+    public long getConnectionTTL(FileSystemOptions opts)
+    {
+        return getLong(opts, "connectionTTL", ClientConfiguration.DEFAULT_CONNECTION_TTL);
+    }
+    
+    /**
+     * Sets whether TCP keep-alive is enabled on connections.
+     * @param opts The FileSystemOptions.
+     * @param keepAlive True to enable TCP keep-alive.
+     */
+    public void setTcpKeepAlive(FileSystemOptions opts, boolean keepAlive)
+    {
+        setParam(opts, "tcpKeepAlive", keepAlive);
+    }
+    
+    /**
+     * @see #setTcpKeepAlive
+     * @param opts The FileSystemOptions.
+     * @return True if TCP keep-alive is enabled.
+     */
+    public boolean getTcpKeepAlive(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "tcpKeepAlive", ClientConfiguration.DEFAULT_TCP_KEEP_ALIVE);
+    }
+    
+    /**
+     * Sets whether responses are requested gzip compressed.
+     * @param opts The FileSystemOptions.
+     * @param useGzip True to request compressed responses.
+     */
+    public void setUseGzip(FileSystemOptions opts, boolean useGzip)
+    {
+        setParam(opts, "useGzip", useGzip);
+    }
+    
+    /**
+     * @see #setUseGzip
+     * @param opts The FileSystemOptions.
+     * @return True if compressed responses are requested.
+     */
+    public boolean getUseGzip(FileSystemOptions opts)
+    {
+        return getBoolean(opts, "useGzip", ClientConfiguration.DEFAULT_USE_GZIP);
+    }
+    
+    /**
+     * Sets the request signer, e.g. "S3SignerType" for S3 compatible stores that
+     * do not support Signature Version 4.
+     * @param opts The FileSystemOptions.
+     * @param signer The signer type name.
+     */
+    public void setSignerOverride(FileSystemOptions opts, String signer)
+    {
+        setParam(opts, "signerOverride", signer);
+    }
+    
+    /**
+     * @see #setSignerOverride
+     * @param opts The FileSystemOptions.
+     * @return The signer type name, or null for the SDK default.
+     */
+    public String getSignerOverride(FileSystemOptions opts)
+    {
+        return (String) getParam(opts, "signerOverride");
+    }
+    
+    /**
+     * Sets how many times the client retries a failed request.  When not set,
+     * the client does not retry if throttling is enabled, since the throttle
+     * retries, and uses the SDK default otherwise.
+     * @param opts The FileSystemOptions.
+     * @param retries The number of retries.
+     */
+    public void setMaxErrorRetry(FileSystemOptions opts, int retries)
+    {
+        setParam(opts, "maxErrorRetry", retries);
+    }
+    
+    /**
+     * @see #setMaxErrorRetry
+     * @param opts The FileSystemOptions.
+     * @return The number of retries, or -1 if not set.
+     */
+    public int getMaxErrorRetry(FileSystemOptions opts)
+    {
+        return getInteger(opts, "maxErrorRetry", -1);
+    }
+    
+    /**
+     * Creates the Amazon S3 client configuration from the options.  Options
+     * that are not set keep the SDK defaults.
+     * @param opts The FileSystemOptions.
+     * @return The client configuration.
+     */
+    public ClientConfiguration getClientConfiguration(FileSystemOptions opts)
+    {
+        ClientConfiguration res = new ClientConfiguration();
+        
+        res.setMaxConnections(getMaxConnections(opts));
+        res.setConnectionTimeout(getConnectionTimeout(opts));
+        res.setSocketTimeout(getSocketTimeout(opts));
+        res.setSocketBufferSizeHints(getSocketSendBufferSizeHint(opts), getSocketReceiveBufferSizeHint(opts));
+        res.setUseReaper(getEvictIdleConnections(opts));
+        res.setConnectionTTL(getConnectionTTL(opts));
+        res.setUseTcpKeepAlive(getTcpKeepAlive(opts));
+        res.setUseGzip(getUseGzip(opts));
+        
+        String signer = getSignerOverride(opts);
+        if( signer != null )
+        {
+            res.setSignerOverride(signer);
+        }
+        
+        int retries = getMaxErrorRetry(opts);
+        if( retries >= 0 )
+        {
+            res.setMaxErrorRetry(retries);
+        }
+        else if( getThrottle(opts) )
+        {
+            // Retries on top of the throttle's would multiply the attempts
+            res.setMaxErrorRetry(0);
+        }
+        
+        return res;
+    }
 }
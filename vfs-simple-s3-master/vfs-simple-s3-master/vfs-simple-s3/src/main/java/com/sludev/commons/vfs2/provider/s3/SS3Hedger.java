@@ -0,0 +1,516 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hedged requests, to cut the tail latency of small reads.
+ * 
+ * A request is sent and, if it has not produced its first byte within the hedge
+ * delay, a duplicate is sent.  The first to succeed is used and the other is
+ * discarded, e.g. its connection aborted, whenever it completes.  The hedge delay
+ * is a percentile of the recent time-to-first-byte, so only the slowest requests
+ * are hedged.
+ * 
+ * A budget caps the extra requests.  Each request earns a fraction of a hedge,
+ * and each hedge sent spends a whole one.  So with a budget of 0.05 at most about
+ * one request in twenty is duplicated, however slow the server gets.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3Hedger
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3Hedger.class);
+    
+    public static final double DEFAULT_PERCENTILE = 95;
+    public static final long DEFAULT_MIN_DELAY_MS = 5;
+    public static final double DEFAULT_BUDGET = 0.05;
+    
+    /**
+     * Number of recent time-to-first-byte samples the delay is taken from.
+     */
+    private static final int SAMPLE_WINDOW = 1024;
+    
+    /**
+     * No request is hedged until this many samples have been recorded.
+     */
+    private static final int MIN_SAMPLES = 32;
+    
+    /**
+     * The delay is recomputed after this many new samples.
+     */
+    private static final int RECOMPUTE_INTERVAL = 32;
+    
+    /**
+     * Most hedges saved up from the budget, so a quiet period can not be followed
+     * by a burst of hedges.
+     */
+    private static final double MAX_CREDITS = 10;
+    
+    private final ExecutorService executor;
+    private final double percentile;
+    private final long minDelay;
+    private final double budget;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long[] samples = new long[SAMPLE_WINDOW];
+    private int sampleCount;
+    private int nextSample;
+    private int sinceRecompute;
+    private long delay = -1;
+    private double credits;
+    
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    
+    /**
+     * Creates a hedger.
+     * 
+     * @param executor The executor the requests run on.  Both the request and its
+     *        hedge take a thread while they wait for the server.
+     * @param percentile The time-to-first-byte percentile used as the hedge delay,
+     *        e.g. 95
+     * @param minDelay The shortest hedge delay, in milliseconds
+     * @param budget The most hedges sent per request, e.g. 0.05
+     */
+    public SS3Hedger(ExecutorService executor, double percentile, long minDelay, double budget)
+    {
+        this.executor = executor;
+        this.percentile = Math.min(100, Math.max(0, percentile));
+        this.minDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minDelay));
+        this.budget = Math.max(0, budget);
+    }
+    
+    /**
+     * A request that is sent again as a hedge.
+     * 
+     * @param <T> The response type
+     */
+    public interface Request<T>
+    {
+        /**
+         * Send the request.
+         * 
+         * @param attempt 0 for the request, 1 for its hedge
+         * @return The response, once its headers have arrived
+         * @throws Exception
+         */
+        T open(int attempt) throws Exception;
+    }
+    
+    /**
+     * Waits for the first byte of a response's content.
+     * 
+     * @param <T> The response type
+     */
+    public interface FirstByte<T>
+    {
+        /**
+         * @param response The response
+         * @return The response, ready to be read
+         * @throws Exception if the content could not be read.  The response is
+         *         released by then.
+         */
+        T await(T response) throws Exception;
+    }
+    
+    /**
+     * Run a request, hedging it if it is slow.
+     * 
+     * @param <T> The result type
+     * @param request The request.  It is called once more for the hedge, so it
+     *        must be safe to run twice at the same time.  It should return once
+     *        the first byte of the response is available.
+     * @param discard Releases the result of the request that lost, e.g. aborts
+     *        its stream
+     * @return The result of the first request to succeed
+     * @throws Exception the failure of the last request to fail, if none succeeds.
+     *         <code>InterruptedException</code> if interrupted while waiting.
+     * @see #execute(Request, FirstByte, Consumer)
+     */
+    public <T> T execute(final Callable<T> request, Consumer<? super T> discard) throws Exception
+    {
+        return execute(attempt -> request.call(), response -> response, discard);
+    }
+    
+    /**
+     * Run a request, hedging it if it is slow.
+     * 
+     * Once a request wins, the other is released straight away: with
+     * <code>discard</code> if its response has arrived, which should abort a
+     * read still waiting for the first byte, otherwise by interrupting it and
+     * discarding its response as soon as it arrives.
+     * 
+     * @param <T> The result type
+     * @param request The request.  It is called once more for the hedge, so it
+     *        must be safe to run twice at the same time.
+     * @param firstByte Waits for the first byte of a response
+     * @param discard Releases a response that lost, e.g. aborts its stream.  It
+     *        may be called while <code>firstByte</code> is waiting on the response.
+     * @return The result of the first request to succeed
+     * @throws Exception the failure of the last request to fail, if none succeeds.
+     *         <code>InterruptedException</code> if interrupted while waiting.
+     */
+    public <T> T execute(Request<T> request, FirstByte<T> firstByte, Consumer<? super T> discard)
+            throws Exception
+    {
+        requests.incrementAndGet();
+        
+        long hedgeDelay;
+        lock.lock();
+        try
+        {
+            credits = Math.min(MAX_CREDITS, credits + budget);
+            hedgeDelay = delay;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        Race<T> race = new Race<>(request, firstByte, discard);
+        race.start();
+        
+        try
+        {
+            if( hedgeDelay >= 0 )
+            {
+                try
+                {
+                    return race.winner.get(hedgeDelay, TimeUnit.NANOSECONDS);
+                }
+                catch (TimeoutException ex)
+                {
+                    if( takeCredit() )
+                    {
+                        hedges.incrementAndGet();
+                        
+                        log.debug(String.format("execute() : No first byte after %dms, hedging",
+                                                TimeUnit.NANOSECONDS.toMillis(hedgeDelay)));
+                        
+                        race.start();
+                    }
+                }
+            }
+            
+            return race.winner.get();
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if( cause instanceof Exception )
+            {
+                throw (Exception)cause;
+            }
+            
+            throw ex;
+        }
+        catch (InterruptedException ex)
+        {
+            race.cancel();
+            
+            throw ex;
+        }
+    }
+    
+    /**
+     * The current hedge delay.
+     * 
+     * @return The delay in milliseconds, or -1 while there are too few samples
+     */
+    public long getDelay()
+    {
+        lock.lock();
+        try
+        {
+            return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Number of requests run.
+     * 
+     * @return
+     */
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+    
+    /**
+     * Number of hedges sent.
+     * 
+     * @return
+     */
+    public long getHedgeCount()
+    {
+        return hedges.get();
+    }
+    
+    private boolean takeCredit()
+    {
+        lock.lock();
+        try
+        {
+            if( credits < 1 )
+            {
+                return false;
+            }
+            
+            credits -= 1;
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    private void record(long latency)
+    {
+        lock.lock();
+        try
+        {
+            samples[nextSample] = latency;
+            nextSample = (nextSample + 1) % SAMPLE_WINDOW;
+            sampleCount = Math.min(SAMPLE_WINDOW, sampleCount + 1);
+            
+            if( sampleCount >= MIN_SAMPLES && (delay < 0 || ++sinceRecompute >= RECOMPUTE_INTERVAL) )
+            {
+                long[] sorted = Arrays.copyOf(samples, sampleCount);
+                Arrays.sort(sorted);
+                
+                int index = (int)Math.ceil(percentile / 100 * sampleCount) - 1;
+                delay = Math.max(minDelay, sorted[Math.min(sampleCount - 1, Math.max(0, index))]);
+                sinceRecompute = 0;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * The requests racing for one read.  The first success wins and the other
+     * request is released.  It only fails once every request has failed.
+     */
+    private final class Race<T>
+    {
+        private final CompletableFuture<T> winner = new CompletableFuture<>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final List<Attempt> attempts = new CopyOnWriteArrayList<>();
+        private final Request<T> request;
+        private final FirstByte<T> firstByte;
+        private final Consumer<? super T> discard;
+        
+        Race(Request<T> request, FirstByte<T> firstByte, Consumer<? super T> discard)
+        {
+            this.request = request;
+            this.firstByte = firstByte;
+            this.discard = discard;
+        }
+        
+        void start()
+        {
+            Attempt attempt = new Attempt(attempts.size());
+            attempts.add(attempt);
+            running.incrementAndGet();
+            
+            try
+            {
+                attempt.task = executor.submit(attempt);
+            }
+            catch (RejectedExecutionException ex)
+            {
+                failed(ex);
+            }
+        }
+        
+        private void succeeded(Attempt attempt, T res)
+        {
+            if( winner.complete(res) == false )
+            {
+                discard.accept(res);
+                return;
+            }
+            
+            for( Attempt currAttempt : attempts )
+            {
+                if( currAttempt != attempt )
+                {
+                    currAttempt.abort();
+                }
+            }
+        }
+        
+        private void failed(Throwable ex)
+        {
+            if( running.decrementAndGet() == 0 )
+            {
+                winner.completeExceptionally(ex);
+            }
+        }
+        
+        /**
+         * Give up on the race.  Every request is released, as is the winner if
+         * there already is one.
+         */
+        void cancel()
+        {
+            for( Attempt currAttempt : attempts )
+            {
+                currAttempt.abort();
+            }
+            
+            if( winner.cancel(false) == false && winner.isCompletedExceptionally() == false )
+            {
+                discard.accept(winner.join());
+            }
+        }
+        
+        /**
+         * One request of the race.
+         */
+        private final class Attempt implements Runnable
+        {
+            private final int number;
+            private final ReentrantLock attemptLock = new ReentrantLock();
+            private volatile Future<?> task;
+            private T response;
+            private boolean aborted;
+            private boolean delivered;
+            
+            Attempt(int number)
+            {
+                this.number = number;
+            }
+            
+            @Override
+            public void run()
+            {
+                long start = System.nanoTime();
+                
+                T res;
+                try
+                {
+                    T opened = request.open(number);
+                    
+                    boolean lost;
+                    attemptLock.lock();
+                    try
+                    {
+                        lost = aborted;
+                        response = opened;
+                    }
+                    finally
+                    {
+                        attemptLock.unlock();
+                    }
+                    
+                    if( lost )
+                    {
+                        // Lost while waiting for the response
+                        discard.accept(opened);
+                        failed(new CancellationException());
+                        return;
+                    }
+                    
+                    res = firstByte.await(opened);
+                }
+                catch (Exception ex)
+                {
+                    failed(ex);
+                    return;
+                }
+                
+                attemptLock.lock();
+                try
+                {
+                    if( aborted )
+                    {
+                        // The response was discarded while the first byte arrived
+                        failed(new CancellationException());
+                        return;
+                    }
+                    
+                    delivered = true;
+                }
+                finally
+                {
+                    attemptLock.unlock();
+                }
+                
+                record(System.nanoTime() - start);
+                succeeded(this, res);
+            }
+            
+            void abort()
+            {
+                T opened;
+                
+                attemptLock.lock();
+                try
+                {
+                    if( aborted || delivered )
+                    {
+                        return;
+                    }
+                    
+                    aborted = true;
+                    opened = response;
+                }
+                finally
+                {
+                    attemptLock.unlock();
+                }
+                
+                if( opened != null )
+                {
+                    discard.accept(opened);
+                }
+                else if( task != null )
+                {
+                    // Still waiting for the response
+                    task.cancel(true);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.SSEAlgorithm;
+import com.amazonaws.services.s3.model.SSEAwsKeyManagementParams;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies an object to another key on the server side.  No content passes
+ * through the client.
+ * 
+ * Objects up to the single request copy limit use CopyObject.  Larger objects
+ * are copied as a multipart upload with the parts copied in parallel using
+ * UploadPartCopy.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3MultipartCopier
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3MultipartCopier.class);
+    
+    /**
+     * Largest object Amazon S3 copies with a single CopyObject request.
+     */
+    public static final long MAX_COPY_OBJECT_SIZE = 5L * 1024 * 1024 * 1024;
+    
+    private final AmazonS3Client client;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final long minPartSize;
+    private final int partRetries;
+    private SS3Throttle throttle;
+    
+    /**
+     * Creates a new copier.
+     * 
+     * @param client The client used for the copy requests
+     * @param executor The executor the part copies run on
+     * @param concurrency The most part copies in flight at once
+     * @param minPartSize The smallest part size to use for multipart copies
+     * @param partRetries How many times a failed part copy is retried
+     */
+    public SS3MultipartCopier(AmazonS3Client client, ExecutorService executor,
+                              int concurrency, long minPartSize, int partRetries)
+    {
+        this.client = client;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.minPartSize = minPartSize;
+        this.partRetries = Math.max(0, partRetries);
+    }
+    
+    /**
+     * Send the copy requests through a throttle, which rate limits and retries
+     * them in place of the part retries.
+     * 
+     * @param throttle The throttle, or null to send requests straight away
+     */
+    public void setThrottle(SS3Throttle throttle)
+    {
+        this.throttle = throttle;
+    }
+    
+    /**
+     * Copy an object.
+     * 
+     * @param srcBucket The source bucket
+     * @param srcKey The source key
+     * @param destBucket The destination bucket
+     * @param destKey The destination key
+     * @throws IOException if interrupted
+     */
+    public void copy(String srcBucket, String srcKey, String destBucket, String destKey) throws IOException
+    {
+        ObjectMetadata srcMetadata = SS3Throttle.executeAws(throttle, srcBucket,
+                () -> client.getObjectMetadata(srcBucket, srcKey));
+        
+        copy(srcBucket, srcKey, srcMetadata, destBucket, destKey);
+    }
+    
+    /**
+     * Copy an object whose size is already known, e.g. from a listing.  The
+     * source metadata is only fetched when a multipart copy is needed.
+     * 
+     * @param srcBucket The source bucket
+     * @param srcKey The source key
+     * @param size The size of the source object
+     * @param destBucket The destination bucket
+     * @param destKey The destination key
+     * @throws IOException if interrupted
+     */
+    public void copy(String srcBucket, String srcKey, long size, String destBucket, String destKey) throws IOException
+    {
+        if( size <= MAX_COPY_OBJECT_SIZE )
+        {
+            copyObject(srcBucket, srcKey, destBucket, destKey);
+            return;
+        }
+        
+        copy(srcBucket, srcKey, SS3Throttle.executeAws(throttle, srcBucket,
+                () -> client.getObjectMetadata(srcBucket, srcKey)), destBucket, destKey);
+    }
+    
+    /**
+     * Copy an object whose metadata is already known.
+     * 
+     * @param srcBucket The source bucket
+     * @param srcKey The source key
+     * @param srcMetadata The source object's metadata
+     * @param destBucket The destination bucket
+     * @param destKey The destination key
+     * @throws IOException if interrupted
+     */
+    public void copy(final String srcBucket, final String srcKey, ObjectMetadata srcMetadata,
+                     final String destBucket, final String destKey) throws IOException
+    {
+        long size = srcMetadata.getContentLength();
+        
+        if( size <= MAX_COPY_OBJECT_SIZE )
+        {
+            copyObject(srcBucket, srcKey, destBucket, destKey);
+            return;
+        }
+        
+        long partSize = SS3MultipartUploader.getPartSize(size, minPartSize);
+        int partCount = (int)((size + partSize - 1) / partSize);
+        
+        final InitiateMultipartUploadRequest req
+                = new InitiateMultipartUploadRequest(destBucket, destKey, getCopyMetadata(srcMetadata));
+        if( SSEAlgorithm.KMS.getAlgorithm().equals(srcMetadata.getSSEAlgorithm()) )
+        {
+            req.setSSEAwsKeyManagementParams(srcMetadata.getSSEAwsKmsKeyId() == null
+                    ? new SSEAwsKeyManagementParams()
+                    : new SSEAwsKeyManagementParams(srcMetadata.getSSEAwsKmsKeyId()));
+        }
+        final String uploadId = SS3Throttle.executeAws(throttle, destBucket,
+                () -> client.initiateMultipartUpload(req)).getUploadId();
+        
+        log.debug(String.format("copy() : Copying '%s/%s' to '%s/%s' in %d parts. Upload id '%s'",
+                                srcBucket, srcKey, destBucket, destKey, partCount, uploadId));
+        
+        boolean completed = false;
+        try
+        {
+            List<SS3PartTransfer.Part> parts = new ArrayList<>(partCount);
+            for( int i = 0; i < partCount; i++ )
+            {
+                final int partNumber = i + 1;
+                final long firstByte = i * partSize;
+                final long lastByte = Math.min(firstByte + partSize, size) - 1;
+                
+                parts.add(() -> SS3PartTransfer.withRetries(throttle, destBucket, partRetries,
+                        String.format("Copy of part %d of '%s/%s'", partNumber, srcBucket, srcKey),
+                        () -> client.copyPart(new CopyPartRequest()
+                                .withSourceBucketName(srcBucket)
+                                .withSourceKey(srcKey)
+                                .withDestinationBucketName(destBucket)
+                                .withDestinationKey(destKey)
+                                .withUploadId(uploadId)
+                                .withPartNumber(partNumber)
+                                .withFirstByte(firstByte)
+                                .withLastByte(lastByte))
+                            .getPartETag()));
+            }
+            
+            List<PartETag> etags = SS3PartTransfer.run(executor, concurrency, parts);
+            
+            SS3Throttle.executeAws(throttle, destBucket, () -> client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(destBucket, destKey, uploadId, etags)));
+            completed = true;
+        }
+        finally
+        {
+            if( completed == false )
+            {
+                try
+                {
+                    SS3Throttle.executeAws(throttle, destBucket, () ->
+                    {
+                        client.abortMultipartUpload(new AbortMultipartUploadRequest(destBucket, destKey, uploadId));
+                        return null;
+                    });
+                }
+                catch (AmazonClientException ex)
+                {
+                    log.error(String.format("copy() : Could not abort upload '%s' for '%s/%s'",
+                                            uploadId, destBucket, destKey), ex);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The metadata the destination of a multipart copy is created with.  The
+     * source's response headers, e.g. its length, ETag and dates, are not valid
+     * request headers, so only the user metadata, content headers and
+     * server-side encryption algorithm are carried over.
+     * 
+     * @param srcMetadata The source object's metadata
+     * @return New metadata for the destination
+     */
+    static ObjectMetadata getCopyMetadata(ObjectMetadata srcMetadata)
+    {
+        ObjectMetadata res = new ObjectMetadata();
+        
+        res.setUserMetadata(new HashMap<>(srcMetadata.getUserMetadata()));
+        
+        if( srcMetadata.getContentType() != null )
+        {
+            res.setContentType(srcMetadata.getContentType());
+        }
+        
+        if( srcMetadata.getContentEncoding() != null )
+        {
+            res.setContentEncoding(srcMetadata.getContentEncoding());
+        }
+        
+        if( srcMetadata.getContentDisposition() != null )
+        {
+            res.setContentDisposition(srcMetadata.getContentDisposition());
+        }
+        
+        if( srcMetadata.getCacheControl() != null )
+        {
+            res.setCacheControl(srcMetadata.getCacheControl());
+        }
+        
+        // KMS encryption is requested through the request's key management parameters
+        if( SSEAlgorithm.AES256.getAlgorithm().equals(srcMetadata.getSSEAlgorithm()) )
+        {
+            res.setSSEAlgorithm(srcMetadata.getSSEAlgorithm());
+        }
+        
+        return res;
+    }
+    
+    private void copyObject(final String srcBucket, final String srcKey,
+                            final String destBucket, final String destKey) throws IOException
+    {
+        SS3PartTransfer.withRetries(throttle, destBucket, partRetries,
+                String.format("Copy of '%s/%s' to '%s/%s'", srcBucket, srcKey, destBucket, destKey),
+                () -> client.copyObject(new CopyObjectRequest(srcBucket, srcKey, destBucket, destKey)));
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads a local file to Amazon S3 as a multipart upload with the parts sent
+ * in parallel.
+ * 
+ * Each part is read with a positional <code>FileChannel</code> read, so the parts
+ * do not share a stream and can be read and sent concurrently.  A failed part is
+ * retried on its own.  If a part still fails the whole upload is aborted.
+ * 
+ * With an upload journal set, the upload id and each completed part are recorded
+ * locally.  A failed upload is then kept instead of aborted, and uploading the
+ * same unchanged file again resumes it, sending only the missing parts.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3MultipartUploader
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3MultipartUploader.class);
+    
+    /**
+     * Smallest part size Amazon S3 accepts, except for the last part.
+     */
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    
+    /**
+     * Largest number of parts in a single multipart upload.
+     */
+    public static final int MAX_PARTS = 10000;
+    
+    /**
+     * Largest part size used.  A part is read into a single array, so it must
+     * fit in an int.
+     */
+    public static final long MAX_PART_SIZE = 2047L * 1024 * 1024;
+    
+    private static final long PART_SIZE_ALIGNMENT = 1024 * 1024;
+    
+    /**
+     * Bounds the memory held by part buffers across every upload in the JVM, in
+     * MiB.  The concurrency of an upload only bounds its own buffers, and in
+     * virtual thread mode many uploads can run at once.
+     */
+    private static final int BUFFER_MEMORY_MIB = (int)Math.max(MIN_PART_SIZE / PART_SIZE_ALIGNMENT,
+            Runtime.getRuntime().maxMemory() / 4 / PART_SIZE_ALIGNMENT);
+    private static final Semaphore bufferMemory = new Semaphore(BUFFER_MEMORY_MIB, true);
+    
+    private final AmazonS3Client client;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final long minPartSize;
+    private final int partRetries;
+    private SS3UploadJournal journal;
+    private SS3Throttle throttle;
+    
+    /**
+     * Creates a new uploader.
+     * 
+     * @param client The client used for the upload requests
+     * @param executor The executor the parts are uploaded on
+     * @param concurrency The most parts in flight at once.  Also bounds the
+     *        number of part buffers this upload holds in memory.
+     * @param minPartSize The smallest part size to use.  Larger files use larger parts.
+     * @param partRetries How many times a failed part is retried
+     */
+    public SS3MultipartUploader(AmazonS3Client client, ExecutorService executor,
+                                int concurrency, long minPartSize, int partRetries)
+    {
+        this.client = client;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.minPartSize = Math.max(MIN_PART_SIZE, minPartSize);
+        this.partRetries = Math.max(0, partRetries);
+    }
+    
+    /**
+     * Record uploads in a journal so they can be resumed.
+     * 
+     * @param journal The journal, or null to not record uploads
+     */
+    public void setJournal(SS3UploadJournal journal)
+    {
+        this.journal = journal;
+    }
+    
+    /**
+     * Send the upload requests through a throttle, which rate limits and retries
+     * them in place of the part retries.
+     * 
+     * @param throttle The throttle, or null to send requests straight away
+     */
+    public void setThrottle(SS3Throttle throttle)
+    {
+        this.throttle = throttle;
+    }
+    
+    /**
+     * Choose the part size for a file.  That is the configured minimum part size,
+     * or the smallest size that keeps the file under the part count limit, rounded up
+     * to a whole MiB.  Part sizes are never larger than <code>MAX_PART_SIZE</code>.
+     * 
+     * @param fileSize Size of the file in bytes
+     * @param minPartSize The smallest part size to use
+     * @return The part size in bytes
+     * @throws IllegalArgumentException if the file needs parts larger than
+     *         <code>MAX_PART_SIZE</code>
+     */
+    public static long getPartSize(long fileSize, long minPartSize)
+    {
+        long res = Math.min(MAX_PART_SIZE, Math.max(MIN_PART_SIZE, minPartSize));
+        
+        long needed = (fileSize + MAX_PARTS - 1) / MAX_PARTS;
+        if( needed > MAX_PART_SIZE )
+        {
+            throw new IllegalArgumentException(
+                    String.format("%d bytes is too large for a multipart upload", fileSize));
+        }
+        
+        if( needed > res )
+        {
+            res = ((needed + PART_SIZE_ALIGNMENT - 1) / PART_SIZE_ALIGNMENT) * PART_SIZE_ALIGNMENT;
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Upload a local file.
+     * 
+     * @param bucket The destination bucket
+     * @param key The destination key
+     * @param f The local file
+     * @throws IOException if the file could not be read, or the upload was interrupted
+     */
+    public void upload(String bucket, String key, File f) throws IOException
+    {
+        upload(bucket, key, f, null);
+    }
+    
+    /**
+     * Upload a local file with object metadata, e.g. a Content-Encoding.
+     * 
+     * @param bucket The destination bucket
+     * @param key The destination key
+     * @param f The local file
+     * @param metadata The metadata set when the upload is started, may be null
+     * @throws IOException if the file could not be read, or the upload was interrupted
+     */
+    public void upload(String bucket, String key, File f, ObjectMetadata metadata) throws IOException
+    {
+        long fileSize = f.length();
+        long partSize = getPartSize(fileSize, minPartSize);
+        
+        String uploadId = null;
+        SS3UploadJournal.Entry entry = null;
+        Map<Integer, PartETag> done = Collections.emptyMap();
+        
+        if( journal != null )
+        {
+            entry = journal.find(bucket, key, f, partSize);
+            if( entry != null )
+            {
+                done = getResumableParts(entry);
+                if( done != null )
+                {
+                    uploadId = entry.getUploadId();
+                    
+                    log.info(String.format("upload() : Resuming upload '%s' of '%s' to '%s/%s'. %d parts already sent.",
+                                           uploadId, f, bucket, key, done.size()));
+                }
+                else
+                {
+                    entry.delete();
+                    entry = null;
+                    done = Collections.emptyMap();
+                }
+            }
+        }
+        
+        if( uploadId == null )
+        {
+            final InitiateMultipartUploadRequest req = new InitiateMultipartUploadRequest(bucket, key,
+                    metadata == null ? new ObjectMetadata() : metadata);
+            uploadId = SS3Throttle.executeAws(throttle, bucket,
+                    () -> client.initiateMultipartUpload(req)).getUploadId();
+            
+            if( journal != null )
+            {
+                entry = journal.create(bucket, key, f, partSize, uploadId,
+                                       metadata == null ? null : metadata.getContentEncoding());
+            }
+        }
+        
+        log.debug(String.format("upload() : Uploading '%s' to '%s/%s' in parts of %d bytes. Upload id '%s'",
+                                f, bucket, key, partSize, uploadId));
+        
+        boolean completed = false;
+        try( FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ) )
+        {
+            List<PartETag> etags = uploadParts(bucket, key, uploadId, channel, fileSize, partSize,
+                                               done, entry);
+            
+            final CompleteMultipartUploadRequest req
+                    = new CompleteMultipartUploadRequest(bucket, key, uploadId, etags);
+            SS3Throttle.executeAws(throttle, bucket, () -> client.completeMultipartUpload(req));
+            completed = true;
+            
+            if( entry != null )
+            {
+                entry.delete();
+            }
+        }
+        finally
+        {
+            if( completed == false )
+            {
+                if( entry == null )
+                {
+                    abort(bucket, key, uploadId);
+                }
+                else
+                {
+                    log.info(String.format("upload() : Keeping upload '%s' of '%s/%s' to be resumed",
+                                           uploadId, bucket, key));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Check a journal entry against the parts the server holds for its upload.
+     * 
+     * @return The parts recorded in the journal that the server also has, or
+     *         null if the server no longer knows the upload.
+     */
+    private Map<Integer, PartETag> getResumableParts(SS3UploadJournal.Entry entry)
+    {
+        Map<Integer, PartETag> recorded = entry.getCompletedParts();
+        Map<Integer, PartETag> res = new HashMap<>();
+        
+        try
+        {
+            final ListPartsRequest req
+                    = new ListPartsRequest(entry.getBucket(), entry.getKey(), entry.getUploadId());
+            PartListing parts;
+            do
+            {
+                parts = SS3Throttle.executeAws(throttle, entry.getBucket(), () -> client.listParts(req));
+                for( PartSummary currPart : parts.getParts() )
+                {
+                    PartETag currETag = recorded.get(currPart.getPartNumber());
+                    if( currETag != null && StringUtils.equals(currETag.getETag(), currPart.getETag()) )
+                    {
+                        res.put(currPart.getPartNumber(), currETag);
+                    }
+                }
+                
+                req.setPartNumberMarker(parts.getNextPartNumberMarker());
+            }
+            while( parts.isTruncated() );
+        }
+        catch (AmazonServiceException ex)
+        {
+            if( ex.getStatusCode() == 404 )
+            {
+                log.info(String.format("getResumableParts() : Upload '%s' of '%s/%s' no longer exists",
+                                       entry.getUploadId(), entry.getBucket(), entry.getKey()));
+                return null;
+            }
+            
+            throw ex;
+        }
+        
+        return res;
+    }
+    
+    private List<PartETag> uploadParts(final String bucket, final String key, final String uploadId,
+                                       final FileChannel channel, long fileSize, long partSize,
+                                       Map<Integer, PartETag> done, final SS3UploadJournal.Entry entry)
+            throws IOException
+    {
+        int partCount = (int)Math.max(1, (fileSize + partSize - 1) / partSize);
+        List<SS3PartTransfer.Part> parts = new ArrayList<>(partCount);
+        
+        for( int i = 0; i < partCount; i++ )
+        {
+            final int partNumber = i + 1;
+            final long offset = i * partSize;
+            final int length = (int)Math.min(partSize, fileSize - offset);
+            
+            final PartETag sent = done.get(partNumber);
+            if( sent != null )
+            {
+                parts.add(() -> sent);
+                continue;
+            }
+            
+            parts.add(() -> 
+            {
+                PartETag res = uploadPart(bucket, key, uploadId, channel, partNumber, offset, length);
+                if( entry != null )
+                {
+                    entry.partCompleted(res, offset);
+                }
+                
+                return res;
+            });
+        }
+        
+        return SS3PartTransfer.run(executor, concurrency, parts);
+    }
+    
+    private PartETag uploadPart(final String bucket, final String key, final String uploadId,
+                                FileChannel channel, final int partNumber, long offset, final int length)
+            throws IOException
+    {
+        int permits = (int)Math.min(BUFFER_MEMORY_MIB, (length + PART_SIZE_ALIGNMENT - 1) / PART_SIZE_ALIGNMENT);
+        try
+        {
+            bufferMemory.acquire(permits);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted waiting to buffer part %d of '%s/%s'",
+                                                           partNumber, bucket, key));
+        }
+        
+        try
+        {
+            final byte[] buffer = readPart(channel, offset, length);
+            
+            return SS3PartTransfer.withRetries(throttle, bucket, partRetries,
+                    String.format("Upload of part %d of '%s/%s'", partNumber, bucket, key),
+                    () -> client.uploadPart(new UploadPartRequest()
+                            .withBucketName(bucket)
+                            .withKey(key)
+                            .withUploadId(uploadId)
+                            .withPartNumber(partNumber)
+                            .withPartSize(length)
+                            .withInputStream(new ByteArrayInputStream(buffer, 0, length)))
+                        .getPartETag());
+        }
+        finally
+        {
+            bufferMemory.release(permits);
+        }
+    }
+    
+    private static byte[] readPart(FileChannel channel, long offset, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        
+        while( buffer.hasRemaining() )
+        {
+            int read = channel.read(buffer, offset + buffer.position());
+            if( read < 0 )
+            {
+                throw new EOFException(String.format("File ended before offset %d", offset + length));
+            }
+        }
+        
+        return buffer.array();
+    }
+    
+    private void abort(String bucket, String key, String uploadId)
+    {
+        try
+        {
+            SS3Throttle.executeAws(throttle, bucket, () ->
+            {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+                return null;
+            });
+        }
+        catch (AmazonClientException ex)
+        {
+            log.error(String.format("abort() : Could not abort upload '%s' for '%s/%s'",
+                                    uploadId, bucket, key), ex);
+        }
+    }
+}
@@ -16,18 +16,22 @@
  */
 package com.sludev.commons.vfs2.provider.s3;
 
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Wrap an output stream for AWS stream upload.  Which unfortunately uses an
  * InputStream.
  * 
  * This OutputStream buffers all data to a local file then automatically uploads
- * it to Amazon S3 after <code>close()</code> is called.
+ * it to Amazon S3 after <code>close()</code> is called.  If a content codec is
+ * configured the data is compressed as it is buffered, and the uncompressed
+ * length is recorded in the object's user metadata.
  * 
  * @author kervin
  */
@@ -36,6 +40,8 @@ public final class SS3OutputStream extends OutputStream
     private final File tempFile;
     private final OutputStream tempFileStream;
     private final SS3FileObject fileObject;
+    private final ObjectMetadata metadata;
+    private long length;
 
     public File getTempFile()
     {
@@ -46,30 +52,79 @@ public final class SS3OutputStream extends OutputStream
     {
         super();
         
-        tempFile = File.createTempFile("bin", "bin");
-        tempFile.deleteOnExit();
+        tempFile = fo.createSpoolFile();
         
-        tempFileStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+        SS3ContentCodec codec = fo.getContentCodec();
+        
+        tempFileStream = new BufferedOutputStream(codec.encode(new FileOutputStream(tempFile)));
         
         fileObject = fo;
+        
+        if( codec.getContentEncoding() != null )
+        {
+            metadata = new ObjectMetadata();
+            metadata.setContentEncoding(codec.getContentEncoding());
+        }
+        else
+        {
+            metadata = null;
+        }
     }
 
     @Override
     public void write(int i) throws IOException
     {
         tempFileStream.write(i);
+        length++;
     }
 
     @Override
     public void close() throws IOException
     {
         tempFileStream.close();
+        recordLength();
+        
+        // In write-behind mode the queue uploads and deletes tempFile
+        if( fileObject.enqueueUpload(tempFile, metadata) )
+        {
+            return;
+        }
         
         // Upload tempFile
-        fileObject.putObject(tempFile);
+        fileObject.putObject(tempFile, metadata);
         tempFile.delete();
     }
 
+    /**
+     * Close the local buffer and upload it in the background.
+     * 
+     * @return A future completed once the object has been uploaded to Amazon S3
+     * @throws IOException 
+     */
+    public CompletableFuture<Void> closeAsync() throws IOException
+    {
+        tempFileStream.close();
+        recordLength();
+        
+        // Upload tempFile
+        CompletableFuture<Void> res = fileObject.putObjectAsync(tempFile, metadata);
+        res.whenComplete((r, ex) -> tempFile.delete());
+        
+        return res;
+    }
+
+    /**
+     * Record the length written before encoding, so the decoded size is known
+     * without downloading the content.
+     */
+    private void recordLength()
+    {
+        if( metadata != null )
+        {
+            metadata.addUserMetadata(SS3ContentCodec.UNCOMPRESSED_LENGTH_METADATA, Long.toString(length));
+        }
+    }
+
     @Override
     public void flush() throws IOException
     {
@@ -80,12 +135,14 @@ public final class SS3OutputStream extends OutputStream
     public void write(byte[] bytes, int i, int i1) throws IOException
     {
         tempFileStream.write(bytes, i, i1);
+        length += i1;
     }
 
     @Override
     public void write(byte[] bytes) throws IOException
     {
         tempFileStream.write(bytes);
+        length += bytes.length;
     }
 
     @Override
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.PartETag;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the parts of a multipart transfer in parallel, and retries single part
+ * requests.  Shared by the multipart upload and copy code.
+ * 
+ * @author Kervin Pierre
+ */
+final class SS3PartTransfer
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3PartTransfer.class);
+    
+    private static final long RETRY_BASE_DELAY_MS = 200;
+    
+    /**
+     * A single part of a transfer.
+     */
+    interface Part
+    {
+        PartETag run() throws IOException;
+    }
+    
+    private SS3PartTransfer()
+    {
+    }
+    
+    /**
+     * Run parts on an executor with at most <code>concurrency</code> of them in
+     * flight.  Once a part fails no new parts are started and the others are
+     * cancelled.
+     * 
+     * @param executor The executor the parts run on
+     * @param concurrency The most parts in flight at once
+     * @param parts The parts, in part number order
+     * @return The part ETags, in part number order
+     * @throws IOException The first part failure, or if interrupted
+     */
+    static List<PartETag> run(ExecutorService executor, int concurrency, List<Part> parts)
+            throws IOException
+    {
+        final Semaphore inFlight = new Semaphore(Math.max(1, concurrency));
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<PartETag>> futures = new ArrayList<>(parts.size());
+        
+        try
+        {
+            for( final Part currPart : parts )
+            {
+                if( failed.get() )
+                {
+                    break;
+                }
+                
+                inFlight.acquire();
+                try
+                {
+                    futures.add(executor.submit(() -> 
+                    {
+                        try
+                        {
+                            return currPart.run();
+                        }
+                        catch (IOException | RuntimeException ex)
+                        {
+                            failed.set(true);
+                            throw ex;
+                        }
+                        finally
+                        {
+                            inFlight.release();
+                        }
+                    }));
+                }
+                catch (RuntimeException ex)
+                {
+                    inFlight.release();
+                    throw ex;
+                }
+            }
+            
+            List<PartETag> res = new ArrayList<>(parts.size());
+            for( Future<PartETag> currFuture : futures )
+            {
+                res.add(currFuture.get());
+            }
+            
+            return res;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            
+            throw new InterruptedIOException("Multipart transfer interrupted");
+        }
+        catch (ExecutionException ex)
+        {
+            cancel(futures);
+            
+            Throwable cause = ex.getCause();
+            if( cause instanceof IOException )
+            {
+                throw (IOException)cause;
+            }
+            else if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException)cause;
+            }
+            
+            throw new IOException(cause);
+        }
+    }
+    
+    /**
+     * Run a request through a throttle, which rate limits and retries it.
+     * Without a throttle it is retried here instead.
+     * 
+     * @param throttle The throttle, may be null
+     * @param bucket The bucket the request is for
+     * @param retries How many times to retry without a throttle
+     * @param desc Description of the request for the log
+     * @param request The request
+     * @return The request's result
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    static <T> T withRetries(SS3Throttle throttle, String bucket, int retries, String desc,
+                             Supplier<T> request) throws InterruptedIOException
+    {
+        if( throttle == null )
+        {
+            return withRetries(retries, desc, request);
+        }
+        
+        try
+        {
+            return SS3Throttle.executeAws(throttle, bucket, request::get);
+        }
+        catch (AmazonClientException ex)
+        {
+            if( ex.getCause() instanceof InterruptedException )
+            {
+                InterruptedIOException res = new InterruptedIOException("Multipart transfer interrupted");
+                res.initCause(ex.getCause());
+                
+                throw res;
+            }
+            
+            throw ex;
+        }
+    }
+    
+    /**
+     * Run a request, retrying it with exponential backoff while it fails with a
+     * retryable error.
+     * 
+     * @param retries How many times to retry
+     * @param desc Description of the request for the log
+     * @param request The request
+     * @return The request's result
+     * @throws InterruptedIOException if interrupted while waiting to retry
+     */
+    static <T> T withRetries(int retries, String desc, Supplier<T> request) throws InterruptedIOException
+    {
+        for( int attempt = 0; ; attempt++ )
+        {
+            try
+            {
+                return request.get();
+            }
+            catch (AmazonClientException ex)
+            {
+                if( attempt >= retries || isRetryable(ex) == false )
+                {
+                    throw ex;
+                }
+                
+                log.warn(String.format("withRetries() : %s failed, retrying. Attempt %d of %d",
+                                       desc, attempt + 1, retries), ex);
+                
+                try
+                {
+                    Thread.sleep(RETRY_BASE_DELAY_MS << Math.min(attempt, 6));
+                }
+                catch (InterruptedException iex)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Multipart transfer interrupted");
+                }
+            }
+        }
+    }
+    
+    /**
+     * Client errors and server side errors are worth retrying.  Request errors
+     * such as access denied are not.
+     */
+    static boolean isRetryable(AmazonClientException ex)
+    {
+        if( ex instanceof AmazonServiceException )
+        {
+            int status = ((AmazonServiceException)ex).getStatusCode();
+            
+            return status >= 500 || status == 408 || status == 429;
+        }
+        
+        return ex.isRetryable();
+    }
+    
+    private static void cancel(List<Future<PartETag>> futures)
+    {
+        for( Future<PartETag> currFuture : futures )
+        {
+            currFuture.cancel(true);
+        }
+    }
+}
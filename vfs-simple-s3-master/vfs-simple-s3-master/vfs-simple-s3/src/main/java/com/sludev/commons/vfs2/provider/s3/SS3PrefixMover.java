@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves every object under a prefix to another prefix on the server side.
+ * 
+ * Objects are copied in parallel, with a bound on the copies in flight.  A
+ * source object is only deleted after its copy has completed, and deletes are
+ * sent in batches as copies finish.
+ * 
+ * @author Kervin Pierre
+ */
+class SS3PrefixMover
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3PrefixMover.class);
+    
+    private final AmazonS3Client client;
+    private final SS3MultipartCopier copier;
+    private final SS3BulkDelete bulkDelete;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final SS3Throttle throttle;
+    
+    /**
+     * Creates a new mover.
+     * 
+     * @param client The client used for listing and deleting
+     * @param copier The copier used for each object
+     * @param bulkDelete The bulk delete used for the source objects
+     * @param executor The executor object copies run on.  This must not be the
+     *        executor the copier runs parts on.
+     * @param concurrency The most object copies in flight at once
+     * @param throttle The throttle listing requests go through, may be null
+     */
+    SS3PrefixMover(AmazonS3Client client, SS3MultipartCopier copier, SS3BulkDelete bulkDelete,
+                   ExecutorService executor, int concurrency, SS3Throttle throttle)
+    {
+        this.client = client;
+        this.copier = copier;
+        this.bulkDelete = bulkDelete;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.throttle = throttle;
+    }
+    
+    /**
+     * Move all objects under a prefix.
+     * 
+     * Once a copy or a listing request fails no new copies are started.  The
+     * copies in flight are finished and the objects already copied are still
+     * removed from the source, but an object is never removed before it has
+     * been copied.
+     * 
+     * @param srcBucket The source bucket
+     * @param srcPrefix The source prefix, ending with a slash
+     * @param destBucket The destination bucket
+     * @param destPrefix The destination prefix, ending with a slash
+     * @return The number of objects moved
+     * @throws IOException The first failure, or if interrupted
+     * @throws IllegalArgumentException if the destination is inside the source
+     */
+    int move(final String srcBucket, final String srcPrefix,
+             final String destBucket, final String destPrefix) throws IOException
+    {
+        if( srcBucket.equals(destBucket) && destPrefix.startsWith(srcPrefix) )
+        {
+            throw new IllegalArgumentException(String.format("'%s/%s' is inside '%s/%s'",
+                                               destBucket, destPrefix, srcBucket, srcPrefix));
+        }
+        
+        CompletionService<String> copies = new ExecutorCompletionService<>(executor);
+        List<String> deleteBatch = new ArrayList<>(SS3BulkDelete.MAX_DELETE_KEYS);
+        int inFlight = 0;
+        int res = 0;
+        Exception failure = null;
+        
+        ListObjectsRequest loReq = new ListObjectsRequest()
+                .withBucketName(srcBucket)
+                .withPrefix(srcPrefix);
+        
+        try
+        {
+            try
+            {
+                ObjectListing blobs = SS3Throttle.executeAws(throttle, srcBucket, () -> client.listObjects(loReq));
+                
+                listing:
+                while( true )
+                {
+                    for( final S3ObjectSummary osum : blobs.getObjectSummaries() )
+                    {
+                        // Wait for a slot, collecting finished copies
+                        while( inFlight >= concurrency )
+                        {
+                            failure = collect(copies.take(), srcBucket, deleteBatch, failure);
+                            inFlight--;
+                        }
+                        
+                        if( failure != null )
+                        {
+                            break listing;
+                        }
+                        
+                        final String destKey = destPrefix + osum.getKey().substring(srcPrefix.length());
+                        copies.submit(() -> 
+                            {
+                                copier.copy(srcBucket, osum.getKey(), osum.getSize(), destBucket, destKey);
+                                return osum.getKey();
+                            });
+                        inFlight++;
+                        res++;
+                        
+                        // Collect whatever has finished without waiting
+                        Future<String> done;
+                        while( (done = copies.poll()) != null )
+                        {
+                            failure = collect(done, srcBucket, deleteBatch, failure);
+                            inFlight--;
+                        }
+                    }
+                    
+                    if( blobs.isTruncated() == false )
+                    {
+                        break;
+                    }
+                    
+                    final ObjectListing prev = blobs;
+                    blobs = SS3Throttle.executeAws(throttle, srcBucket, () -> client.listNextBatchOfObjects(prev));
+                }
+            }
+            catch (RuntimeException ex)
+            {
+                log.error(String.format("move() : Listing '%s/%s' failed", srcBucket, srcPrefix), ex);
+                
+                if( failure == null )
+                {
+                    failure = ex;
+                }
+            }
+            
+            // Finish the copies already started, even if the listing failed
+            while( inFlight > 0 )
+            {
+                failure = collect(copies.take(), srcBucket, deleteBatch, failure);
+                inFlight--;
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            InterruptedIOException iex = new InterruptedIOException(
+                    String.format("Move of '%s/%s' interrupted", srcBucket, srcPrefix));
+            iex.initCause(ex);
+            throw iex;
+        }
+        
+        if( deleteBatch.isEmpty() == false )
+        {
+            try
+            {
+                deleteKeys(srcBucket, deleteBatch);
+            }
+            catch (RuntimeException ex)
+            {
+                if( failure == null )
+                {
+                    failure = ex;
+                }
+                else
+                {
+                    // Keep the first failure, which is what stopped the move
+                    log.error(String.format("move() : Removing moved objects from '%s' failed", srcBucket), ex);
+                }
+            }
+        }
+        
+        if( failure != null )
+        {
+            if( failure instanceof IOException )
+            {
+                throw (IOException)failure;
+            }
+            
+            throw (RuntimeException)failure;
+        }
+        
+        log.debug(String.format("move() : Moved %d objects from '%s/%s' to '%s/%s'",
+                                res, srcBucket, srcPrefix, destBucket, destPrefix));
+        
+        return res;
+    }
+    
+    /**
+     * Handle a finished copy.  The source key is queued for deletion if the copy
+     * succeeded, and a full delete batch is sent.
+     * 
+     * @return The first failure seen so far
+     */
+    private Exception collect(Future<String> done, String srcBucket,
+                              List<String> deleteBatch, Exception failure)
+            throws InterruptedException, InterruptedIOException
+    {
+        try
+        {
+            deleteBatch.add(done.get());
+            
+            if( deleteBatch.size() >= SS3BulkDelete.MAX_DELETE_KEYS )
+            {
+                deleteKeys(srcBucket, deleteBatch);
+            }
+        }
+        catch (ExecutionException ex)
+        {
+            log.error(String.format("move() : Object copy from '%s' failed", srcBucket), ex.getCause());
+            
+            if( failure == null && ex.getCause() instanceof Exception )
+            {
+                return (Exception)ex.getCause();
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            if( failure == null )
+            {
+                return ex;
+            }
+        }
+        
+        return failure;
+    }
+    
+    private void deleteKeys(String bucket, List<String> keys) throws InterruptedIOException
+    {
+        SS3BulkDelete.Result res = bulkDelete.deleteKeys(bucket, keys);
+        keys.clear();
+        
+        if( res.getFailures().isEmpty() == false )
+        {
+            throw new AmazonClientException(String.format("Could not delete %d moved objects from '%s'",
+                                                          res.getFailures().size(), bucket));
+        }
+    }
+}
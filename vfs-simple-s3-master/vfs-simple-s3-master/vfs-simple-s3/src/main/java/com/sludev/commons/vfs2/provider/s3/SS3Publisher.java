@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>Flow.Publisher</code> over a blocking source, e.g. object listing pages
+ * or the chunks of an object's content.
+ * 
+ * Items are only fetched from the source when the subscriber has requested them,
+ * so a slow subscriber slows the reads instead of items piling up.  The fetching
+ * runs on an executor, never on the subscriber's thread.  Signals to a subscriber
+ * are never concurrent.
+ * 
+ * The publisher is cold.  Each subscriber gets its own source, opened on the
+ * first request, and the source is closed once it is exhausted, fails, or the
+ * subscription is cancelled.
+ * 
+ * @author Kervin Pierre
+ * @param <T> The item type
+ */
+public class SS3Publisher<T> implements Flow.Publisher<T>
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3Publisher.class);
+    
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    
+    /**
+     * A blocking source of items.
+     * 
+     * @param <T> The item type
+     */
+    public interface Source<T>
+    {
+        /**
+         * Fetch the next item.
+         * 
+         * @return The item, or null if there are no more
+         * @throws Exception
+         */
+        T next() throws Exception;
+        
+        /**
+         * Release the source.
+         * 
+         * @param completed True if the source was read to the end, false if the
+         *        subscription ended early
+         */
+        void close(boolean completed);
+    }
+    
+    private final Callable<? extends Source<T>> opener;
+    private final Executor executor;
+    
+    /**
+     * Creates a publisher.
+     * 
+     * @param opener Opens a new source for each subscriber
+     * @param executor The executor the source is read on
+     */
+    public SS3Publisher(Callable<? extends Source<T>> opener, Executor executor)
+    {
+        this.opener = opener;
+        this.executor = executor;
+    }
+    
+    /**
+     * Creates a publisher of the content of a stream, as chunks.
+     * 
+     * @param <S> The stream type
+     * @param opener Opens a new stream for each subscriber
+     * @param abort Releases a stream that was not read to the end, e.g. by
+     *        aborting its connection rather than draining it
+     * @param chunkSize The largest chunk published
+     * @param executor The executor the stream is read on
+     * @return The publisher
+     */
+    public static <S extends InputStream> SS3Publisher<ByteBuffer> ofInputStream(final Callable<S> opener,
+                                                    final Consumer<? super S> abort, final int chunkSize,
+                                                    Executor executor)
+    {
+        if( chunkSize <= 0 )
+        {
+            throw new IllegalArgumentException(String.format("Invalid chunk size %d", chunkSize));
+        }
+        
+        return new SS3Publisher<>(() ->
+            {
+                final S in = opener.call();
+                
+                return new Source<ByteBuffer>()
+                {
+                    @Override
+                    public ByteBuffer next() throws IOException
+                    {
+                        byte[] buffer = new byte[chunkSize];
+                        
+                        int len = 0;
+                        while( len < chunkSize )
+                        {
+                            int read = in.read(buffer, len, chunkSize - len);
+                            if( read < 0 )
+                            {
+                                break;
+                            }
+                            
+                            len += read;
+                        }
+                        
+                        return len == 0 ? null : ByteBuffer.wrap(buffer, 0, len);
+                    }
+                    
+                    @Override
+                    public void close(boolean completed)
+                    {
+                        if( completed == false )
+                        {
+                            abort.accept(in);
+                            return;
+                        }
+                        
+                        try
+                        {
+                            in.close();
+                        }
+                        catch (IOException ex)
+                        {
+                            log.debug("close() : Error closing the published stream", ex);
+                        }
+                    }
+                };
+            }, executor);
+    }
+    
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber)
+    {
+        Objects.requireNonNull(subscriber);
+        
+        PullSubscription subscription = new PullSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+    
+    /**
+     * Reads from the source while there is demand.  A work-in-progress count
+     * makes sure only one drain runs at a time, so the source is never read
+     * concurrently and the subscriber is never signalled concurrently.
+     */
+    private final class PullSubscription implements Flow.Subscription, Runnable
+    {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile long invalidRequest;
+        private volatile boolean invalid;
+        
+        // Only touched while draining
+        private Source<T> source;
+        private boolean done;
+        
+        PullSubscription(Flow.Subscriber<? super T> subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+        
+        @Override
+        public void request(long n)
+        {
+            if( n <= 0 )
+            {
+                invalidRequest = n;
+                invalid = true;
+            }
+            else
+            {
+                demand.getAndAccumulate(n, (curr, add) ->
+                    {
+                        long res = curr + add;
+                        
+                        return res < 0 ? Long.MAX_VALUE : res;
+                    });
+            }
+            
+            schedule();
+        }
+        
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            schedule();
+        }
+        
+        private void schedule()
+        {
+            if( wip.getAndIncrement() != 0 )
+            {
+                return;
+            }
+            
+            try
+            {
+                executor.execute(this);
+            }
+            catch (RejectedExecutionException ex)
+            {
+                wip.set(0);
+                finish(ex);
+            }
+        }
+        
+        @Override
+        public void run()
+        {
+            int missed = 1;
+            do
+            {
+                drain();
+                missed = wip.addAndGet(-missed);
+            }
+            while( missed != 0 );
+        }
+        
+        private void drain()
+        {
+            try
+            {
+                while( done == false )
+                {
+                    if( cancelled )
+                    {
+                        closeSource(false);
+                        done = true;
+                        return;
+                    }
+                    
+                    if( invalid )
+                    {
+                        finish(new IllegalArgumentException(
+                                String.format("Non-positive request of %d items", invalidRequest)));
+                        return;
+                    }
+                    
+                    if( demand.get() == 0 )
+                    {
+                        return;
+                    }
+                    
+                    if( source == null )
+                    {
+                        source = opener.call();
+                    }
+                    
+                    T item = source.next();
+                    if( item == null )
+                    {
+                        closeSource(true);
+                        done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    
+                    if( demand.get() != Long.MAX_VALUE )
+                    {
+                        demand.decrementAndGet();
+                    }
+                    
+                    subscriber.onNext(item);
+                }
+            }
+            catch (Exception ex)
+            {
+                finish(ex);
+            }
+        }
+        
+        private void finish(Throwable ex)
+        {
+            if( done )
+            {
+                return;
+            }
+            
+            done = true;
+            cancelled = true;
+            closeSource(false);
+            
+            subscriber.onError(ex);
+        }
+        
+        private void closeSource(boolean completed)
+        {
+            if( source != null )
+            {
+                source.close(completed);
+                source = null;
+            }
+        }
+    }
+}
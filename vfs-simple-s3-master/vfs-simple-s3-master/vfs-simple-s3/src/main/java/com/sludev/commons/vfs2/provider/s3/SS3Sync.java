@@ -0,0 +1,517 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mirrors a local directory tree into a prefix.
+ * 
+ * The remote prefix is listed once while the local tree is walked in parallel.
+ * Files are then compared by size and modification time, and optionally by
+ * digest against the remote ETag.  Only the files that differ are uploaded, and
+ * optionally the remote objects with no local file are deleted.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3Sync
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3Sync.class);
+    
+    private final SS3FileSystem fileSystem;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final long minPartSize;
+    
+    /**
+     * The outcome of a sync.
+     */
+    public static final class Result
+    {
+        private final int uploaded;
+        private final long bytesUploaded;
+        private final int unchanged;
+        private final int deleted;
+        private final Map<String, Exception> failures;
+        
+        private Result(int uploaded, long bytesUploaded, int unchanged, int deleted,
+                       Map<String, Exception> failures)
+        {
+            this.uploaded = uploaded;
+            this.bytesUploaded = bytesUploaded;
+            this.unchanged = unchanged;
+            this.deleted = deleted;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+        
+        /**
+         * @return The number of files uploaded
+         */
+        public int getUploaded()
+        {
+            return uploaded;
+        }
+        
+        /**
+         * @return The number of bytes uploaded
+         */
+        public long getBytesUploaded()
+        {
+            return bytesUploaded;
+        }
+        
+        /**
+         * @return The number of files already up to date
+         */
+        public int getUnchanged()
+        {
+            return unchanged;
+        }
+        
+        /**
+         * @return The number of remote objects deleted
+         */
+        public int getDeleted()
+        {
+            return deleted;
+        }
+        
+        /**
+         * @return The relative paths that could not be synced, mapped to the failure
+         */
+        public Map<String, Exception> getFailures()
+        {
+            return failures;
+        }
+    }
+    
+    /**
+     * A remote object from the listing.
+     */
+    private static final class RemoteEntry
+    {
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+        
+        RemoteEntry(S3ObjectSummary osum)
+        {
+            size = osum.getSize();
+            lastModified = osum.getLastModified() == null ? 0 : osum.getLastModified().getTime();
+            etag = osum.getETag();
+        }
+    }
+    
+    /**
+     * A local file from the walk.
+     */
+    private static final class LocalEntry
+    {
+        private final File file;
+        private final long size;
+        private final long lastModified;
+        
+        LocalEntry(Path path, BasicFileAttributes attrs)
+        {
+            file = path.toFile();
+            size = attrs.size();
+            lastModified = attrs.lastModifiedTime().toMillis();
+        }
+    }
+    
+    /**
+     * Creates a new sync.
+     * 
+     * @param fileSystem The file-system uploads and listing requests go through
+     * @param executor The executor the walk and the uploads run on.  This must
+     *        not be the executor multipart uploads run their parts on.
+     * @param concurrency The most uploads in flight at once
+     * @param minPartSize The multipart part size, for comparing multipart ETags
+     */
+    SS3Sync(SS3FileSystem fileSystem, ExecutorService executor,
+            int concurrency, long minPartSize)
+    {
+        this.fileSystem = fileSystem;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.minPartSize = minPartSize;
+    }
+    
+    /**
+     * Sync a local directory into a prefix.
+     * 
+     * @param localDir The local directory
+     * @param bucket The bucket
+     * @param prefix The prefix, ending with a slash.  Empty for the bucket root.
+     * @param delete Delete remote objects that have no local file
+     * @param compareDigest Compare files of the same size by digest instead of
+     *        by modification time.  Slower, since every such file is read, but
+     *        does not upload files that were only touched.
+     * @return The outcome
+     * @throws IOException if the local directory could not be read, or interrupted
+     */
+    public Result sync(File localDir, String bucket, String prefix, boolean delete, boolean compareDigest)
+            throws IOException
+    {
+        final Map<String, Exception> failures = new ConcurrentHashMap<>();
+        
+        // List the remote prefix and walk the local tree at the same time
+        Map<String, RemoteEntry> remote = new HashMap<>();
+        Map<String, LocalEntry> local = new ConcurrentHashMap<>();
+        
+        Walk walk = new Walk(localDir.toPath(), local, failures);
+        walk.start();
+        
+        listRemote(bucket, prefix, remote);
+        
+        walk.await();
+        
+        log.debug(String.format("sync() : %d local files under '%s', %d objects under '%s/%s'",
+                                local.size(), localDir, remote.size(), bucket, prefix));
+        
+        // Upload what differs
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final AtomicInteger uploaded = new AtomicInteger();
+        final AtomicLong bytesUploaded = new AtomicLong();
+        final AtomicInteger unchanged = new AtomicInteger();
+        
+        try
+        {
+            for( Map.Entry<String, LocalEntry> currLocal : local.entrySet() )
+            {
+                final String relPath = currLocal.getKey();
+                final LocalEntry localEntry = currLocal.getValue();
+                final RemoteEntry remoteEntry = remote.remove(relPath);
+                final String key = prefix + relPath;
+                
+                if( remoteEntry != null && remoteEntry.size == localEntry.size
+                        && compareDigest == false && localEntry.lastModified <= remoteEntry.lastModified )
+                {
+                    unchanged.incrementAndGet();
+                    continue;
+                }
+                
+                inFlight.acquire();
+                try
+                {
+                    executor.execute(() -> 
+                        {
+                            try
+                            {
+                                if( remoteEntry != null && remoteEntry.size == localEntry.size && compareDigest
+                                        && SS3ETags.matches(localEntry.file, remoteEntry.etag,
+                                                SS3MultipartUploader.getPartSize(localEntry.size, minPartSize)) )
+                                {
+                                    unchanged.incrementAndGet();
+                                    return;
+                                }
+                                
+                                fileSystem.putObject(bucket, key, localEntry.file, null);
+                                
+                                uploaded.incrementAndGet();
+                                bytesUploaded.addAndGet(localEntry.size);
+                            }
+                            catch (Exception ex)
+                            {
+                                log.error(String.format("sync() : Could not upload '%s' to '%s/%s'",
+                                                        localEntry.file, bucket, key), ex);
+                                failures.put(relPath, ex);
+                            }
+                            finally
+                            {
+                                inFlight.release();
+                            }
+                        });
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    inFlight.release();
+                    throw ex;
+                }
+            }
+            
+            // Every permit is back once the last upload has finished
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        }
+        catch (InterruptedException ex)
+        {
+            throw interrupted(localDir, ex);
+        }
+        
+        // What is left in the remote listing has no local file
+        int deleted = 0;
+        if( delete && remote.isEmpty() == false )
+        {
+            List<String> keys = new ArrayList<>(remote.size());
+            int skipped = 0;
+            for( String currPath : remote.keySet() )
+            {
+                // Files under a directory that could not be read are not known
+                // to be gone, so their objects are kept
+                if( walk.isUnreadable(currPath) )
+                {
+                    skipped++;
+                    continue;
+                }
+                
+                keys.add(prefix + currPath);
+            }
+            
+            if( skipped > 0 )
+            {
+                log.warn(String.format("sync() : Not deleting %d objects under unreadable directories of '%s'",
+                                       skipped, localDir));
+            }
+            
+            SS3BulkDelete.Result res = fileSystem.getBulkDelete().deleteKeys(bucket, keys);
+            deleted = res.getDeleted();
+            
+            for( Map.Entry<String, String> currFailure : res.getFailures().entrySet() )
+            {
+                failures.put(StringUtils.removeStart(currFailure.getKey(), prefix),
+                             new IOException(currFailure.getValue()));
+            }
+        }
+        
+        log.debug(String.format("sync() : Synced '%s' to '%s/%s'. %d uploaded, %d unchanged, %d deleted, %d failed",
+                                localDir, bucket, prefix, uploaded.get(), unchanged.get(), deleted,
+                                failures.size()));
+        
+        return new Result(uploaded.get(), bytesUploaded.get(), unchanged.get(), deleted, failures);
+    }
+    
+    private void listRemote(String bucket, String prefix, Map<String, RemoteEntry> remote)
+    {
+        ListObjectsRequest loReq = new ListObjectsRequest()
+                .withBucketName(bucket)
+                .withPrefix(prefix);
+        
+        ObjectListing blobs = fileSystem.execute(bucket, c -> c.listObjects(loReq));
+        while( true )
+        {
+            for( S3ObjectSummary osum : blobs.getObjectSummaries() )
+            {
+                String relPath = osum.getKey().substring(prefix.length());
+                if( relPath.isEmpty() || relPath.endsWith("/") )
+                {
+                    // Folder markers
+                    continue;
+                }
+                
+                remote.put(relPath, new RemoteEntry(osum));
+            }
+            
+            if( blobs.isTruncated() == false )
+            {
+                break;
+            }
+            
+            final ObjectListing prev = blobs;
+            blobs = fileSystem.execute(bucket, c -> c.listNextBatchOfObjects(prev));
+        }
+    }
+    
+    private static InterruptedIOException interrupted(File localDir, InterruptedException ex)
+    {
+        Thread.currentThread().interrupt();
+        
+        InterruptedIOException res = new InterruptedIOException(
+                String.format("Sync of '%s' interrupted", localDir));
+        res.initCause(ex);
+        
+        return res;
+    }
+    
+    /**
+     * Walks the local tree with a task per directory.
+     */
+    private final class Walk
+    {
+        private final Path root;
+        private final Map<String, LocalEntry> local;
+        private final Map<String, Exception> failures;
+        private final Set<String> unreadable = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+        
+        private Walk(Path root, Map<String, LocalEntry> local, Map<String, Exception> failures)
+        {
+            this.root = root;
+            this.local = local;
+            this.failures = failures;
+        }
+        
+        private void start() throws IOException
+        {
+            if( Files.isDirectory(root) == false )
+            {
+                throw new IOException(String.format("'%s' is not a directory", root));
+            }
+            
+            visit(root);
+        }
+        
+        private void visit(final Path dir)
+        {
+            pending.incrementAndGet();
+            
+            try
+            {
+                executor.execute(() -> list(dir));
+            }
+            catch (RejectedExecutionException ex)
+            {
+                unreadable.add(getRelativePath(dir));
+                failures.put(getRelativePath(dir), ex);
+                finished();
+            }
+        }
+        
+        private void list(Path dir)
+        {
+            try( DirectoryStream<Path> entries = Files.newDirectoryStream(dir) )
+            {
+                for( Path currPath : entries )
+                {
+                    try
+                    {
+                        add(currPath);
+                    }
+                    catch (IOException | RuntimeException ex)
+                    {
+                        // e.g. a dangling link.  Keep listing the rest of the directory.
+                        log.error(String.format("sync() : Could not read '%s'", currPath), ex);
+                        unreadable.add(getRelativePath(currPath));
+                        failures.put(getRelativePath(currPath), ex);
+                    }
+                }
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                log.error(String.format("sync() : Could not read '%s'", dir), ex);
+                unreadable.add(getRelativePath(dir));
+                failures.put(getRelativePath(dir), ex);
+            }
+            finally
+            {
+                finished();
+            }
+        }
+        
+        /**
+         * Record a local file, or start walking a local directory.
+         */
+        private void add(Path path) throws IOException
+        {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class,
+                                                             LinkOption.NOFOLLOW_LINKS);
+            if( attrs.isSymbolicLink() )
+            {
+                // Follow links to files, but not to directories, which could loop
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                if( attrs.isDirectory() )
+                {
+                    // Its files are not seen, so keep the remote objects under it
+                    log.debug(String.format("sync() : Skipping linked directory '%s'", path));
+                    unreadable.add(getRelativePath(path));
+                    return;
+                }
+            }
+            
+            if( attrs.isDirectory() )
+            {
+                visit(path);
+            }
+            else if( attrs.isRegularFile() )
+            {
+                local.put(getRelativePath(path), new LocalEntry(path, attrs));
+            }
+        }
+        
+        private void finished()
+        {
+            if( pending.decrementAndGet() == 0 )
+            {
+                done.countDown();
+            }
+        }
+        
+        /**
+         * Checks whether a path is, or is under, a local entry that could not be
+         * read or was skipped.
+         * 
+         * @param relPath The path, relative to the root
+         * @return True if the path's files may not all have been seen
+         */
+        private boolean isUnreadable(String relPath)
+        {
+            for( String currDir : unreadable )
+            {
+                if( currDir.isEmpty() || relPath.equals(currDir) || relPath.startsWith(currDir + "/") )
+                {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        private String getRelativePath(Path path)
+        {
+            return StringUtils.join(root.relativize(path).iterator(), "/");
+        }
+        
+        private void await() throws InterruptedIOException
+        {
+            try
+            {
+                done.await();
+            }
+            catch (InterruptedException ex)
+            {
+                throw interrupted(root.toFile(), ex);
+            }
+        }
+    }
+}
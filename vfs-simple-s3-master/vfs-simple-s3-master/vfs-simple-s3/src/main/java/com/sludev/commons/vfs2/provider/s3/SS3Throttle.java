@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client-side retries and rate limiting for requests to a bucket.
+ * 
+ * Each bucket gets a token bucket limiter.  Requests take a token before they are
+ * sent, so the rate sent to a bucket never goes above its current limit.  When the
+ * server answers with a throttling error, e.g. 503 SlowDown, the limit is halved.
+ * Each success raises it again by a small fixed step, up to the configured maximum.
+ * So the rate settles just under what the server accepts, instead of every thread
+ * hammering it at once.
+ * 
+ * Failed requests that are worth retrying are retried with exponential backoff and
+ * full jitter, i.e. a random delay between zero and the backoff, so retries from
+ * many threads spread out instead of arriving together.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3Throttle
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3Throttle.class);
+    
+    /**
+     * Requests per second Amazon S3 supports for writes to a single prefix.
+     */
+    public static final double DEFAULT_MAX_RATE = 3500;
+    public static final double DEFAULT_MIN_RATE = 1;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final long DEFAULT_BASE_DELAY_MS = 100;
+    public static final long DEFAULT_MAX_DELAY_MS = 20000;
+    
+    /**
+     * How much the limit is raised for each successful request, in requests per
+     * second.
+     */
+    private static final double RATE_INCREASE = 0.5;
+    
+    /**
+     * Throttling errors within this long of the last decrease do not lower the
+     * limit again.  They are usually from requests sent before the decrease.
+     */
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    
+    private static final Set<String> THROTTLING_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "SlowDown", "Throttling", "ThrottlingException", "RequestLimitExceeded",
+            "TooManyRequests", "TooManyRequestsException", "RequestThrottled"));
+    
+    /**
+     * What to do with a failed request.
+     */
+    public enum Outcome
+    {
+        /**
+         * The server asked for fewer requests.  Lower the limit and retry.
+         */
+        THROTTLED,
+        
+        /**
+         * A transient failure.  Retry.
+         */
+        RETRYABLE,
+        
+        /**
+         * Retrying will not help.
+         */
+        FATAL
+    }
+    
+    /**
+     * Decides what a failure means.
+     */
+    public interface Classifier
+    {
+        Outcome classify(Exception ex);
+    }
+    
+    /**
+     * A request made with a client.
+     * 
+     * @param <C> The client type
+     * @param <T> The result type
+     */
+    public interface Call<C, T>
+    {
+        T call(C client) throws Exception;
+    }
+    
+    /**
+     * Classifies Amazon S3 client errors.  503s, 429s and the throttling error
+     * codes are throttling.  Other server errors, timeouts and client errors the
+     * SDK marks as retryable are retried.
+     */
+    public static final Classifier AWS_CLASSIFIER = ex ->
+    {
+        if( ex instanceof AmazonServiceException )
+        {
+            AmazonServiceException ase = (AmazonServiceException)ex;
+            
+            if( isThrottling(ase.getStatusCode(), ase.getErrorCode()) )
+            {
+                return Outcome.THROTTLED;
+            }
+        }
+        
+        if( ex instanceof AmazonClientException
+                && SS3PartTransfer.isRetryable((AmazonClientException)ex) )
+        {
+            return Outcome.RETRYABLE;
+        }
+        
+        return Outcome.FATAL;
+    };
+    
+    private final Classifier classifier;
+    private final int maxRetries;
+    private final double maxRate;
+    private final double minRate;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final ConcurrentMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+    
+    /**
+     * Creates a throttle with the default backoff delays.
+     * 
+     * @param classifier Decides which failures are throttling or retryable
+     * @param maxRetries How many times a failed request is retried
+     * @param maxRate The highest rate sent to a bucket, in requests per second
+     * @param minRate The lowest the limit goes, in requests per second
+     */
+    public SS3Throttle(Classifier classifier, int maxRetries, double maxRate, double minRate)
+    {
+        this(classifier, maxRetries, maxRate, minRate, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+    
+    /**
+     * Creates a throttle.
+     * 
+     * @param classifier Decides which failures are throttling or retryable
+     * @param maxRetries How many times a failed request is retried
+     * @param maxRate The highest rate sent to a bucket, in requests per second
+     * @param minRate The lowest the limit goes, in requests per second
+     * @param baseDelay The backoff before the first retry, in milliseconds
+     * @param maxDelay The longest backoff, in milliseconds
+     */
+    public SS3Throttle(Classifier classifier, int maxRetries, double maxRate, double minRate,
+                       long baseDelay, long maxDelay)
+    {
+        this.classifier = classifier;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.maxRate = Math.max(maxRate, Double.MIN_NORMAL);
+        this.minRate = Math.min(Math.max(minRate, Double.MIN_NORMAL), this.maxRate);
+        this.baseDelay = Math.max(1, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+    }
+    
+    /**
+     * Checks for the status codes and error codes servers use to ask for fewer
+     * requests.
+     * 
+     * @param status The HTTP status code
+     * @param errorCode The error code, may be null
+     * @return True if the error is throttling
+     */
+    public static boolean isThrottling(int status, String errorCode)
+    {
+        return status == 503 || status == 429
+                || (errorCode != null && THROTTLING_ERROR_CODES.contains(errorCode));
+    }
+    
+    /**
+     * Run a request against a bucket, waiting for the bucket's limiter first and
+     * retrying failures the classifier allows.
+     * 
+     * @param <T> The result type
+     * @param bucket The bucket the request is for
+     * @param call The request
+     * @return The request's result
+     * @throws Exception the last failure, once it is fatal or the retries are
+     *         used up.  <code>InterruptedException</code> if interrupted while
+     *         waiting.
+     */
+    public <T> T execute(String bucket, Callable<T> call) throws Exception
+    {
+        Limiter limiter = getLimiter(bucket);
+        
+        for( int attempt = 0; ; attempt++ )
+        {
+            limiter.acquire();
+            
+            try
+            {
+                T res = call.call();
+                limiter.succeeded();
+                
+                return res;
+            }
+            catch (Exception ex)
+            {
+                Outcome outcome = classifier.classify(ex);
+                if( outcome == Outcome.THROTTLED )
+                {
+                    limiter.throttled();
+                }
+                
+                if( outcome == Outcome.FATAL || attempt >= maxRetries )
+                {
+                    throw ex;
+                }
+                
+                long delay = getBackoff(attempt);
+                
+                log.debug(String.format("execute() : Request to '%s' failed (%s), retrying in %dms. Attempt %d of %d",
+                                        bucket, outcome, delay, attempt + 1, maxRetries), ex);
+                
+                Thread.sleep(delay);
+            }
+        }
+    }
+    
+    /**
+     * Run an Amazon S3 client request through a throttle, or straight away if
+     * there is none.
+     * 
+     * @param <T> The result type
+     * @param throttle The throttle, may be null
+     * @param bucket The bucket the request is for
+     * @param request The request
+     * @return The request's result
+     * @throws AmazonClientException the request's failure.  Checked failures,
+     *         including an interrupt while waiting, are wrapped.
+     */
+    public static <T> T executeAws(SS3Throttle throttle, String bucket, Callable<T> request)
+    {
+        try
+        {
+            if( throttle == null )
+            {
+                return request.call();
+            }
+            
+            return throttle.execute(bucket, request);
+        }
+        catch (RuntimeException ex)
+        {
+            throw ex;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException(String.format("Request to '%s' interrupted", bucket), ex);
+        }
+        catch (Exception ex)
+        {
+            throw new AmazonClientException(String.format("Request to '%s' failed", bucket), ex);
+        }
+    }
+    
+    /**
+     * Wait for a token from a bucket's limiter, for a request sent alongside one
+     * made with <code>execute()</code>, e.g. a hedge.  It is not retried.
+     * 
+     * @param bucket The bucket the request is for
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(String bucket) throws InterruptedException
+    {
+        getLimiter(bucket).acquire();
+    }
+    
+    /**
+     * The current limit for a bucket.
+     * 
+     * @param bucket The bucket
+     * @return The limit in requests per second
+     */
+    public double getRate(String bucket)
+    {
+        return getLimiter(bucket).getRate();
+    }
+    
+    /**
+     * A random delay between zero and the exponential backoff for an attempt.
+     */
+    private long getBackoff(int attempt)
+    {
+        long cap = Math.min(maxDelay, baseDelay << Math.min(attempt, 20));
+        
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+    
+    private Limiter getLimiter(String bucket)
+    {
+        return limiters.computeIfAbsent(bucket == null ? "" : bucket, b -> new Limiter());
+    }
+    
+    /**
+     * An adaptive token bucket.  Tokens are added at the current rate, up to one
+     * second's worth.  Waiting requests reserve a token in advance, so the balance
+     * can go negative and each waits its turn.
+     */
+    private final class Limiter
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+        private double rate = maxRate;
+        private double tokens = maxRate;
+        private long lastRefill = System.nanoTime();
+        private long lastDecrease;
+        
+        void acquire() throws InterruptedException
+        {
+            long wait;
+            
+            lock.lock();
+            try
+            {
+                refill();
+                
+                tokens -= 1;
+                wait = tokens >= 0 ? 0 : (long)(-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            
+            if( wait > 0 )
+            {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+        
+        void succeeded()
+        {
+            lock.lock();
+            try
+            {
+                refill();
+                rate = Math.min(maxRate, rate + RATE_INCREASE);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        void throttled()
+        {
+            lock.lock();
+            try
+            {
+                long now = System.nanoTime();
+                if( lastDecrease != 0 && now - lastDecrease < DECREASE_INTERVAL_NANOS )
+                {
+                    return;
+                }
+                
+                refill();
+                rate = Math.max(minRate, rate / 2);
+                tokens = Math.min(tokens, rate);
+                lastDecrease = now;
+                
+                log.info(String.format("throttled() : Server is throttling, lowered the limit to %.1f requests/s",
+                                       rate));
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        double getRate()
+        {
+            lock.lock();
+            try
+            {
+                return rate;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        private void refill()
+        {
+            long now = System.nanoTime();
+            
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+        }
+    }
+}
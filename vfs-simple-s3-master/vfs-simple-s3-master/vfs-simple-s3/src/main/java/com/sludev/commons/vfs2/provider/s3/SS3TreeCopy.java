@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies every object under a prefix to another prefix, possibly in another
+ * bucket on the same endpoint, on the server side.
+ * 
+ * The source prefix is listed once, page by page, and each object is copied as
+ * a separate task while the listing continues.  A failed object does not stop
+ * the others.  Failures are collected in the result.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3TreeCopy
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3TreeCopy.class);
+    
+    private final AmazonS3Client client;
+    private final SS3MultipartCopier copier;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final SS3Throttle throttle;
+    
+    /**
+     * Receives progress from a running tree copy.  Methods are called from the
+     * copying threads.
+     */
+    public interface Listener
+    {
+        /**
+         * An object has been copied.
+         * 
+         * @param srcKey The source key
+         * @param destKey The destination key
+         * @param size The object size in bytes
+         */
+        void copied(String srcKey, String destKey, long size);
+        
+        /**
+         * An object could not be copied.
+         * 
+         * @param srcKey The source key
+         * @param destKey The destination key
+         * @param ex The failure
+         */
+        void failed(String srcKey, String destKey, Exception ex);
+    }
+    
+    /**
+     * The outcome of a tree copy.
+     */
+    public static final class Result
+    {
+        private final int copied;
+        private final long bytes;
+        private final Map<String, Exception> failures;
+        
+        private Result(int copied, long bytes, Map<String, Exception> failures)
+        {
+            this.copied = copied;
+            this.bytes = bytes;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+        
+        /**
+         * @return The number of objects copied
+         */
+        public int getCopied()
+        {
+            return copied;
+        }
+        
+        /**
+         * @return The number of bytes copied
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+        
+        /**
+         * @return The source keys that could not be copied, mapped to the failure
+         */
+        public Map<String, Exception> getFailures()
+        {
+            return failures;
+        }
+    }
+    
+    /**
+     * Creates a new tree copy.
+     * 
+     * @param client The client used for listing
+     * @param copier The copier used for each object
+     * @param executor The executor object copies run on.  This must not be the
+     *        executor the copier runs parts on.
+     * @param concurrency The most object copies in flight at once
+     * @param throttle The throttle listing requests go through, may be null
+     */
+    SS3TreeCopy(AmazonS3Client client, SS3MultipartCopier copier,
+                ExecutorService executor, int concurrency, SS3Throttle throttle)
+    {
+        this.client = client;
+        this.copier = copier;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.throttle = throttle;
+    }
+    
+    /**
+     * Copy all objects under a prefix.
+     * 
+     * @param srcBucket The source bucket
+     * @param srcPrefix The source prefix.  Empty for the whole bucket.
+     * @param destBucket The destination bucket
+     * @param destPrefix The destination prefix.  Empty for the bucket root.
+     * @param listener Receives progress, may be null
+     * @return The outcome
+     * @throws InterruptedIOException if interrupted.  Copies already started
+     *         still complete.
+     */
+    public Result copy(final String srcBucket, final String srcPrefix,
+                       final String destBucket, final String destPrefix,
+                       final Listener listener) throws InterruptedIOException
+    {
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final AtomicInteger copied = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final Map<String, Exception> failures = new ConcurrentHashMap<>();
+        
+        ListObjectsRequest loReq = new ListObjectsRequest()
+                .withBucketName(srcBucket)
+                .withPrefix(srcPrefix);
+        
+        try
+        {
+            ObjectListing blobs = SS3Throttle.executeAws(throttle, srcBucket, () -> client.listObjects(loReq));
+            while( true )
+            {
+                for( final S3ObjectSummary osum : blobs.getObjectSummaries() )
+                {
+                    final String srcKey = osum.getKey();
+                    final String destKey = destPrefix + srcKey.substring(srcPrefix.length());
+                    
+                    inFlight.acquire();
+                    try
+                    {
+                        executor.execute(() -> 
+                            {
+                                try
+                                {
+                                    copier.copy(srcBucket, srcKey, osum.getSize(), destBucket, destKey);
+                                    
+                                    copied.incrementAndGet();
+                                    bytes.addAndGet(osum.getSize());
+                                    if( listener != null )
+                                    {
+                                        listener.copied(srcKey, destKey, osum.getSize());
+                                    }
+                                }
+                                catch (Exception ex)
+                                {
+                                    log.error(String.format("copy() : Could not copy '%s/%s' to '%s/%s'",
+                                                            srcBucket, srcKey, destBucket, destKey), ex);
+                                    
+                                    failures.put(srcKey, ex);
+                                    if( listener != null )
+                                    {
+                                        listener.failed(srcKey, destKey, ex);
+                                    }
+                                }
+                                finally
+                                {
+                                    inFlight.release();
+                                }
+                            });
+                    }
+                    catch (RejectedExecutionException ex)
+                    {
+                        inFlight.release();
+                        throw ex;
+                    }
+                }
+                
+                if( blobs.isTruncated() == false )
+                {
+                    break;
+                }
+                
+                final ObjectListing prev = blobs;
+                blobs = SS3Throttle.executeAws(throttle, srcBucket, () -> client.listNextBatchOfObjects(prev));
+            }
+            
+            // Every permit is back once the last copy has finished
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            InterruptedIOException iex = new InterruptedIOException(
+                    String.format("Copy of '%s/%s' interrupted", srcBucket, srcPrefix));
+            iex.initCause(ex);
+            throw iex;
+        }
+        
+        log.debug(String.format("copy() : Copied %d objects, %d bytes, from '%s/%s' to '%s/%s'. %d failed",
+                                copied.get(), bytes.get(), srcBucket, srcPrefix,
+                                destBucket, destPrefix, failures.size()));
+        
+        return new Result(copied.get(), bytes.get(), failures);
+    }
+}
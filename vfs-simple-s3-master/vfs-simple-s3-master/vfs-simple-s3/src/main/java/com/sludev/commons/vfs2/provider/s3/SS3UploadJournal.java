@@ -0,0 +1,440 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.PartETag;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small local journal of the multipart uploads in progress, so an upload
+ * interrupted by a crash can be resumed without re-sending the parts already
+ * uploaded.
+ * 
+ * Each upload has two files in the journal directory.  A ".upload" file written
+ * once when the upload starts, holding the upload id, the destination and the
+ * source file's size and modification time.  And a ".parts" file that gets one
+ * line appended, and synced to disk, for each part completed.  That line holds
+ * the part number, its offset in the source file and its ETag.
+ * 
+ * The journal directory also holds a "spool" directory used by output streams
+ * for their local buffers, so those survive a crash as well.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3UploadJournal
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3UploadJournal.class);
+    
+    private static final String UPLOAD_SUFFIX = ".upload";
+    private static final String PARTS_SUFFIX = ".parts";
+    private static final String SPOOL_DIR = "spool";
+    
+    private final File dir;
+    
+    /**
+     * Creates a journal kept in a local directory.  The directory is created if
+     * needed.
+     * 
+     * @param dir The journal directory
+     * @throws IOException if the directory could not be created
+     */
+    public SS3UploadJournal(File dir) throws IOException
+    {
+        this.dir = dir;
+        
+        Files.createDirectories(getSpoolDir().toPath());
+    }
+    
+    /**
+     * The directory output streams spool their content to when the journal is
+     * enabled.
+     * 
+     * @return 
+     */
+    public File getSpoolDir()
+    {
+        return new File(dir, SPOOL_DIR);
+    }
+    
+    /**
+     * Checks if a local file is one of the journal's spool files.
+     * 
+     * @param f The local file
+     * @return True if the file is in the spool directory
+     */
+    public boolean isSpoolFile(File f)
+    {
+        return getSpoolDir().getAbsoluteFile().equals(f.getAbsoluteFile().getParentFile());
+    }
+    
+    /**
+     * Find the journal entry of an interrupted upload of a local file.  The entry
+     * only matches if the file has not changed since the upload started and the
+     * same part size is used.
+     * 
+     * @param bucket The destination bucket
+     * @param key The destination key
+     * @param source The local file
+     * @param partSize The part size
+     * @return The entry, or null if there is none for this upload
+     */
+    public Entry find(String bucket, String key, File source, long partSize)
+    {
+        Entry res = read(getId(bucket, key, source));
+        
+        if( res != null && (res.sourceSize != source.length()
+                             || res.sourceModified != source.lastModified()
+                             || res.partSize != partSize) )
+        {
+            log.info(String.format("find() : '%s' changed since its upload to '%s/%s' started. Starting over.",
+                                   source, bucket, key));
+            return null;
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Record a new multipart upload.
+     * 
+     * @param bucket The destination bucket
+     * @param key The destination key
+     * @param source The local file
+     * @param partSize The part size
+     * @param uploadId The multipart upload id
+     * @param contentEncoding The Content-Encoding of the object, may be null
+     * @return The new entry
+     * @throws IOException if the entry could not be written
+     */
+    public Entry create(String bucket, String key, File source, long partSize, String uploadId,
+                        String contentEncoding) throws IOException
+    {
+        Entry res = new Entry(getId(bucket, key, source), bucket, key, source.getAbsolutePath(),
+                              source.length(), source.lastModified(), partSize, uploadId,
+                              System.currentTimeMillis(), contentEncoding);
+        
+        Properties props = new Properties();
+        props.setProperty("uploadId", uploadId);
+        props.setProperty("bucket", bucket);
+        props.setProperty("key", key);
+        props.setProperty("source", res.source);
+        props.setProperty("sourceSize", Long.toString(res.sourceSize));
+        props.setProperty("sourceModified", Long.toString(res.sourceModified));
+        props.setProperty("partSize", Long.toString(partSize));
+        props.setProperty("started", Long.toString(res.started));
+        if( contentEncoding != null )
+        {
+            props.setProperty("contentEncoding", contentEncoding);
+        }
+        
+        Files.deleteIfExists(res.getPartsFile().toPath());
+        
+        // Write then move, so a crash never leaves a partial entry
+        File tmp = new File(dir, res.id + UPLOAD_SUFFIX + ".tmp");
+        try( OutputStream out = Files.newOutputStream(tmp.toPath()) )
+        {
+            props.store(out, "Multipart upload in progress");
+        }
+        Files.move(tmp.toPath(), res.getUploadFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        
+        return res;
+    }
+    
+    /**
+     * All the uploads in the journal.
+     * 
+     * @return 
+     */
+    public List<Entry> list()
+    {
+        List<Entry> res = new ArrayList<>();
+        
+        File[] files = dir.listFiles();
+        if( files == null )
+        {
+            return res;
+        }
+        
+        for( File currFile : files )
+        {
+            String name = currFile.getName();
+            if( name.endsWith(UPLOAD_SUFFIX) )
+            {
+                Entry currEntry = read(StringUtils.removeEnd(name, UPLOAD_SUFFIX));
+                if( currEntry != null )
+                {
+                    res.add(currEntry);
+                }
+            }
+        }
+        
+        return res;
+    }
+    
+    private Entry read(String id)
+    {
+        File uploadFile = new File(dir, id + UPLOAD_SUFFIX);
+        if( uploadFile.exists() == false )
+        {
+            return null;
+        }
+        
+        Entry res;
+        try
+        {
+            Properties props = new Properties();
+            try( InputStream in = Files.newInputStream(uploadFile.toPath()) )
+            {
+                props.load(in);
+            }
+            
+            res = new Entry(id, props.getProperty("bucket"), props.getProperty("key"),
+                            props.getProperty("source"),
+                            Long.parseLong(props.getProperty("sourceSize")),
+                            Long.parseLong(props.getProperty("sourceModified")),
+                            Long.parseLong(props.getProperty("partSize")),
+                            props.getProperty("uploadId"),
+                            Long.parseLong(props.getProperty("started")),
+                            props.getProperty("contentEncoding"));
+            
+            File partsFile = res.getPartsFile();
+            if( partsFile.exists() )
+            {
+                for( String currLine : Files.readAllLines(partsFile.toPath(), StandardCharsets.UTF_8) )
+                {
+                    String[] fields = StringUtils.split(currLine, ' ');
+                    if( fields.length != 3 )
+                    {
+                        // A line cut short by a crash
+                        continue;
+                    }
+                    
+                    int partNumber = Integer.parseInt(fields[0]);
+                    if( Long.parseLong(fields[1]) != (partNumber - 1) * res.partSize )
+                    {
+                        continue;
+                    }
+                    
+                    res.parts.put(partNumber, new PartETag(partNumber, fields[2]));
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            log.warn(String.format("read() : Ignoring unreadable journal entry '%s'", uploadFile), ex);
+            
+            return null;
+        }
+        
+        return res;
+    }
+    
+    private static String getId(String bucket, String key, File source)
+    {
+        String res;
+        
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(String.format("%s\n%s\n%s", bucket, key, source.getAbsolutePath())
+                                            .getBytes(StandardCharsets.UTF_8));
+            
+            StringBuilder sb = new StringBuilder();
+            for( byte b : digest )
+            {
+                sb.append(String.format("%02x", b));
+            }
+            res = sb.toString();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+        
+        return res;
+    }
+    
+    /**
+     * A single multipart upload in the journal.
+     */
+    public final class Entry
+    {
+        private final String id;
+        private final String bucket;
+        private final String key;
+        private final String source;
+        private final long sourceSize;
+        private final long sourceModified;
+        private final long partSize;
+        private final String uploadId;
+        private final long started;
+        private final String contentEncoding;
+        private final Map<Integer, PartETag> parts = new HashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        
+        private Entry(String id, String bucket, String key, String source, long sourceSize,
+                      long sourceModified, long partSize, String uploadId, long started,
+                      String contentEncoding)
+        {
+            this.id = id;
+            this.bucket = bucket;
+            this.key = key;
+            this.source = source;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.partSize = partSize;
+            this.uploadId = uploadId;
+            this.started = started;
+            this.contentEncoding = contentEncoding;
+        }
+        
+        public String getBucket()
+        {
+            return bucket;
+        }
+        
+        public String getKey()
+        {
+            return key;
+        }
+        
+        public File getSource()
+        {
+            return new File(source);
+        }
+        
+        public String getUploadId()
+        {
+            return uploadId;
+        }
+        
+        public long getPartSize()
+        {
+            return partSize;
+        }
+        
+        /**
+         * Time the upload was started, in milliseconds since the epoch.
+         * 
+         * @return 
+         */
+        public long getStarted()
+        {
+            return started;
+        }
+        
+        /**
+         * The Content-Encoding the object is uploaded with.
+         * 
+         * @return The encoding, or null if none
+         */
+        public String getContentEncoding()
+        {
+            return contentEncoding;
+        }
+        
+        /**
+         * The parts recorded as completed, by part number.
+         * 
+         * @return 
+         */
+        public Map<Integer, PartETag> getCompletedParts()
+        {
+            lock.lock();
+            try
+            {
+                return Collections.unmodifiableMap(new HashMap<>(parts));
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Record a completed part.  The record is synced to disk before returning.
+         * 
+         * @param part The part number and ETag
+         * @param offset The offset of the part in the source file
+         * @throws IOException if the record could not be written
+         */
+        public void partCompleted(PartETag part, long offset) throws IOException
+        {
+            String line = String.format("%d %d %s%n", part.getPartNumber(), offset, part.getETag());
+            
+            lock.lock();
+            try
+            {
+                Files.write(getPartsFile().toPath(), line.getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                            StandardOpenOption.DSYNC);
+                parts.put(part.getPartNumber(), part);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Remove the entry from the journal, once the upload has completed or
+         * been aborted.
+         */
+        public void delete()
+        {
+            try
+            {
+                Files.deleteIfExists(getUploadFile().toPath());
+                Files.deleteIfExists(getPartsFile().toPath());
+            }
+            catch (IOException ex)
+            {
+                log.warn(String.format("delete() : Could not delete journal entry '%s'", id), ex);
+            }
+        }
+        
+        private File getUploadFile()
+        {
+            return new File(dir, id + UPLOAD_SUFFIX);
+        }
+        
+        private File getPartsFile()
+        {
+            return new File(dir, id + PARTS_SUFFIX);
+        }
+    }
+}
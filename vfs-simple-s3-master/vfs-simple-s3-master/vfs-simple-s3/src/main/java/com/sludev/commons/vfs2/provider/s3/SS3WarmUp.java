@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens pooled connections ahead of the first real requests.
+ * 
+ * A cheap request, e.g. a bucket check, is sent on several threads at once.
+ * Since they all overlap, each needs a connection of its own, and the DNS
+ * lookups, TCP and TLS handshakes happen in parallel.  The connections then
+ * stay in the client's pool for the requests that follow.
+ * 
+ * @author Kervin Pierre
+ */
+public final class SS3WarmUp
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3WarmUp.class);
+    
+    private SS3WarmUp()
+    {
+    }
+    
+    /**
+     * Send a probe request on several connections at once.
+     * 
+     * @param name Prefix for the names of the threads created
+     * @param connections The number of connections to open
+     * @param timeout The longest to wait for the probes, in milliseconds
+     * @param virtualThreads Send the probes from virtual threads when the JVM supports it
+     * @param probe The request.  It should return normally once the server has
+     *        answered, even with an error response.
+     * @return The number of probes the server answered
+     */
+    public static int run(String name, int connections, long timeout, boolean virtualThreads,
+                          final Callable<?> probe)
+    {
+        if( connections <= 0 )
+        {
+            return 0;
+        }
+        
+        ExecutorService executor = SS3Executors.newExecutor(name, connections, virtualThreads);
+        try
+        {
+            // Hold the probes back until all are ready, so none can reuse another's connection
+            final CountDownLatch start = new CountDownLatch(1);
+            
+            List<Future<?>> probes = new ArrayList<>();
+            for( int i = 0; i < connections; i++ )
+            {
+                probes.add(executor.submit(() ->
+                    {
+                        start.await();
+                        
+                        return probe.call();
+                    }));
+            }
+            
+            start.countDown();
+            
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            int res = 0;
+            for( Future<?> currProbe : probes )
+            {
+                try
+                {
+                    currProbe.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    res++;
+                }
+                catch (ExecutionException ex)
+                {
+                    log.debug(String.format("run() : Warm-up request for '%s' failed", name), ex.getCause());
+                }
+                catch (TimeoutException ex)
+                {
+                    log.debug(String.format("run() : Warm-up request for '%s' timed out", name));
+                    currProbe.cancel(true);
+                }
+            }
+            
+            return res;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            
+            return 0;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
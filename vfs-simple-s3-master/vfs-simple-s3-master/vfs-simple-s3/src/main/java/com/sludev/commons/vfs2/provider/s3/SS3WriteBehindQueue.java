@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads finished local buffers in the background so <code>close()</code> on an
+ * output stream does not wait for Amazon S3.
+ * 
+ * The number of queued buffers is bounded.  When the queue is full the writer
+ * blocks until an upload finishes.  A buffer queued for a key that already has a
+ * buffer waiting replaces it, so only the latest content is sent.  Uploads for
+ * the same key never overlap, so the last write always wins.
+ * 
+ * @author Kervin Pierre
+ */
+public class SS3WriteBehindQueue
+{
+    private static final Logger log = LoggerFactory.getLogger(SS3WriteBehindQueue.class);
+    
+    private final ExecutorService executor;
+    private final Semaphore capacity;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private final Map<String, KeyState> keys = new HashMap<>();
+    private final List<Throwable> failures = new ArrayList<>();
+    
+    /**
+     * Creates a new queue.
+     * 
+     * @param executor The executor the uploads run on
+     * @param capacity The most buffers queued or uploading at once
+     */
+    public SS3WriteBehindQueue(ExecutorService executor, int capacity)
+    {
+        this.executor = executor;
+        this.capacity = new Semaphore(Math.max(1, capacity));
+    }
+    
+    /**
+     * Queue a local buffer for upload.  The queue takes ownership of the file and
+     * deletes it once it has been uploaded or replaced.  If the upload fails the
+     * file is kept and its path is given in the failure returned by
+     * <code>flush()</code>.
+     * 
+     * @param fileObject The File Object the buffer is uploaded to
+     * @param f The local buffer
+     * @throws InterruptedIOException if interrupted while waiting for space in the queue
+     */
+    public void enqueue(SS3FileObject fileObject, File f) throws InterruptedIOException
+    {
+        enqueue(fileObject, f, null);
+    }
+    
+    /**
+     * Queue a local buffer for upload with object metadata, e.g. a
+     * Content-Encoding.
+     * 
+     * @param fileObject The File Object the buffer is uploaded to
+     * @param f The local buffer
+     * @param metadata The metadata to upload with, may be null
+     * @throws InterruptedIOException if interrupted while waiting for space in the queue
+     */
+    public void enqueue(SS3FileObject fileObject, File f, ObjectMetadata metadata) throws InterruptedIOException
+    {
+        String key = fileObject.getName().getURI();
+        
+        try
+        {
+            capacity.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the write-behind queue");
+        }
+        
+        File replaced = null;
+        KeyState schedule = null;
+        
+        lock.lock();
+        try
+        {
+            KeyState state = keys.get(key);
+            if( state == null )
+            {
+                state = new KeyState(key);
+                keys.put(key, state);
+                schedule = state;
+            }
+            else if( state.pendingFile != null )
+            {
+                // Coalesce with the buffer that is still waiting
+                replaced = state.pendingFile;
+            }
+            
+            state.pendingFile = f;
+            state.pendingObject = fileObject;
+            state.pendingMetadata = metadata;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        if( replaced != null )
+        {
+            replaced.delete();
+            capacity.release();
+        }
+        
+        if( schedule != null )
+        {
+            submit(schedule);
+        }
+    }
+    
+    /**
+     * Wait until every queued buffer has been uploaded.
+     * 
+     * @return The failures since the last flush, empty if all uploads succeeded
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public List<Throwable> flush() throws InterruptedIOException
+    {
+        lock.lock();
+        try
+        {
+            while( keys.isEmpty() == false )
+            {
+                idle.await();
+            }
+            
+            List<Throwable> res = new ArrayList<>(failures);
+            failures.clear();
+            
+            return res;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the write-behind queue");
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    private void submit(final KeyState state)
+    {
+        try
+        {
+            executor.execute(() -> upload(state));
+        }
+        catch (RuntimeException ex)
+        {
+            // Rejected, e.g. the file-system is closing.  Upload on the caller.
+            log.warn(String.format("submit() : Upload of '%s' rejected, uploading in place", state.key), ex);
+            upload(state);
+        }
+    }
+    
+    private void upload(KeyState state)
+    {
+        File f;
+        SS3FileObject fileObject;
+        ObjectMetadata metadata;
+        
+        lock.lock();
+        try
+        {
+            f = state.pendingFile;
+            fileObject = state.pendingObject;
+            metadata = state.pendingMetadata;
+            state.pendingFile = null;
+            state.pendingObject = null;
+            state.pendingMetadata = null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        Throwable failure = null;
+        try
+        {
+            fileObject.putObject(f, metadata);
+        }
+        catch (RuntimeException | Error ex)
+        {
+            log.error(String.format("upload() : Write-behind upload of '%s' failed", state.key), ex);
+            failure = ex;
+            
+            if( ex instanceof Error )
+            {
+                throw (Error)ex;
+            }
+        }
+        finally
+        {
+            // Always clear the key's state, or flush() would wait forever
+            capacity.release();
+            if( finish(state, f, failure) )
+            {
+                submit(state);
+            }
+        }
+    }
+    
+    /**
+     * Record the outcome of an upload.  A buffer that failed to upload is kept
+     * on disk unless newer content for the key is already waiting.
+     * 
+     * @return True if the key was written again while uploading and must be
+     *         uploaded again
+     */
+    private boolean finish(KeyState state, File f, Throwable failure)
+    {
+        boolean again;
+        
+        // Deleted before the key is cleared, so flush() never returns with it on disk
+        if( failure == null )
+        {
+            f.delete();
+        }
+        
+        lock.lock();
+        try
+        {
+            // Written again while we were uploading
+            again = state.pendingFile != null;
+            
+            if( failure != null )
+            {
+                if( again )
+                {
+                    failures.add(failure);
+                    f.delete();
+                }
+                else
+                {
+                    failures.add(new IOException(String.format("Write-behind upload of '%s' failed, content kept in '%s'",
+                                                               state.key, f), failure));
+                }
+            }
+            
+            if( again == false )
+            {
+                keys.remove(state.key);
+                if( keys.isEmpty() )
+                {
+                    idle.signalAll();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        
+        if( failure != null && again == false )
+        {
+            log.warn(String.format("finish() : Kept the buffer for '%s' in '%s'", state.key, f));
+        }
+        
+        return again;
+    }
+    
+    /**
+     * The buffer waiting for a key.  A key has a state for as long as it has a
+     * buffer waiting or uploading.
+     */
+    private static final class KeyState
+    {
+        private final String key;
+        private File pendingFile;
+        private SS3FileObject pendingObject;
+        private ObjectMetadata pendingMetadata;
+        
+        KeyState(String key)
+        {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import com.sludev.commons.vfs2.provider.s3.SS3TestWatcher;
+import io.minio.ObjectStat;
+import okhttp3.Headers;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests how the composer splits sources into compose request pieces.  No
+ * server is needed.
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MinIOComposerTest
+{
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+
+    /**
+     * Sources of at least 5MB are composed as they are.  The last one may be
+     * smaller.
+     */
+    @Test
+    public void A001_largeSources()
+    {
+        List<MinIOComposer.Piece> res = plan(6 * MB, 7 * MB, 1 * MB);
+
+        Assert.assertEquals(3, res.size());
+        for( MinIOComposer.Piece currPiece : res )
+        {
+            Assert.assertFalse(currPiece.isStaged());
+            Assert.assertEquals(1, currPiece.getRanges().size());
+        }
+        checkPlan(res, 6 * MB, 7 * MB, 1 * MB);
+    }
+
+    /**
+     * A run of small sources is staged with the head of the next source, when
+     * the rest of it is large enough to stand on its own.
+     */
+    @Test
+    public void A002_smallRunTakesHead()
+    {
+        List<MinIOComposer.Piece> res = plan(1 * MB, 2 * MB, 10 * MB);
+
+        Assert.assertEquals(2, res.size());
+
+        MinIOComposer.Piece staged = res.get(0);
+        Assert.assertTrue(staged.isStaged());
+        Assert.assertEquals(MinIOComposer.MIN_PART_SIZE, staged.getLength());
+        Assert.assertEquals(3, staged.getRanges().size());
+        Assert.assertEquals(2 * MB, staged.getRanges().get(2).getLength());
+
+        MinIOComposer.Piece tail = res.get(1);
+        Assert.assertFalse(tail.isStaged());
+        Assert.assertEquals(2 * MB, tail.getRanges().get(0).getOffset());
+        Assert.assertEquals(8 * MB, tail.getLength());
+
+        checkPlan(res, 1 * MB, 2 * MB, 10 * MB);
+    }
+
+    /**
+     * When the rest of the next source would be too small, the whole source is
+     * staged instead.
+     */
+    @Test
+    public void A003_smallRunTakesWholeSource()
+    {
+        List<MinIOComposer.Piece> res = plan(1 * MB, 6 * MB, 7 * MB);
+
+        Assert.assertEquals(2, res.size());
+        Assert.assertTrue(res.get(0).isStaged());
+        Assert.assertEquals(7 * MB, res.get(0).getLength());
+        Assert.assertFalse(res.get(1).isStaged());
+
+        checkPlan(res, 1 * MB, 6 * MB, 7 * MB);
+    }
+
+    /**
+     * The last source can be split however small its rest is.
+     */
+    @Test
+    public void A004_smallRunBeforeLast()
+    {
+        List<MinIOComposer.Piece> res = plan(1 * MB, 6 * MB);
+
+        Assert.assertEquals(2, res.size());
+        Assert.assertTrue(res.get(0).isStaged());
+        Assert.assertEquals(MinIOComposer.MIN_PART_SIZE, res.get(0).getLength());
+        Assert.assertEquals(2 * MB, res.get(1).getLength());
+
+        checkPlan(res, 1 * MB, 6 * MB);
+    }
+
+    /**
+     * Only small sources are staged together as one piece.
+     */
+    @Test
+    public void A005_onlySmallSources()
+    {
+        List<MinIOComposer.Piece> res = plan(1 * MB, 2 * MB, 100);
+
+        Assert.assertEquals(1, res.size());
+        Assert.assertTrue(res.get(0).isStaged());
+
+        checkPlan(res, 1 * MB, 2 * MB, 100);
+    }
+
+    /**
+     * Empty sources are skipped.
+     */
+    @Test
+    public void A006_emptySources()
+    {
+        Assert.assertTrue(plan(0, 0).isEmpty());
+
+        List<MinIOComposer.Piece> res = plan(0, 6 * MB, 0, 1 * MB, 0);
+        Assert.assertEquals(2, res.size());
+        Assert.assertFalse(res.get(0).isStaged());
+        Assert.assertFalse(res.get(1).isStaged());
+
+        checkPlan(res, 0, 6 * MB, 0, 1 * MB, 0);
+    }
+
+    /**
+     * Random source sizes always give a valid compose request.
+     */
+    @Test
+    public void A007_randomSources()
+    {
+        Random random = new Random(42);
+        long[] choices = { 0, 1, 100, 1 * MB, 3 * MB, MinIOComposer.MIN_PART_SIZE - 1,
+                           MinIOComposer.MIN_PART_SIZE, MinIOComposer.MIN_PART_SIZE + 1, 7 * MB, 12 * MB };
+
+        for( int i = 0; i < 2000; i++ )
+        {
+            long[] sizes = new long[1 + random.nextInt(8)];
+            for( int j = 0; j < sizes.length; j++ )
+            {
+                sizes[j] = choices[random.nextInt(choices.length)];
+            }
+
+            checkPlan(plan(sizes), sizes);
+        }
+    }
+
+    /**
+     * Only the "x-amz-meta-" headers of an object are its user metadata.
+     */
+    @Test
+    public void A008_userMetadata()
+    {
+        ObjectStat stat = new ObjectStat("bucket", "key", Headers.of("Content-Length", "10",
+                "Last-Modified", "Sun, 06 Sep 2020 23:14:00 GMT", "ETag", "\"etag\"",
+                "Content-Type", "text/plain", "X-Amz-Meta-Owner", "owner1", "x-amz-meta-project", "project1"));
+
+        Map<String, String> res = MinIOComposer.getUserMetadata(stat);
+        Assert.assertEquals(2, res.size());
+        Assert.assertEquals("owner1", res.get("x-amz-meta-owner"));
+        Assert.assertEquals("project1", res.get("x-amz-meta-project"));
+    }
+
+    private static List<MinIOComposer.Piece> plan(long... sizes)
+    {
+        List<ObjectStat> stats = new ArrayList<>(sizes.length);
+        for( int i = 0; i < sizes.length; i++ )
+        {
+            stats.add(newStat("source" + i, sizes[i]));
+        }
+
+        return MinIOComposer.plan(stats);
+    }
+
+    /**
+     * Checks that every piece but the last is large enough, staged pieces stay
+     * under twice the minimum, and the pieces cover the sources in order.
+     */
+    private static void checkPlan(List<MinIOComposer.Piece> pieces, long... sizes)
+    {
+        String desc = Arrays.toString(sizes);
+
+        List<MinIOComposer.Range> ranges = new ArrayList<>();
+        for( int i = 0; i < pieces.size(); i++ )
+        {
+            MinIOComposer.Piece currPiece = pieces.get(i);
+
+            if( i < pieces.size() - 1 )
+            {
+                Assert.assertTrue(desc, currPiece.getLength() >= MinIOComposer.MIN_PART_SIZE);
+            }
+
+            if( currPiece.isStaged() )
+            {
+                Assert.assertTrue(desc, currPiece.getLength() < 2 * MinIOComposer.MIN_PART_SIZE);
+            }
+            else
+            {
+                Assert.assertEquals(desc, 1, currPiece.getRanges().size());
+            }
+
+            long length = 0;
+            for( MinIOComposer.Range currRange : currPiece.getRanges() )
+            {
+                length += currRange.getLength();
+            }
+            Assert.assertEquals(desc, currPiece.getLength(), length);
+
+            ranges.addAll(currPiece.getRanges());
+        }
+
+        // Each non-empty source is covered, in order, without gaps
+        int next = 0;
+        for( int i = 0; i < sizes.length; i++ )
+        {
+            if( sizes[i] == 0 )
+            {
+                continue;
+            }
+
+            long offset = 0;
+            while( offset < sizes[i] )
+            {
+                Assert.assertTrue(desc, next < ranges.size());
+
+                MinIOComposer.Range currRange = ranges.get(next++);
+                Assert.assertEquals(desc, "source" + i, currRange.getStat().name());
+                Assert.assertEquals(desc, offset, currRange.getOffset());
+                Assert.assertTrue(desc, currRange.getLength() > 0);
+
+                offset += currRange.getLength();
+            }
+            Assert.assertEquals(desc, sizes[i], offset);
+        }
+        Assert.assertEquals(desc, ranges.size(), next);
+    }
+
+    private static ObjectStat newStat(String name, long size)
+    {
+        return new ObjectStat("bucket", name, Headers.of(
+                "Content-Length", Long.toString(size),
+                "Last-Modified", "Sun, 06 Sep 2020 23:14:00 GMT",
+                "ETag", "\"" + name + "\""));
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import com.sludev.commons.vfs2.provider.s3.SS3TestWatcher;
+import io.minio.MinioClient;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests how the balancer picks endpoints, ejects failing ones and takes them
+ * back.  The clients are never used to make a request, so no server is needed.
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MinIOEndpointBalancerTest
+{
+    private static final String URL_A = "http://node-a:9000";
+    private static final String URL_B = "http://node-b:9000";
+
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+
+    private final MinioClient clientA = newClient(URL_A);
+    private final MinioClient clientB = newClient(URL_B);
+
+    /**
+     * An endpoint with a request outstanding is passed over for an idle one.
+     */
+    @Test
+    public void A001_leastOutstanding() throws Exception
+    {
+        final MinIOEndpointBalancer balancer = newBalancer(3, 60_000);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MinioClient[] busy = new MinioClient[1];
+        Thread holder = new Thread(() ->
+            {
+                try
+                {
+                    balancer.execute(c ->
+                        {
+                            busy[0] = c;
+                            started.countDown();
+                            release.await();
+
+                            return null;
+                        });
+                }
+                catch (Exception ex)
+                {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        holder.start();
+
+        try
+        {
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            for( int i = 0; i < 10; i++ )
+            {
+                Assert.assertNotSame(busy[0], balancer.execute(c -> c));
+            }
+        }
+        finally
+        {
+            release.countDown();
+            holder.join(5000);
+        }
+    }
+
+    /**
+     * Between idle endpoints the one with the lower latency is picked.
+     * Requests that are not latency samples do not make an endpoint look slow.
+     */
+    @Test
+    public void A002_lowestLatency() throws Exception
+    {
+        MinIOEndpointBalancer balancer = newBalancer(3, 60_000);
+
+        balancer.execute(clientA, true, c -> null);
+        balancer.execute(clientB, true, c -> sleep(30));
+
+        // A long transfer on A is not a latency sample
+        balancer.execute(clientA, false, c -> sleep(60));
+
+        for( int i = 0; i < 10; i++ )
+        {
+            Assert.assertSame(clientA, balancer.execute(c -> c));
+        }
+    }
+
+    /**
+     * An endpoint failing enough requests in a row is ejected, and requests go
+     * to the others.  Error responses and requests given up on do not count.
+     */
+    @Test
+    public void A003_eject() throws Exception
+    {
+        MinIOEndpointBalancer balancer = newBalancer(3, 60_000);
+
+        for( int i = 0; i < 5; i++ )
+        {
+            fail(balancer, clientA, new IllegalArgumentException("Not an endpoint failure"));
+        }
+
+        for( int i = 0; i < 5; i++ )
+        {
+            Thread.currentThread().interrupt();
+            fail(balancer, clientA, new InterruptedIOException("Given up on"));
+            Assert.assertTrue(Thread.interrupted());
+        }
+
+        Assert.assertEquals(Arrays.asList(URL_A, URL_B), balancer.getHealthyEndpoints());
+
+        fail(balancer, clientA, new IOException("Connection refused"));
+        fail(balancer, clientA, new IOException("Connection refused"));
+        Assert.assertEquals(Arrays.asList(URL_A, URL_B), balancer.getHealthyEndpoints());
+
+        fail(balancer, clientA, new IOException("Connection refused"));
+        Assert.assertEquals(Collections.singletonList(URL_B), balancer.getHealthyEndpoints());
+
+        for( int i = 0; i < 10; i++ )
+        {
+            Assert.assertSame(clientB, balancer.execute(c -> c));
+        }
+    }
+
+    /**
+     * A success in between resets the count of failures in a row.
+     */
+    @Test
+    public void A004_successResetsFailures() throws Exception
+    {
+        MinIOEndpointBalancer balancer = newBalancer(3, 60_000);
+
+        for( int i = 0; i < 5; i++ )
+        {
+            fail(balancer, clientA, new IOException("Connection reset"));
+            fail(balancer, clientA, new IOException("Connection reset"));
+            balancer.execute(clientA, true, c -> null);
+        }
+
+        Assert.assertEquals(Arrays.asList(URL_A, URL_B), balancer.getHealthyEndpoints());
+    }
+
+    /**
+     * An ejected endpoint is taken back once its ejection time is over.
+     */
+    @Test
+    public void A005_readmit() throws Exception
+    {
+        MinIOEndpointBalancer balancer = newBalancer(1, 100);
+
+        fail(balancer, clientA, new IOException("Connection refused"));
+        Assert.assertEquals(Collections.singletonList(URL_B), balancer.getHealthyEndpoints());
+
+        Thread.sleep(150);
+        Assert.assertEquals(Arrays.asList(URL_A, URL_B), balancer.getHealthyEndpoints());
+
+        // Failing again without a success in between is ejected for twice as long
+        fail(balancer, clientA, new IOException("Connection refused"));
+        Thread.sleep(120);
+        Assert.assertEquals(Collections.singletonList(URL_B), balancer.getHealthyEndpoints());
+
+        Thread.sleep(150);
+        Assert.assertEquals(Arrays.asList(URL_A, URL_B), balancer.getHealthyEndpoints());
+    }
+
+    /**
+     * With every endpoint ejected, requests go to the one due back soonest.
+     */
+    @Test
+    public void A006_allEjected() throws Exception
+    {
+        MinIOEndpointBalancer balancer = newBalancer(1, 60_000);
+
+        fail(balancer, clientB, new IOException("Connection refused"));
+        Thread.sleep(5);
+        fail(balancer, clientA, new IOException("Connection refused"));
+        Assert.assertTrue(balancer.getHealthyEndpoints().isEmpty());
+
+        for( int i = 0; i < 10; i++ )
+        {
+            Assert.assertSame(clientB, balancer.execute(c -> c));
+        }
+    }
+
+    /**
+     * A request can only be pinned to one of the balanced clients.
+     */
+    @Test
+    public void A007_unknownClient() throws Exception
+    {
+        MinIOEndpointBalancer balancer = newBalancer(3, 60_000);
+
+        try
+        {
+            balancer.execute(newClient("http://node-c:9000"), true, c -> c);
+            Assert.fail("The client is not balanced");
+        }
+        catch (IllegalArgumentException ex)
+        {
+        }
+    }
+
+    private MinIOEndpointBalancer newBalancer(int failureThreshold, long ejectionTime)
+    {
+        return new MinIOEndpointBalancer(Arrays.asList(URL_A, URL_B), Arrays.asList(clientA, clientB),
+                                         failureThreshold, ejectionTime);
+    }
+
+    private static MinioClient newClient(String url)
+    {
+        return MinioClient.builder().endpoint(url).credentials("access", "secret").build();
+    }
+
+    private static void fail(MinIOEndpointBalancer balancer, MinioClient client, Exception failure)
+    {
+        try
+        {
+            balancer.execute(client, true, c ->
+                {
+                    throw failure;
+                });
+            Assert.fail("The request should fail");
+        }
+        catch (Exception ex)
+        {
+            Assert.assertSame(failure, ex);
+        }
+    }
+
+    private static Object sleep(long millis) throws InterruptedException
+    {
+        Thread.sleep(millis);
+
+        return null;
+    }
+}
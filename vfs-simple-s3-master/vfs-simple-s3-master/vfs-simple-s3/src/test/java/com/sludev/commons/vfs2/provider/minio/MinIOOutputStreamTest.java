@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import com.sludev.commons.vfs2.provider.s3.SS3TestWatcher;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests the in-memory pipe between a streaming output stream and its upload.
+ * No server is needed.
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MinIOOutputStreamTest
+{
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+
+    /**
+     * Writes and reads that cross the end of the buffer wrap around to its
+     * start, in order.
+     */
+    @Test
+    public void A001_wraparound() throws IOException
+    {
+        MinIOOutputStream.Pipe pipe = new MinIOOutputStream.Pipe(10);
+        OutputStream out = pipe.getOutputStream();
+        InputStream in = pipe.getInputStream();
+
+        byte[] content = newContent(14);
+        out.write(content, 0, 8);
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 0, 6), readFully(in, 6));
+
+        // Two bytes fit before the end of the buffer, the rest wrap to the start
+        out.write(content, 8, 6);
+        Assert.assertEquals(8, in.available());
+
+        // A read stops at the end of the buffer, the next one continues at the start
+        byte[] b = new byte[8];
+        Assert.assertEquals(4, in.read(b, 0, 8));
+        Assert.assertEquals(4, in.read(b, 4, 4));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 6, 14), b);
+    }
+
+    /**
+     * A writer and a reader on their own threads move more than the capacity
+     * through the pipe, the writer blocking while it is full.
+     */
+    @Test
+    public void A002_concurrent() throws Exception
+    {
+        final MinIOOutputStream.Pipe pipe = new MinIOOutputStream.Pipe(10);
+        final byte[] content = newContent(10000);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() ->
+            {
+                try( OutputStream out = pipe.getOutputStream() )
+                {
+                    for( int off = 0; off < content.length; off += 7 )
+                    {
+                        out.write(content, off, Math.min(7, content.length - off));
+                    }
+                }
+                catch (IOException ex)
+                {
+                    failure.set(ex);
+                }
+            });
+        writer.start();
+
+        InputStream in = pipe.getInputStream();
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        byte[] b = new byte[3];
+        for( int n = in.read(b); n >= 0; n = in.read(b) )
+        {
+            res.write(b, 0, n);
+        }
+
+        writer.join(5000);
+        Assert.assertNull(failure.get());
+        Assert.assertArrayEquals(content, res.toByteArray());
+    }
+
+    /**
+     * Once the upload fails, writes throw its failure, including a write
+     * already blocked on a full pipe.
+     */
+    @Test
+    public void A003_writeAfterFailure() throws Exception
+    {
+        final MinIOOutputStream.Pipe pipe = new MinIOOutputStream.Pipe(10);
+        final OutputStream out = pipe.getOutputStream();
+        final AtomicReference<IOException> blockedFailure = new AtomicReference<>();
+
+        Thread writer = new Thread(() ->
+            {
+                try
+                {
+                    out.write(newContent(20));
+                }
+                catch (IOException ex)
+                {
+                    blockedFailure.set(ex);
+                }
+            });
+        writer.start();
+
+        // Wait for the writer to fill the pipe and block
+        long end = System.nanoTime() + 5_000_000_000L;
+        while( pipe.getInputStream().available() < 10 && System.nanoTime() < end )
+        {
+            Thread.sleep(5);
+        }
+        Thread.sleep(20);
+        Assert.assertTrue(writer.isAlive());
+
+        IOException uploadFailure = new IOException("Upload failed");
+        pipe.fail(uploadFailure);
+
+        writer.join(5000);
+        Assert.assertFalse(writer.isAlive());
+        Assert.assertNotNull(blockedFailure.get());
+        Assert.assertSame(uploadFailure, blockedFailure.get().getCause());
+
+        try
+        {
+            out.write(1);
+            Assert.fail("Write after the upload failed");
+        }
+        catch (IOException ex)
+        {
+            Assert.assertSame(uploadFailure, ex.getCause());
+        }
+    }
+
+    /**
+     * Closing the writing side lets the reader drain what is left, then reads
+     * end.  Writes after close fail.
+     */
+    @Test
+    public void A004_closeAndEof() throws IOException
+    {
+        MinIOOutputStream.Pipe pipe = new MinIOOutputStream.Pipe(10);
+        OutputStream out = pipe.getOutputStream();
+        InputStream in = pipe.getInputStream();
+
+        byte[] content = newContent(5);
+        out.write(content);
+        out.close();
+
+        Assert.assertArrayEquals(content, readFully(in, 5));
+        Assert.assertEquals(-1, in.read());
+        Assert.assertEquals(-1, in.read(new byte[4], 0, 4));
+        Assert.assertEquals(0, in.read(new byte[4], 0, 0));
+
+        try
+        {
+            out.write(1);
+            Assert.fail("Write after close");
+        }
+        catch (IOException ex)
+        {
+            Assert.assertNull(ex.getCause());
+        }
+    }
+
+    private static byte[] newContent(int size)
+    {
+        byte[] res = new byte[size];
+        for( int i = 0; i < size; i++ )
+        {
+            res[i] = (byte)(i * 31 + 7);
+        }
+
+        return res;
+    }
+
+    private static byte[] readFully(InputStream in, int len) throws IOException
+    {
+        byte[] res = new byte[len];
+
+        int pos = 0;
+        while( pos < len )
+        {
+            int n = in.read(res, pos, len - pos);
+            Assert.assertTrue(n > 0);
+            pos += n;
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.minio;
+
+import com.sludev.commons.vfs2.provider.s3.SS3TestWatcher;
+import io.minio.MinioClient;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.provider.GenericFileName;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the read window of MinIO random access content against a fake
+ * file-system.  No server is needed.
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MinIORandomAccessContentTest
+{
+    private static final int WINDOW = 100;
+    private static final String ETAG = "0123456789abcdef";
+
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+
+    /**
+     * Small reads are served from one window, fetched with a single request.
+     */
+    @Test
+    public void A001_smallReadsShareWindow() throws IOException
+    {
+        FakeFileSystem fs = new FakeFileSystem(newContent(1000));
+        MinIORandomAccessContent rac = newContent(fs, 1000);
+
+        byte[] b = new byte[10];
+        rac.readFully(b);
+        check(fs.content, 0, b);
+        rac.readFully(b);
+        check(fs.content, 10, b);
+        Assert.assertEquals(fs.content[20] & 0xff, rac.readUnsignedByte());
+
+        Assert.assertEquals(21, rac.getFilePointer());
+        Assert.assertEquals(Arrays.asList("0-100"), fs.requests);
+    }
+
+    /**
+     * Seeking makes no request.  A read inside the window is served from it,
+     * one outside fetches a new window at the position.
+     */
+    @Test
+    public void A002_seek() throws IOException
+    {
+        FakeFileSystem fs = new FakeFileSystem(newContent(1000));
+        MinIORandomAccessContent rac = newContent(fs, 1000);
+
+        rac.seek(700);
+        rac.seek(50);
+        Assert.assertTrue(fs.requests.isEmpty());
+
+        byte[] b = new byte[10];
+        rac.readFully(b);
+        check(fs.content, 50, b);
+
+        rac.seek(55);
+        rac.readFully(b);
+        check(fs.content, 55, b);
+
+        rac.seek(500);
+        rac.readFully(b);
+        check(fs.content, 500, b);
+
+        // Before the window
+        rac.seek(490);
+        rac.readFully(b);
+        check(fs.content, 490, b);
+
+        Assert.assertEquals(Arrays.asList("50-100", "500-100", "490-100"), fs.requests);
+    }
+
+    /**
+     * A read spanning the end of the window fetches the next window for the
+     * rest.
+     */
+    @Test
+    public void A003_readAcrossWindows() throws IOException
+    {
+        FakeFileSystem fs = new FakeFileSystem(newContent(1000));
+        MinIORandomAccessContent rac = newContent(fs, 1000);
+
+        rac.readFully(new byte[10]);
+
+        rac.seek(90);
+        byte[] b = new byte[20];
+        rac.readFully(b);
+        check(fs.content, 90, b);
+
+        Assert.assertEquals(Arrays.asList("0-100", "100-100"), fs.requests);
+    }
+
+    /**
+     * A read at least as large as the window is fetched straight into the
+     * caller's buffer, and leaves the window as it was.
+     */
+    @Test
+    public void A004_largeRead() throws IOException
+    {
+        FakeFileSystem fs = new FakeFileSystem(newContent(1000));
+        MinIORandomAccessContent rac = newContent(fs, 1000);
+
+        byte[] small = new byte[10];
+        rac.readFully(small);
+
+        byte[] b = new byte[300];
+        rac.readFully(b);
+        check(fs.content, 10, b);
+
+        rac.seek(20);
+        rac.readFully(small);
+        check(fs.content, 20, small);
+
+        Assert.assertEquals(Arrays.asList("0-100", "10-300"), fs.requests);
+    }
+
+    /**
+     * The last window is cut at the end of the object, and reading past the end
+     * fails without a request.
+     */
+    @Test
+    public void A005_end() throws IOException
+    {
+        FakeFileSystem fs = new FakeFileSystem(newContent(1000));
+        MinIORandomAccessContent rac = newContent(fs, 1000);
+
+        rac.seek(950);
+        byte[] b = new byte[50];
+        rac.readFully(b);
+        check(fs.content, 950, b);
+
+        try
+        {
+            rac.readByte();
+            Assert.fail("Read past the end");
+        }
+        catch (EOFException ex)
+        {
+        }
+
+        // Large reads are cut at the end too
+        rac.seek(600);
+        Assert.assertEquals(400, rac.getInputStream().read(new byte[500]));
+
+        Assert.assertEquals(Arrays.asList("950-50", "600-400"), fs.requests);
+    }
+
+    /**
+     * Every request is made on the ETag the content was opened with.
+     */
+    @Test
+    public void A006_etag() throws IOException
+    {
+        FakeFileSystem fs = new FakeFileSystem(newContent(1000));
+        MinIORandomAccessContent rac = newContent(fs, 1000);
+
+        rac.readFully(new byte[10]);
+        rac.readFully(new byte[300]);
+        rac.seek(800);
+        rac.readFully(new byte[10]);
+
+        Assert.assertEquals(3, fs.etags.size());
+        for( String currETag : fs.etags )
+        {
+            Assert.assertEquals(ETAG, currETag);
+        }
+    }
+
+    /**
+     * An object shorter than expected fails the read, and the failed window is
+     * not served afterwards.
+     */
+    @Test
+    public void A007_shortObject() throws IOException
+    {
+        FakeFileSystem fs = new FakeFileSystem(newContent(500));
+        MinIORandomAccessContent rac = newContent(fs, 1000);
+
+        rac.seek(450);
+        try
+        {
+            rac.readFully(new byte[10]);
+            Assert.fail("Object ended early");
+        }
+        catch (EOFException ex)
+        {
+        }
+
+        rac.seek(450);
+        try
+        {
+            rac.readFully(new byte[10]);
+            Assert.fail("Object ended early");
+        }
+        catch (EOFException ex)
+        {
+        }
+
+        Assert.assertEquals(Arrays.asList("450-100", "450-100"), fs.requests);
+    }
+
+    private static MinIORandomAccessContent newContent(FakeFileSystem fs, long length)
+    {
+        return new MinIORandomAccessContent(fs, "bucket", "key", ETAG, length, WINDOW, RandomAccessMode.READ);
+    }
+
+    private static byte[] newContent(int size)
+    {
+        byte[] res = new byte[size];
+        for( int i = 0; i < size; i++ )
+        {
+            res[i] = (byte)(i * 31 + 7);
+        }
+
+        return res;
+    }
+
+    private static void check(byte[] content, int offset, byte[] read)
+    {
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, offset, offset + read.length), read);
+    }
+
+    /**
+     * Serves ranged reads from memory, and records them.
+     */
+    private static final class FakeFileSystem extends MinIOFileSystem
+    {
+        private final byte[] content;
+        private final List<String> requests = new ArrayList<>();
+        private final List<String> etags = new ArrayList<>();
+
+        FakeFileSystem(byte[] content)
+        {
+            super(new GenericFileName("s3", "minio.example.com", 443, 443, null, null, "/",
+                                      FileType.FOLDER){}, (MinioClient)null, new FileSystemOptions());
+
+            this.content = content;
+        }
+
+        @Override
+        protected InputStream getObject(String bucket, String key, Long offset, Long length, long size,
+                                        String etag) throws IOException
+        {
+            requests.add(String.format("%d-%d", offset, length));
+            etags.add(etag);
+
+            int start = (int)Math.min(offset, content.length);
+
+            return new ByteArrayInputStream(content, start, (int)Math.min(length, content.length - start));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests encoding and decoding content with each codec in memory.  No server is
+ * needed.
+ * 
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SS3ContentCodecTest
+{
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+    
+    /**
+     * Content decodes to what was encoded, for every codec and size.
+     */
+    @Test
+    public void A001_roundTrip() throws IOException
+    {
+        for( SS3ContentCodec currCodec : SS3ContentCodec.values() )
+        {
+            for( int currSize : new int[] { 0, 1, 1000, 200 * 1024 } )
+            {
+                byte[] content = newContent(currSize);
+                byte[] encoded = encode(currCodec, content);
+                
+                Assert.assertArrayEquals(currCodec + " " + currSize, content, decode(currCodec, encoded));
+            }
+        }
+    }
+    
+    /**
+     * Compressible content is stored smaller than written, which is why the
+     * uncompressed length must be recorded.
+     */
+    @Test
+    public void A002_compresses() throws IOException
+    {
+        byte[] content = new byte[100 * 1024];
+        
+        Assert.assertEquals(content.length, encode(SS3ContentCodec.NONE, content).length);
+        Assert.assertTrue(encode(SS3ContentCodec.GZIP, content).length < content.length / 10);
+        Assert.assertTrue(encode(SS3ContentCodec.DEFLATE, content).length < content.length / 10);
+    }
+    
+    /**
+     * Codecs are found from Content-Encoding values.
+     */
+    @Test
+    public void A003_forContentEncoding()
+    {
+        Assert.assertEquals(SS3ContentCodec.GZIP, SS3ContentCodec.forContentEncoding("gzip"));
+        Assert.assertEquals(SS3ContentCodec.GZIP, SS3ContentCodec.forContentEncoding(" GZIP "));
+        Assert.assertEquals(SS3ContentCodec.DEFLATE, SS3ContentCodec.forContentEncoding("deflate"));
+        Assert.assertEquals(SS3ContentCodec.NONE, SS3ContentCodec.forContentEncoding(null));
+        Assert.assertEquals(SS3ContentCodec.NONE, SS3ContentCodec.forContentEncoding("br"));
+        
+        for( SS3ContentCodec currCodec : SS3ContentCodec.values() )
+        {
+            Assert.assertEquals(currCodec, SS3ContentCodec.forContentEncoding(currCodec.getContentEncoding()));
+        }
+    }
+    
+    /**
+     * The recorded uncompressed length is read back from user metadata.
+     */
+    @Test
+    public void A004_uncompressedLength()
+    {
+        ObjectMetadata metadata = new ObjectMetadata();
+        Assert.assertEquals(-1, SS3ContentCodec.getUncompressedLength(metadata));
+        
+        metadata.addUserMetadata(SS3ContentCodec.UNCOMPRESSED_LENGTH_METADATA, "12345");
+        Assert.assertEquals(12345, SS3ContentCodec.getUncompressedLength(metadata));
+        
+        metadata.addUserMetadata(SS3ContentCodec.UNCOMPRESSED_LENGTH_METADATA, "garbage");
+        Assert.assertEquals(-1, SS3ContentCodec.getUncompressedLength(metadata));
+    }
+    
+    private static byte[] encode(SS3ContentCodec codec, byte[] content) throws IOException
+    {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        try( OutputStream out = codec.encode(res) )
+        {
+            out.write(content);
+        }
+        
+        return res.toByteArray();
+    }
+    
+    private static byte[] decode(SS3ContentCodec codec, byte[] encoded) throws IOException
+    {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        try( InputStream in = codec.decode(new ByteArrayInputStream(encoded)) )
+        {
+            byte[] buffer = new byte[4096];
+            int n;
+            while( (n = in.read(buffer)) >= 0 )
+            {
+                res.write(buffer, 0, n);
+            }
+        }
+        
+        return res.toByteArray();
+    }
+    
+    private static byte[] newContent(int size)
+    {
+        // Half random, half repeated, so it compresses somewhat
+        byte[] res = new byte[size];
+        new Random(size).nextBytes(res);
+        for( int i = size / 2; i < size; i++ )
+        {
+            res[i] = (byte)(i % 7);
+        }
+        
+        return res;
+    }
+}
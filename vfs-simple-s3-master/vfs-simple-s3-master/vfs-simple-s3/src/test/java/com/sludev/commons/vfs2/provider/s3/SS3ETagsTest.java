@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.util.BinaryUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests computing and matching Amazon S3 style ETags of local files.  Small part
+ * sizes are used so multipart ETags can be checked on small files.  No server
+ * is needed.
+ * 
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SS3ETagsTest
+{
+    private static final int PART_SIZE = 1000;
+    
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+    
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+    
+    /**
+     * A single PUT ETag is the MD5 of the content.
+     */
+    @Test
+    public void A001_singlePartETag() throws Exception
+    {
+        File empty = newFile(new byte[0]);
+        Assert.assertEquals("d41d8cd98f00b204e9800998ecf8427e", SS3ETags.md5Hex(empty));
+        
+        File f = newFile("hello".getBytes("UTF-8"));
+        Assert.assertEquals("5d41402abc4b2a76b9719d911017c592", SS3ETags.md5Hex(f));
+        
+        Assert.assertTrue(SS3ETags.matches(f, "5d41402abc4b2a76b9719d911017c592", PART_SIZE));
+        Assert.assertTrue(SS3ETags.matches(f, "\"5D41402ABC4B2A76B9719D911017C592\"", PART_SIZE));
+        Assert.assertFalse(SS3ETags.matches(f, "d41d8cd98f00b204e9800998ecf8427e", PART_SIZE));
+    }
+    
+    /**
+     * A multipart ETag is the MD5 of the part MD5s and the part count, whether
+     * or not the file ends on a part boundary.
+     */
+    @Test
+    public void A002_multipartETag() throws Exception
+    {
+        for( int currSize : new int[] { 1, PART_SIZE - 1, PART_SIZE, PART_SIZE + 1, 3 * PART_SIZE,
+                                        3 * PART_SIZE + 17 } )
+        {
+            byte[] content = newContent(currSize);
+            File f = newFile(content);
+            
+            String expected = expectedMultipartETag(content, PART_SIZE);
+            
+            Assert.assertEquals(expected, SS3ETags.multipartETag(f, PART_SIZE));
+            Assert.assertTrue(SS3ETags.matches(f, '"' + expected + '"', PART_SIZE));
+        }
+    }
+    
+    /**
+     * An empty file uploaded as a multipart upload still has one part.
+     */
+    @Test
+    public void A003_emptyFileMultipartETag() throws Exception
+    {
+        File f = newFile(new byte[0]);
+        
+        Assert.assertEquals(expectedMultipartETag(new byte[0], PART_SIZE), SS3ETags.multipartETag(f, PART_SIZE));
+        Assert.assertTrue(SS3ETags.multipartETag(f, PART_SIZE).endsWith("-1"));
+    }
+    
+    /**
+     * A multipart ETag from another part size does not match, and changed
+     * content does not match.
+     */
+    @Test
+    public void A004_mismatch() throws Exception
+    {
+        byte[] content = newContent(3 * PART_SIZE + 17);
+        File f = newFile(content);
+        
+        String etag = expectedMultipartETag(content, 2 * PART_SIZE);
+        Assert.assertFalse("Different part count", SS3ETags.matches(f, etag, PART_SIZE));
+        Assert.assertTrue(SS3ETags.matches(f, etag, 2 * PART_SIZE));
+        
+        // Same part count, different part size
+        etag = expectedMultipartETag(content, PART_SIZE + 4);
+        Assert.assertTrue(etag.endsWith("-4"));
+        Assert.assertFalse(SS3ETags.matches(f, etag, PART_SIZE));
+        
+        byte[] changed = Arrays.copyOf(content, content.length);
+        changed[PART_SIZE + 5]++;
+        Assert.assertFalse(SS3ETags.matches(newFile(changed), expectedMultipartETag(content, PART_SIZE),
+                                            PART_SIZE));
+    }
+    
+    /**
+     * ETags that are blank or not understood never match.
+     */
+    @Test
+    public void A005_malformedETag() throws Exception
+    {
+        File f = newFile(newContent(10));
+        
+        Assert.assertFalse(SS3ETags.matches(f, null, PART_SIZE));
+        Assert.assertFalse(SS3ETags.matches(f, "\"\"", PART_SIZE));
+        Assert.assertFalse(SS3ETags.matches(f, "d41d8cd98f00b204e9800998ecf8427e-x", PART_SIZE));
+    }
+    
+    /**
+     * The multipart ETag worked out from the content in memory.
+     */
+    private static String expectedMultipartETag(byte[] content, int partSize) throws Exception
+    {
+        ByteArrayOutputStream partMd5s = new ByteArrayOutputStream();
+        int parts = 0;
+        
+        int offset = 0;
+        do
+        {
+            int length = Math.min(partSize, content.length - offset);
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(content, offset, length);
+            partMd5s.write(md5.digest());
+            
+            offset += length;
+            parts++;
+        }
+        while( offset < content.length );
+        
+        return String.format("%s-%d", BinaryUtils.toHex(MessageDigest.getInstance("MD5")
+                                                        .digest(partMd5s.toByteArray())), parts);
+    }
+    
+    private static byte[] newContent(int size)
+    {
+        byte[] res = new byte[size];
+        new Random(size).nextBytes(res);
+        
+        return res;
+    }
+    
+    private File newFile(byte[] content) throws IOException
+    {
+        File res = tempFolder.newFile();
+        Files.write(res.toPath(), content);
+        
+        return res;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the hedger with fake requests that block on latches, so each test
+ * decides when responses and first bytes arrive.  No server is needed.
+ * 
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SS3HedgerTest
+{
+    private static final long MIN_DELAY_MS = 20;
+    
+    /**
+     * Requests the hedger needs before it starts hedging.
+     */
+    private static final int WARM_UP = 32;
+    
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+    
+    private ExecutorService executor;
+    
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newCachedThreadPool();
+    }
+    
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * No request is hedged until enough samples set the delay.
+     */
+    @Test
+    public void A001_noHedgeWithoutSamples() throws Exception
+    {
+        SS3Hedger hedger = new SS3Hedger(executor, 50, MIN_DELAY_MS, 1);
+        Assert.assertEquals(-1, hedger.getDelay());
+        
+        final AtomicInteger attempts = new AtomicInteger();
+        Response res = hedger.execute(attempt ->
+            {
+                attempts.incrementAndGet();
+                Thread.sleep(3 * MIN_DELAY_MS);
+                
+                return new Response(attempt);
+            }, r -> r, Response::discard);
+        
+        Assert.assertEquals(0, res.attempt);
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertEquals(0, hedger.getHedgeCount());
+        
+        warmUp(hedger);
+        Assert.assertEquals("Fast samples give the minimum delay", MIN_DELAY_MS, hedger.getDelay());
+    }
+    
+    /**
+     * A request still waiting for its response when the hedge wins is
+     * interrupted.  There is no response to discard.
+     */
+    @Test
+    public void A002_abortBeforeResponse() throws Exception
+    {
+        SS3Hedger hedger = new SS3Hedger(executor, 50, MIN_DELAY_MS, 1);
+        warmUp(hedger);
+        
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicReference<Response> first = new AtomicReference<>();
+        Response res = hedger.execute(attempt ->
+            {
+                if( attempt == 0 )
+                {
+                    try
+                    {
+                        new CountDownLatch(1).await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted.countDown();
+                        throw ex;
+                    }
+                    
+                    first.set(new Response(attempt));
+                    return first.get();
+                }
+                
+                return new Response(attempt);
+            }, r -> r, Response::discard);
+        
+        Assert.assertEquals(1, res.attempt);
+        Assert.assertFalse(res.isDiscarded());
+        Assert.assertEquals(1, hedger.getHedgeCount());
+        
+        Assert.assertTrue("The losing request is interrupted", interrupted.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(first.get());
+    }
+    
+    /**
+     * A request whose response has arrived, but not its first byte, is
+     * discarded when the hedge wins.  That releases its wait for the first
+     * byte.
+     */
+    @Test
+    public void A003_abortDuringFirstByte() throws Exception
+    {
+        SS3Hedger hedger = new SS3Hedger(executor, 50, MIN_DELAY_MS, 1);
+        warmUp(hedger);
+        
+        final AtomicReference<Response> first = new AtomicReference<>();
+        final CountDownLatch firstByteDone = new CountDownLatch(1);
+        Response res = hedger.execute(attempt ->
+            {
+                Response currResponse = new Response(attempt);
+                if( attempt == 0 )
+                {
+                    first.set(currResponse);
+                }
+                
+                return currResponse;
+            },
+            r -> 
+            {
+                if( r.attempt == 0 )
+                {
+                    try
+                    {
+                        // Waits until the first byte arrives, or the response is discarded
+                        r.awaitDiscard();
+                        throw new IOException("Discarded while waiting for the first byte");
+                    }
+                    finally
+                    {
+                        firstByteDone.countDown();
+                    }
+                }
+                
+                return r;
+            }, Response::discard);
+        
+        Assert.assertEquals(1, res.attempt);
+        Assert.assertFalse(res.isDiscarded());
+        
+        Assert.assertTrue("The wait for the first byte ends", firstByteDone.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(first.get().isDiscarded());
+        Assert.assertEquals(1, first.get().discards.get());
+    }
+    
+    /**
+     * Once the caller gives up, a response arriving afterwards is discarded
+     * rather than leaked.
+     */
+    @Test
+    public void A004_cancelDiscardsLateResponse() throws Exception
+    {
+        final SS3Hedger hedger = new SS3Hedger(executor, 50, MIN_DELAY_MS, 1);
+        
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Response> late = new AtomicReference<>();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        
+        Thread caller = new Thread(() ->
+            {
+                try
+                {
+                    hedger.execute(attempt ->
+                        {
+                            started.countDown();
+                            
+                            // Ignores the interrupt, as a blocking socket read would
+                            while( true )
+                            {
+                                try
+                                {
+                                    release.await();
+                                    break;
+                                }
+                                catch (InterruptedException ex)
+                                {
+                                }
+                            }
+                            
+                            late.set(new Response(attempt));
+                            return late.get();
+                        }, r -> r, Response::discard);
+                }
+                catch (Exception ex)
+                {
+                    failure.set(ex);
+                }
+            });
+        caller.start();
+        
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        caller.interrupt();
+        caller.join(5000);
+        Assert.assertTrue(failure.get() instanceof InterruptedException);
+        
+        release.countDown();
+        
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while( (late.get() == null || late.get().isDiscarded() == false) && System.nanoTime() < end )
+        {
+            Thread.sleep(5);
+        }
+        
+        Assert.assertNotNull(late.get());
+        Assert.assertTrue("The late response is discarded", late.get().isDiscarded());
+    }
+    
+    /**
+     * Each request adds the budget to the credits, and each hedge takes a whole
+     * credit.  Without credits slow requests are not hedged.
+     */
+    @Test
+    public void A005_budget() throws Exception
+    {
+        SS3Hedger noBudget = new SS3Hedger(executor, 50, MIN_DELAY_MS, 0);
+        warmUp(noBudget);
+        
+        Assert.assertEquals(0, slow(noBudget).attempt);
+        Assert.assertEquals(0, noBudget.getHedgeCount());
+        
+        // The warm-up earns 32 * 0.05 = 1.6 credits, enough for one hedge only
+        SS3Hedger budget = new SS3Hedger(executor, 50, MIN_DELAY_MS, 0.05);
+        warmUp(budget);
+        
+        Assert.assertEquals(1, slow(budget).attempt);
+        Assert.assertEquals(0, slow(budget).attempt);
+        Assert.assertEquals(1, budget.getHedgeCount());
+        Assert.assertEquals(WARM_UP + 2, budget.getRequestCount());
+    }
+    
+    /**
+     * Run fast requests until the hedger has enough samples to hedge.
+     */
+    private static void warmUp(SS3Hedger hedger) throws Exception
+    {
+        for( int i = 0; i < WARM_UP; i++ )
+        {
+            hedger.execute(Response::new, r -> r, Response::discard);
+        }
+    }
+    
+    /**
+     * A request whose first attempt takes well over the hedge delay, and whose
+     * hedge answers straight away.
+     */
+    private static Response slow(SS3Hedger hedger) throws Exception
+    {
+        return hedger.execute(attempt ->
+            {
+                if( attempt == 0 )
+                {
+                    Thread.sleep(10 * MIN_DELAY_MS);
+                }
+                
+                return new Response(attempt);
+            }, r -> r, Response::discard);
+    }
+    
+    /**
+     * A fake response, recording whether it was discarded.
+     */
+    private static final class Response
+    {
+        private final int attempt;
+        private final AtomicInteger discards = new AtomicInteger();
+        private final CountDownLatch discarded = new CountDownLatch(1);
+        
+        Response(int attempt)
+        {
+            this.attempt = attempt;
+        }
+        
+        void discard()
+        {
+            discards.incrementAndGet();
+            discarded.countDown();
+        }
+        
+        boolean isDiscarded()
+        {
+            return discarded.getCount() == 0;
+        }
+        
+        void awaitDiscard() throws InterruptedException
+        {
+            discarded.await();
+        }
+    }
+}
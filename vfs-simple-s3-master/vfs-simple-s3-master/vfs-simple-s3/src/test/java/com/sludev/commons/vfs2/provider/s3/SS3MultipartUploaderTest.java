@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests choosing multipart upload part sizes.  No server is needed.
+ * 
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SS3MultipartUploaderTest
+{
+    private static final long MIB = 1024 * 1024;
+    
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+    
+    /**
+     * Small files use the configured part size.
+     */
+    @Test
+    public void A001_smallFileUsesMinPartSize()
+    {
+        Assert.assertEquals(8 * MIB, SS3MultipartUploader.getPartSize(100 * MIB, 8 * MIB));
+        Assert.assertEquals(8 * MIB, SS3MultipartUploader.getPartSize(0, 8 * MIB));
+    }
+    
+    /**
+     * Part sizes are never below the Amazon S3 minimum.
+     */
+    @Test
+    public void A002_partSizeAtLeastS3Minimum()
+    {
+        Assert.assertEquals(SS3MultipartUploader.MIN_PART_SIZE,
+                            SS3MultipartUploader.getPartSize(100 * MIB, 1024));
+    }
+    
+    /**
+     * Large files use parts big enough to stay under the part count limit,
+     * rounded up to a whole MiB.
+     */
+    @Test
+    public void A003_largeFileStaysUnderPartLimit()
+    {
+        long fileSize = 100L * 1024 * MIB;
+        long res = SS3MultipartUploader.getPartSize(fileSize, 8 * MIB);
+        
+        Assert.assertEquals(11 * MIB, res);
+        Assert.assertTrue((fileSize + res - 1) / res <= SS3MultipartUploader.MAX_PARTS);
+        
+        for( long currSize : new long[] { 80000 * MIB, 80000 * MIB + 1, 5L * 1024 * 1024 * MIB } )
+        {
+            res = SS3MultipartUploader.getPartSize(currSize, 5 * MIB);
+            
+            Assert.assertEquals(0, res % MIB);
+            Assert.assertTrue((currSize + res - 1) / res <= SS3MultipartUploader.MAX_PARTS);
+        }
+    }
+    
+    /**
+     * A configured part size too large for one array is reduced.
+     */
+    @Test
+    public void A004_partSizeCapped()
+    {
+        Assert.assertEquals(SS3MultipartUploader.MAX_PART_SIZE,
+                            SS3MultipartUploader.getPartSize(100 * MIB, 3L * 1024 * MIB));
+        Assert.assertTrue(SS3MultipartUploader.MAX_PART_SIZE <= Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Files that would need parts over the cap are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void A005_fileTooLarge()
+    {
+        SS3MultipartUploader.getPartSize(SS3MultipartUploader.MAX_PART_SIZE * SS3MultipartUploader.MAX_PARTS + 1,
+                                         8 * MIB);
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the publisher's demand and cancellation contract against in-memory
+ * sources.  Most tests drain on the calling thread so each step can be
+ * checked.  No server is needed.
+ * 
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SS3PublisherTest
+{
+    private static final Executor CALLER_RUNS = Runnable::run;
+    
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+    
+    /**
+     * Items are only read from the source as they are requested, and the
+     * source is opened on the first request.
+     */
+    @Test
+    public void A001_demand()
+    {
+        CountingSource source = new CountingSource(5);
+        SS3Publisher<Integer> publisher = new SS3Publisher<>(() -> source.open(), CALLER_RUNS);
+        
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        Assert.assertEquals("Not opened before a request", 0, source.opened.get());
+        
+        subscriber.subscription.request(2);
+        Assert.assertEquals(2, subscriber.items.size());
+        Assert.assertEquals(2, source.reads.get());
+        Assert.assertFalse(subscriber.completed);
+        
+        subscriber.subscription.request(10);
+        Assert.assertEquals(5, subscriber.items.size());
+        Assert.assertEquals(Integer.valueOf(4), subscriber.items.get(4));
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertNull(subscriber.error);
+        Assert.assertEquals(Boolean.TRUE, source.closed);
+        Assert.assertEquals(1, source.opened.get());
+    }
+    
+    /**
+     * Cancelling closes the source early and stops the items.
+     */
+    @Test
+    public void A002_cancel()
+    {
+        CountingSource source = new CountingSource(5);
+        SS3Publisher<Integer> publisher = new SS3Publisher<>(() -> source.open(), CALLER_RUNS);
+        
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        Assert.assertEquals(Boolean.FALSE, source.closed);
+        
+        subscriber.subscription.request(10);
+        Assert.assertEquals(1, subscriber.items.size());
+        Assert.assertEquals(1, source.reads.get());
+        Assert.assertFalse(subscriber.completed);
+        Assert.assertNull(subscriber.error);
+    }
+    
+    /**
+     * A non-positive request is an error, as the Reactive Streams rules
+     * require.
+     */
+    @Test
+    public void A003_invalidRequest()
+    {
+        CountingSource source = new CountingSource(5);
+        SS3Publisher<Integer> publisher = new SS3Publisher<>(() -> source.open(), CALLER_RUNS);
+        
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        
+        subscriber.subscription.request(1);
+        subscriber.subscription.request(0);
+        
+        Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+        Assert.assertEquals(Boolean.FALSE, source.closed);
+        
+        subscriber.subscription.request(1);
+        Assert.assertEquals("Nothing is signalled after an error", 1, subscriber.items.size());
+    }
+    
+    /**
+     * A failing source ends the subscription with its failure.
+     */
+    @Test
+    public void A004_sourceFailure()
+    {
+        CountingSource source = new CountingSource(5);
+        source.failAt = 2;
+        SS3Publisher<Integer> publisher = new SS3Publisher<>(() -> source.open(), CALLER_RUNS);
+        
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        
+        Assert.assertEquals(2, subscriber.items.size());
+        Assert.assertTrue(subscriber.error instanceof IOException);
+        Assert.assertFalse(subscriber.completed);
+        Assert.assertEquals(Boolean.FALSE, source.closed);
+    }
+    
+    /**
+     * A rejected drain is reported to the subscriber.
+     */
+    @Test
+    public void A005_rejected()
+    {
+        CountingSource source = new CountingSource(5);
+        SS3Publisher<Integer> publisher = new SS3Publisher<>(() -> source.open(), r ->
+            {
+                throw new RejectedExecutionException("Shut down");
+            });
+        
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        
+        Assert.assertTrue(subscriber.error instanceof RejectedExecutionException);
+        Assert.assertEquals(0, source.opened.get());
+    }
+    
+    /**
+     * Requesting from inside onNext does not recurse, and items stay in order.
+     */
+    @Test
+    public void A006_requestFromOnNext()
+    {
+        CountingSource source = new CountingSource(1000);
+        SS3Publisher<Integer> publisher = new SS3Publisher<>(() -> source.open(), CALLER_RUNS);
+        
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<Integer>()
+            {
+                @Override
+                public void onNext(Integer item)
+                {
+                    maxDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+                    super.onNext(item);
+                    subscription.request(1);
+                    depth.decrementAndGet();
+                }
+            };
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        
+        Assert.assertEquals(1000, subscriber.items.size());
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertEquals(1, maxDepth.get());
+        
+        for( int i = 0; i < 1000; i++ )
+        {
+            Assert.assertEquals(Integer.valueOf(i), subscriber.items.get(i));
+        }
+    }
+    
+    /**
+     * Each subscriber gets its own source, read on the executor.
+     */
+    @Test(timeout = 10000)
+    public void A007_coldPerSubscriber() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            final AtomicInteger opened = new AtomicInteger();
+            SS3Publisher<Integer> publisher = new SS3Publisher<>(() ->
+                {
+                    opened.incrementAndGet();
+                    return new CountingSource(3).open();
+                }, executor);
+            
+            RecordingSubscriber<Integer> subscriber1 = new RecordingSubscriber<>();
+            RecordingSubscriber<Integer> subscriber2 = new RecordingSubscriber<>();
+            publisher.subscribe(subscriber1);
+            publisher.subscribe(subscriber2);
+            subscriber1.subscription.request(Long.MAX_VALUE);
+            subscriber2.subscription.request(Long.MAX_VALUE);
+            
+            Assert.assertTrue(subscriber1.done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(subscriber2.done.await(5, TimeUnit.SECONDS));
+            
+            Assert.assertEquals(2, opened.get());
+            Assert.assertEquals(3, subscriber1.items.size());
+            Assert.assertEquals(3, subscriber2.items.size());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * A stream is published in chunks, closed once read and aborted when
+     * cancelled.
+     */
+    @Test
+    public void A008_inputStream()
+    {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final AtomicBoolean aborted = new AtomicBoolean();
+        SS3Publisher<ByteBuffer> publisher = SS3Publisher.ofInputStream(() -> new ByteArrayInputStream(new byte[10])
+            {
+                @Override
+                public void close()
+                {
+                    closed.set(true);
+                }
+            }, in -> aborted.set(true), 4, CALLER_RUNS);
+        
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        
+        Assert.assertEquals(3, subscriber.items.size());
+        Assert.assertEquals(4, subscriber.items.get(0).remaining());
+        Assert.assertEquals(2, subscriber.items.get(2).remaining());
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertTrue(closed.get());
+        Assert.assertFalse(aborted.get());
+        
+        closed.set(false);
+        subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        
+        Assert.assertTrue(aborted.get());
+        Assert.assertFalse(closed.get());
+    }
+    
+    /**
+     * Counts up from zero, recording how it is used.
+     */
+    private static final class CountingSource implements SS3Publisher.Source<Integer>
+    {
+        private final int count;
+        private final AtomicInteger opened = new AtomicInteger();
+        private final AtomicInteger reads = new AtomicInteger();
+        private volatile Boolean closed;
+        private int failAt = -1;
+        
+        CountingSource(int count)
+        {
+            this.count = count;
+        }
+        
+        CountingSource open()
+        {
+            opened.incrementAndGet();
+            
+            return this;
+        }
+        
+        @Override
+        public Integer next() throws IOException
+        {
+            int res = reads.getAndIncrement();
+            if( res == failAt )
+            {
+                throw new IOException("Read failed");
+            }
+            
+            return res < count ? res : null;
+        }
+        
+        @Override
+        public void close(boolean completed)
+        {
+            Assert.assertNull("Closed once", closed);
+            closed = completed;
+        }
+    }
+    
+    private static class RecordingSubscriber<T> implements Flow.Subscriber<T>
+    {
+        protected Flow.Subscription subscription;
+        private final List<T> items = new CopyOnWriteArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean completed;
+        private volatile Throwable error;
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+        
+        @Override
+        public void onNext(T item)
+        {
+            items.add(item);
+        }
+        
+        @Override
+        public void onError(Throwable throwable)
+        {
+            Assert.assertNull("At most one terminal signal", error);
+            error = throwable;
+            done.countDown();
+        }
+        
+        @Override
+        public void onComplete()
+        {
+            Assert.assertFalse("At most one terminal signal", completed);
+            completed = true;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the throttle's retries, backoff and rate adaptation with requests that
+ * fail on cue.  Backoff delays are kept to a few milliseconds.  No server is
+ * needed.
+ * 
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SS3ThrottleTest
+{
+    private static final String BUCKET = "bucket";
+    
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+    
+    /**
+     * Retryable failures are retried until the request succeeds.
+     */
+    @Test
+    public void A001_retryUntilSuccess() throws Exception
+    {
+        SS3Throttle throttle = new SS3Throttle(SS3Throttle.AWS_CLASSIFIER, 5, 1000, 1, 1, 5);
+        
+        final AtomicInteger calls = new AtomicInteger();
+        String res = throttle.execute(BUCKET, () ->
+            {
+                if( calls.incrementAndGet() < 3 )
+                {
+                    throw newServiceException(500, "InternalError");
+                }
+                
+                return "done";
+            });
+        
+        Assert.assertEquals("done", res);
+        Assert.assertEquals(3, calls.get());
+    }
+    
+    /**
+     * The last failure is thrown once the retries are used up.
+     */
+    @Test
+    public void A002_retriesExhausted() throws Exception
+    {
+        SS3Throttle throttle = new SS3Throttle(SS3Throttle.AWS_CLASSIFIER, 3, 1000, 1, 1, 5);
+        
+        final AtomicInteger calls = new AtomicInteger();
+        try
+        {
+            throttle.execute(BUCKET, () ->
+                {
+                    calls.incrementAndGet();
+                    throw newServiceException(500, "InternalError");
+                });
+            Assert.fail("The failure should be thrown");
+        }
+        catch (AmazonServiceException ex)
+        {
+            Assert.assertEquals(500, ex.getStatusCode());
+        }
+        
+        Assert.assertEquals(4, calls.get());
+    }
+    
+    /**
+     * Fatal failures are not retried.
+     */
+    @Test
+    public void A003_fatalNotRetried() throws Exception
+    {
+        SS3Throttle throttle = new SS3Throttle(SS3Throttle.AWS_CLASSIFIER, 5, 1000, 1, 1, 5);
+        
+        final AtomicInteger calls = new AtomicInteger();
+        try
+        {
+            throttle.execute(BUCKET, () ->
+                {
+                    calls.incrementAndGet();
+                    throw newServiceException(403, "AccessDenied");
+                });
+            Assert.fail("The failure should be thrown");
+        }
+        catch (AmazonServiceException ex)
+        {
+            Assert.assertEquals(403, ex.getStatusCode());
+        }
+        
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals("Fatal failures do not lower the limit", 1000, throttle.getRate(BUCKET), 0.001);
+    }
+    
+    /**
+     * Throttling halves the limit once per burst of errors, down to the minimum,
+     * and each success raises it by a small step, up to the maximum.
+     */
+    @Test
+    public void A004_rateAdaptation() throws Exception
+    {
+        SS3Throttle throttle = new SS3Throttle(SS3Throttle.AWS_CLASSIFIER, 0, 100, 30, 1, 5);
+        
+        throttleOnce(throttle);
+        Assert.assertEquals(50, throttle.getRate(BUCKET), 0.001);
+        
+        throttleOnce(throttle);
+        Assert.assertEquals("Errors right after a decrease are ignored", 50, throttle.getRate(BUCKET), 0.001);
+        
+        Assert.assertEquals("Other buckets are not affected", 100, throttle.getRate("other"), 0.001);
+        
+        throttle.execute(BUCKET, () -> "done");
+        Assert.assertEquals(50.5, throttle.getRate(BUCKET), 0.001);
+        
+        Thread.sleep(600);
+        throttleOnce(throttle);
+        Assert.assertEquals("The limit never goes under the minimum", 30, throttle.getRate(BUCKET), 0.001);
+        
+        throttle.execute("other", () -> "done");
+        Assert.assertEquals("The limit never goes over the maximum", 100, throttle.getRate("other"), 0.001);
+    }
+    
+    /**
+     * Requests beyond the first second's worth of tokens wait for the limit.
+     */
+    @Test
+    public void A005_rateLimited() throws Exception
+    {
+        SS3Throttle throttle = new SS3Throttle(SS3Throttle.AWS_CLASSIFIER, 0, 10, 1, 1, 5);
+        
+        long start = System.nanoTime();
+        for( int i = 0; i < 15; i++ )
+        {
+            throttle.acquire(BUCKET);
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        
+        Assert.assertTrue(String.format("15 requests at 10/s took %dms", elapsed), elapsed >= 400);
+    }
+    
+    /**
+     * Backoff is capped by the maximum delay.
+     */
+    @Test(timeout = 5000)
+    public void A006_backoffCapped() throws Exception
+    {
+        SS3Throttle throttle = new SS3Throttle(SS3Throttle.AWS_CLASSIFIER, 30, 100000, 1, 1, 10);
+        
+        final AtomicInteger calls = new AtomicInteger();
+        throttle.execute(BUCKET, () ->
+            {
+                if( calls.incrementAndGet() <= 30 )
+                {
+                    throw newServiceException(500, "InternalError");
+                }
+                
+                return null;
+            });
+        
+        Assert.assertEquals(31, calls.get());
+    }
+    
+    /**
+     * Status and error codes servers use for throttling.
+     */
+    @Test
+    public void A007_classify()
+    {
+        Assert.assertTrue(SS3Throttle.isThrottling(503, null));
+        Assert.assertTrue(SS3Throttle.isThrottling(429, null));
+        Assert.assertTrue(SS3Throttle.isThrottling(400, "SlowDown"));
+        Assert.assertFalse(SS3Throttle.isThrottling(500, "InternalError"));
+        
+        Assert.assertEquals(SS3Throttle.Outcome.THROTTLED,
+                            SS3Throttle.AWS_CLASSIFIER.classify(newServiceException(503, "SlowDown")));
+        Assert.assertEquals(SS3Throttle.Outcome.RETRYABLE,
+                            SS3Throttle.AWS_CLASSIFIER.classify(newServiceException(500, "InternalError")));
+        Assert.assertEquals(SS3Throttle.Outcome.FATAL,
+                            SS3Throttle.AWS_CLASSIFIER.classify(newServiceException(404, "NoSuchKey")));
+        Assert.assertEquals(SS3Throttle.Outcome.FATAL,
+                            SS3Throttle.AWS_CLASSIFIER.classify(new IOException("Not a client error")));
+    }
+    
+    /**
+     * Without a throttle requests run straight away, and checked failures are
+     * wrapped.
+     */
+    @Test
+    public void A008_executeAws()
+    {
+        Assert.assertEquals("done", SS3Throttle.executeAws(null, BUCKET, () -> "done"));
+        
+        try
+        {
+            SS3Throttle.executeAws(null, BUCKET, () ->
+                {
+                    throw new IOException("Failed");
+                });
+            Assert.fail("The failure should be thrown");
+        }
+        catch (AmazonClientException ex)
+        {
+            Assert.assertTrue(ex.getCause() instanceof IOException);
+        }
+        
+        try
+        {
+            SS3Throttle.executeAws(null, BUCKET, () ->
+                {
+                    throw new InterruptedException();
+                });
+            Assert.fail("The interrupt should be thrown");
+        }
+        catch (AmazonClientException ex)
+        {
+            Assert.assertTrue(ex.getCause() instanceof InterruptedException);
+            Assert.assertTrue("The interrupt flag is restored", Thread.interrupted());
+        }
+    }
+    
+    private static void throttleOnce(SS3Throttle throttle) throws Exception
+    {
+        try
+        {
+            throttle.execute(BUCKET, () ->
+                {
+                    throw newServiceException(503, "SlowDown");
+                });
+            Assert.fail("The failure should be thrown");
+        }
+        catch (AmazonServiceException ex)
+        {
+            Assert.assertEquals(503, ex.getStatusCode());
+        }
+    }
+    
+    private static AmazonServiceException newServiceException(int status, String errorCode)
+    {
+        AmazonServiceException res = new AmazonServiceException(errorCode);
+        res.setStatusCode(status);
+        res.setErrorCode(errorCode);
+        
+        return res;
+    }
+}
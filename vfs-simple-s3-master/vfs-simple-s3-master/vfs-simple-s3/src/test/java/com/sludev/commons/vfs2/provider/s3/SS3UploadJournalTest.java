@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.PartETag;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the upload journal against a local directory.  A crash is simulated by
+ * dropping the journal and opening a new one on the same directory.  No server
+ * is needed.
+ * 
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SS3UploadJournalTest
+{
+    private static final long PART_SIZE = 5L * 1024 * 1024;
+    
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+    
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+    
+    private File journalDir;
+    private File source;
+    
+    @Before
+    public void setUp() throws IOException
+    {
+        journalDir = tempFolder.newFolder("journal");
+        source = tempFolder.newFile("source.bin");
+        Files.write(source.toPath(), new byte[1024]);
+    }
+    
+    /**
+     * Parts recorded before a crash are found by a new journal on the same
+     * directory.
+     */
+    @Test
+    public void A001_resumeAfterCrash() throws IOException
+    {
+        SS3UploadJournal journal = new SS3UploadJournal(journalDir);
+        SS3UploadJournal.Entry entry = journal.create("bucket", "dir/file01.bin", source, PART_SIZE,
+                                                      "upload-1", "gzip");
+        entry.partCompleted(new PartETag(1, "etag-1"), 0);
+        entry.partCompleted(new PartETag(3, "etag-3"), 2 * PART_SIZE);
+        
+        // Crash, then start again
+        SS3UploadJournal resumed = new SS3UploadJournal(journalDir);
+        SS3UploadJournal.Entry res = resumed.find("bucket", "dir/file01.bin", source, PART_SIZE);
+        
+        Assert.assertNotNull(res);
+        Assert.assertEquals("upload-1", res.getUploadId());
+        Assert.assertEquals("bucket", res.getBucket());
+        Assert.assertEquals("dir/file01.bin", res.getKey());
+        Assert.assertEquals(source.getAbsoluteFile(), res.getSource());
+        Assert.assertEquals(PART_SIZE, res.getPartSize());
+        Assert.assertEquals("gzip", res.getContentEncoding());
+        
+        Map<Integer, PartETag> parts = res.getCompletedParts();
+        Assert.assertEquals(2, parts.size());
+        Assert.assertEquals("etag-1", parts.get(1).getETag());
+        Assert.assertEquals("etag-3", parts.get(3).getETag());
+        
+        Assert.assertEquals(1, resumed.list().size());
+    }
+    
+    /**
+     * A part record cut short by the crash, or at the wrong offset, is ignored.
+     */
+    @Test
+    public void A002_partialRecordIgnored() throws IOException
+    {
+        SS3UploadJournal journal = new SS3UploadJournal(journalDir);
+        SS3UploadJournal.Entry entry = journal.create("bucket", "file01.bin", source, PART_SIZE,
+                                                      "upload-1", null);
+        entry.partCompleted(new PartETag(1, "etag-1"), 0);
+        
+        File partsFile = getPartsFile();
+        Files.write(partsFile.toPath(), String.format("2 %d etag-2%n", 7 * PART_SIZE).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+        Files.write(partsFile.toPath(), "3 ".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        
+        SS3UploadJournal.Entry res = new SS3UploadJournal(journalDir).find("bucket", "file01.bin",
+                                                                           source, PART_SIZE);
+        
+        Assert.assertNotNull(res);
+        Assert.assertNull(res.getContentEncoding());
+        Assert.assertEquals(1, res.getCompletedParts().size());
+        Assert.assertTrue(res.getCompletedParts().containsKey(1));
+    }
+    
+    /**
+     * An upload is not resumed if its source changed or the part size differs.
+     */
+    @Test
+    public void A003_changedSourceNotResumed() throws IOException
+    {
+        SS3UploadJournal journal = new SS3UploadJournal(journalDir);
+        journal.create("bucket", "file01.bin", source, PART_SIZE, "upload-1", null);
+        
+        Assert.assertNull(journal.find("bucket", "file01.bin", source, 2 * PART_SIZE));
+        Assert.assertNull(journal.find("bucket", "file02.bin", source, PART_SIZE));
+        
+        Files.write(source.toPath(), new byte[2048]);
+        
+        Assert.assertNull(journal.find("bucket", "file01.bin", source, PART_SIZE));
+    }
+    
+    /**
+     * A completed upload leaves nothing behind.
+     */
+    @Test
+    public void A004_delete() throws IOException
+    {
+        SS3UploadJournal journal = new SS3UploadJournal(journalDir);
+        SS3UploadJournal.Entry entry = journal.create("bucket", "file01.bin", source, PART_SIZE,
+                                                      "upload-1", null);
+        entry.partCompleted(new PartETag(1, "etag-1"), 0);
+        entry.delete();
+        
+        Assert.assertTrue(journal.list().isEmpty());
+        Assert.assertNull(journal.find("bucket", "file01.bin", source, PART_SIZE));
+        Assert.assertNull(getPartsFile());
+    }
+    
+    /**
+     * Starting an upload over discards the parts of the previous one.
+     */
+    @Test
+    public void A005_createReplaces() throws IOException
+    {
+        SS3UploadJournal journal = new SS3UploadJournal(journalDir);
+        SS3UploadJournal.Entry entry = journal.create("bucket", "file01.bin", source, PART_SIZE,
+                                                      "upload-1", null);
+        entry.partCompleted(new PartETag(1, "etag-1"), 0);
+        
+        journal.create("bucket", "file01.bin", source, PART_SIZE, "upload-2", null);
+        
+        SS3UploadJournal.Entry res = journal.find("bucket", "file01.bin", source, PART_SIZE);
+        Assert.assertEquals("upload-2", res.getUploadId());
+        Assert.assertTrue(res.getCompletedParts().isEmpty());
+    }
+    
+    /**
+     * An unreadable entry is skipped rather than failing the listing.
+     */
+    @Test
+    public void A006_unreadableEntryIgnored() throws IOException
+    {
+        SS3UploadJournal journal = new SS3UploadJournal(journalDir);
+        journal.create("bucket", "file01.bin", source, PART_SIZE, "upload-1", null);
+        
+        Files.write(new File(journalDir, "broken.upload").toPath(),
+                    "uploadId=upload-2\n".getBytes(StandardCharsets.UTF_8));
+        
+        Assert.assertEquals(1, journal.list().size());
+    }
+    
+    /**
+     * Spool files are recognised by their directory.
+     */
+    @Test
+    public void A007_spoolFiles() throws IOException
+    {
+        SS3UploadJournal journal = new SS3UploadJournal(journalDir);
+        
+        Assert.assertTrue(journal.getSpoolDir().isDirectory());
+        Assert.assertTrue(journal.isSpoolFile(new File(journal.getSpoolDir(), "buffer.tmp")));
+        Assert.assertFalse(journal.isSpoolFile(source));
+    }
+    
+    private File getPartsFile()
+    {
+        File[] files = journalDir.listFiles((d, name) -> name.endsWith(".parts"));
+        
+        return files.length == 0 ? null : files[0];
+    }
+}
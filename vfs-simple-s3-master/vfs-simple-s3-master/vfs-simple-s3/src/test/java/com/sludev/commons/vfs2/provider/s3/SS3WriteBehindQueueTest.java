@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sludev.commons.vfs2.provider.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.provider.AbstractFileName;
+import org.apache.commons.vfs2.provider.GenericFileName;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the write-behind queue against file objects that record their uploads
+ * instead of sending them.  No server is needed.
+ * 
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SS3WriteBehindQueueTest
+{
+    @Rule
+    public TestWatcher testWatcher = new SS3TestWatcher();
+    
+    private ExecutorService executor;
+    private SS3FileSystem fileSystem;
+    private final List<File> buffers = new CopyOnWriteArrayList<>();
+    
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newFixedThreadPool(2);
+        fileSystem = new SS3FileSystem((GenericFileName)newName("/"), null, new FileSystemOptions());
+    }
+    
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        
+        for( File currFile : buffers )
+        {
+            currFile.delete();
+        }
+    }
+    
+    /**
+     * Buffers queued while an upload of the same key is in flight replace each
+     * other, so only the first and the latest content are sent.
+     */
+    @Test(timeout = 10000)
+    public void A001_coalesce() throws Exception
+    {
+        SS3WriteBehindQueue queue = new SS3WriteBehindQueue(executor, 8);
+        
+        final CountDownLatch uploading = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        RecordingFileObject fo = new RecordingFileObject("/bucket/file01.txt", fileSystem)
+            {
+                @Override
+                protected void upload(String content) throws InterruptedException
+                {
+                    uploading.countDown();
+                    proceed.await();
+                }
+            };
+        
+        queue.enqueue(fo, newBuffer("one"));
+        uploading.await();
+        
+        File two = newBuffer("two");
+        queue.enqueue(fo, two);
+        queue.enqueue(fo, newBuffer("three"));
+        
+        Assert.assertFalse("A replaced buffer is deleted", two.exists());
+        
+        proceed.countDown();
+        Assert.assertTrue(queue.flush().isEmpty());
+        
+        Assert.assertEquals(2, fo.uploaded.size());
+        Assert.assertEquals("one", fo.uploaded.get(0));
+        Assert.assertEquals("three", fo.uploaded.get(1));
+        
+        for( File currFile : buffers )
+        {
+            Assert.assertFalse("An uploaded buffer is deleted", currFile.exists());
+        }
+    }
+    
+    /**
+     * Uploads of different keys are independent.
+     */
+    @Test(timeout = 10000)
+    public void A002_separateKeys() throws Exception
+    {
+        SS3WriteBehindQueue queue = new SS3WriteBehindQueue(executor, 8);
+        
+        RecordingFileObject fo1 = new RecordingFileObject("/bucket/file01.txt", fileSystem);
+        RecordingFileObject fo2 = new RecordingFileObject("/bucket/file02.txt", fileSystem);
+        
+        queue.enqueue(fo1, newBuffer("one"));
+        queue.enqueue(fo2, newBuffer("two"));
+        
+        Assert.assertTrue(queue.flush().isEmpty());
+        
+        Assert.assertEquals(1, fo1.uploaded.size());
+        Assert.assertEquals("one", fo1.uploaded.get(0));
+        Assert.assertEquals(1, fo2.uploaded.size());
+        Assert.assertEquals("two", fo2.uploaded.get(0));
+    }
+    
+    /**
+     * A failed upload is reported by flush() and its buffer is kept.
+     */
+    @Test(timeout = 10000)
+    public void A003_failureKeepsBuffer() throws Exception
+    {
+        SS3WriteBehindQueue queue = new SS3WriteBehindQueue(executor, 8);
+        
+        RecordingFileObject fo = new RecordingFileObject("/bucket/file01.txt", fileSystem)
+            {
+                @Override
+                protected void upload(String content)
+                {
+                    throw new IllegalStateException("Upload failed");
+                }
+            };
+        
+        File f = newBuffer("one");
+        queue.enqueue(fo, f);
+        
+        List<Throwable> res = queue.flush();
+        Assert.assertEquals(1, res.size());
+        Assert.assertTrue(res.get(0) instanceof IOException);
+        Assert.assertTrue(res.get(0).getMessage().contains(f.toString()));
+        Assert.assertTrue(res.get(0).getCause() instanceof IllegalStateException);
+        Assert.assertTrue("A failed buffer is kept", f.exists());
+        
+        Assert.assertTrue("Failures are only reported once", queue.flush().isEmpty());
+    }
+    
+    /**
+     * An Error thrown by an upload does not leave flush() waiting.
+     */
+    @Test(timeout = 10000)
+    public void A004_errorDoesNotBlockFlush() throws Exception
+    {
+        SS3WriteBehindQueue queue = new SS3WriteBehindQueue(executor, 8);
+        
+        RecordingFileObject fo = new RecordingFileObject("/bucket/file01.txt", fileSystem)
+            {
+                @Override
+                protected void upload(String content)
+                {
+                    throw new AssertionError("Upload failed");
+                }
+            };
+        
+        queue.enqueue(fo, newBuffer("one"));
+        
+        List<Throwable> res = queue.flush();
+        Assert.assertEquals(1, res.size());
+        Assert.assertTrue(res.get(0).getCause() instanceof AssertionError);
+    }
+    
+    /**
+     * The number of buffers queued is bounded, so a full queue makes the writer
+     * wait for an upload to finish.
+     */
+    @Test(timeout = 10000)
+    public void A005_capacity() throws Exception
+    {
+        SS3WriteBehindQueue queue = new SS3WriteBehindQueue(executor, 1);
+        
+        final CountDownLatch proceed = new CountDownLatch(1);
+        RecordingFileObject fo1 = new RecordingFileObject("/bucket/file01.txt", fileSystem)
+            {
+                @Override
+                protected void upload(String content) throws InterruptedException
+                {
+                    proceed.await();
+                }
+            };
+        RecordingFileObject fo2 = new RecordingFileObject("/bucket/file02.txt", fileSystem);
+        
+        queue.enqueue(fo1, newBuffer("one"));
+        
+        final File two = newBuffer("two");
+        Thread writer = new Thread(() ->
+            {
+                try
+                {
+                    queue.enqueue(fo2, two);
+                }
+                catch (IOException ex)
+                {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        writer.start();
+        
+        writer.join(200);
+        Assert.assertTrue("The writer waits for space", writer.isAlive());
+        
+        proceed.countDown();
+        writer.join();
+        
+        Assert.assertTrue(queue.flush().isEmpty());
+        Assert.assertEquals(1, fo2.uploaded.size());
+    }
+    
+    private File newBuffer(String content) throws IOException
+    {
+        File res = File.createTempFile("writeBehind", ".tmp");
+        Files.write(res.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        buffers.add(res);
+        
+        return res;
+    }
+    
+    private static AbstractFileName newName(String path)
+    {
+        return new GenericFileName("s3", "s3.amazonaws.com", 443, 443, null, null, path,
+                                   path.equals("/") ? FileType.FOLDER : FileType.FILE)
+            {
+            };
+    }
+    
+    /**
+     * Records the content of each upload instead of sending it.
+     */
+    private static class RecordingFileObject extends SS3FileObject
+    {
+        private final List<String> uploaded = new CopyOnWriteArrayList<>();
+        
+        RecordingFileObject(String path, SS3FileSystem fileSystem)
+        {
+            super(newName(path), fileSystem);
+        }
+        
+        @Override
+        public void putObject(File f, ObjectMetadata metadata)
+        {
+            try
+            {
+                String content = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+                upload(content);
+                uploaded.add(content);
+            }
+            catch (IOException | InterruptedException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+        
+        /**
+         * Called with the content of each upload before it is recorded.
+         */
+        protected void upload(String content) throws InterruptedException
+        {
+        }
+    }
+}